@@ -0,0 +1,420 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * BTreeFile is a B+ tree index on one field of a table. Its leaves hold one
+ * entry per table tuple, the tuple's key and RecordId, in key order and
+ * linked left to right; its internal nodes hold separator entries that
+ * route a lookup to the leaf that holds a key. The pages are
+ * {@link BTreePage}s and are read and cached through the BufferPool like
+ * those of any other file, so a point lookup reads one page per level of
+ * the tree.
+ * <p>
+ * Page 0 is always the root. When the root splits, its entries move to two
+ * new pages and page 0 becomes an internal node above them, so the root
+ * never has to be found. Pages are not merged when entries are deleted;
+ * an emptied leaf stays in the chain and is skipped by scans.
+ * <p>
+ * Once the index is registered with {@link Catalog#addIndex}, the
+ * BufferPool passes every tuple inserted into or deleted from the table to
+ * insertTuple and deleteTuple, which add or remove its entry.
+ *
+ * @see IndexScan
+ */
+public class BTreeFile implements DbIndex, Closeable {
+
+    private final File file;
+    private final int tableId;
+    private final int keyField;
+    private final TupleDesc td;
+    final PageChannel channel;
+
+    /** Pages pinned by the insert or delete in progress; see getPage. */
+    private final ArrayList<PageId> pinned = new ArrayList<PageId>();
+
+    /**
+     * Constructs an index on a field of a table.
+     *
+     * @param f the file that stores the index
+     * @param table the table the index is built on
+     * @param keyField the index of the field the index is keyed on
+     */
+    public BTreeFile(File f, DbFile table, int keyField) {
+        this.file = f;
+        this.tableId = table.getId();
+        this.keyField = keyField;
+        TupleDesc tableTd = table.getTupleDesc();
+        this.td = new TupleDesc(new Type[] { tableTd.getFieldType(keyField) },
+                new String[] { tableTd.getFieldName(keyField) },
+                new int[] { tableTd.getFieldWidth(keyField) });
+        this.channel = new PageChannel(f);
+    }
+
+    /** @return the File backing this index on disk */
+    public File getFile() {
+        return file;
+    }
+
+    /** @return the channel used for all page I/O against this file */
+    public PageChannel getChannel() {
+        return channel;
+    }
+
+    /** Closes the file handle; it is reopened on the next page access. */
+    public void close() {
+        channel.close();
+    }
+
+    public int getId() {
+        return file.getAbsoluteFile().hashCode();
+    }
+
+    /** @return a schema with the key field only */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public int getTableId() {
+        return tableId;
+    }
+
+    public int getKeyField() {
+        return keyField;
+    }
+
+    /**
+     * Read the specified page from disk.
+     *
+     * @throws IllegalArgumentException if the page does not exist in this file.
+     */
+    public Page readPage(PageId pid) {
+        try {
+            byte[] data = channel.readPage(pid.pageNumber(), BufferPool.getPageSize());
+            if (data == null)
+                throw new IllegalArgumentException("page " + pid.pageNumber() + " does not exist in " + file);
+            return new BTreePage((HeapPageId) pid, data);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    public void writePage(Page page) throws IOException {
+        channel.writePage(page.getId().pageNumber(), page.getPageData());
+    }
+
+    /** @return the number of pages in this file */
+    public int numPages() {
+        try {
+            return (int) (channel.size() / BufferPool.getPageSize());
+        } catch (IOException e) {
+            e.printStackTrace();
+            return 0;
+        }
+    }
+
+    /**
+     * Fetches a page through the BufferPool. Pages fetched to be changed are
+     * pinned until the insert or delete in progress is done, so that the
+     * pool neither writes nor evicts them half changed.
+     */
+    private BTreePage getPage(TransactionId tid, int pageNo, Permissions perm)
+            throws DbException, TransactionAbortedException {
+        HeapPageId pid = new HeapPageId(getId(), pageNo);
+        if (perm == Permissions.READ_ONLY)
+            return (BTreePage) Database.getBufferPool().getPage(tid, pid, perm);
+        BTreePage page = (BTreePage) Database.getBufferPool().pinPage(tid, pid, perm);
+        pinned.add(pid);
+        return page;
+    }
+
+    /** Unpins the pages getPage pinned. */
+    private void unpinAll() {
+        for (PageId pid : pinned)
+            Database.getBufferPool().unpinPage(pid);
+        pinned.clear();
+    }
+
+    /** Extends the file by one empty page and returns it. */
+    private BTreePage newPage(TransactionId tid) throws DbException, IOException, TransactionAbortedException {
+        int pageNo = numPages();
+        channel.writePage(pageNo, BTreePage.createEmptyPageData());
+        return getPage(tid, pageNo, Permissions.READ_WRITE);
+    }
+
+    /** @return the root, creating an empty one if the file is empty */
+    private BTreePage getRoot(TransactionId tid, Permissions perm)
+            throws DbException, IOException, TransactionAbortedException {
+        if (numPages() == 0)
+            channel.writePage(0, BTreePage.createEmptyPageData());
+        return getPage(tid, 0, perm);
+    }
+
+    /** @return the entry for a table tuple */
+    private BTreePage.Entry entryFor(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || rid.getPageId().getTableId() != tableId)
+            throw new DbException("tuple is not stored in the indexed table");
+        return new BTreePage.Entry(t.getField(keyField), rid.getPageId().pageNumber(), rid.tupleno());
+    }
+
+    /**
+     * Adds the entry for a tuple of the indexed table, splitting pages on
+     * the way back up as needed.
+     *
+     * @param t a tuple of the indexed table, with its RecordId set
+     * @return the pages that were modified
+     */
+    public synchronized ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        try {
+            return insert(tid, t);
+        } finally {
+            unpinAll();
+        }
+    }
+
+    private ArrayList<Page> insert(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        BTreePage.Entry e = entryFor(t);
+        ArrayList<Page> dirtied = new ArrayList<Page>();
+        ArrayList<BTreePage> path = new ArrayList<BTreePage>();
+        BTreePage page = getRoot(tid, Permissions.READ_WRITE);
+        while (!page.isLeaf()) {
+            path.add(page);
+            page = getPage(tid, page.children.get(page.childIndex(e)), Permissions.READ_WRITE);
+        }
+
+        int pos = page.lowerBound(e);
+        if (pos < page.entries.size() && page.entries.get(pos).compareTo(e) == 0)
+            throw new DbException("tuple is already in the index");
+        page.entries.add(pos, e);
+        dirty(tid, page, dirtied);
+        if (page.entries.size() > BTreePage.getMaxLeafEntries(td))
+            split(tid, page, path, dirtied);
+        return dirtied;
+    }
+
+    /** Marks a page dirty and records it for the caller. */
+    private void dirty(TransactionId tid, BTreePage page, ArrayList<Page> dirtied) {
+        page.markDirty(true, tid);
+        dirtied.add(page);
+    }
+
+    /**
+     * Splits an overfull page in two and adds the separator between the
+     * halves to its parent, the last page of path, splitting that in turn
+     * if it overflows.
+     */
+    private void split(TransactionId tid, BTreePage page, ArrayList<BTreePage> path, ArrayList<Page> dirtied)
+            throws DbException, IOException, TransactionAbortedException {
+        int max = page.isLeaf() ? BTreePage.getMaxLeafEntries(td) : BTreePage.getMaxInternalEntries(td);
+        if (page.entries.size() <= max)
+            return;
+
+        if (path.isEmpty()) {
+            // the root moves down into two new pages
+            BTreePage left = newPage(tid);
+            BTreePage right = newPage(tid);
+            BTreePage.Entry sep = divide(page, left, right);
+            page.leaf = false;
+            page.entries.clear();
+            page.children.clear();
+            page.entries.add(sep);
+            page.children.add(left.getId().pageNumber());
+            page.children.add(right.getId().pageNumber());
+            dirty(tid, left, dirtied);
+            dirty(tid, right, dirtied);
+            dirty(tid, page, dirtied);
+            return;
+        }
+
+        BTreePage right = newPage(tid);
+        BTreePage.Entry sep = divide(page, page, right);
+        dirty(tid, page, dirtied);
+        dirty(tid, right, dirtied);
+
+        BTreePage parent = path.remove(path.size() - 1);
+        int pos = parent.lowerBound(sep);
+        parent.entries.add(pos, sep);
+        parent.children.add(pos + 1, right.getId().pageNumber());
+        dirty(tid, parent, dirtied);
+        split(tid, parent, path, dirtied);
+    }
+
+    /**
+     * Moves the lower half of page into left and the upper half into right
+     * (left may be page itself).
+     *
+     * @return the separator for the parent: the first entry of right for a
+     *   leaf, or the middle entry, which moves up, for an internal node
+     */
+    private BTreePage.Entry divide(BTreePage page, BTreePage left, BTreePage right) {
+        ArrayList<BTreePage.Entry> entries = new ArrayList<BTreePage.Entry>(page.entries);
+        ArrayList<Integer> children = new ArrayList<Integer>(page.children);
+        int mid = entries.size() / 2;
+        BTreePage.Entry sep = entries.get(mid);
+
+        left.leaf = right.leaf = page.isLeaf();
+        left.entries.clear();
+        left.children.clear();
+        right.entries.clear();
+        right.children.clear();
+        if (page.isLeaf()) {
+            left.entries.addAll(entries.subList(0, mid));
+            right.entries.addAll(entries.subList(mid, entries.size()));
+            right.link = page.link;
+            left.link = right.getId().pageNumber();
+        } else {
+            left.entries.addAll(entries.subList(0, mid));
+            left.children.addAll(children.subList(0, mid + 1));
+            right.entries.addAll(entries.subList(mid + 1, entries.size()));
+            right.children.addAll(children.subList(mid + 1, children.size()));
+        }
+        return sep;
+    }
+
+    /**
+     * Removes the entry for a tuple of the indexed table.
+     *
+     * @param t a tuple of the indexed table, with its RecordId set
+     * @throws DbException if the tuple has no entry in the index
+     */
+    public synchronized ArrayList<Page> deleteTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        try {
+            return delete(tid, t);
+        } finally {
+            unpinAll();
+        }
+    }
+
+    private ArrayList<Page> delete(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        BTreePage.Entry e = entryFor(t);
+        BTreePage page = getRoot(tid, Permissions.READ_WRITE);
+        while (!page.isLeaf())
+            page = getPage(tid, page.children.get(page.childIndex(e)), Permissions.READ_WRITE);
+
+        int pos = page.lowerBound(e);
+        if (pos == page.entries.size() || page.entries.get(pos).compareTo(e) != 0)
+            throw new DbException("tuple is not in the index");
+        page.entries.remove(pos);
+        ArrayList<Page> dirtied = new ArrayList<Page>();
+        dirty(tid, page, dirtied);
+        return dirtied;
+    }
+
+    /** @return an iterator over all entries in key order */
+    public DbFileIterator iterator(TransactionId tid) {
+        return new BTreeIterator(tid, null);
+    }
+
+    /**
+     * EQUALS and the range comparisons start at the leaf that holds the
+     * operand and stop as soon as the keys pass it. indexIterator also
+     * answers NOT_EQUALS and LIKE, but by reading every leaf.
+     */
+    public boolean supports(Predicate.Op op) {
+        return op != Predicate.Op.NOT_EQUALS && op != Predicate.Op.LIKE;
+    }
+
+    public DbFileIterator indexIterator(TransactionId tid, IndexPredicate ipred) {
+        return new BTreeIterator(tid, ipred);
+    }
+
+    /**
+     * Walks the leaf chain from the first leaf that may hold a matching key,
+     * decoding the matching entries of one leaf at a time.
+     */
+    private class BTreeIterator implements DbFileIterator {
+        private final TransactionId tid;
+        private final IndexPredicate ipred;
+        private Iterator<Tuple> it;
+        private int next;
+        private boolean done;
+
+        BTreeIterator(TransactionId tid, IndexPredicate ipred) {
+            this.tid = tid;
+            this.ipred = ipred;
+        }
+
+        /** @return the page number of the leaf the scan starts at */
+        private int firstLeaf() throws DbException, TransactionAbortedException {
+            if (numPages() == 0)
+                return -1;
+            Predicate.Op op = ipred == null ? null : ipred.getOp();
+            boolean seek = op == Predicate.Op.EQUALS || op == Predicate.Op.GREATER_THAN
+                    || op == Predicate.Op.GREATER_THAN_OR_EQ;
+            BTreePage.Entry low = seek
+                    ? new BTreePage.Entry(ipred.getField(), Integer.MIN_VALUE, Integer.MIN_VALUE) : null;
+            BTreePage page = getPage(tid, 0, Permissions.READ_ONLY);
+            while (!page.isLeaf())
+                page = getPage(tid, page.children.get(seek ? page.childIndex(low) : 0), Permissions.READ_ONLY);
+            return page.getId().pageNumber();
+        }
+
+        /** Decodes the matching entries of a leaf and notes its successor. */
+        private Iterator<Tuple> readLeaf(int pageNo) throws DbException, TransactionAbortedException {
+            BTreePage page = getPage(tid, pageNo, Permissions.READ_ONLY);
+            Predicate.Op op = ipred == null ? null : ipred.getOp();
+            boolean bounded = op == Predicate.Op.EQUALS || op == Predicate.Op.LESS_THAN
+                    || op == Predicate.Op.LESS_THAN_OR_EQ;
+            ArrayList<Tuple> out = new ArrayList<Tuple>();
+            for (BTreePage.Entry e : page.entries) {
+                if (ipred == null || ipred.matches(e.key)) {
+                    Tuple t = new Tuple(td);
+                    t.setField(0, e.key);
+                    t.setRecordId(new RecordId(new HeapPageId(tableId, e.pageNo), e.slot));
+                    out.add(t);
+                } else if (bounded && BTreePage.compareKeys(e.key, ipred.getField()) > 0) {
+                    done = true;
+                    break;
+                }
+            }
+            next = page.link;
+            if (next == 0)
+                done = true;
+            return out.iterator();
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            done = false;
+            int first = firstLeaf();
+            if (first < 0) {
+                done = true;
+                it = Collections.<Tuple>emptyList().iterator();
+            } else {
+                it = readLeaf(first);
+            }
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            if (it == null)
+                return false;
+            while (!it.hasNext()) {
+                if (done)
+                    return false;
+                it = readLeaf(next);
+            }
+            return true;
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            return it.next();
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        public void close() {
+            it = null;
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * BTreePage is one node of a {@link BTreeFile}, either a leaf or an internal
+ * node. Layout, with every number a 4-byte big-endian int:
+ * <pre>
+ *   type (1 byte) | count | link | entries ...
+ * </pre>
+ * A leaf entry is a key followed by the page number and slot of the table
+ * tuple it points to; link is the page number of the next leaf, or 0 for
+ * the last leaf (page 0 is always the root, never a sibling). An
+ * internal entry is a separator of the same form followed by the page
+ * number of the child to its right; link is the leftmost child. Keys take
+ * their fixed serialized size, as in HeapPage.
+ * <p>
+ * The entries of a page are decoded when it is read and encoded again by
+ * getPageData. An all-zero page is an empty leaf.
+ *
+ * @see BTreeFile
+ */
+public class BTreePage implements Page {
+
+    static final byte LEAF = 0;
+    static final byte INTERNAL = 1;
+
+    /** Bytes taken by type, count and link. */
+    static final int HEADER_SIZE = 9;
+
+    /**
+     * An index entry: a key and the location of the tuple it came from.
+     * Entries are ordered by key, then by location, so that duplicate keys
+     * still have distinct entries.
+     */
+    static class Entry implements Comparable<Entry> {
+        final Field key;
+        final int pageNo;
+        final int slot;
+
+        Entry(Field key, int pageNo, int slot) {
+            this.key = key;
+            this.pageNo = pageNo;
+            this.slot = slot;
+        }
+
+        public int compareTo(Entry o) {
+            int c = compareKeys(key, o.key);
+            if (c != 0)
+                return c;
+            if (pageNo != o.pageNo)
+                return pageNo < o.pageNo ? -1 : 1;
+            if (slot != o.slot)
+                return slot < o.slot ? -1 : 1;
+            return 0;
+        }
+    }
+
+    /** Orders two keys with Field.compare. */
+    static int compareKeys(Field a, Field b) {
+        if (a.compare(Predicate.Op.LESS_THAN, b))
+            return -1;
+        return a.compare(Predicate.Op.EQUALS, b) ? 0 : 1;
+    }
+
+    final HeapPageId pid;
+    final TupleDesc td;
+    private byte[] oldData;
+
+    boolean leaf;
+    int link;
+    final ArrayList<Entry> entries = new ArrayList<Entry>();
+    /** Child page numbers of an internal node, one more than entries. */
+    final ArrayList<Integer> children = new ArrayList<Integer>();
+
+    private boolean dirtyPage;
+    private TransactionId dirty_causing_tid;
+
+    /**
+     * Creates a BTreePage from a page image read from disk.
+     */
+    public BTreePage(HeapPageId id, byte[] data) {
+        this.pid = id;
+        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        Type type = td.getFieldType(0);
+        int width = td.getFieldWidth(0);
+        int keySize = td.getFieldSize(0);
+
+        leaf = data[0] == LEAF;
+        int count = Type.readInt(data, 1);
+        link = Type.readInt(data, 5);
+        if (!leaf)
+            children.add(link);
+        int off = HEADER_SIZE;
+        for (int i = 0; i < count; i++) {
+            Field key = type.decode(data, off, width);
+            entries.add(new Entry(key, Type.readInt(data, off + keySize), Type.readInt(data, off + keySize + 4)));
+            off += keySize + 8;
+            if (!leaf) {
+                children.add(Type.readInt(data, off));
+                off += 4;
+            }
+        }
+        oldData = data.clone();
+    }
+
+    /**
+     * @return an image of an empty leaf
+     */
+    public static byte[] createEmptyPageData() {
+        return new byte[BufferPool.getPageSize()];
+    }
+
+    /** @return the number of entries that fit on a leaf */
+    static int getMaxLeafEntries(TupleDesc td) {
+        return (BufferPool.getPageSize() - HEADER_SIZE) / (td.getFieldSize(0) + 8);
+    }
+
+    /** @return the number of separators that fit on an internal node */
+    static int getMaxInternalEntries(TupleDesc td) {
+        return (BufferPool.getPageSize() - HEADER_SIZE) / (td.getFieldSize(0) + 12);
+    }
+
+    public HeapPageId getId() {
+        return pid;
+    }
+
+    /** @return true if this page is a leaf */
+    public boolean isLeaf() {
+        return leaf;
+    }
+
+    /** @return the number of entries on this page */
+    public int getNumEntries() {
+        return entries.size();
+    }
+
+    /**
+     * @return the position of the first entry that is not less than e, or
+     *   entries.size() if there is none
+     */
+    int lowerBound(Entry e) {
+        int lo = 0, hi = entries.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (entries.get(mid).compareTo(e) < 0)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    /** @return the position in children of the subtree that holds e */
+    int childIndex(Entry e) {
+        int i = lowerBound(e);
+        if (i < entries.size() && entries.get(i).compareTo(e) == 0)
+            i++;
+        return i;
+    }
+
+    public byte[] getPageData() {
+        int size = BufferPool.getPageSize();
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(size);
+        DataOutputStream dos = new DataOutputStream(baos);
+        int width = td.getFieldWidth(0);
+        try {
+            dos.writeByte(leaf ? LEAF : INTERNAL);
+            dos.writeInt(entries.size());
+            dos.writeInt(leaf ? link : children.get(0));
+            for (int i = 0; i < entries.size(); i++) {
+                Entry e = entries.get(i);
+                if (e.key instanceof StringField)
+                    ((StringField) e.key).serialize(dos, width);
+                else
+                    e.key.serialize(dos);
+                dos.writeInt(e.pageNo);
+                dos.writeInt(e.slot);
+                if (!leaf)
+                    dos.writeInt(children.get(i + 1));
+            }
+            dos.flush();
+        } catch (IOException e) {
+            // writes to a byte array do not fail
+            throw new RuntimeException(e);
+        }
+        return Arrays.copyOf(baos.toByteArray(), size);
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        dirtyPage = dirty;
+        dirty_causing_tid = tid;
+    }
+
+    public TransactionId isDirty() {
+        return dirtyPage ? dirty_causing_tid : null;
+    }
+
+    public BTreePage getBeforeImage() {
+        return new BTreePage(pid, oldData);
+    }
+
+    public void setBeforeImage() {
+        oldData = getPageData();
+    }
+}
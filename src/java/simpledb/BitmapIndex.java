@@ -0,0 +1,290 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * BitmapIndex indexes a low-cardinality field of a {@link HeapFile} with one
+ * {@link CompressedBitmap} per distinct value. Bit
+ * <code>pageNo * slotsPerPage + slot</code> of a value's bitmap is set if
+ * the tuple in that slot has the value, so the bitmaps of several
+ * predicates can be combined with word-level AND and OR before any table
+ * page is read; {@link BitmapScan} then reads only the pages and slots that
+ * are left.
+ * <p>
+ * The bitmaps are small and are kept in memory rather than in BufferPool
+ * pages. They are loaded from the index file on first use and written back
+ * by {@link #save}, which {@link BufferPool#flushAllPages} and
+ * {@link #close} call when the index has changed. Once registered with
+ * {@link Catalog#addIndex} the index is kept up to date by the BufferPool
+ * like other indexes.
+ */
+public class BitmapIndex implements DbIndex, Closeable {
+
+    private final File file;
+    private final int tableId;
+    private final int keyField;
+    private final TupleDesc tableTd;
+    private final TupleDesc td;
+    final PageChannel channel;
+
+    private LinkedHashMap<Field, CompressedBitmap> bitmaps;
+    private boolean dirty;
+
+    /**
+     * Constructs a bitmap index on a field of a table.
+     *
+     * @param f the file that stores the index
+     * @param table the table the index is built on
+     * @param keyField the index of the field the index is keyed on
+     * @throws IllegalArgumentException if the table is not a HeapFile
+     */
+    public BitmapIndex(File f, DbFile table, int keyField) {
+        if (!(table instanceof HeapFile))
+            throw new IllegalArgumentException("bitmap indexes need a HeapFile");
+        this.file = f;
+        this.tableId = table.getId();
+        this.keyField = keyField;
+        this.tableTd = table.getTupleDesc();
+        this.td = new TupleDesc(new Type[] { tableTd.getFieldType(keyField) },
+                new String[] { tableTd.getFieldName(keyField) },
+                new int[] { tableTd.getFieldWidth(keyField) });
+        this.channel = new PageChannel(f);
+    }
+
+    /** @return the File backing this index on disk */
+    public File getFile() {
+        return file;
+    }
+
+    public int getId() {
+        return file.getAbsoluteFile().hashCode();
+    }
+
+    /** @return a schema with the key field only */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public int getTableId() {
+        return tableId;
+    }
+
+    public int getKeyField() {
+        return keyField;
+    }
+
+    /** @return the number of tuple slots on each page of the table */
+    int slotsPerPage() {
+        return HeapPage.getNumTuples(tableTd);
+    }
+
+    /** @return the bit that stands for the tuple with the given RecordId */
+    private long bit(RecordId rid) {
+        return (long) rid.getPageId().pageNumber() * slotsPerPage() + rid.tupleno();
+    }
+
+    /** @return the RecordId that bit stands for */
+    RecordId recordId(long bit) {
+        int slots = slotsPerPage();
+        return new RecordId(new HeapPageId(tableId, (int) (bit / slots)), (int) (bit % slots));
+    }
+
+    /** Loads the bitmaps on first use. */
+    private void load() throws IOException {
+        if (bitmaps != null)
+            return;
+        bitmaps = new LinkedHashMap<Field, CompressedBitmap>();
+        long size = channel.size();
+        if (size == 0)
+            return;
+        byte[] raw = new byte[(int) size];
+        channel.read(0, raw);
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(raw));
+        int count = dis.readInt();
+        try {
+            for (int i = 0; i < count; i++) {
+                Field key = td.getFieldType(0).parse(dis, td.getFieldWidth(0));
+                bitmaps.put(key, CompressedBitmap.parse(dis));
+            }
+        } catch (java.text.ParseException e) {
+            throw new IOException("corrupt bitmap index " + file + ": " + e.getMessage());
+        }
+    }
+
+    /** @return the bitmaps by value, loading them if needed */
+    private Map<Field, CompressedBitmap> bitmaps() throws DbException {
+        try {
+            load();
+        } catch (IOException e) {
+            throw new DbException("cannot read bitmap index " + file + ": " + e.getMessage());
+        }
+        return bitmaps;
+    }
+
+    /** Writes the bitmaps to the index file if they have changed. */
+    public synchronized void save() throws IOException {
+        if (!dirty)
+            return;
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(baos);
+        dos.writeInt(bitmaps.size());
+        for (Map.Entry<Field, CompressedBitmap> e : bitmaps.entrySet()) {
+            if (e.getKey() instanceof StringField)
+                ((StringField) e.getKey()).serialize(dos, td.getFieldWidth(0));
+            else
+                e.getKey().serialize(dos);
+            e.getValue().serialize(dos);
+        }
+        dos.flush();
+        byte[] image = baos.toByteArray();
+        channel.write(0, image);
+        channel.truncate(image.length);
+        dirty = false;
+    }
+
+    /** Saves the index and closes the file handle. */
+    public void close() {
+        try {
+            save();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        channel.close();
+    }
+
+    /** @return the distinct values of the indexed field */
+    public synchronized Set<Field> getValues() throws DbException {
+        return new HashSet<Field>(bitmaps().keySet());
+    }
+
+    /**
+     * @return the bits of the tuples whose key satisfies ipred: the OR of
+     *   the bitmaps of the matching values
+     */
+    public synchronized CompressedBitmap bitmap(IndexPredicate ipred) throws DbException {
+        CompressedBitmap out = new CompressedBitmap();
+        for (Map.Entry<Field, CompressedBitmap> e : bitmaps().entrySet())
+            if (ipred.matches(e.getKey()))
+                out = out.or(e.getValue());
+        return out;
+    }
+
+    /**
+     * Sets the bit of a tuple of the indexed table in the bitmap of its key.
+     *
+     * @param t a tuple of the indexed table, with its RecordId set
+     * @return an empty list; the bitmaps are not kept in pages
+     */
+    public synchronized ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || rid.getPageId().getTableId() != tableId)
+            throw new DbException("tuple is not stored in the indexed table");
+        Field key = t.getField(keyField);
+        CompressedBitmap b = bitmaps().get(key);
+        if (b == null) {
+            b = new CompressedBitmap();
+            bitmaps.put(key, b);
+        }
+        b.add(bit(rid));
+        dirty = true;
+        return new ArrayList<Page>();
+    }
+
+    /**
+     * Clears the bit of a tuple of the indexed table.
+     *
+     * @param t a tuple of the indexed table, with its RecordId set
+     * @return an empty list; the bitmaps are not kept in pages
+     */
+    public synchronized ArrayList<Page> deleteTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || rid.getPageId().getTableId() != tableId)
+            throw new DbException("tuple is not stored in the indexed table");
+        Field key = t.getField(keyField);
+        CompressedBitmap b = bitmaps().get(key);
+        if (b == null)
+            throw new DbException("tuple is not in the index");
+        b.remove(bit(rid));
+        if (b.isEmpty())
+            bitmaps.remove(key);
+        dirty = true;
+        return new ArrayList<Page>();
+    }
+
+    /** Bitmaps are not kept in pages. */
+    public Page readPage(PageId pid) {
+        throw new UnsupportedOperationException("bitmap indexes have no pages");
+    }
+
+    /** Bitmaps are not kept in pages. */
+    public void writePage(Page p) throws IOException {
+        throw new UnsupportedOperationException("bitmap indexes have no pages");
+    }
+
+    /** Any comparison is answered from the distinct values alone. */
+    public boolean supports(Predicate.Op op) {
+        return true;
+    }
+
+    public DbFileIterator indexIterator(TransactionId tid, IndexPredicate ipred) {
+        return new BitmapIterator(ipred);
+    }
+
+    public DbFileIterator iterator(TransactionId tid) {
+        return new BitmapIterator(null);
+    }
+
+    /** Lists the entries of each matching value in turn. */
+    private class BitmapIterator extends AbstractDbFileIterator {
+        private final IndexPredicate ipred;
+        private Iterator<Map.Entry<Field, CompressedBitmap>> values;
+        private Field key;
+        private CompressedBitmap.BitIterator bits;
+
+        BitmapIterator(IndexPredicate ipred) {
+            this.ipred = ipred;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            synchronized (BitmapIndex.this) {
+                ArrayList<Map.Entry<Field, CompressedBitmap>> matching = new ArrayList<Map.Entry<Field, CompressedBitmap>>();
+                for (Map.Entry<Field, CompressedBitmap> e : bitmaps().entrySet())
+                    if (ipred == null || ipred.matches(e.getKey()))
+                        matching.add(new AbstractMap.SimpleEntry<Field, CompressedBitmap>(e.getKey(),
+                                new CompressedBitmap().or(e.getValue())));
+                values = matching.iterator();
+            }
+            bits = null;
+        }
+
+        protected Tuple readNext() throws DbException, TransactionAbortedException {
+            if (values == null)
+                return null;
+            while (bits == null || !bits.hasNext()) {
+                if (!values.hasNext())
+                    return null;
+                Map.Entry<Field, CompressedBitmap> e = values.next();
+                key = e.getKey();
+                bits = e.getValue().iterator();
+            }
+            Tuple t = new Tuple(td);
+            t.setField(0, key);
+            t.setRecordId(recordId(bits.next()));
+            return t;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        public void close() {
+            super.close();
+            values = null;
+            bits = null;
+        }
+    }
+}
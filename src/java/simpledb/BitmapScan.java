@@ -0,0 +1,111 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * BitmapScan returns the tuples of a HeapFile that satisfy a conjunction of
+ * predicates on fields with {@link BitmapIndex}es. The bitmaps of the
+ * values each predicate accepts are ORed, the results of the predicates are
+ * ANDed, and only then are table pages read: each page with a bit left in
+ * the result is read once, in page order, and only the slots whose bits are
+ * set are returned.
+ */
+public class BitmapScan extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final TransactionId tid;
+    private final BitmapIndex[] indexes;
+    private final IndexPredicate[] preds;
+    private final String tableAlias;
+    private final int tableId;
+
+    private CompressedBitmap.BitIterator bits;
+    private HeapPage page;
+
+    /**
+     * Creates a scan of the tuples that satisfy every predicate.
+     *
+     * @param tid the transaction this scan is running as a part of
+     * @param indexes bitmap indexes on fields of one table
+     * @param preds the predicate to apply to the key of each index
+     * @param tableAlias the alias of the table; the returned TupleDesc has
+     *   fields named tableAlias.fieldName, as in SeqScan
+     * @throws IllegalArgumentException if the indexes are not all on the
+     *   same table, or there are none
+     */
+    public BitmapScan(TransactionId tid, BitmapIndex[] indexes, IndexPredicate[] preds, String tableAlias) {
+        if (indexes.length == 0 || indexes.length != preds.length)
+            throw new IllegalArgumentException("need one predicate per index");
+        for (BitmapIndex index : indexes)
+            if (index.getTableId() != indexes[0].getTableId())
+                throw new IllegalArgumentException("indexes are on different tables");
+        this.tid = tid;
+        this.indexes = indexes.clone();
+        this.preds = preds.clone();
+        this.tableAlias = tableAlias;
+        this.tableId = indexes[0].getTableId();
+    }
+
+    /** @return the alias of the table this operator scans */
+    public String getAlias() {
+        return tableAlias;
+    }
+
+    public TupleDesc getTupleDesc() {
+        TupleDesc td = Database.getCatalog().getTupleDesc(tableId);
+        String[] names = new String[td.numFields()];
+        Type[] types = new Type[td.numFields()];
+        int[] widths = new int[td.numFields()];
+        for (int i = 0; i < td.numFields(); i++) {
+            names[i] = tableAlias + "." + td.getFieldName(i);
+            types[i] = td.getFieldType(i);
+            widths[i] = td.getFieldWidth(i);
+        }
+        return new TupleDesc(types, names, widths);
+    }
+
+    /** @return the bits of the tuples that satisfy every predicate */
+    CompressedBitmap qualifying() throws DbException {
+        CompressedBitmap result = indexes[0].bitmap(preds[0]);
+        for (int i = 1; i < indexes.length && !result.isEmpty(); i++)
+            result = result.and(indexes[i].bitmap(preds[i]));
+        return result;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        bits = qualifying().iterator();
+        page = null;
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        bits = null;
+        page = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        bits = qualifying().iterator();
+        page = null;
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        while (bits.hasNext()) {
+            RecordId rid = indexes[0].recordId(bits.next());
+            if (page == null || !page.getId().equals(rid.getPageId()))
+                page = (HeapPage) Database.getBufferPool().getPage(tid, rid.getPageId(), Permissions.READ_ONLY);
+            Tuple t = page.getTuple(rid.tupleno());
+            if (t != null)
+                return t;
+        }
+        return null;
+    }
+
+    public DbIterator[] getChildren() {
+        return new DbIterator[0];
+    }
+
+    public void setChildren(DbIterator[] children) {
+    }
+}
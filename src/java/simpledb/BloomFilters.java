@@ -0,0 +1,293 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * BloomFilters keeps a Bloom filter of the values on each page of a
+ * HeapFile, for a chosen set of fields. A scan with an equality predicate
+ * on one of those fields asks {@link #mayMatch} before reading a page and
+ * skips the page if its filter rules the value out, so a selective point
+ * lookup on a field with no index reads only the few pages that may hold
+ * the value.
+ * <p>
+ * Each filter has {@link #BITS_PER_KEY} bits per tuple slot and is probed
+ * with {@link #HASHES} hash functions, for a false positive rate of about
+ * one percent on a full page. The filters are stored next to the heap file,
+ * in <code>file.bloom</code>, and held in memory once loaded.
+ * <ul>
+ * <li>Inserts add their values to the page's filter as they happen.</li>
+ * <li>Deletes leave the filter too full, which is safe, and mark it to be
+ * rebuilt from the page the next time the page is written.</li>
+ * <li>Pages with no filter, such as those written by
+ * {@link HeapFileEncoder}, are never skipped, and get a filter when they
+ * are next written or read by a scan, or by {@link #build}.</li>
+ * </ul>
+ * Changed filters are written to disk by {@link #save}, which the
+ * BufferPool calls whenever it flushes a page of the file.
+ */
+public class BloomFilters {
+
+    public static final int BITS_PER_KEY = 10;
+    public static final int HASHES = 7;
+
+    private static final byte NONE = 0, VALID = 1, STALE = 2;
+
+    private final HeapFile file;
+    private final int[] columns;
+    private final PageChannel channel;
+    /** Bits in the filter of one field on one page; a multiple of 64. */
+    private final int bits;
+    private final int headerSize;
+    private final int entrySize;
+
+    private boolean loaded;
+    private byte[] state = new byte[0];
+    /** The filters of each page, one after another in column order. */
+    private long[][] words = new long[0][];
+    private final BitSet unsaved = new BitSet();
+
+    /**
+     * @param file the heap file whose pages are filtered
+     * @param columns the indexes of the fields to keep filters for
+     */
+    public BloomFilters(HeapFile file, int[] columns) {
+        this.file = file;
+        this.columns = columns.clone();
+        this.channel = new PageChannel(fileFor(file.getFile()));
+        int slots = HeapPage.getNumTuples(file.getTupleDesc());
+        this.bits = (slots * BITS_PER_KEY + 63) / 64 * 64;
+        this.headerSize = 4 * (2 + columns.length);
+        this.entrySize = 1 + columns.length * bits / 8;
+    }
+
+    /** @return the file that holds the Bloom filters of heap file f */
+    public static File fileFor(File f) {
+        return new File(f.getPath() + ".bloom");
+    }
+
+    /** @return the indexes of the fields that have filters */
+    public int[] getColumns() {
+        return columns.clone();
+    }
+
+    /** Closes the file handle; it is reopened on next use. */
+    public void close() {
+        channel.close();
+    }
+
+    /** @return the header that identifies the layout of the filter file */
+    private byte[] header() throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(headerSize);
+        DataOutputStream dos = new DataOutputStream(baos);
+        dos.writeInt(bits);
+        dos.writeInt(columns.length);
+        for (int c : columns)
+            dos.writeInt(c);
+        dos.flush();
+        return baos.toByteArray();
+    }
+
+    /**
+     * Reads the stored filters on first use. A file written for other
+     * fields or another page layout is ignored and overwritten.
+     */
+    private void load() throws IOException {
+        if (loaded)
+            return;
+        loaded = true;
+        if (!channel.getFile().exists() || channel.size() < headerSize)
+            return;
+        byte[] head = new byte[headerSize];
+        channel.read(0, head);
+        if (!Arrays.equals(head, header())) {
+            channel.truncate(0);
+            return;
+        }
+        int n = (int) ((channel.size() - headerSize) / entrySize);
+        byte[] raw = new byte[n * entrySize];
+        channel.read(headerSize, raw);
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(raw));
+        ensureCapacity(n);
+        for (int p = 0; p < n; p++) {
+            state[p] = dis.readByte();
+            words[p] = new long[columns.length * bits / 64];
+            for (int w = 0; w < words[p].length; w++)
+                words[p][w] = dis.readLong();
+        }
+    }
+
+    private void loadOrFail() throws DbException {
+        try {
+            load();
+        } catch (IOException e) {
+            throw new DbException("cannot read Bloom filters " + channel.getFile() + ": " + e.getMessage());
+        }
+    }
+
+    private void ensureCapacity(int n) {
+        if (state.length < n) {
+            int cap = Math.max(n, state.length * 2);
+            state = Arrays.copyOf(state, cap);
+            words = Arrays.copyOf(words, cap);
+        }
+    }
+
+    /** @return the hash of a value, spread over 64 bits */
+    private static long hash(Field value) {
+        long h = value.hashCode() * 0x9E3779B97F4A7C15L;
+        h ^= h >>> 32;
+        h *= 0xC2B2AE3D27D4EB4FL;
+        h ^= h >>> 29;
+        return h;
+    }
+
+    /** Sets the bits of a value in the filter of column ci of a page. */
+    private void set(long[] w, int ci, Field value) {
+        long h = hash(value);
+        int h1 = (int) h, h2 = (int) (h >>> 32) | 1;
+        for (int i = 0; i < HASHES; i++) {
+            int bit = ci * bits + ((h1 + i * h2) & Integer.MAX_VALUE) % bits;
+            w[bit >>> 6] |= 1L << bit;
+        }
+    }
+
+    /** @return true if every bit of a value is set in column ci's filter */
+    private boolean test(long[] w, int ci, Field value) {
+        long h = hash(value);
+        int h1 = (int) h, h2 = (int) (h >>> 32) | 1;
+        for (int i = 0; i < HASHES; i++) {
+            int bit = ci * bits + ((h1 + i * h2) & Integer.MAX_VALUE) % bits;
+            if ((w[bit >>> 6] & (1L << bit)) == 0)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Rebuilds the filters of a page from its contents if it has none, or
+     * if deletes have left them stale. The new filters are written by the
+     * next {@link #save}.
+     */
+    public synchronized void update(HeapPage page) throws IOException {
+        load();
+        int pageNo = page.getId().pageNumber();
+        if (pageNo < state.length && state[pageNo] == VALID)
+            return;
+        long[] w = new long[columns.length * bits / 64];
+        Iterator<Tuple> it = page.iterator();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            for (int ci = 0; ci < columns.length; ci++)
+                set(w, ci, t.getField(columns[ci]));
+        }
+        ensureCapacity(pageNo + 1);
+        state[pageNo] = VALID;
+        words[pageNo] = w;
+        unsaved.set(pageNo);
+    }
+
+    /** Adds the values of a tuple just inserted on a page. */
+    public synchronized void add(int pageNo, Tuple t) throws IOException {
+        load();
+        if (pageNo >= state.length || state[pageNo] == NONE)
+            return;
+        for (int ci = 0; ci < columns.length; ci++)
+            set(words[pageNo], ci, t.getField(columns[ci]));
+        unsaved.set(pageNo);
+    }
+
+    /** Marks the filters of a page that lost a tuple for rebuilding. */
+    public synchronized void invalidate(int pageNo) {
+        if (pageNo < state.length && state[pageNo] == VALID)
+            state[pageNo] = STALE;
+    }
+
+    /** Forgets pages at and beyond numPages, after the file is truncated. */
+    public synchronized void truncate(int numPages) throws IOException {
+        load();
+        for (int p = numPages; p < state.length; p++) {
+            state[p] = NONE;
+            words[p] = null;
+        }
+        unsaved.clear(numPages, Math.max(numPages, unsaved.length()));
+        if (channel.getFile().exists() && channel.size() > headerSize + (long) numPages * entrySize)
+            channel.truncate(headerSize + (long) numPages * entrySize);
+    }
+
+    /** Writes the filters that changed since the last save. */
+    public synchronized void save() throws IOException {
+        if (unsaved.isEmpty())
+            return;
+        if (channel.size() < headerSize)
+            channel.write(0, header());
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(baos);
+        // write each run of consecutive changed pages with one call
+        for (int p = unsaved.nextSetBit(0); p >= 0; ) {
+            int end = unsaved.nextClearBit(p);
+            baos.reset();
+            for (int q = p; q < end; q++) {
+                dos.writeByte(state[q]);
+                for (long x : words[q])
+                    dos.writeLong(x);
+            }
+            dos.flush();
+            channel.write(headerSize + (long) p * entrySize, baos.toByteArray());
+            p = unsaved.nextSetBit(end);
+        }
+        unsaved.clear();
+    }
+
+    /**
+     * Builds the filters of every page of the file that has none, reading
+     * the pages straight from disk, and saves them. Used after a table is
+     * loaded by other means than inserts.
+     */
+    public void build() throws IOException {
+        int n = file.numPages();
+        for (int p = 0; p < n; p++) {
+            HeapPageId pid = new HeapPageId(file.getId(), p);
+            synchronized (this) {
+                load();
+                if (p < state.length && state[p] != NONE)
+                    continue;
+            }
+            Page cached = Database.getBufferPool().peekPage(pid);
+            if (cached != null && cached.isDirty() != null)
+                continue;
+            HeapPage page = cached != null ? (HeapPage) cached : (HeapPage) file.readPage(pid);
+            update(page);
+        }
+        save();
+    }
+
+    /**
+     * Returns false if the filters of a page show that it holds no tuple
+     * that satisfies every predicate. Only equality predicates on fields
+     * with filters are checked.
+     *
+     * @param pageNo the page to check
+     * @param preds predicates on fields of the heap file
+     * @throws DbException if the filters cannot be read
+     */
+    public synchronized boolean mayMatch(int pageNo, Predicate[] preds) throws DbException {
+        loadOrFail();
+        if (pageNo >= state.length || state[pageNo] == NONE)
+            return true;
+        for (Predicate p : preds) {
+            if (p.getOp() != Predicate.Op.EQUALS)
+                continue;
+            for (int ci = 0; ci < columns.length; ci++)
+                if (columns[ci] == p.getField() && !test(words[pageNo], ci, p.getOperand()))
+                    return false;
+        }
+        return true;
+    }
+
+    /** @return true if the page has filters, stale or not */
+    public synchronized boolean hasFilter(int pageNo) throws DbException {
+        loadOrFail();
+        return pageNo < state.length && state[pageNo] != NONE;
+    }
+}
@@ -2,9 +2,19 @@ package simpledb;
 
 import java.io.*;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
 import java.util.Set;
 //import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from
@@ -14,6 +24,36 @@ import java.util.concurrent.ConcurrentHashMap;
  * The BufferPool is also responsible for locking;  when a transaction fetches
  * a page, BufferPool checks that the transaction has the appropriate
  * locks to read/write the page.
+ * <p>
+ * When the pool is full, the page to evict is chosen by an
+ * {@link EvictionPolicy}: <code>clock</code> (the default),
+ * <code>lru-k</code> or <code>2q</code>, selected with the
+ * {@value #EVICTION_PROPERTY} system property or passed to the constructor.
+ * Clean pages are evicted in preference to dirty ones.
+ * <p>
+ * Large sequential scans read through a {@link BufferRing}, a few frames
+ * of their own that they recycle, so that they do not push the working set
+ * out of the pool.
+ * <p>
+ * Hits take no lock: the page table is a ConcurrentHashMap, and hits are
+ * counted per partition of the page ids. Changes to a cached page (flush,
+ * eviction, discard) take the latch of its partition, one of
+ * {@value #PARTITIONS}, rather than a lock on the whole pool. Concurrent
+ * misses on one page share a single read from disk.
+ * <p>
+ * A caller that holds on to a page while it works on it pins the page with
+ * {@link #pinPage} and unpins it when done. Pinned pages are never evicted;
+ * a read that needs a frame while every page is pinned waits, backing off,
+ * for an unpin.
+ * <p>
+ * Once {@link #startCleaner} is called, a {@link PageCleaner} of the pool's
+ * own writes dirty pages back in the background whenever more than a target
+ * fraction of the pool ({@value #DEFAULT_DIRTY_TARGET} by default, see
+ * {@link #setDirtyTarget}) is dirty, so that a miss rarely has to write a
+ * dirty victim first. Database starts the cleaner of the pool it serves.
+ * Pages are written back under
+ * write-ahead logging: the update records of heap pages are appended to
+ * the log, and the log is forced, before any page reaches disk.
  * 
  * @Threadsafe, all fields are final
  */
@@ -25,7 +65,67 @@ public class BufferPool {
 	private static int pageSize = PAGE_SIZE;
 
 	private ConcurrentHashMap<PageId, Page> pages;
-	private int maxPages;
+	private volatile int maxPages;
+	private final EvictionPolicy policy;
+	private final AtomicLong misses = new AtomicLong();
+
+	/** Number of partitions of the page table, a power of two. */
+	static final int PARTITIONS = 64;
+	/** Longs between counters, so that each has a cache line to itself. */
+	private static final int STRIDE = 8;
+	private final Object[] latches = new Object[PARTITIONS];
+	private final AtomicLongArray hits = new AtomicLongArray(PARTITIONS * STRIDE);
+	/** Reads from disk in progress; concurrent misses on a page wait on one. */
+	private final ConcurrentHashMap<PageId, FutureTask<Page>> loading = new ConcurrentHashMap<PageId, FutureTask<Page>>();
+	/** Pin counts of pinned pages; changed under the page's latch. */
+	private final ConcurrentHashMap<PageId, Integer> pins = new ConcurrentHashMap<PageId, Integer>();
+	/** Notified when a page is unpinned, for reads waiting for a frame. */
+	private final Object unpinned = new Object();
+	private volatile int frameWaiters = 0;
+	private volatile long pinWaitMillis = DEFAULT_PIN_WAIT_MILLIS;
+
+	/** Default time a read waits for a frame while every page is pinned. */
+	public static final long DEFAULT_PIN_WAIT_MILLIS = 10000;
+	/** Longest pause between checks for a free frame. */
+	private static final long MAX_BACKOFF_MILLIS = 64;
+
+	/** System property setting the dirty page target of new buffer pools. */
+	public static final String DIRTY_TARGET_PROPERTY = "simpledb.dirtytarget";
+	/** Default fraction of the pool allowed to be dirty. */
+	public static final double DEFAULT_DIRTY_TARGET = 0.25;
+	/** Longest run of pages written back with one write. */
+	static final int MAX_RUN = 32;
+	private volatile double dirtyTarget;
+	private final AtomicLong cleanerWrites = new AtomicLong();
+	private final AtomicLong evictionWrites = new AtomicLong();
+	private final PageCleaner cleaner = new PageCleaner(this);
+
+	/** Orders page ids by table, then page number. */
+	private static final Comparator<PageId> PAGE_ORDER = new Comparator<PageId>() {
+		public int compare(PageId a, PageId b) {
+			if (a.getTableId() != b.getTableId())
+				return a.getTableId() < b.getTableId() ? -1 : 1;
+			return a.pageNumber() < b.pageNumber() ? -1 : (a.pageNumber() == b.pageNumber() ? 0 : 1);
+		}
+	};
+	/** Cached pages read through a ring and unknown to the policy. */
+	private final ConcurrentHashMap<PageId, BufferRing> ringPages = new ConcurrentHashMap<PageId, BufferRing>();
+
+	/** System property naming the eviction policy of new buffer pools. */
+	public static final String EVICTION_PROPERTY = "simpledb.eviction";
+
+	private final EvictionPolicy.Filter cleanPages = new EvictionPolicy.Filter() {
+		public boolean evictable(PageId pid) {
+			Page p = pages.get(pid);
+			return p != null && p.isDirty() == null && !pins.containsKey(pid);
+		}
+	};
+
+	private final EvictionPolicy.Filter cachedPages = new EvictionPolicy.Filter() {
+		public boolean evictable(PageId pid) {
+			return pages.containsKey(pid) && !pins.containsKey(pid);
+		}
+	};
 
 	/** Default number of pages passed to the constructor. This is used by
     other classes. BufferPool should use the numPages argument to the
@@ -38,11 +138,122 @@ public class BufferPool {
 	 * @param numPages maximum number of pages in this buffer pool.
 	 */
 	public BufferPool(int numPages) {
-		// some code goes here
-		//pageSize = numPages; //wrong
+		this(numPages, createPolicy(System.getProperty(EVICTION_PROPERTY, "clock"), numPages));
+	}
 
+	/**
+	 * Creates a BufferPool that caches up to numPages pages and evicts them
+	 * as the given policy chooses.
+	 */
+	public BufferPool(int numPages, EvictionPolicy policy) {
 		pages = new ConcurrentHashMap<PageId, Page>(numPages);
 		maxPages = numPages;
+		this.policy = policy;
+		for (int i = 0; i < PARTITIONS; i++)
+			latches[i] = new Object();
+		setDirtyTarget(Double.parseDouble(System.getProperty(DIRTY_TARGET_PROPERTY,
+				Double.toString(DEFAULT_DIRTY_TARGET))));
+	}
+
+	/**
+	 * Sets the fraction of the pool that may be dirty before
+	 * {@link #cleanDirtyPages} writes pages back. 1 or more turns
+	 * write-back ahead of eviction off for this pool.
+	 */
+	public void setDirtyTarget(double target) {
+		this.dirtyTarget = target;
+	}
+
+	/**
+	 * Starts this pool's {@link PageCleaner}, which calls
+	 * {@link #cleanDirtyPages} in the background, unless it is running.
+	 */
+	public void startCleaner() {
+		cleaner.start();
+	}
+
+	/**
+	 * Stops this pool's {@link PageCleaner}, if it is running, once any pass
+	 * in progress has finished.
+	 */
+	public void stopCleaner() {
+		cleaner.stop();
+	}
+
+	/** @return true if this pool's PageCleaner is running */
+	boolean isCleanerRunning() {
+		return cleaner.isRunning();
+	}
+
+	/** @return the fraction of the pool that may be dirty */
+	public double getDirtyTarget() {
+		return dirtyTarget;
+	}
+
+	/** @return the number of pages written back by {@link #cleanDirtyPages} */
+	public long getCleanerWriteCount() {
+		return cleanerWrites.get();
+	}
+
+	/** @return the number of dirty pages written back to evict them */
+	public long getEvictionWriteCount() {
+		return evictionWrites.get();
+	}
+
+	/** @return the partition of the page table a page belongs to */
+	private static int partition(PageId pid) {
+		int h = pid.hashCode();
+		return (h ^ (h >>> 16)) & (PARTITIONS - 1);
+	}
+
+	/** @return the latch guarding changes to the cached copy of a page */
+	private Object latch(PageId pid) {
+		return latches[partition(pid)];
+	}
+
+	/**
+	 * Creates an eviction policy by name: <code>clock</code>,
+	 * <code>lru-k</code> (K = {@value LruKPolicy#DEFAULT_K}) or
+	 * <code>2q</code>.
+	 *
+	 * @param numPages the number of pages of the pool it will serve
+	 * @throws IllegalArgumentException if the name is unknown
+	 */
+	public static EvictionPolicy createPolicy(String name, int numPages) {
+		String n = name.trim().toLowerCase();
+		if (n.equals("clock"))
+			return new ClockPolicy();
+		if (n.equals("lru-k") || n.equals("lruk"))
+			return new LruKPolicy(LruKPolicy.DEFAULT_K, numPages);
+		if (n.equals("2q"))
+			return new TwoQueuePolicy(numPages);
+		throw new IllegalArgumentException("unknown eviction policy " + name);
+	}
+
+	/**
+	 * Sets how long a read waits for a frame while every page is pinned
+	 * before it fails.
+	 */
+	public void setPinWaitMillis(long millis) {
+		this.pinWaitMillis = millis;
+	}
+
+	/** @return the policy that chooses pages to evict */
+	public EvictionPolicy getPolicy() {
+		return policy;
+	}
+
+	/** @return the number of getPage calls served from the pool */
+	public long getHitCount() {
+		long n = 0;
+		for (int i = 0; i < PARTITIONS; i++)
+			n += hits.get(i * STRIDE);
+		return n;
+	}
+
+	/** @return the number of getPage calls that read the page from disk */
+	public long getMissCount() {
+		return misses.get();
 	}
 
 	public static int getPageSize() {
@@ -76,43 +287,341 @@ public class BufferPool {
 	 */
 	public  Page getPage(TransactionId tid, PageId pid, Permissions perm)
 			throws TransactionAbortedException, DbException {
+		return getPage(tid, pid, perm, null);
+	}
+
+	/**
+	 * Retrieves the specified page like {@link #getPage(TransactionId,
+	 * PageId, Permissions)}, but if the page has to be read from disk it is
+	 * read into the given ring, reusing the frame of the ring's oldest page
+	 * once the ring is full.
+	 *
+	 * @param ring the ring of the scan reading the page, or null to read it
+	 *   into the main pool
+	 */
+	public  Page getPage(TransactionId tid, PageId pid, Permissions perm, BufferRing ring)
+			throws TransactionAbortedException, DbException {
 		// some code goes here
 		//System.out.println("BufferPool getPage()");
 
-		Page output;
+		Page output = pages.get(pid);
 		//int key = pid.hashCode();
 
-		if(pages.containsKey(pid))
+		if(output != null)
 		{
 			//System.out.println("found pageID in bufferPool");
-			output = pages.get(pid); 
+			hits.incrementAndGet(partition(pid) * STRIDE);
+			if (ring == null)
+				touch(pid);
+			else
+				policy.pageAccessed(pid);
+			return output;
 		}
-		else
-		{
-			if(pages.size()>= maxPages)
-			{
+
+		while (true) {
+			FutureTask<Page> task = new FutureTask<Page>(new PageLoad(pid, ring, false));
+			FutureTask<Page> running = loading.putIfAbsent(pid, task);
+			if (running == null) {
 				try {
-					evictPage();
-				} catch (IOException e) {
-					// TODO Auto-generated catch block
-					e.printStackTrace();
+					task.run();
+				} finally {
+					loading.remove(pid, task);
 				}
+				return result(pid, task);
+			}
+			// another thread is reading the page; wait for its copy, unless
+			// it was a prefetch that found no room
+			output = result(pid, running);
+			if (output != null) {
+				hits.incrementAndGet(partition(pid) * STRIDE);
+				return output;
 			}
+		}
+	}
 
-			//System.out.println("didn't find pageID in bufferPool");
-			Catalog current_catalog = Database.getCatalog();
-			int tableid = pid.getTableId();
+	/** Waits for a page load; rethrows what made it fail. */
+	private static Page result(PageId pid, FutureTask<Page> load) throws DbException {
+		try {
+			return load.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new DbException("interrupted while reading " + pid);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof DbException)
+				throw (DbException) cause;
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			if (cause instanceof Error)
+				throw (Error) cause;
+			throw new DbException("cannot read " + pid + ": " + cause);
+		}
+	}
 
-			DbFile current_dbf = current_catalog.getDatabaseFile(tableid);
+	/**
+	 * Reads a page that missed in the pool and caches it. Runs once per
+	 * miss however many threads asked for the page.
+	 */
+	private class PageLoad implements Callable<Page> {
+		private final PageId pid;
+		private final BufferRing ring;
+		private final boolean prefetch;
+
+		/**
+		 * @param prefetch true if the read is a prefetch, which is dropped
+		 *   rather than write back a dirty page to make room
+		 */
+		PageLoad(PageId pid, BufferRing ring, boolean prefetch) {
+			this.pid = pid;
+			this.ring = ring;
+			this.prefetch = prefetch;
+		}
+
+		public Page call() throws DbException {
+			// cached by a load that finished before this one was registered
+			Page output = pages.get(pid);
+			if (output != null) {
+				if (!prefetch)
+					hits.incrementAndGet(partition(pid) * STRIDE);
+				return output;
+			}
+			if (ring != null)
+				recycle(ring);
+			// loads racing for the last frames may pick the same victim, so
+			// evict until there is room rather than once, but never grow
+			// the pool past maxPages
+			long waited = 0, backoff = 1;
+			for (int tries = 0; pages.size() >= maxPages; ) {
+				if (tries < maxPages && (prefetch ? evictCleanPage() : evictPage())) {
+					tries++;
+					continue;
+				}
+				if (prefetch)
+					return null;
+				// no page could be evicted: wait for an unpin
+				if (waited >= pinWaitMillis)
+					throw new DbException("no frame for " + pid + ": none of the " + pages.size()
+							+ " pages of the buffer pool could be evicted");
+				awaitUnpin(backoff);
+				waited += backoff;
+				backoff = Math.min(backoff * 2, MAX_BACKOFF_MILLIS);
+			}
+			if (!prefetch)
+				misses.incrementAndGet();
+
+			//System.out.println("didn't find pageID in bufferPool");
+			DbFile current_dbf = Database.getCatalog().getDatabaseFile(pid.getTableId());
 			Page to_add = current_dbf.readPage(pid);
-			//System.out.println("Pages - before: " + pages);
-			output = pages.put(pid, to_add);
-			//System.out.println("Pages - after: " + pages);
-			//System.out.println("Output page: " + output);
-			output = to_add;
+			output = pages.putIfAbsent(pid, to_add);
+			if (output == null) {
+				output = to_add;
+				added(pid, ring);
+			} else {
+				policy.pageAccessed(pid);
+			}
+			return output;
+		}
+	}
+
+	/** Records a page newly cached, into ring if it is not null. */
+	private void added(PageId pid, BufferRing ring) {
+		if (ring != null) {
+			ringPages.put(pid, ring);
+			if (ring.add(pid))
+				return;
+			ringPages.remove(pid, ring);
+		}
+		policy.pageAdded(pid);
+	}
+
+	/**
+	 * Records an access to a cached page outside any ring. A page a ring
+	 * read is adopted by the main pool.
+	 */
+	private void touch(PageId pid) {
+		if (ringPages.containsKey(pid) && ringPages.remove(pid) != null)
+			policy.pageAdded(pid);
+		else
+			policy.pageAccessed(pid);
+	}
+
+	/**
+	 * Frees the frame of the oldest page of a full ring: the page is
+	 * discarded if it is clean and still the ring's, and left to the main
+	 * pool if it is dirty. A pinned page stays in the ring.
+	 */
+	private void recycle(BufferRing ring) {
+		PageId old = ring.next();
+		if (old != null)
+			leaveRing(old, ring);
+	}
+
+	private void leaveRing(PageId pid, BufferRing ring) {
+		synchronized (latch(pid)) {
+			if (!ringPages.remove(pid, ring))
+				return;
+			Page p = pages.get(pid);
+			if (p == null)
+				return;
+			if (pins.containsKey(pid))
+				// still in use: back of the ring, or the pool if it is released
+				added(pid, ring);
+			else if (p.isDirty() == null)
+				pages.remove(pid);
+			else
+				policy.pageAdded(pid);
+		}
+	}
+
+	/**
+	 * Gives back the frames of a ring when its scan is done: the clean
+	 * pages still in it are discarded.
+	 */
+	public void releaseRing(BufferRing ring) {
+		for (PageId pid : ring.release())
+			leaveRing(pid, ring);
+	}
+
+	/**
+	 * Loads the specified page into the buffer pool if it is not already
+	 * cached. Used by {@link ReadAhead} to read pages in the background
+	 * before a scan asks for them.
+	 * <p>
+	 * A prefetch never writes back a dirty page to make room: if the pool is
+	 * full and no clean page can be evicted, the prefetch is dropped.
+	 *
+	 * @param pid the ID of the page to load
+	 */
+	public void prefetchPage(PageId pid) {
+		prefetchPage(pid, null);
+	}
+
+	/**
+	 * Loads the specified page into the given ring if it is not already
+	 * cached; see {@link #prefetchPage(PageId)}.
+	 *
+	 * @param ring the ring of the scan that will read the page, or null
+	 */
+	public void prefetchPage(PageId pid, BufferRing ring) {
+		if (pages.containsKey(pid))
+			return;
+		FutureTask<Page> task = new FutureTask<Page>(new PageLoad(pid, ring, true));
+		if (loading.putIfAbsent(pid, task) != null)
+			return;
+		// a failure is kept in the task, for a foreground reader to report
+		try {
+			task.run();
+		} finally {
+			loading.remove(pid, task);
+		}
+	}
+
+	/**
+	 * Retrieves the specified page like {@link #getPage(TransactionId,
+	 * PageId, Permissions)} and pins it, so that it stays in the pool until
+	 * the matching {@link #unpinPage}. A page may be pinned more than once.
+	 */
+	public Page pinPage(TransactionId tid, PageId pid, Permissions perm)
+			throws TransactionAbortedException, DbException {
+		return pinPage(tid, pid, perm, null);
+	}
+
+	/**
+	 * Retrieves the specified page through a ring like {@link
+	 * #getPage(TransactionId, PageId, Permissions, BufferRing)} and pins it.
+	 */
+	public Page pinPage(TransactionId tid, PageId pid, Permissions perm, BufferRing ring)
+			throws TransactionAbortedException, DbException {
+		while (true) {
+			Page p = getPage(tid, pid, perm, ring);
+			synchronized (latch(pid)) {
+				// unless it was evicted between the read and the pin
+				if (pages.get(pid) == p) {
+					Integer n = pins.get(pid);
+					pins.put(pid, n == null ? 1 : n + 1);
+					return p;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Releases one pin on a page taken by {@link #pinPage}; once it has no
+	 * pins left the page may be evicted again.
+	 *
+	 * @throws IllegalStateException if the page is not pinned
+	 */
+	public void unpinPage(PageId pid) {
+		synchronized (latch(pid)) {
+			Integer n = pins.get(pid);
+			if (n == null)
+				throw new IllegalStateException(pid + " is not pinned");
+			if (n > 1) {
+				pins.put(pid, n - 1);
+				return;
+			}
+			pins.remove(pid);
 		}
+		if (frameWaiters > 0) {
+			synchronized (unpinned) {
+				unpinned.notifyAll();
+			}
+		}
+	}
 
-		return output;
+	/** @return the number of pins held on a page */
+	public int getPinCount(PageId pid) {
+		Integer n = pins.get(pid);
+		return n == null ? 0 : n;
+	}
+
+	/** Waits up to millis for a page to be unpinned. */
+	private void awaitUnpin(long millis) throws DbException {
+		synchronized (unpinned) {
+			frameWaiters++;
+			try {
+				unpinned.wait(millis);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new DbException("interrupted while waiting for a frame");
+			} finally {
+				frameWaiters--;
+			}
+		}
+	}
+
+	/**
+	 * Returns the specified page if it is cached, without reading it from
+	 * disk or counting as an access.
+	 *
+	 * @return the cached page, or null
+	 */
+	public Page peekPage(PageId pid) {
+		return pages.get(pid);
+	}
+
+	/** Return true if the specified page is currently cached. */
+	public boolean containsPage(PageId pid) {
+		return pages.containsKey(pid);
+	}
+
+	/** Return the maximum number of pages this buffer pool caches. */
+	public int getMaxPages() {
+		return maxPages;
+	}
+
+	/**
+	 * Changes the number of pages the pool caches. Shrinking the pool
+	 * evicts unpinned pages, writing back dirty ones, until it fits; pinned
+	 * pages over the limit stay until they are unpinned and evicted by later
+	 * reads.
+	 */
+	public void setMaxPages(int numPages) throws DbException, IOException {
+		if (numPages < 1)
+			throw new IllegalArgumentException("a buffer pool needs at least one page");
+		maxPages = numPages;
+		while (pages.size() > numPages && evictPage())
+			;
 	}
 
 	/**
@@ -180,15 +689,49 @@ public class BufferPool {
 		// not necessary for lab1
 
 		DbFile table_needed = Database.getCatalog().getDatabaseFile(tableId);
-		ArrayList<Page> updated = table_needed.insertTuple(tid, t);
+		cacheDirtied(tid, table_needed.insertTuple(tid, t));
+		for (DbIndex index : Database.getCatalog().getIndexes(tableId))
+			cacheDirtied(tid, index.insertTuple(tid, t));
+	}
 
-		for(Page p : updated)
-		{
-			p.markDirty(true, tid);
-			pages.put(p.getId(), p);
+	/** Marks pages dirtied by an operation and makes sure they are cached. */
+	private void cacheDirtied(TransactionId tid, ArrayList<Page> updated) {
+		for (Page p : updated) {
+			synchronized (latch(p.getId())) {
+				p.markDirty(true, tid);
+				if (pages.put(p.getId(), p) == null)
+					policy.pageAdded(p.getId());
+				else
+					touch(p.getId());
+			}
 		}
 	}
 
+	/**
+	 * Add a batch of tuples to the specified table on behalf of transaction
+	 * tid. For a HeapFile the tuples are packed into new pages and appended
+	 * to the file in one write (see {@link HeapFile#insertTuples}); other
+	 * files receive the tuples one at a time through {@link #insertTuple}.
+	 *
+	 * @param tid the transaction adding the tuples
+	 * @param tableId the table to add the tuples to
+	 * @param tuples the tuples to add
+	 */
+	public void insertTuples(TransactionId tid, int tableId, List<Tuple> tuples)
+			throws DbException, IOException, TransactionAbortedException {
+		DbFile table_needed = Database.getCatalog().getDatabaseFile(tableId);
+		if (!(table_needed instanceof HeapFile)) {
+			for (Tuple t : tuples)
+				insertTuple(tid, tableId, t);
+			return;
+		}
+
+		cacheDirtied(tid, ((HeapFile) table_needed).insertTuples(tid, tuples));
+		for (DbIndex index : Database.getCatalog().getIndexes(tableId))
+			for (Tuple t : tuples)
+				cacheDirtied(tid, index.insertTuple(tid, t));
+	}
+
 	/**
 	 * Remove the specified tuple from the buffer pool.
 	 * Will acquire a write lock on the page the tuple is removed from and any
@@ -207,28 +750,70 @@ public class BufferPool {
 		// some code goes here
 		// not necessary for lab1
 
-		HeapPage hp = ((HeapPage) getPage(tid, t.getRecordId().getPageId(), Permissions.READ_WRITE));
-		hp.deleteTuple(t);
+		if (t.getRecordId() == null)
+			throw new DbException("tuple is not stored in any table");
+		int tableId = t.getRecordId().getPageId().getTableId();
+		DbFile table_needed = Database.getCatalog().getDatabaseFile(tableId);
+		// the index entries are found from the tuple as it was before the delete
+		List<DbIndex> indexes = Database.getCatalog().getIndexes(tableId);
+		Tuple old = null;
+		if (!indexes.isEmpty()) {
+			old = new Tuple(t.getTupleDesc());
+			for (int i = 0; i < old.getTupleDesc().numFields(); i++)
+				old.setField(i, t.getField(i));
+			old.setRecordId(t.getRecordId());
+		}
+		cacheDirtied(tid, table_needed.deleteTuple(tid, t));
+		for (DbIndex index : indexes)
+			cacheDirtied(tid, index.deleteTuple(tid, old));
+	}
 
-		hp.markDirty(true, tid);
-		pages.put(hp.getId(), hp);
+	/**
+	 * Adds an entry to an index for every tuple already in the table it is
+	 * built on, for an index created over a table that has data.
+	 *
+	 * @param tid the transaction building the index
+	 * @param index the index to fill
+	 */
+	public void buildIndex(TransactionId tid, DbIndex index)
+			throws DbException, IOException, TransactionAbortedException {
+		DbFileIterator it = Database.getCatalog().getDatabaseFile(index.getTableId()).iterator(tid);
+		it.open();
+		while (it.hasNext())
+			cacheDirtied(tid, index.insertTuple(tid, it.next()));
+		it.close();
 	}
 
 	/**
-	 * Flush all dirty pages to disk.
+	 * Flush all dirty pages to disk. The pages stay cached, now clean.
 	 * NB: Be careful using this routine -- it writes dirty data to disk so will
 	 *     break simpledb if running in NO STEAL mode.
 	 */
-	public synchronized void flushAllPages() throws IOException {
+	public void flushAllPages() throws IOException {
 		// some code goes here
 		// not necessary for lab1
 		
 		Set<PageId> bP_Keyset = pages.keySet();
 		
-		for(PageId pid : bP_Keyset)
-		{
-			flushPage(pid);
-		}
+		writeBack(new ArrayList<PageId>(bP_Keyset), false);
+		// bitmap indexes keep their bitmaps outside the pool
+		for (DbIndex index : Database.getCatalog().getAllIndexes())
+			if (index instanceof BitmapIndex)
+				((BitmapIndex) index).save();
+	}
+
+	/**
+	 * Flushes the dirty pages of one table to disk, leaving them cached and
+	 * clean. Pages of other tables are not written.
+	 *
+	 * @param tableId the table whose pages to flush
+	 */
+	public void flushTable(int tableId) throws IOException {
+		ArrayList<PageId> table = new ArrayList<PageId>();
+		for (PageId pid : pages.keySet())
+			if (pid.getTableId() == tableId)
+				table.add(pid);
+		writeBack(table, false);
 	}
 
 	/** Remove the specific page id from the buffer pool.
@@ -239,27 +824,28 @@ public class BufferPool {
         Also used by B+ tree files to ensure that deleted pages
         are removed from the cache so they can be reused safely
 	 */
-	public synchronized void discardPage(PageId pid) {
+	public void discardPage(PageId pid) {
 		// some code goes here
 		// not necessary for lab1
 		
-		pages.remove(pid);
+		synchronized (latch(pid)) {
+			if (pages.remove(pid) != null && ringPages.remove(pid) == null)
+				policy.pageRemoved(pid);
+		}
 	}
 
 	/**
-	 * Flushes a certain page to disk
+	 * Flushes a certain page to disk if it is dirty, and marks it clean. The
+	 * page stays in the buffer pool.
 	 * @param pid an ID indicating the page to flush
 	 */
-	private synchronized  void flushPage(PageId pid) throws IOException {
+	private void flushPage(PageId pid) throws IOException {
 		// some code goes here
 		// not necessary for lab1
 
 		try
 		{
-			Page p = pages.remove(pid);
-			int tableid = pid.getTableId();
-			HeapFile hf = (HeapFile) Database.getCatalog().getDatabaseFile(tableid);
-			hf.writePage(p);
+			writeBack(Collections.singletonList(pid), false);
 		}
 		catch(IOException e)
 		{
@@ -267,6 +853,177 @@ public class BufferPool {
 		}
 	}
 
+	/** A dirty heap file page taken for write-back. */
+	private static class Image {
+		final PageId pid;
+		final TransactionId dirtier;
+		final HeapFile file;
+		/** The bytes to write. */
+		final byte[] data;
+
+		Image(PageId pid, TransactionId dirtier, HeapFile file, byte[] data) {
+			this.pid = pid;
+			this.dirtier = dirtier;
+			this.file = file;
+			this.data = data;
+		}
+	}
+
+	/**
+	 * Writes back those of the given pages that are dirty, in page order.
+	 * An update record for each heap page is appended to the log, and the
+	 * log is forced once, before any of them is written.
+	 * <p>
+	 * The image of a HeapFile page is taken under the page's latch; the page
+	 * is marked clean then and stays pinned until the image is on disk, so
+	 * that it cannot be evicted and read back stale meanwhile. Runs of
+	 * consecutive pages of a HeapFile go to disk in one write each. Pages of
+	 * other files are written, and marked clean, while their latch is held.
+	 * <p>
+	 * Pages are changed while pinned, without their latch. With skipPinned,
+	 * as for the cleaner and evictions, pinned pages are left dirty, so that
+	 * a half-made change is never logged or written; flushes write them all.
+	 *
+	 * @return the number of pages written
+	 */
+	private int writeBack(List<PageId> pids, boolean skipPinned) throws IOException {
+		ArrayList<PageId> sorted = new ArrayList<PageId>(pids);
+		Collections.sort(sorted, PAGE_ORDER);
+		ArrayList<Image> images = new ArrayList<Image>();
+		ArrayList<PageId> others = new ArrayList<PageId>();
+		LinkedHashSet<BloomFilters> blooms = new LinkedHashSet<BloomFilters>();
+		LogFile log = Database.getLogFile();
+		// the log before a latch, as in LogFile's checkpoints
+		synchronized (log) {
+			for (PageId pid : sorted) {
+				synchronized (latch(pid)) {
+					Page p = pages.get(pid);
+					TransactionId dirtier = p == null ? null : p.isDirty();
+					if (dirtier == null || (skipPinned && pins.containsKey(pid)))
+						continue;
+					DbFile f = Database.getCatalog().getDatabaseFile(pid.getTableId());
+					if (!(f instanceof HeapFile)) {
+						// other kinds of pages cannot always rebuild a before
+						// image; they are only ordered behind the forced log
+						others.add(pid);
+						continue;
+					}
+					// widen the page's zone before the new tuples reach disk
+					if (p instanceof HeapPage) {
+						((HeapFile) f).getZoneMap().update((HeapPage) p);
+						BloomFilters bloom = ((HeapFile) f).getBloomFilters();
+						if (bloom != null) {
+							bloom.update((HeapPage) p);
+							blooms.add(bloom);
+						}
+					}
+					if (p instanceof HeapPage) {
+						log.logWrite(dirtier, p.getBeforeImage(), p);
+						p.setBeforeImage();
+					}
+					images.add(new Image(pid, dirtier, (HeapFile) f, p.getPageData()));
+					p.markDirty(false, null);
+					Integer n = pins.get(pid);
+					pins.put(pid, n == null ? 1 : n + 1);
+				}
+			}
+			if (images.isEmpty() && others.isEmpty())
+				return 0;
+			log.force();
+		}
+
+		boolean written = false;
+		try {
+			for (BloomFilters bloom : blooms)
+				bloom.save();
+			for (int i = 0; i < images.size(); ) {
+				Image first = images.get(i);
+				int j = i + 1;
+				while (j < images.size() && j - i < MAX_RUN && images.get(j).file == first.file
+						&& images.get(j).pid.pageNumber() == first.pid.pageNumber() + (j - i))
+					j++;
+				byte[][] run = new byte[j - i][];
+				for (int k = i; k < j; k++)
+					run[k - i] = images.get(k).data;
+				first.file.writePages(first.pid.pageNumber(), run);
+				i = j;
+			}
+			written = true;
+		} finally {
+			for (Image image : images) {
+				if (!written) {
+					synchronized (latch(image.pid)) {
+						Page p = pages.get(image.pid);
+						if (p != null && p.isDirty() == null)
+							p.markDirty(true, image.dirtier);
+					}
+				}
+				unpinPage(image.pid);
+			}
+		}
+
+		int n = images.size();
+		for (PageId pid : others) {
+			synchronized (latch(pid)) {
+				Page p = pages.get(pid);
+				if (p == null || p.isDirty() == null || (skipPinned && pins.containsKey(pid)))
+					continue;
+				Database.getCatalog().getDatabaseFile(pid.getTableId()).writePage(p);
+				p.markDirty(false, null);
+				n++;
+			}
+		}
+		return n;
+	}
+
+	/**
+	 * Writes back dirty pages until no more than the dirty target fraction
+	 * of the pool is dirty. Long runs of consecutive pages are written
+	 * first, since they take the fewest writes. Called by the
+	 * {@link PageCleaner}.
+	 *
+	 * @return the number of pages written
+	 */
+	public int cleanDirtyPages() throws IOException {
+		double target = dirtyTarget;
+		if (target >= 1)
+			return 0;
+		ArrayList<PageId> dirty = new ArrayList<PageId>();
+		for (Map.Entry<PageId, Page> e : pages.entrySet())
+			if (e.getValue().isDirty() != null && !pins.containsKey(e.getKey()))
+				dirty.add(e.getKey());
+		int excess = dirty.size() - (int) (maxPages * target);
+		if (excess <= 0)
+			return 0;
+
+		Collections.sort(dirty, PAGE_ORDER);
+		ArrayList<List<PageId>> runs = new ArrayList<List<PageId>>();
+		for (int i = 0; i < dirty.size(); ) {
+			int j = i + 1;
+			while (j < dirty.size() && j - i < MAX_RUN
+					&& dirty.get(j).getTableId() == dirty.get(i).getTableId()
+					&& dirty.get(j).pageNumber() == dirty.get(i).pageNumber() + (j - i))
+				j++;
+			runs.add(dirty.subList(i, j));
+			i = j;
+		}
+		// stable, so runs of equal length stay in page order
+		Collections.sort(runs, new Comparator<List<PageId>>() {
+			public int compare(List<PageId> a, List<PageId> b) {
+				return b.size() - a.size();
+			}
+		});
+		ArrayList<PageId> chosen = new ArrayList<PageId>();
+		for (List<PageId> run : runs) {
+			if (chosen.size() >= excess)
+				break;
+			chosen.addAll(run);
+		}
+		int n = writeBack(chosen, true);
+		cleanerWrites.addAndGet(n);
+		return n;
+	}
+
 	/** Write all pages of the specified transaction to disk.
 	 */
 	public synchronized  void flushPages(TransactionId tid) throws IOException {
@@ -275,38 +1032,63 @@ public class BufferPool {
 	}
 
 	/**
-	 * Discards a page from the buffer pool.
+	 * Discards one clean, unpinned page from the buffer pool, if there is
+	 * one.
+	 * @return true if a page was discarded
+	 */
+	private boolean evictCleanPage() {
+		PageId pid = policy.chooseVictim(cleanPages);
+		if (pid == null)
+			return false;
+		synchronized (latch(pid)) {
+			// the page may have been dirtied or pinned since it was chosen
+			Page p = pages.get(pid);
+			if (p != null && (p.isDirty() != null || pins.containsKey(pid)))
+				return false;
+			discardPage(pid);
+		}
+		return true;
+	}
+
+	/**
+	 * Discards an unpinned page from the buffer pool, the clean page the
+	 * eviction policy chooses if there is one.
 	 * Flushes the page to disk to ensure dirty pages are updated on disk.
-	 * @throws IOException 
+	 * @return false if no page was discarded: every page is pinned, or the
+	 *   page chosen was pinned or dirtied again before it could be
 	 */
-	private synchronized  void evictPage() throws DbException, IOException {
+	private boolean evictPage() {
 		// some code goes here
 		// not necessary for lab1
 		
-		boolean foundPage = false;
-		Set<PageId> bP_Keyset = pages.keySet();
-		
-		for(PageId pid : bP_Keyset)
-		{
-			Page p = pages.get(pid);
-			
-			//page clean
-			if(p.isDirty() == null)
-			{
-				discardPage(pid);
-				foundPage = true;
-				break;
+		if (evictCleanPage())
+			return true;
+		PageId pid = policy.chooseVictim(cachedPages);
+		if (pid == null) {
+			// a page the policy does not track, such as a ring's
+			for (PageId cached : pages.keySet()) {
+				if (!pins.containsKey(cached)) {
+					pid = cached;
+					break;
+				}
 			}
+			if (pid == null)
+				return false;
 		}
-		
-		if(!foundPage)
-		{
-			for(PageId pid : bP_Keyset)
-			{
-				flushPage(pid);
-				foundPage = true;
-				break;
-			}
+		// written back before the latch is taken, as the log comes first
+		try {
+			evictionWrites.addAndGet(writeBack(Collections.singletonList(pid), true));
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		synchronized (latch(pid)) {
+			// a page pinned or dirtied since it was chosen stays; the caller
+			// tries again
+			Page p = pages.get(pid);
+			if (p == null || pins.containsKey(pid) || p.isDirty() != null)
+				return false;
+			discardPage(pid);
 		}
+		return true;
 	}
 }
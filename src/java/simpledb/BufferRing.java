@@ -0,0 +1,84 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * BufferRing is a small, private set of BufferPool frames for one large
+ * sequential scan. Pages the scan reads from disk are cached as usual but
+ * are owned by the ring and kept out of the {@link EvictionPolicy}; once the
+ * ring is full, each new page takes the frame of the ring's oldest page
+ * instead of evicting a page of the main pool. A scan of any size therefore
+ * displaces at most {@link #getCapacity} pages of the working set.
+ * <p>
+ * A ring page that some other caller fetches, or that is dirtied, is
+ * adopted by the main pool and leaves the ring. The scan hands its ring to
+ * {@link BufferPool#releaseRing} when it closes, which drops the clean
+ * pages still in it.
+ *
+ * @see BufferPool#getPage(TransactionId, PageId, Permissions, BufferRing)
+ */
+public class BufferRing {
+
+    /** Largest ring given to a scan. */
+    public static final int MAX_PAGES = 32;
+
+    private final int capacity;
+    private final ArrayDeque<PageId> frames = new ArrayDeque<PageId>();
+    private boolean released = false;
+
+    /**
+     * @param capacity the number of frames in the ring
+     */
+    public BufferRing(int capacity) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("a ring needs at least one frame");
+        this.capacity = capacity;
+    }
+
+    /**
+     * Returns a ring for a scan of numPages pages through the given pool, or
+     * null if the whole file fits in the pool, in which case the scan shares
+     * the main pool so that the next scan finds its pages cached.
+     */
+    public static BufferRing forScan(int numPages, BufferPool pool) {
+        if (numPages <= pool.getMaxPages())
+            return null;
+        return new BufferRing(Math.max(2, Math.min(MAX_PAGES, pool.getMaxPages() / 8)));
+    }
+
+    /** @return the number of frames in the ring */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Takes the oldest page out of a full ring, to make room for a new one.
+     *
+     * @return the page whose frame is to be reused, or null if the ring has
+     *   a free frame
+     */
+    synchronized PageId next() {
+        return frames.size() >= capacity ? frames.poll() : null;
+    }
+
+    /**
+     * Records a page read into the ring.
+     *
+     * @return false if the ring has been released, as it may be while a
+     *   read-ahead is in flight, and the page belongs to the main pool
+     */
+    synchronized boolean add(PageId pid) {
+        if (released)
+            return false;
+        frames.add(pid);
+        return true;
+    }
+
+    /** Empties the ring for good. @return the pages it held */
+    synchronized List<PageId> release() {
+        released = true;
+        ArrayList<PageId> out = new ArrayList<PageId>(frames);
+        frames.clear();
+        return out;
+    }
+}
@@ -1,12 +1,14 @@
 package simpledb;
 
 import java.io.BufferedReader;
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.Serializable;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * The Catalog keeps track of all available tables in the database and their
@@ -20,6 +22,8 @@ import java.util.concurrent.ConcurrentHashMap;
 public class Catalog {
 
 	ArrayList<Table> tables;
+	/** Indexes by the id of the table they are built on. */
+	ConcurrentHashMap<Integer, List<DbIndex>> indexes;
 	
 	public static class Table {
 		
@@ -43,6 +47,7 @@ public class Catalog {
      */
     public Catalog() {
         tables = new ArrayList<Table>();
+        indexes = new ConcurrentHashMap<Integer, List<DbIndex>>();
     }
 
     /**
@@ -63,6 +68,8 @@ public class Catalog {
     		if (to_check.dbf.getId() == file.getId())
     		{
     			tables.remove(i);
+    			if (to_check.dbf != file)
+    				closeFile(to_check.dbf);
     		}
     	}
     	
@@ -173,6 +180,47 @@ public class Catalog {
     	throw new NoSuchElementException();	
     }
 
+    /**
+     * Adds an index to the catalog. The index is added as a table of the
+     * given name, and the BufferPool keeps it up to date from then on as
+     * tuples are inserted into and deleted from the table it is built on.
+     * Tuples already in the table are not added; see
+     * {@link BufferPool#buildIndex}.
+     *
+     * @param index the index to add
+     * @param name the name of the index
+     */
+    public void addIndex(DbIndex index, String name) {
+        addTable(index, name, "");
+        List<DbIndex> l = new CopyOnWriteArrayList<DbIndex>();
+        List<DbIndex> old = indexes.putIfAbsent(index.getTableId(), l);
+        if (old != null)
+            l = old;
+        for (DbIndex i : l)
+            if (i.getId() == index.getId())
+                l.remove(i);
+        l.add(index);
+    }
+
+    /**
+     * @return the indexes built on the specified table; the list is empty if
+     *   there are none
+     */
+    public List<DbIndex> getIndexes(int tableid) {
+        List<DbIndex> l = indexes.get(tableid);
+        if (l == null)
+            return Collections.emptyList();
+        return l;
+    }
+
+    /** @return every index in the catalog */
+    public List<DbIndex> getAllIndexes() {
+        ArrayList<DbIndex> all = new ArrayList<DbIndex>();
+        for (List<DbIndex> l : indexes.values())
+            all.addAll(l);
+        return all;
+    }
+
     public Iterator<Integer> tableIdIterator() {
         
     	//TODO
@@ -196,11 +244,72 @@ public class Catalog {
     
     /** Delete all tables from the catalog */
     public void clear() {
+        for (Table t : tables)
+            closeFile(t.dbf);
         tables.clear();
+        indexes.clear();
+    }
+
+    /** Releases the file handle held by a DbFile that left the catalog. */
+    private static void closeFile(DbFile dbf) {
+        if (dbf instanceof Closeable) {
+            try {
+                ((Closeable) dbf).close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
     }
     
+    /**
+     * Parses a column type as written in a schema file.
+     *
+     * @return the type, or null if s is not a known type
+     * @see #loadSchema
+     */
+    static Type parseType(String s) {
+        s = s.trim().toLowerCase();
+        if (s.equals("int"))
+            return Type.INT_TYPE;
+        if (s.equals("string") || s.matches("(string|char|varchar)\\(\\s*\\d+\\s*\\)"))
+            return Type.STRING_TYPE;
+        return null;
+    }
+
+    /**
+     * @return the width declared by a column type such as char(8), or
+     *   {@link Type#STRING_LEN} if the type does not declare one
+     */
+    static int parseWidth(String s) {
+        s = s.trim();
+        int open = s.indexOf('(');
+        if (open < 0)
+            return Type.STRING_LEN;
+        return Integer.parseInt(s.substring(open + 1, s.indexOf(')')).trim());
+    }
+
     /**
      * Reads the schema from a file and creates the appropriate tables in the database.
+     * Each line has the form <code>name (field type [pk] [index|hash|bitmap] [bloom], ...) [storage]</code>,
+     * where type is <code>int</code>, <code>string</code>, or a string of
+     * declared width n written <code>char(n)</code>, <code>varchar(n)</code>
+     * or <code>string(n)</code>, and the optional storage is <code>heap</code> (the default),
+     * <code>segmented [mb [dir ...]]</code> for a heap file split into
+     * segments of mb megabytes (1024 by default) by a
+     * {@link SegmentedPageChannel}, placed round robin in the given
+     * directories, <code>mapped</code> for a {@link MappedHeapFile},
+     * <code>slotted</code> for a {@link SlottedHeapFile},
+     * <code>columnar</code> for a {@link ColumnarFile}, or
+     * <code>compressed</code> for a {@link CompressedHeapFile}. A field
+     * marked <code>index</code> gets a {@link BTreeFile} index named
+     * <code>name_field_idx</code>, and one marked <code>hash</code> (for
+     * example a primary key used in equality lookups) gets a
+     * {@link HashIndexFile} named <code>name_field_hash</code>. A field of
+     * a heap table with few distinct values may be marked <code>bitmap</code>
+     * for a {@link BitmapIndex} named <code>name_field_bitmap</code>. An index is
+     * built from the table's data the first time the schema is loaded.
+     * Fields of a heap table marked <code>bloom</code> get per-page
+     * {@link BloomFilters}, built for any pages that lack them.
      * @param catalogFile
      */
     public void loadSchema(String catalogFile) {
@@ -210,44 +319,121 @@ public class Catalog {
             BufferedReader br = new BufferedReader(new FileReader(new File(catalogFile)));
             
             while ((line = br.readLine()) != null) {
-                //assume line is of the format name (field type, field type, ...)
+                //assume line is of the format name (field type, field type, ...) [storage]
                 String name = line.substring(0, line.indexOf("(")).trim();
                 //System.out.println("TABLE NAME: " + name);
-                String fields = line.substring(line.indexOf("(") + 1, line.indexOf(")")).trim();
+                String fields = line.substring(line.indexOf("(") + 1, line.lastIndexOf(")")).trim();
+                String[] storageArgs = line.substring(line.lastIndexOf(")") + 1).trim().split("\\s+");
+                String storage = storageArgs[0].toLowerCase();
                 String[] els = fields.split(",");
                 ArrayList<String> names = new ArrayList<String>();
                 ArrayList<Type> types = new ArrayList<Type>();
+                ArrayList<Integer> widths = new ArrayList<Integer>();
                 String primaryKey = "";
+                ArrayList<Integer> indexed = new ArrayList<Integer>();
+                ArrayList<String> kinds = new ArrayList<String>();
+                ArrayList<Integer> bloomed = new ArrayList<Integer>();
                 for (String e : els) {
                     String[] els2 = e.trim().split(" ");
                     names.add(els2[0].trim());
-                    if (els2[1].trim().toLowerCase().equals("int"))
-                        types.add(Type.INT_TYPE);
-                    else if (els2[1].trim().toLowerCase().equals("string"))
-                        types.add(Type.STRING_TYPE);
-                    else {
+                    Type type = parseType(els2[1]);
+                    if (type == null) {
                         System.out.println("Unknown type " + els2[1]);
                         System.exit(0);
                     }
-                    if (els2.length == 3) {
-                        if (els2[2].trim().equals("pk"))
+                    types.add(type);
+                    widths.add(parseWidth(els2[1]));
+                    for (int a = 2; a < els2.length; a++) {
+                        if (els2[a].trim().equals("pk"))
                             primaryKey = els2[0].trim();
+                        else if (els2[a].trim().matches("index|hash|bitmap")) {
+                            indexed.add(names.size() - 1);
+                            kinds.add(els2[a].trim());
+                        }
+                        else if (els2[a].trim().equals("bloom"))
+                            bloomed.add(names.size() - 1);
                         else {
-                            System.out.println("Unknown annotation " + els2[2]);
+                            System.out.println("Unknown annotation " + els2[a]);
                             System.exit(0);
                         }
                     }
                 }
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
-                TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
+                int[] widthAr = new int[widths.size()];
+                for (int i = 0; i < widthAr.length; i++)
+                    widthAr[i] = widths.get(i);
+                TupleDesc t = new TupleDesc(typeAr, namesAr, widthAr);
+                File dataFile = new File(baseFolder+"/"+name + ".dat");
+                DbFile tabHf;
+                if (storage.equals("") || storage.equals("heap"))
+                    tabHf = new HeapFile(dataFile, t);
+                else if (storage.equals("segmented")) {
+                    long segmentBytes = SegmentedPageChannel.DEFAULT_SEGMENT_BYTES;
+                    if (storageArgs.length > 1)
+                        segmentBytes = Long.parseLong(storageArgs[1]) << 20;
+                    File[] dirs = new File[Math.max(0, storageArgs.length - 2)];
+                    for (int i = 0; i < dirs.length; i++)
+                        dirs[i] = new File(storageArgs[i + 2]);
+                    tabHf = new HeapFile(dataFile, t, new SegmentedPageChannel(dataFile, segmentBytes, dirs));
+                }
+                else if (storage.equals("mapped"))
+                    tabHf = new MappedHeapFile(dataFile, t);
+                else if (storage.equals("slotted"))
+                    tabHf = new SlottedHeapFile(dataFile, t);
+                else if (storage.equals("columnar"))
+                    tabHf = new ColumnarFile(dataFile, t);
+                else if (storage.equals("compressed"))
+                    tabHf = new CompressedHeapFile(dataFile, t);
+                else {
+                    System.out.println("Unknown storage " + storage);
+                    System.exit(0);
+                    return;
+                }
                 addTable(tabHf,name,primaryKey);
                 System.out.println("Added table : " + name + " with schema " + t);
+                if (!bloomed.isEmpty()) {
+                    if (!(tabHf instanceof HeapFile)) {
+                        System.out.println("Bloom filters need heap storage: " + name);
+                        System.exit(0);
+                    }
+                    int[] bloomAr = new int[bloomed.size()];
+                    for (int i = 0; i < bloomAr.length; i++)
+                        bloomAr[i] = bloomed.get(i);
+                    ((HeapFile) tabHf).setBloomColumns(bloomAr);
+                    if (dataFile.length() > 0)
+                        ((HeapFile) tabHf).getBloomFilters().build();
+                }
+                for (int i = 0; i < indexed.size(); i++) {
+                    int field = indexed.get(i);
+                    String kind = kinds.get(i);
+                    String indexName = name + "_" + namesAr[field] + (kind.equals("index") ? "_idx" : "_" + kind);
+                    File indexFile = new File(baseFolder + "/" + indexName + ".dat");
+                    boolean fresh = !indexFile.exists();
+                    DbIndex index;
+                    if (kind.equals("hash"))
+                        index = new HashIndexFile(indexFile, tabHf, field);
+                    else if (kind.equals("bitmap"))
+                        index = new BitmapIndex(indexFile, tabHf, field);
+                    else
+                        index = new BTreeFile(indexFile, tabHf, field);
+                    addIndex(index, indexName);
+                    if (fresh && dataFile.length() > 0) {
+                        Database.getBufferPool().buildIndex(new TransactionId(), index);
+                        Database.getBufferPool().flushAllPages();
+                    }
+                    System.out.println("Added index : " + indexName);
+                }
             }
         } catch (IOException e) {
             e.printStackTrace();
             System.exit(0);
+        } catch (DbException e) {
+            e.printStackTrace();
+            System.exit(0);
+        } catch (TransactionAbortedException e) {
+            e.printStackTrace();
+            System.exit(0);
         } catch (IndexOutOfBoundsException e) {
             System.out.println ("Invalid catalog entry : " + line);
             System.exit(0);
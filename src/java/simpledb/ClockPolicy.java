@@ -0,0 +1,82 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * ClockPolicy approximates LRU with one reference bit per page. Pages sit
+ * on a circular list swept by a hand; an access sets the page's bit, and
+ * the hand clears set bits as it passes and evicts the first page whose
+ * bit was already clear. Accesses cost no list movement and take no lock,
+ * which makes CLOCK the cheapest of the policies on hits.
+ */
+public class ClockPolicy implements EvictionPolicy {
+
+    /** A page on the ring; a removed page's frame is dropped, not reused. */
+    private static class Frame {
+        final PageId pid;
+        final int slot;
+        volatile boolean referenced = true;
+
+        Frame(PageId pid, int slot) {
+            this.pid = pid;
+            this.slot = slot;
+        }
+    }
+
+    private final ArrayList<Frame> ring = new ArrayList<Frame>();
+    private final ConcurrentHashMap<PageId, Frame> frames = new ConcurrentHashMap<PageId, Frame>();
+    /** Ring slots freed by removed pages, reused by new ones. */
+    private final ArrayDeque<Integer> free = new ArrayDeque<Integer>();
+    private int hand = 0;
+
+    public synchronized void pageAdded(PageId pid) {
+        Frame f = frames.get(pid);
+        if (f != null) {
+            f.referenced = true;
+            return;
+        }
+        if (free.isEmpty()) {
+            f = new Frame(pid, ring.size());
+            ring.add(f);
+        } else {
+            f = new Frame(pid, free.poll());
+            ring.set(f.slot, f);
+        }
+        frames.put(pid, f);
+    }
+
+    /** Takes no lock, so that hits in the pool do not contend. */
+    public void pageAccessed(PageId pid) {
+        Frame f = frames.get(pid);
+        if (f != null)
+            f.referenced = true;
+    }
+
+    public synchronized void pageRemoved(PageId pid) {
+        Frame f = frames.remove(pid);
+        if (f != null) {
+            ring.set(f.slot, null);
+            free.add(f.slot);
+        }
+    }
+
+    public synchronized PageId chooseVictim(Filter filter) {
+        int n = ring.size();
+        // two sweeps clear every bit, so a third finds nothing new
+        for (int step = 0; step < 2 * n; step++) {
+            int slot = hand;
+            hand = (hand + 1) % n;
+            Frame f = ring.get(slot);
+            if (f == null)
+                continue;
+            if (f.referenced) {
+                f.referenced = false;
+                continue;
+            }
+            if (filter.evictable(f.pid))
+                return f.pid;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,405 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * ColumnarFile is a DbFile that stores each column of a table in its own run
+ * of pages, so that a scan which needs only some columns reads only their
+ * pages. SeqScan asks for such a scan when the planner tells it which
+ * columns a query uses; see {@link SeqScan#setProjection}.
+ * <p>
+ * Rows are stored in row groups of a fixed number of rows. A row group is a
+ * header page followed, for each column in turn, by the pages that hold that
+ * column's values for the group:
+ * <pre>
+ *   header | column 0 pages | column 1 pages | ... | column n-1 pages
+ * </pre>
+ * The header page holds the number of rows in the group as an int, followed
+ * by a bitmap with one bit set for each deleted row. Column pages hold
+ * fixed-size values, serialized as in HeapPage, packed from the start of the
+ * page. The group size is the number of values of the narrowest column that
+ * fit on one page, so narrow columns take a single page per group and wide
+ * ones take several.
+ * <p>
+ * Tuples are appended to the last row group and deleted by marking them in
+ * its header. A tuple's RecordId names the header page of its row group and
+ * its row within the group.
+ *
+ * @see ColumnarPage
+ */
+public class ColumnarFile implements DbFile, Closeable {
+
+    private final File file;
+    private final TupleDesc td;
+    final PageChannel channel;
+
+    /** Page geometry for one page size; see layout(). */
+    private static class Layout {
+        int pageSize;
+        int groupRows;
+        int groupPages;
+        /** Values of each column per page. */
+        int[] perPage;
+        /** First page of each column within a group. */
+        int[] columnStart;
+    }
+
+    private Layout layout;
+
+    /** Pages pinned by the insert or delete in progress; see getPage. */
+    private final ArrayList<PageId> pinned = new ArrayList<PageId>();
+
+    /**
+     * Constructs a columnar file backed by the specified file.
+     *
+     * @param f the file that stores the on-disk backing store for this file
+     * @param td the schema of the tuples stored in this file
+     */
+    public ColumnarFile(File f, TupleDesc td) {
+        this.file = f;
+        this.td = td;
+        this.channel = new PageChannel(f);
+    }
+
+    /** @return the page geometry for the current page size */
+    private synchronized Layout layout() {
+        int pageSize = BufferPool.getPageSize();
+        if (layout != null && layout.pageSize == pageSize)
+            return layout;
+        Layout l = new Layout();
+        l.pageSize = pageSize;
+        int n = td.numFields();
+        int narrowest = Integer.MAX_VALUE;
+        for (int c = 0; c < n; c++)
+            narrowest = Math.min(narrowest, td.getFieldSize(c));
+        l.groupRows = Math.min(pageSize / narrowest, (pageSize - 4) * 8);
+        l.perPage = new int[n];
+        l.columnStart = new int[n];
+        int pages = 1;
+        for (int c = 0; c < n; c++) {
+            l.perPage[c] = pageSize / td.getFieldSize(c);
+            if (l.perPage[c] == 0)
+                throw new IllegalArgumentException("column " + c + " does not fit on a page");
+            l.columnStart[c] = pages;
+            pages += (l.groupRows + l.perPage[c] - 1) / l.perPage[c];
+        }
+        l.groupPages = pages;
+        layout = l;
+        return l;
+    }
+
+    /** @return the File backing this file on disk */
+    public File getFile() {
+        return file;
+    }
+
+    /** @return the channel used for all page I/O against this file */
+    public PageChannel getChannel() {
+        return channel;
+    }
+
+    /** Closes the file handle; it is reopened on the next page access. */
+    public void close() {
+        channel.close();
+    }
+
+    public int getId() {
+        return file.getAbsoluteFile().hashCode();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * Read the specified page from disk.
+     *
+     * @throws IllegalArgumentException if the page does not exist in this file.
+     */
+    public Page readPage(PageId pid) {
+        try {
+            byte[] data = channel.readPage(pid.pageNumber(), BufferPool.getPageSize());
+            if (data == null)
+                throw new IllegalArgumentException("page " + pid.pageNumber() + " does not exist in " + file);
+            return new ColumnarPage((HeapPageId) pid, data);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    public void writePage(Page page) throws IOException {
+        channel.writePage(page.getId().pageNumber(), page.getPageData());
+    }
+
+    /** @return the number of pages in this file */
+    public int numPages() {
+        try {
+            return (int) (channel.size() / BufferPool.getPageSize());
+        } catch (IOException e) {
+            e.printStackTrace();
+            return 0;
+        }
+    }
+
+    /** @return the number of complete row groups in this file */
+    public int numGroups() {
+        return numPages() / layout().groupPages;
+    }
+
+    /** @return the number of rows stored in each full row group */
+    public int getGroupRows() {
+        return layout().groupRows;
+    }
+
+    /**
+     * Fetches a page through the BufferPool. Pages fetched to be changed are
+     * pinned until the insert or delete in progress is done, so that the
+     * pool neither writes nor evicts them half changed.
+     */
+    private ColumnarPage getPage(TransactionId tid, int pageNo, Permissions perm)
+            throws DbException, TransactionAbortedException {
+        HeapPageId pid = new HeapPageId(getId(), pageNo);
+        if (perm == Permissions.READ_ONLY)
+            return (ColumnarPage) Database.getBufferPool().getPage(tid, pid, perm);
+        ColumnarPage page = (ColumnarPage) Database.getBufferPool().pinPage(tid, pid, perm);
+        pinned.add(pid);
+        return page;
+    }
+
+    /** Unpins the pages getPage pinned. */
+    private void unpinAll() {
+        for (PageId pid : pinned)
+            Database.getBufferPool().unpinPage(pid);
+        pinned.clear();
+    }
+
+    /** Serializes f into the page at offset, at the width of column c. */
+    private void putField(ColumnarPage page, int off, int c, Field f) {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(td.getFieldSize(c));
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            if (f instanceof StringField)
+                ((StringField) f).serialize(dos, td.getFieldWidth(c));
+            else
+                f.serialize(dos);
+            dos.flush();
+        } catch (IOException e) {
+            // writes to a byte array do not fail
+            throw new RuntimeException(e);
+        }
+        page.captureBeforeImage();
+        System.arraycopy(baos.toByteArray(), 0, page.data, off, td.getFieldSize(c));
+    }
+
+    /**
+     * Appends the tuple to the last row group, starting a new group if that
+     * one is full.
+     */
+    public synchronized ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        try {
+            return insert(tid, t);
+        } finally {
+            unpinAll();
+        }
+    }
+
+    private ArrayList<Page> insert(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        Layout l = layout();
+        int groups = numGroups();
+        ColumnarPage header = null;
+        if (groups > 0) {
+            header = getPage(tid, (groups - 1) * l.groupPages, Permissions.READ_WRITE);
+            if (header.getInt(0) >= l.groupRows)
+                header = null;
+        }
+        if (header == null) {
+            // the group bypasses the BufferPool, but not the log
+            LogFile log = Database.getLogFile();
+            byte[][] blank = new byte[l.groupPages][];
+            for (int i = 0; i < blank.length; i++) {
+                blank[i] = new byte[l.pageSize];
+                ColumnarPage page = new ColumnarPage(new HeapPageId(getId(), groups * l.groupPages + i), blank[i]);
+                log.logWrite(tid, page.getBeforeImage(), page);
+            }
+            log.force();
+            channel.writePages(groups * l.groupPages, blank);
+            header = getPage(tid, groups * l.groupPages, Permissions.READ_WRITE);
+        }
+
+        ArrayList<Page> output = new ArrayList<Page>();
+        int first = header.getId().pageNumber();
+        int row = header.getInt(0);
+        for (int c = 0; c < td.numFields(); c++) {
+            ColumnarPage page = getPage(tid, first + l.columnStart[c] + row / l.perPage[c], Permissions.READ_WRITE);
+            putField(page, (row % l.perPage[c]) * td.getFieldSize(c), c, t.getField(c));
+            output.add(page);
+        }
+        header.putInt(0, row + 1);
+        output.add(header);
+        for (Page p : output)
+            p.markDirty(true, tid);
+        t.setRecordId(new RecordId(header.getId(), row));
+        return output;
+    }
+
+    /**
+     * Marks the tuple deleted in the header of its row group.
+     *
+     * @throws DbException if the tuple is not stored in this file
+     */
+    public synchronized ArrayList<Page> deleteTuple(TransactionId tid, Tuple t)
+            throws DbException, TransactionAbortedException {
+        try {
+            return delete(tid, t);
+        } finally {
+            unpinAll();
+        }
+    }
+
+    private ArrayList<Page> delete(TransactionId tid, Tuple t)
+            throws DbException, TransactionAbortedException {
+        Layout l = layout();
+        RecordId rid = t.getRecordId();
+        if (rid == null || rid.getPageId().getTableId() != getId()
+                || rid.getPageId().pageNumber() % l.groupPages != 0)
+            throw new DbException("tuple is not a member of this file");
+
+        ColumnarPage header = getPage(tid, rid.getPageId().pageNumber(), Permissions.READ_WRITE);
+        int row = rid.tupleno();
+        int bit = 4 * 8 + row;
+        if (row < 0 || row >= header.getInt(0) || (header.data[bit / 8] & (1 << (bit % 8))) != 0)
+            throw new DbException("Unable to find tuple to delete");
+        header.captureBeforeImage();
+        header.data[bit / 8] |= (byte) (1 << (bit % 8));
+        header.markDirty(true, tid);
+
+        ArrayList<Page> output = new ArrayList<Page>();
+        output.add(header);
+        return output;
+    }
+
+    /**
+     * Reads a single row.
+     *
+     * @return the tuple with the given RecordId, or null if it was deleted
+     */
+    Tuple getTuple(TransactionId tid, RecordId rid) throws DbException, TransactionAbortedException {
+        Layout l = layout();
+        int first = rid.getPageId().pageNumber();
+        int row = rid.tupleno();
+        ColumnarPage header = getPage(tid, first, Permissions.READ_ONLY);
+        int bit = 4 * 8 + row;
+        if (row < 0 || row >= header.getInt(0) || (header.data[bit / 8] & (1 << (bit % 8))) != 0)
+            return null;
+        Tuple t = new Tuple(td);
+        for (int c = 0; c < td.numFields(); c++) {
+            ColumnarPage page = getPage(tid, first + l.columnStart[c] + row / l.perPage[c], Permissions.READ_ONLY);
+            t.setField(c, td.getFieldType(c).decode(page.data, (row % l.perPage[c]) * td.getFieldSize(c),
+                    td.getFieldWidth(c)));
+        }
+        t.setRecordId(new RecordId(header.getId(), row));
+        return t;
+    }
+
+    public DbFileIterator iterator(TransactionId tid) {
+        int[] all = new int[td.numFields()];
+        for (int c = 0; c < all.length; c++)
+            all[c] = c;
+        return iterator(tid, all);
+    }
+
+    /**
+     * Returns an iterator that reads only the given columns. The tuples it
+     * returns have this file's TupleDesc, but fields of other columns are
+     * null.
+     *
+     * @param tid the transaction performing the scan
+     * @param columns the indexes of the columns to read
+     */
+    public DbFileIterator iterator(TransactionId tid, int[] columns) {
+        return new ColumnarIterator(tid, columns.clone());
+    }
+
+    /** Scans the row groups in order, decoding one group at a time. */
+    private class ColumnarIterator implements DbFileIterator {
+        private final TransactionId tid;
+        private final int[] columns;
+        private Iterator<Tuple> it;
+        private int group;
+        private int numGroups;
+
+        ColumnarIterator(TransactionId tid, int[] columns) {
+            this.tid = tid;
+            this.columns = columns;
+        }
+
+        /** Decodes the live rows of row group g. */
+        private Iterator<Tuple> readGroup(int g) throws DbException, TransactionAbortedException {
+            Layout l = layout();
+            int first = g * l.groupPages;
+            ColumnarPage header = getPage(tid, first, Permissions.READ_ONLY);
+            int rows = header.getInt(0);
+            byte[] deleted = Arrays.copyOfRange(header.data, 4, header.data.length);
+
+            Tuple[] tuples = new Tuple[rows];
+            HeapPageId hpid = header.getId();
+            for (int r = 0; r < rows; r++) {
+                tuples[r] = new Tuple(td);
+                tuples[r].setRecordId(new RecordId(hpid, r));
+            }
+            for (int c : columns) {
+                Type type = td.getFieldType(c);
+                int size = td.getFieldSize(c);
+                int width = td.getFieldWidth(c);
+                for (int r = 0; r < rows; r += l.perPage[c]) {
+                    ColumnarPage page = getPage(tid, first + l.columnStart[c] + r / l.perPage[c], Permissions.READ_ONLY);
+                    int end = Math.min(rows, r + l.perPage[c]);
+                    for (int i = r; i < end; i++)
+                        tuples[i].setField(c, type.decode(page.data, (i - r) * size, width));
+                }
+            }
+
+            ArrayList<Tuple> live = new ArrayList<Tuple>(rows);
+            for (int r = 0; r < rows; r++)
+                if ((deleted[r / 8] & (1 << (r % 8))) == 0)
+                    live.add(tuples[r]);
+            return live.iterator();
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            group = 0;
+            numGroups = numGroups();
+            it = numGroups == 0 ? Collections.<Tuple>emptyList().iterator() : readGroup(0);
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            if (it == null)
+                return false;
+            while (!it.hasNext()) {
+                if (group + 1 >= numGroups)
+                    return false;
+                it = readGroup(++group);
+            }
+            return true;
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            return it.next();
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        public void close() {
+            it = null;
+        }
+    }
+}
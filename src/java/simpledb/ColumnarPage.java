@@ -0,0 +1,96 @@
+package simpledb;
+
+/**
+ * ColumnarPage is one page of a {@link ColumnarFile}: either the header page
+ * of a row group or a page holding the values of one column. The page is a
+ * plain byte image; ColumnarFile knows how to interpret it.
+ *
+ * @see ColumnarFile
+ */
+public class ColumnarPage implements Page {
+
+    final HeapPageId pid;
+    final byte[] data;
+
+    /** The before image, once captured; see setBeforeImage. */
+    private byte[] oldData;
+    /** True while the before image is the current contents, not yet copied. */
+    private boolean beforeImagePending;
+    private final Object oldDataLock = new Object();
+
+    private boolean dirtyPage;
+    private TransactionId dirty_causing_tid;
+
+    /**
+     * Creates a page from an image read from disk. The image becomes the
+     * before image, but is only copied when the page is first changed, so
+     * pages that are only scanned are never copied.
+     */
+    public ColumnarPage(HeapPageId id, byte[] data) {
+        this.pid = id;
+        this.data = data;
+        this.beforeImagePending = true;
+    }
+
+    public HeapPageId getId() {
+        return pid;
+    }
+
+    /** Reads a big-endian int at the given offset. */
+    int getInt(int off) {
+        return Type.readInt(data, off);
+    }
+
+    /** Writes a big-endian int at the given offset. */
+    void putInt(int off, int v) {
+        captureBeforeImage();
+        data[off] = (byte) (v >>> 24);
+        data[off + 1] = (byte) (v >>> 16);
+        data[off + 2] = (byte) (v >>> 8);
+        data[off + 3] = (byte) v;
+    }
+
+    public byte[] getPageData() {
+        return data.clone();
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        if (dirty)
+            captureBeforeImage();
+        dirtyPage = dirty;
+        dirty_causing_tid = tid;
+    }
+
+    public TransactionId isDirty() {
+        return dirtyPage ? dirty_causing_tid : null;
+    }
+
+    public ColumnarPage getBeforeImage() {
+        synchronized (oldDataLock) {
+            return new ColumnarPage(pid, beforeImagePending ? getPageData() : oldData.clone());
+        }
+    }
+
+    /**
+     * Makes the current contents of this page its before image; they are
+     * copied by the first change that follows.
+     */
+    public void setBeforeImage() {
+        synchronized (oldDataLock) {
+            beforeImagePending = true;
+        }
+    }
+
+    /**
+     * Captures a before image requested by setBeforeImage. Called before
+     * every change to data, including those ColumnarFile makes directly.
+     */
+    void captureBeforeImage() {
+        synchronized (oldDataLock) {
+            if (beforeImagePending) {
+                oldData = getPageData();
+                beforeImagePending = false;
+            }
+        }
+    }
+}
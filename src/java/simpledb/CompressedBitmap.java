@@ -0,0 +1,317 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * CompressedBitmap is a word-aligned hybrid (WAH) compressed set of bit
+ * positions. The bits are divided into groups of 63, and each group is
+ * stored in a 64-bit word, either as
+ * <ul>
+ * <li>a literal word: top bit clear, the group's 63 bits below it; or</li>
+ * <li>a fill word: top bit set, the next bit the value of every bit in the
+ * run, and the low 62 bits the number of groups in the run.</li>
+ * </ul>
+ * Long runs of zeros or ones take a single word, so the bitmap of a value
+ * that is rare, or that is clustered in the table, stays small. AND, OR and
+ * AND NOT work on the compressed words directly, a whole fill at a time.
+ *
+ * @see BitmapIndex
+ */
+public class CompressedBitmap {
+
+    private static final int GROUP = 63;
+    private static final long FILL = 1L << 63;
+    private static final long ONES = 1L << 62;
+    private static final long COUNT = ONES - 1;
+    /** A literal group with every bit set. */
+    private static final long ALL = FILL - 1;
+
+    private long[] words = new long[4];
+    private int n;
+    /** Number of groups the words cover. */
+    private long groups;
+
+    /** @return a bitmap with the single bit set */
+    public static CompressedBitmap of(long bit) {
+        CompressedBitmap b = new CompressedBitmap();
+        b.add(bit);
+        return b;
+    }
+
+    private static boolean isFill(long w) {
+        return (w & FILL) != 0;
+    }
+
+    private void push(long w) {
+        if (n == words.length)
+            words = Arrays.copyOf(words, n * 2);
+        words[n++] = w;
+    }
+
+    /** Appends one group of 63 bits. */
+    private void appendGroup(long lit) {
+        if (lit == 0 || lit == ALL) {
+            appendFill(lit == ALL, 1);
+        } else {
+            push(lit);
+            groups++;
+        }
+    }
+
+    /** Appends count groups whose bits all have the value ones. */
+    private void appendFill(boolean ones, long count) {
+        if (count <= 0)
+            return;
+        groups += count;
+        long kind = FILL | (ones ? ONES : 0);
+        if (n > 0 && (words[n - 1] & ~COUNT) == kind && (words[n - 1] & COUNT) + count <= COUNT) {
+            words[n - 1] += count;
+            return;
+        }
+        while (count > COUNT) {
+            push(kind | COUNT);
+            count -= COUNT;
+        }
+        push(kind | count);
+    }
+
+    /**
+     * Sets a bit. Setting a bit past every bit already set is cheap; other
+     * bits rebuild the bitmap.
+     */
+    public void add(long bit) {
+        long g = bit / GROUP;
+        long mask = 1L << (bit % GROUP);
+        if (g >= groups) {
+            appendFill(false, g - groups);
+            appendGroup(mask);
+            return;
+        }
+        long last = n == 0 ? 0 : words[n - 1];
+        if (g == groups - 1 && !isFill(last)) {
+            n--;
+            groups--;
+            appendGroup(last | mask);
+        } else if (g == groups - 1 && (last & ~COUNT) == FILL) {
+            // the last group is the end of a run of zeros
+            if ((last & COUNT) == 1)
+                n--;
+            else
+                words[n - 1]--;
+            groups--;
+            appendGroup(mask);
+        } else if (g == groups - 1) {
+            // the last group is in a run of ones, so the bit is already set
+            return;
+        } else {
+            copyFrom(or(of(bit)));
+        }
+    }
+
+    /** Clears a bit. */
+    public void remove(long bit) {
+        if (bit / GROUP < groups)
+            copyFrom(andNot(of(bit)));
+    }
+
+    private void copyFrom(CompressedBitmap b) {
+        words = b.words;
+        n = b.n;
+        groups = b.groups;
+    }
+
+    /** @return true if no bit is set */
+    public boolean isEmpty() {
+        for (int i = 0; i < n; i++)
+            if (isFill(words[i]) ? (words[i] & ONES) != 0 : words[i] != 0)
+                return false;
+        return true;
+    }
+
+    /** @return the number of bits set */
+    public long cardinality() {
+        long c = 0;
+        for (int i = 0; i < n; i++) {
+            long w = words[i];
+            if (!isFill(w))
+                c += Long.bitCount(w);
+            else if ((w & ONES) != 0)
+                c += (w & COUNT) * GROUP;
+        }
+        return c;
+    }
+
+    /** @return the number of 64-bit words the bitmap takes */
+    public int sizeInWords() {
+        return n;
+    }
+
+    private static final int AND = 0, OR = 1, AND_NOT = 2;
+
+    /** @return the bits set in both this bitmap and b */
+    public CompressedBitmap and(CompressedBitmap b) {
+        return combine(this, b, AND);
+    }
+
+    /** @return the bits set in this bitmap or b */
+    public CompressedBitmap or(CompressedBitmap b) {
+        return combine(this, b, OR);
+    }
+
+    /** @return the bits set in this bitmap but not in b */
+    public CompressedBitmap andNot(CompressedBitmap b) {
+        return combine(this, b, AND_NOT);
+    }
+
+    private static long apply(int op, long x, long y) {
+        switch (op) {
+        case AND:
+            return x & y;
+        case OR:
+            return x | y;
+        default:
+            return x & ~y & ALL;
+        }
+    }
+
+    /** Reads a bitmap one run at a time; past the end it reads zeros. */
+    private static class Cursor {
+        private final CompressedBitmap b;
+        private int i;
+        /** Groups already consumed from the fill at words[i]. */
+        private long used;
+
+        Cursor(CompressedBitmap b) {
+            this.b = b;
+        }
+
+        boolean isFill() {
+            return i >= b.n || CompressedBitmap.isFill(b.words[i]);
+        }
+
+        /** @return the group the cursor is on, as a literal */
+        long group() {
+            if (i >= b.n)
+                return 0;
+            long w = b.words[i];
+            if (!CompressedBitmap.isFill(w))
+                return w;
+            return (w & ONES) != 0 ? ALL : 0;
+        }
+
+        /** @return the number of groups left in the current word */
+        long run() {
+            if (i >= b.n)
+                return Long.MAX_VALUE;
+            return isFill() ? (b.words[i] & COUNT) - used : 1;
+        }
+
+        void skip(long k) {
+            while (k > 0 && i < b.n) {
+                long r = run();
+                if (k < r) {
+                    used += k;
+                    return;
+                }
+                k -= r;
+                i++;
+                used = 0;
+            }
+        }
+    }
+
+    private static CompressedBitmap combine(CompressedBitmap a, CompressedBitmap b, int op) {
+        Cursor x = new Cursor(a), y = new Cursor(b);
+        CompressedBitmap out = new CompressedBitmap();
+        long total = op == OR ? Math.max(a.groups, b.groups) : a.groups;
+        while (out.groups < total) {
+            long left = total - out.groups;
+            long k;
+            long gx = x.group(), gy = y.group();
+            if (x.isFill() && y.isFill()) {
+                k = Math.min(left, Math.min(x.run(), y.run()));
+                out.appendFill(apply(op, gx, gy) != 0, k);
+            } else if (x.isFill() && (gx == 0 ? op != OR : op == OR)) {
+                // the left run decides the result whatever the right holds
+                k = Math.min(left, x.run());
+                out.appendFill(gx != 0, k);
+            } else if (y.isFill() && (gy == 0 ? op == AND : op != AND)) {
+                k = Math.min(left, y.run());
+                out.appendFill(op == OR, k);
+            } else {
+                k = 1;
+                out.appendGroup(apply(op, gx, gy));
+            }
+            x.skip(k);
+            y.skip(k);
+        }
+        return out;
+    }
+
+    /** Iterates over the set bits in increasing order. */
+    public class BitIterator {
+        private int i = -1;
+        private long base = -GROUP;
+        private long lit;
+        private long fillLeft;
+
+        /** @return true if there is another set bit */
+        public boolean hasNext() {
+            while (lit == 0 && fillLeft == 0) {
+                if (++i >= n)
+                    return false;
+                long w = words[i];
+                base += GROUP;
+                if (!isFill(w)) {
+                    lit = w;
+                } else if ((w & ONES) != 0) {
+                    fillLeft = (w & COUNT) * GROUP;
+                } else {
+                    base += ((w & COUNT) - 1) * GROUP;
+                }
+            }
+            return true;
+        }
+
+        /** @return the next set bit */
+        public long next() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            if (fillLeft > 0) {
+                long w = words[i];
+                long bit = base + (w & COUNT) * GROUP - fillLeft;
+                if (--fillLeft == 0)
+                    base += ((w & COUNT) - 1) * GROUP;
+                return bit;
+            }
+            int pos = Long.numberOfTrailingZeros(lit);
+            lit &= lit - 1;
+            return base + pos;
+        }
+    }
+
+    /** @return an iterator over the set bits */
+    public BitIterator iterator() {
+        return new BitIterator();
+    }
+
+    /** Writes the bitmap to a stream. */
+    public void serialize(DataOutputStream dos) throws IOException {
+        dos.writeLong(groups);
+        dos.writeInt(n);
+        for (int i = 0; i < n; i++)
+            dos.writeLong(words[i]);
+    }
+
+    /** Reads a bitmap written by {@link #serialize}. */
+    public static CompressedBitmap parse(DataInputStream dis) throws IOException {
+        CompressedBitmap b = new CompressedBitmap();
+        b.groups = dis.readLong();
+        b.n = dis.readInt();
+        b.words = new long[Math.max(b.n, 4)];
+        for (int i = 0; i < b.n; i++)
+            b.words[i] = dis.readLong();
+        return b;
+    }
+}
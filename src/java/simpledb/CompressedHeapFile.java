@@ -0,0 +1,276 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * CompressedHeapFile is a HeapFile whose pages are compressed with
+ * {@link PageCodec} on the way to disk and decompressed when they are read
+ * back. In the BufferPool the pages are ordinary HeapPages; only the bytes
+ * on disk change, so scans of tables with small or repetitive values read
+ * fewer bytes.
+ * <p>
+ * Compressed pages vary in size, so they are no longer at pageNo * pageSize.
+ * A page map, kept in a second file next to the data file with the suffix
+ * <code>.pmap</code>, records the offset and length of each page's image in
+ * the data file, 12 bytes per page. A rewritten page that still fits in its
+ * old space is written in place, and the space it no longer needs is
+ * released. Otherwise it goes to the first free extent large enough for it,
+ * or is appended to the data file if there is none, and its old space is
+ * released once the page map points past it. The free extents are the gaps
+ * between the images the page map names, so they are rebuilt from the map
+ * when the file is opened; {@link #getFreeBytes} reports their total size.
+ *
+ * @see PageCodec
+ */
+public class CompressedHeapFile extends HeapFile {
+
+    /** Bytes per page map entry: an 8-byte offset and a 4-byte length. */
+    static final int MAP_ENTRY = 12;
+
+    final PageChannel mapChannel;
+
+    private long[] offsets;
+    private int[] lengths;
+    private int count;
+    private long dataEnd;
+    /** Unused extents of the data file, by offset, never adjacent. */
+    private final TreeMap<Long, Integer> free = new TreeMap<Long, Integer>();
+    private long freeBytes;
+
+    /**
+     * Constructs a compressed heap file backed by the specified file and
+     * its page map.
+     *
+     * @param f the file that stores the compressed pages
+     * @param td the schema of the tuples stored in this file
+     */
+    public CompressedHeapFile(File f, TupleDesc td) {
+        super(f, td);
+        this.mapChannel = new PageChannel(new File(f.getPath() + ".pmap"));
+    }
+
+    /** Loads the page map on first use. */
+    private void loadMap() throws IOException {
+        if (offsets != null)
+            return;
+        int n = (int) (mapChannel.size() / MAP_ENTRY);
+        byte[] raw = new byte[n * MAP_ENTRY];
+        mapChannel.read(0, raw);
+        offsets = new long[Math.max(n, 16)];
+        lengths = new int[Math.max(n, 16)];
+        for (int p = 0; p < n; p++) {
+            offsets[p] = ((long) Type.readInt(raw, p * MAP_ENTRY) << 32)
+                    | (Type.readInt(raw, p * MAP_ENTRY + 4) & 0xffffffffL);
+            lengths[p] = Type.readInt(raw, p * MAP_ENTRY + 8);
+        }
+        count = n;
+        dataEnd = channel.size();
+        rebuildFree();
+    }
+
+    /** Rebuilds the free extents from the gaps between mapped images. */
+    private void rebuildFree() {
+        free.clear();
+        freeBytes = 0;
+        Integer[] pages = new Integer[count];
+        for (int p = 0; p < count; p++)
+            pages[p] = p;
+        Arrays.sort(pages, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return offsets[a] < offsets[b] ? -1 : (offsets[a] == offsets[b] ? 0 : 1);
+            }
+        });
+        long end = 0;
+        for (int p : pages) {
+            if (lengths[p] == 0)
+                continue;
+            if (offsets[p] > end)
+                release(end, (int) (offsets[p] - end));
+            end = Math.max(end, offsets[p] + lengths[p]);
+        }
+        if (dataEnd > end)
+            release(end, (int) (dataEnd - end));
+    }
+
+    /** Adds an extent to the free list, merging it with its neighbours. */
+    private void release(long offset, int length) {
+        if (length <= 0)
+            return;
+        freeBytes += length;
+        Map.Entry<Long, Integer> before = free.floorEntry(offset);
+        if (before != null && before.getKey() + before.getValue() == offset) {
+            free.remove(before.getKey());
+            offset = before.getKey();
+            length += before.getValue();
+        }
+        Integer after = free.remove(offset + length);
+        if (after != null)
+            length += after;
+        free.put(offset, length);
+    }
+
+    /**
+     * Takes space for an image of the given length from the first free
+     * extent that holds it.
+     *
+     * @return the offset of the space, or -1 if no free extent is large
+     *   enough
+     */
+    private long allocate(int length) {
+        for (Map.Entry<Long, Integer> e : free.entrySet()) {
+            if (e.getValue() < length)
+                continue;
+            long offset = e.getKey();
+            free.remove(offset);
+            if (e.getValue() > length)
+                free.put(offset + length, e.getValue() - length);
+            freeBytes -= length;
+            return offset;
+        }
+        return -1;
+    }
+
+    /** Compresses a page image and records where it was written. */
+    private synchronized void writeImage(int pageNo, byte[] image) throws IOException {
+        loadMap();
+        byte[] data = PageCodec.compress(image, getTupleDesc());
+        if (pageNo >= offsets.length) {
+            offsets = Arrays.copyOf(offsets, Math.max(pageNo + 1, offsets.length * 2));
+            lengths = Arrays.copyOf(lengths, offsets.length);
+        }
+        long oldOffset = pageNo < count ? offsets[pageNo] : 0;
+        int oldLength = pageNo < count ? lengths[pageNo] : 0;
+        long offset;
+        if (oldLength > 0 && data.length <= oldLength) {
+            offset = oldOffset;
+        } else {
+            offset = allocate(data.length);
+            if (offset < 0) {
+                offset = dataEnd;
+                dataEnd += data.length;
+            }
+        }
+        channel.write(offset, data);
+
+        offsets[pageNo] = offset;
+        lengths[pageNo] = data.length;
+        if (pageNo >= count)
+            count = pageNo + 1;
+        byte[] entry = new byte[MAP_ENTRY];
+        for (int i = 0; i < 8; i++)
+            entry[i] = (byte) (offset >>> (56 - 8 * i));
+        for (int i = 0; i < 4; i++)
+            entry[8 + i] = (byte) (data.length >>> (24 - 8 * i));
+        mapChannel.write((long) pageNo * MAP_ENTRY, entry);
+
+        // released only now that the map no longer names it
+        if (offset == oldOffset)
+            release(offset + data.length, oldLength - data.length);
+        else
+            release(oldOffset, oldLength);
+    }
+
+    /** @return the uncompressed image of a page, or null if it does not exist */
+    private byte[] readImage(int pageNo) throws IOException {
+        long offset;
+        int length;
+        synchronized (this) {
+            loadMap();
+            if (pageNo >= count || lengths[pageNo] == 0)
+                return null;
+            offset = offsets[pageNo];
+            length = lengths[pageNo];
+        }
+        byte[] data = new byte[length];
+        channel.read(offset, data);
+        return PageCodec.decompress(data, getTupleDesc(), BufferPool.getPageSize());
+    }
+
+    /**
+     * Reads and decompresses the specified page.
+     *
+     * @throws IllegalArgumentException if the page does not exist in this file.
+     */
+    public Page readPage(PageId pid) {
+        try {
+            byte[] image = readImage(pid.pageNumber());
+            if (image == null)
+                throw new IllegalArgumentException("page " + pid.pageNumber() + " does not exist in " + getFile());
+            return new HeapPage((HeapPageId) pid, image);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    /** Compresses the page and writes it to disk. */
+    public void writePage(Page page) throws IOException {
+        writeImage(page.getId().pageNumber(), page.getPageData());
+    }
+
+    void writePages(int firstPage, byte[][] images) throws IOException {
+        // each image is placed on its own, in place or appended
+        appendPages(firstPage, images);
+    }
+
+    void appendPages(int firstPage, byte[][] images) throws IOException {
+        for (int i = 0; i < images.length; i++)
+            writeImage(firstPage + i, images[i]);
+    }
+
+    void readHeader(int pageNo, byte[] header) throws IOException {
+        byte[] image = readImage(pageNo);
+        if (image != null)
+            System.arraycopy(image, 0, header, 0, header.length);
+    }
+
+    /**
+     * Drops the page map entries of the pages at and beyond numPages, and
+     * the data past the end of the last image still in use.
+     */
+    synchronized void truncate(int numPages) throws IOException {
+        loadMap();
+        if (numPages >= count)
+            return;
+        count = numPages;
+        long end = 0;
+        for (int p = 0; p < count; p++)
+            end = Math.max(end, offsets[p] + lengths[p]);
+        dataEnd = end;
+        mapChannel.truncate((long) count * MAP_ENTRY);
+        channel.truncate(end);
+        rebuildFree();
+    }
+
+    /** @return the number of pages in the page map */
+    public synchronized int numPages() {
+        try {
+            loadMap();
+            return count;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return 0;
+        }
+    }
+
+    /** @return the number of bytes of compressed page images on disk */
+    public long getDataSize() throws IOException {
+        return channel.size();
+    }
+
+    /**
+     * @return the number of bytes of the data file that hold no page image:
+     *   space released by rewritten pages and not yet reused
+     */
+    public synchronized long getFreeBytes() throws IOException {
+        loadMap();
+        return freeBytes;
+    }
+
+    /** Closes the data file and the page map. */
+    public void close() {
+        super.close();
+        mapChannel.close();
+    }
+}
@@ -0,0 +1,34 @@
+package simpledb;
+
+/**
+ * A DbIndex is a DbFile that indexes one field of another table. It is
+ * registered with {@link Catalog#addIndex}, after which the BufferPool keeps
+ * it up to date: every tuple inserted into or deleted from the table is
+ * passed to the index's insertTuple or deleteTuple, with its RecordId set.
+ * <p>
+ * The tuples an index returns have a single field, the key, and carry the
+ * RecordId of the table tuple they point to; {@link IndexScan} follows
+ * these to the table.
+ */
+public interface DbIndex extends DbFile {
+
+    /** @return the id of the table this index is built on */
+    public int getTableId();
+
+    /** @return the index of the field of that table the index is keyed on */
+    public int getKeyField();
+
+    /**
+     * @return true if {@link #indexIterator} can find the keys that satisfy
+     *   op without reading the whole index
+     */
+    public boolean supports(Predicate.Op op);
+
+    /**
+     * Returns an iterator over the entries whose key satisfies ipred.
+     *
+     * @param tid the transaction performing the lookup
+     * @param ipred the predicate the keys must satisfy
+     */
+    public DbFileIterator indexIterator(TransactionId tid, IndexPredicate ipred);
+}
@@ -0,0 +1,92 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Replays one page access trace through BufferPools of several sizes with
+ * each {@link EvictionPolicy} and prints their hit ratios.
+ * <p>
+ * Usage: <code>java simpledb.EvictionBenchmark [numTuples] [phases]</code>
+ * <p>
+ * The table is the one of the EvictionTest system test: numTuples rows
+ * (1024*500 by default) of two int fields. The trace alternates phases of
+ * point lookups, nine in ten of them to a hot set of a twentieth of the
+ * pages, with full sequential scans like EvictionTest's, which a policy
+ * should not let flush the hot set out of the pool.
+ */
+public class EvictionBenchmark {
+
+    static final String[] POLICIES = { "clock", "lru-k", "2q" };
+    static final int[] POOL_SIZES = { 16, 64, 256 };
+    static final int LOOKUPS_PER_PHASE = 5000;
+
+    /** @return a heap file of numTuples rows of two int fields */
+    static HeapFile createTable(int numTuples) throws Exception {
+        File f = File.createTempFile("eviction", ".dat");
+        f.deleteOnExit();
+        ZoneMap.fileFor(f).deleteOnExit();
+        HeapFile hf = new HeapFile(f, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(hf, "eviction_" + f.getName());
+        TransactionId tid = new TransactionId();
+        ArrayList<Tuple> batch = new ArrayList<Tuple>();
+        for (int i = 0; i < numTuples; i++) {
+            batch.add(Utility.getHeapTuple(new int[] { i, -i }));
+            if (batch.size() == 10000 || i == numTuples - 1) {
+                hf.insertTuples(tid, batch);
+                batch.clear();
+            }
+        }
+        return hf;
+    }
+
+    /** @return the page numbers of the trace, in order */
+    static int[] trace(int numPages, int phases) {
+        Random r = new Random(0);
+        int[] hot = new int[Math.max(1, numPages / 20)];
+        for (int i = 0; i < hot.length; i++)
+            hot[i] = r.nextInt(numPages);
+        int[] out = new int[phases * LOOKUPS_PER_PHASE + (phases / 2) * numPages];
+        int n = 0;
+        for (int phase = 0; phase < phases; phase++) {
+            for (int i = 0; i < LOOKUPS_PER_PHASE; i++)
+                out[n++] = r.nextInt(10) < 9 ? hot[r.nextInt(hot.length)] : r.nextInt(numPages);
+            if (phase % 2 == 1)
+                for (int p = 0; p < numPages; p++)
+                    out[n++] = p;
+        }
+        return out;
+    }
+
+    /** Replays the trace through a fresh pool; returns its hit ratio. */
+    static double replay(HeapFile hf, int[] trace, String policy, int poolPages) throws Exception {
+        System.setProperty(BufferPool.EVICTION_PROPERTY, policy);
+        BufferPool bp = Database.resetBufferPool(poolPages);
+        TransactionId tid = new TransactionId();
+        for (int pageNo : trace)
+            bp.getPage(tid, new HeapPageId(hf.getId(), pageNo), Permissions.READ_ONLY);
+        return (double) bp.getHitCount() / (bp.getHitCount() + bp.getMissCount());
+    }
+
+    public static void main(String[] args) throws Exception {
+        int numTuples = args.length > 0 ? Integer.parseInt(args[0]) : 1024 * 500;
+        int phases = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        String saved = System.getProperty(BufferPool.EVICTION_PROPERTY);
+
+        HeapFile hf = createTable(numTuples);
+        int[] trace = trace(hf.numPages(), phases);
+        System.out.println("pages=" + hf.numPages() + " accesses=" + trace.length);
+        for (int poolPages : POOL_SIZES) {
+            StringBuilder line = new StringBuilder(String.format("pool=%-4d", poolPages));
+            for (String policy : POLICIES)
+                line.append(String.format("  %s=%.3f", policy, replay(hf, trace, policy, poolPages)));
+            System.out.println(line);
+        }
+
+        if (saved == null)
+            System.clearProperty(BufferPool.EVICTION_PROPERTY);
+        else
+            System.setProperty(BufferPool.EVICTION_PROPERTY, saved);
+        hf.close();
+    }
+}
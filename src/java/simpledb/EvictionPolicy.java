@@ -0,0 +1,38 @@
+package simpledb;
+
+/**
+ * EvictionPolicy decides which page the BufferPool gives up when it needs
+ * room. The BufferPool reports every page that enters the pool, every later
+ * access to a cached page, and every page that leaves it; when the pool is
+ * full it asks {@link #chooseVictim} for a page to evict.
+ * <p>
+ * The policies are {@link ClockPolicy}, {@link LruKPolicy} and
+ * {@link TwoQueuePolicy}; {@link BufferPool#createPolicy} builds one by
+ * name. Implementations must be thread-safe, since pages are accessed
+ * concurrently.
+ */
+public interface EvictionPolicy {
+
+    /** Tells a policy which pages the BufferPool is able to evict. */
+    public interface Filter {
+        /** @return true if the page may be evicted now */
+        boolean evictable(PageId pid);
+    }
+
+    /** Called when a page is read or put into the pool. */
+    void pageAdded(PageId pid);
+
+    /** Called when a cached page is accessed again. */
+    void pageAccessed(PageId pid);
+
+    /** Called when a page leaves the pool, evicted or discarded. */
+    void pageRemoved(PageId pid);
+
+    /**
+     * Chooses the page to evict among the cached pages that the filter
+     * accepts. The page stays tracked until {@link #pageRemoved} is called.
+     *
+     * @return the page to evict, or null if the filter accepts none
+     */
+    PageId chooseVictim(Filter filter);
+}
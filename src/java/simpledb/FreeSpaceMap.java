@@ -0,0 +1,101 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * FreeSpaceMap tracks the number of free tuple slots on each page of a
+ * HeapFile, so that inserts can go straight to a page with room instead of
+ * fetching every page from the start of the file.
+ * <p>
+ * The map is not persisted; it is rebuilt the first time it is needed after
+ * the file is opened. Pages that are cached in the BufferPool are counted
+ * from the cached copy, and all other pages from their header bytes alone,
+ * read straight from disk so the rebuild does not pollute the BufferPool.
+ * Pages appended to the file by other means are picked up the same way.
+ * <p>
+ * Entries are hints: a caller that finds a page fuller than the map says
+ * must correct the entry with {@link #update} and ask again.
+ */
+public class FreeSpaceMap {
+
+    private final HeapFile file;
+    private int[] free = new int[0];
+    /** Pages with at least one free slot. */
+    private final BitSet hasSpace = new BitSet();
+    private int numPages = 0;
+
+    /**
+     * @param file the heap file whose pages this map describes
+     */
+    public FreeSpaceMap(HeapFile file) {
+        this.file = file;
+    }
+
+    /**
+     * Returns the number of a page believed to have a free slot, preferring
+     * the lowest page number.
+     *
+     * @return a page number, or -1 if no page in the file has room
+     */
+    public synchronized int findPage() throws IOException {
+        refresh();
+        int p = hasSpace.nextSetBit(0);
+        return p < numPages ? p : -1;
+    }
+
+    /**
+     * Records the number of free slots on a page, growing the map if the
+     * page is past its current end.
+     */
+    public synchronized void update(int pageNo, int freeSlots) {
+        ensureCapacity(pageNo + 1);
+        if (pageNo >= numPages)
+            numPages = pageNo + 1;
+        free[pageNo] = freeSlots;
+        hasSpace.set(pageNo, freeSlots > 0);
+    }
+
+    /** @return the recorded number of free slots on a page */
+    public synchronized int getFreeSlots(int pageNo) {
+        return pageNo < numPages ? free[pageNo] : 0;
+    }
+
+    /** Forgets pages at and beyond newNumPages, e.g. after truncation. */
+    public synchronized void truncate(int newNumPages) {
+        if (newNumPages < numPages) {
+            hasSpace.clear(newNumPages, numPages);
+            numPages = newNumPages;
+        }
+    }
+
+    private void ensureCapacity(int n) {
+        if (free.length < n)
+            free = Arrays.copyOf(free, Math.max(n, free.length * 2));
+    }
+
+    /** Adds entries for pages the map has not seen yet. */
+    private void refresh() throws IOException {
+        int filePages = file.numPages();
+        if (filePages <= numPages)
+            return;
+        int numSlots = HeapPage.getNumTuples(file.getTupleDesc());
+        byte[] header = new byte[HeapPage.getHeaderSize(numSlots)];
+        ensureCapacity(filePages);
+        for (int p = numPages; p < filePages; p++) {
+            Page cached = Database.getBufferPool().peekPage(new HeapPageId(file.getId(), p));
+            int n;
+            if (cached instanceof HeapPage) {
+                n = ((HeapPage) cached).getNumEmptySlots();
+            } else {
+                Arrays.fill(header, (byte) 0);
+                file.readHeader(p, header);
+                n = HeapPage.countEmptySlots(header, numSlots);
+            }
+            free[p] = n;
+            hasSpace.set(p, n > 0);
+        }
+        numPages = filePages;
+    }
+}
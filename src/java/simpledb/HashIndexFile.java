@@ -0,0 +1,473 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * HashIndexFile is an extendible hash index on one field of a table, for
+ * equality lookups. Each key hashes to a bucket, a {@link HashPage} read and
+ * cached through the BufferPool, which holds the entries, key and RecordId,
+ * of the table tuples with keys that hash there. A lookup reads a single
+ * bucket page however large the table grows.
+ * <p>
+ * The directory maps the low <i>global depth</i> bits of a hash to a bucket
+ * page. It is kept in memory and saved in a second file next to the index
+ * with the suffix <code>.hdir</code>: the global depth followed by one int
+ * page number per directory slot. When a bucket fills, it is split on the
+ * next bit of the hash, doubling the directory if the bucket already uses
+ * all of its bits. A bucket whose entries all have the same hash cannot be
+ * split; it grows a chain of overflow pages instead.
+ * <p>
+ * Buckets are not merged when entries are deleted. Like a {@link BTreeFile},
+ * the index is kept up to date by the BufferPool once it is registered with
+ * {@link Catalog#addIndex}.
+ */
+public class HashIndexFile implements DbIndex, Closeable {
+
+    /** The largest global depth; buckets that would need more overflow. */
+    static final int MAX_DEPTH = 20;
+
+    private final File file;
+    private final int tableId;
+    private final int keyField;
+    private final TupleDesc td;
+    final PageChannel channel;
+    final PageChannel dirChannel;
+
+    private int globalDepth;
+    private int[] directory;
+
+    /** Pages pinned by the insert or delete in progress; see getPage. */
+    private final ArrayList<PageId> pinned = new ArrayList<PageId>();
+
+    /**
+     * Constructs a hash index on a field of a table.
+     *
+     * @param f the file that stores the index
+     * @param table the table the index is built on
+     * @param keyField the index of the field the index is keyed on
+     */
+    public HashIndexFile(File f, DbFile table, int keyField) {
+        this.file = f;
+        this.tableId = table.getId();
+        this.keyField = keyField;
+        TupleDesc tableTd = table.getTupleDesc();
+        this.td = new TupleDesc(new Type[] { tableTd.getFieldType(keyField) },
+                new String[] { tableTd.getFieldName(keyField) },
+                new int[] { tableTd.getFieldWidth(keyField) });
+        this.channel = new PageChannel(f);
+        this.dirChannel = new PageChannel(new File(f.getPath() + ".hdir"));
+    }
+
+    /** @return the File backing this index on disk */
+    public File getFile() {
+        return file;
+    }
+
+    /** @return the channel used for all page I/O against this file */
+    public PageChannel getChannel() {
+        return channel;
+    }
+
+    /** Closes the index and directory files. */
+    public void close() {
+        channel.close();
+        dirChannel.close();
+    }
+
+    public int getId() {
+        return file.getAbsoluteFile().hashCode();
+    }
+
+    /** @return a schema with the key field only */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public int getTableId() {
+        return tableId;
+    }
+
+    public int getKeyField() {
+        return keyField;
+    }
+
+    /** @return the number of hash bits the directory uses */
+    public synchronized int getGlobalDepth() throws IOException {
+        loadDirectory();
+        return globalDepth;
+    }
+
+    /**
+     * Read the specified page from disk.
+     *
+     * @throws IllegalArgumentException if the page does not exist in this file.
+     */
+    public Page readPage(PageId pid) {
+        try {
+            byte[] data = channel.readPage(pid.pageNumber(), BufferPool.getPageSize());
+            if (data == null)
+                throw new IllegalArgumentException("page " + pid.pageNumber() + " does not exist in " + file);
+            return new HashPage((HeapPageId) pid, data);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    public void writePage(Page page) throws IOException {
+        channel.writePage(page.getId().pageNumber(), page.getPageData());
+    }
+
+    /** @return the number of pages in this file */
+    public int numPages() {
+        try {
+            return (int) (channel.size() / BufferPool.getPageSize());
+        } catch (IOException e) {
+            e.printStackTrace();
+            return 0;
+        }
+    }
+
+    /** Spreads the bits of a key's hashCode, whose low bits pick the bucket. */
+    static int hash(Field key) {
+        int h = key.hashCode();
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    /** Loads the directory on first use, creating the first bucket if needed. */
+    private void loadDirectory() throws IOException {
+        if (directory != null)
+            return;
+        if (numPages() == 0)
+            channel.writePage(0, HashPage.createEmptyPageData());
+        int n = (int) (dirChannel.size() / 4);
+        if (n == 0) {
+            globalDepth = 0;
+            directory = new int[] { 0 };
+            return;
+        }
+        byte[] raw = new byte[n * 4];
+        dirChannel.read(0, raw);
+        globalDepth = Type.readInt(raw, 0);
+        directory = new int[1 << globalDepth];
+        for (int i = 0; i < directory.length; i++)
+            directory[i] = Type.readInt(raw, 4 + 4 * i);
+    }
+
+    /** Saves the directory. */
+    private void writeDirectory() throws IOException {
+        byte[] raw = new byte[4 + 4 * directory.length];
+        writeInt(raw, 0, globalDepth);
+        for (int i = 0; i < directory.length; i++)
+            writeInt(raw, 4 + 4 * i, directory[i]);
+        dirChannel.write(0, raw);
+    }
+
+    private static void writeInt(byte[] b, int off, int v) {
+        b[off] = (byte) (v >>> 24);
+        b[off + 1] = (byte) (v >>> 16);
+        b[off + 2] = (byte) (v >>> 8);
+        b[off + 3] = (byte) v;
+    }
+
+    /** @return the page number of the first page of the bucket for hash h */
+    private synchronized int bucketFor(int h) throws IOException {
+        loadDirectory();
+        return directory[h & ((1 << globalDepth) - 1)];
+    }
+
+    /**
+     * Fetches a page through the BufferPool. Pages fetched to be changed are
+     * pinned until the insert or delete in progress is done, so that the
+     * pool neither writes nor evicts them half changed.
+     */
+    private HashPage getPage(TransactionId tid, int pageNo, Permissions perm)
+            throws DbException, TransactionAbortedException {
+        HeapPageId pid = new HeapPageId(getId(), pageNo);
+        if (perm == Permissions.READ_ONLY)
+            return (HashPage) Database.getBufferPool().getPage(tid, pid, perm);
+        HashPage page = (HashPage) Database.getBufferPool().pinPage(tid, pid, perm);
+        pinned.add(pid);
+        return page;
+    }
+
+    /** Unpins the pages getPage pinned. */
+    private void unpinAll() {
+        for (PageId pid : pinned)
+            Database.getBufferPool().unpinPage(pid);
+        pinned.clear();
+    }
+
+    /** Extends the file by one empty page and returns it. */
+    private HashPage newPage(TransactionId tid) throws DbException, IOException, TransactionAbortedException {
+        int pageNo = numPages();
+        channel.writePage(pageNo, HashPage.createEmptyPageData());
+        return getPage(tid, pageNo, Permissions.READ_WRITE);
+    }
+
+    /** @return the entry for a table tuple */
+    private BTreePage.Entry entryFor(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || rid.getPageId().getTableId() != tableId)
+            throw new DbException("tuple is not stored in the indexed table");
+        return new BTreePage.Entry(t.getField(keyField), rid.getPageId().pageNumber(), rid.tupleno());
+    }
+
+    /** Marks a page dirty and records it for the caller. */
+    private void dirty(TransactionId tid, HashPage page, ArrayList<Page> dirtied) {
+        page.markDirty(true, tid);
+        dirtied.add(page);
+    }
+
+    /**
+     * Adds the entry for a tuple of the indexed table to its bucket,
+     * splitting the bucket first if it is full.
+     *
+     * @param t a tuple of the indexed table, with its RecordId set
+     * @return the pages that were modified
+     */
+    public synchronized ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        try {
+            return insert(tid, t);
+        } finally {
+            unpinAll();
+        }
+    }
+
+    private ArrayList<Page> insert(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        BTreePage.Entry e = entryFor(t);
+        int h = hash(e.key);
+        int max = HashPage.getMaxEntries(td);
+        ArrayList<Page> dirtied = new ArrayList<Page>();
+
+        // keep working on the page objects split and newPage hand back: if
+        // the BufferPool has flushed them meanwhile, fetching them again
+        // would return their old contents
+        HashPage page = getPage(tid, bucketFor(h), Permissions.READ_WRITE);
+        while (page.overflow == 0 && page.entries.size() >= max && canSplit(page, h))
+            page = split(tid, page, h, dirtied);
+
+        while (page.entries.size() >= max) {
+            if (page.overflow == 0) {
+                HashPage next = newPage(tid);
+                next.depth = page.depth;
+                page.overflow = next.getId().pageNumber();
+                dirty(tid, page, dirtied);
+                page = next;
+            } else {
+                page = getPage(tid, page.overflow, Permissions.READ_WRITE);
+            }
+        }
+        page.entries.add(e);
+        dirty(tid, page, dirtied);
+        return dirtied;
+    }
+
+    /**
+     * @return true if splitting the bucket would separate some of its
+     *   entries, or the new entry with hash h, from the others
+     */
+    private boolean canSplit(HashPage page, int h) {
+        if (page.depth >= MAX_DEPTH)
+            return false;
+        int mask = (1 << MAX_DEPTH) - 1;
+        for (BTreePage.Entry e : page.entries)
+            if ((hash(e.key) & mask) != (h & mask))
+                return true;
+        return false;
+    }
+
+    /**
+     * Splits a bucket on the next bit of the hash, moving the entries with
+     * that bit set to a new page and pointing half of the bucket's directory
+     * slots at it.
+     *
+     * @return the half of the split bucket that hash h now maps to
+     */
+    private HashPage split(TransactionId tid, HashPage page, int h, ArrayList<Page> dirtied)
+            throws DbException, IOException, TransactionAbortedException {
+        int d = page.depth;
+        if (d == globalDepth) {
+            directory = Arrays.copyOf(directory, directory.length * 2);
+            System.arraycopy(directory, 0, directory, directory.length / 2, directory.length / 2);
+            globalDepth++;
+        }
+
+        HashPage sibling = newPage(tid);
+        page.depth = sibling.depth = d + 1;
+        Iterator<BTreePage.Entry> it = page.entries.iterator();
+        while (it.hasNext()) {
+            BTreePage.Entry e = it.next();
+            if (((hash(e.key) >>> d) & 1) != 0) {
+                sibling.entries.add(e);
+                it.remove();
+            }
+        }
+        int pageNo = page.getId().pageNumber();
+        for (int i = 0; i < directory.length; i++)
+            if (directory[i] == pageNo && ((i >>> d) & 1) != 0)
+                directory[i] = sibling.getId().pageNumber();
+        writeDirectory();
+        dirty(tid, page, dirtied);
+        dirty(tid, sibling, dirtied);
+        return ((h >>> d) & 1) != 0 ? sibling : page;
+    }
+
+    /**
+     * Removes the entry for a tuple of the indexed table.
+     *
+     * @param t a tuple of the indexed table, with its RecordId set
+     * @throws DbException if the tuple has no entry in the index
+     */
+    public synchronized ArrayList<Page> deleteTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        try {
+            return delete(tid, t);
+        } finally {
+            unpinAll();
+        }
+    }
+
+    private ArrayList<Page> delete(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        BTreePage.Entry e = entryFor(t);
+        int pageNo = bucketFor(hash(e.key));
+        while (true) {
+            HashPage page = getPage(tid, pageNo, Permissions.READ_WRITE);
+            for (int i = 0; i < page.entries.size(); i++) {
+                if (page.entries.get(i).compareTo(e) == 0) {
+                    page.entries.remove(i);
+                    ArrayList<Page> dirtied = new ArrayList<Page>();
+                    dirty(tid, page, dirtied);
+                    return dirtied;
+                }
+            }
+            if (page.overflow == 0)
+                throw new DbException("tuple is not in the index");
+            pageNo = page.overflow;
+        }
+    }
+
+    /**
+     * Finds the tuples of the indexed table with the given key.
+     *
+     * @return the RecordIds of the tuples
+     */
+    public ArrayList<RecordId> lookup(TransactionId tid, Field key)
+            throws DbException, TransactionAbortedException {
+        ArrayList<RecordId> out = new ArrayList<RecordId>();
+        int pageNo;
+        try {
+            pageNo = bucketFor(hash(key));
+        } catch (IOException e) {
+            throw new DbException("cannot read hash directory: " + e.getMessage());
+        }
+        while (true) {
+            HashPage page = getPage(tid, pageNo, Permissions.READ_ONLY);
+            for (BTreePage.Entry e : page.entries)
+                if (e.key.compare(Predicate.Op.EQUALS, key))
+                    out.add(new RecordId(new HeapPageId(tableId, e.pageNo), e.slot));
+            if (page.overflow == 0)
+                return out;
+            pageNo = page.overflow;
+        }
+    }
+
+    /** Only EQUALS can be answered from a single bucket. */
+    public boolean supports(Predicate.Op op) {
+        return op == Predicate.Op.EQUALS;
+    }
+
+    /**
+     * Returns the matching entries. EQUALS reads one bucket; other
+     * comparisons read every page of the index.
+     */
+    public DbFileIterator indexIterator(TransactionId tid, IndexPredicate ipred) {
+        return new HashIterator(tid, ipred);
+    }
+
+    /** @return an iterator over all entries, in no particular order */
+    public DbFileIterator iterator(TransactionId tid) {
+        return new HashIterator(tid, null);
+    }
+
+    /** Returns the entries of one bucket, or of every page, one page at a time. */
+    private class HashIterator implements DbFileIterator {
+        private final TransactionId tid;
+        private final IndexPredicate ipred;
+        private Iterator<Tuple> it;
+        private int pageNo;
+        private int numPages;
+
+        HashIterator(TransactionId tid, IndexPredicate ipred) {
+            this.tid = tid;
+            this.ipred = ipred;
+        }
+
+        private Tuple toTuple(Field key, RecordId rid) {
+            Tuple t = new Tuple(td);
+            t.setField(0, key);
+            t.setRecordId(rid);
+            return t;
+        }
+
+        /** Decodes the matching entries of the page numbered pageNo. */
+        private Iterator<Tuple> readPage() throws DbException, TransactionAbortedException {
+            HashPage page = getPage(tid, pageNo, Permissions.READ_ONLY);
+            ArrayList<Tuple> out = new ArrayList<Tuple>();
+            for (BTreePage.Entry e : page.entries)
+                if (ipred == null || ipred.matches(e.key))
+                    out.add(toTuple(e.key, new RecordId(new HeapPageId(tableId, e.pageNo), e.slot)));
+            return out.iterator();
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            if (ipred != null && ipred.getOp() == Predicate.Op.EQUALS) {
+                ArrayList<Tuple> out = new ArrayList<Tuple>();
+                for (RecordId rid : lookup(tid, ipred.getField()))
+                    out.add(toTuple(ipred.getField(), rid));
+                it = out.iterator();
+                numPages = 0;
+                return;
+            }
+            pageNo = 0;
+            numPages = numPages();
+            it = numPages == 0 ? Collections.<Tuple>emptyList().iterator() : readPage();
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            if (it == null)
+                return false;
+            while (!it.hasNext()) {
+                if (pageNo + 1 >= numPages)
+                    return false;
+                pageNo++;
+                it = readPage();
+            }
+            return true;
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            return it.next();
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        public void close() {
+            it = null;
+        }
+    }
+}
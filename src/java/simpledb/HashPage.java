@@ -0,0 +1,119 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * HashPage is one bucket page of a {@link HashIndexFile}. Layout, with
+ * every number a 4-byte big-endian int:
+ * <pre>
+ *   local depth | count | overflow | entries ...
+ * </pre>
+ * An entry is a key, at its fixed serialized size, followed by the page
+ * number and slot of the table tuple it points to, as in a BTreePage leaf.
+ * Overflow is the page number of the next page of the bucket, or 0 if there
+ * is none (page 0 is always the first bucket, never an overflow page).
+ *
+ * @see HashIndexFile
+ */
+public class HashPage implements Page {
+
+    /** Bytes taken by local depth, count and overflow. */
+    static final int HEADER_SIZE = 12;
+
+    final HeapPageId pid;
+    final TupleDesc td;
+    private byte[] oldData;
+
+    int depth;
+    int overflow;
+    final ArrayList<BTreePage.Entry> entries = new ArrayList<BTreePage.Entry>();
+
+    private boolean dirtyPage;
+    private TransactionId dirty_causing_tid;
+
+    /**
+     * Creates a HashPage from a page image read from disk.
+     */
+    public HashPage(HeapPageId id, byte[] data) {
+        this.pid = id;
+        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        Type type = td.getFieldType(0);
+        int width = td.getFieldWidth(0);
+        int keySize = td.getFieldSize(0);
+
+        depth = Type.readInt(data, 0);
+        int count = Type.readInt(data, 4);
+        overflow = Type.readInt(data, 8);
+        int off = HEADER_SIZE;
+        for (int i = 0; i < count; i++) {
+            Field key = type.decode(data, off, width);
+            entries.add(new BTreePage.Entry(key, Type.readInt(data, off + keySize), Type.readInt(data, off + keySize + 4)));
+            off += keySize + 8;
+        }
+        oldData = data.clone();
+    }
+
+    /**
+     * @return an image of an empty bucket page
+     */
+    public static byte[] createEmptyPageData() {
+        return new byte[BufferPool.getPageSize()];
+    }
+
+    /** @return the number of entries that fit on a page */
+    static int getMaxEntries(TupleDesc td) {
+        return (BufferPool.getPageSize() - HEADER_SIZE) / (td.getFieldSize(0) + 8);
+    }
+
+    public HeapPageId getId() {
+        return pid;
+    }
+
+    /** @return the number of entries on this page */
+    public int getNumEntries() {
+        return entries.size();
+    }
+
+    public byte[] getPageData() {
+        int size = BufferPool.getPageSize();
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(size);
+        DataOutputStream dos = new DataOutputStream(baos);
+        int width = td.getFieldWidth(0);
+        try {
+            dos.writeInt(depth);
+            dos.writeInt(entries.size());
+            dos.writeInt(overflow);
+            for (BTreePage.Entry e : entries) {
+                if (e.key instanceof StringField)
+                    ((StringField) e.key).serialize(dos, width);
+                else
+                    e.key.serialize(dos);
+                dos.writeInt(e.pageNo);
+                dos.writeInt(e.slot);
+            }
+            dos.flush();
+        } catch (IOException e) {
+            // writes to a byte array do not fail
+            throw new RuntimeException(e);
+        }
+        return Arrays.copyOf(baos.toByteArray(), size);
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        dirtyPage = dirty;
+        dirty_causing_tid = tid;
+    }
+
+    public TransactionId isDirty() {
+        return dirtyPage ? dirty_causing_tid : null;
+    }
+
+    public HashPage getBeforeImage() {
+        return new HashPage(pid, oldData);
+    }
+
+    public void setBeforeImage() {
+        oldData = getPageData();
+    }
+}
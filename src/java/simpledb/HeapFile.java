@@ -3,12 +3,6 @@ package simpledb;
 import java.io.*;
 import java.util.*;
 
-import com.sun.jndi.url.iiopname.iiopnameURLContextFactory;
-
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.IOException;
-
 /**
  * HeapFile is an implementation of a DbFile that stores a collection of tuples
  * in no particular order. Tuples are stored on pages, each of which is a fixed
@@ -16,10 +10,22 @@ import java.io.IOException;
  * closely with HeapPage. The format of HeapPages is described in the HeapPage
  * constructor.
  * 
+ * <p>
+ * The file grows in extents: when a write goes past the space already
+ * allocated, the file is extended by {@link #DEFAULT_EXTENT_BYTES} (see
+ * {@link #setExtentPages}) with zero pages in the same write, so appends
+ * pay for a file size change once per extent rather than once per page. The
+ * number of pages in use, the high-water mark, is tracked apart from the
+ * length of the file; on open it is found by skipping the all-zero pages at
+ * the end, which are either preallocated or empty.
+ * 
  * @see simpledb.HeapPage#HeapPage
  * @author Sam Madden
  */
-public class HeapFile implements DbFile {
+public class HeapFile implements DbFile, Closeable {
+
+	/** Default amount of space preallocated each time the file grows. */
+	public static final int DEFAULT_EXTENT_BYTES = 1 << 20;
 
 	public class HeapFileIterator implements DbFileIterator{
 
@@ -29,74 +35,159 @@ public class HeapFile implements DbFile {
 		TransactionId tid;
 		int fileID;
 		Iterator<Tuple> i = null;
+		final ReadAhead readAhead;
+		final Predicate[] preds;
+		/** Whether to read through a ring, or null to decide by size. */
+		Boolean useRing = null;
+		BufferRing ring;
+		/** The page whose tuples are being returned, pinned in pinnedIn. */
+		PageId pinned;
+		BufferPool pinnedIn;
 
 		HeapFileIterator(int pageSize, int numPages, TransactionId tid, int fileID) throws DbException, TransactionAbortedException{
+			this(pageSize, numPages, tid, fileID, null);
+		}
+
+		HeapFileIterator(int pageSize, int numPages, TransactionId tid, int fileID, Predicate[] preds) throws DbException, TransactionAbortedException{
 
 			this.curPage = 0; 
 			this.pageSize = pageSize;
 			this.numPages = numPages;
 			this.tid = tid; 
 			this.fileID = fileID;
+			this.preds = preds;
+			this.readAhead = new ReadAhead(fileID) {
+				protected boolean wanted(int pageNo) {
+					try {
+						return !skip(pageNo);
+					} catch (DbException e) {
+						return true;
+					}
+				}
+			};
 		}
 
-		@Override
-		public boolean hasNext() throws DbException, TransactionAbortedException {
-			//System.out.println("HeapFileIterator hasNext()");
+		/**
+		 * Overrides the choice of reading through a {@link BufferRing},
+		 * which is otherwise made by {@link BufferRing#forScan} from the
+		 * size of the file. Takes effect when the iterator is next opened.
+		 *
+		 * @param use true to read through a ring, false to read into the
+		 *   main pool
+		 */
+		public void setBufferRing(boolean use) {
+			this.useRing = use;
+		}
 
-			// If not open
-			if (this.i == null) {
+		/**
+		 * Returns true if the zone map shows that no tuple on page pageNo
+		 * satisfies the predicates. Dirty cached pages are never skipped,
+		 * since they may hold changes the zone map has not seen yet.
+		 */
+		private boolean skip(int pageNo) throws DbException {
+			if (this.preds == null || this.preds.length == 0)
 				return false;
-			}
+			Page cached = Database.getBufferPool().peekPage(new HeapPageId(this.fileID, pageNo));
+			if (cached != null && cached.isDirty() != null)
+				return false;
+			BloomFilters filters = bloom;
+			return !zoneMap.mayMatch(pageNo, this.preds)
+					|| (filters != null && !filters.mayMatch(pageNo, this.preds));
+		}
 
-			//If there are tuples left in the current page
-			if(i.hasNext()){
-				return true;
+		/**
+		 * Fetches and pins page pageNo through the buffer pool, letting the
+		 * read-ahead engine see the access first. The previous page, whose
+		 * tuples have all been returned, is unpinned.
+		 */
+		private Iterator<Tuple> pageIterator(int pageNo) throws DbException, TransactionAbortedException {
+			unpin();
+			readAhead.access(pageNo, this.numPages);
+			PageId pid = new HeapPageId(this.fileID, pageNo);
+			BufferPool pool = Database.getBufferPool();
+			HeapPage heapPage = (HeapPage) pool.pinPage(this.tid, pid, Permissions.READ_ONLY, this.ring);
+			this.pinned = pid;
+			this.pinnedIn = pool;
+			// a clean page read without filters matches disk, so build them
+			BloomFilters filters = bloom;
+			if (filters != null && heapPage.isDirty() == null && !filters.hasFilter(pageNo)) {
+				try {
+					filters.update(heapPage);
+				} catch (IOException e) {
+					throw new DbException("cannot update Bloom filters: " + e.getMessage());
+				}
 			}
+			return heapPage.iterator();
+		}
 
-			//If not, search through all the future pages
-			for (int pageIndex = this.curPage+1; pageIndex < this.numPages; pageIndex++){
-
-				PageId pid = new HeapPageId(this.fileID, pageIndex);
-				BufferPool bf = Database.getBufferPool();
-				HeapPage heapPage = (HeapPage) bf.getPage(this.tid, pid, Permissions.READ_WRITE);
+		/** Releases the pin on the current page, if any. */
+		private void unpin() {
+			if (this.pinned != null) {
+				this.pinnedIn.unpinPage(this.pinned);
+				this.pinned = null;
+				this.pinnedIn = null;
+			}
+		}
 
-				Iterator<Tuple> temp =  heapPage.iterator();
+		@Override
+		public boolean hasNext() throws DbException, TransactionAbortedException {
+			// If not open
+			if (this.i == null) {
+				return false;
+			}
 
-				// Page "pageIndex" contains a tuple; return true
-				if(temp.hasNext()){
-					return true;
+			// Move forward until a page with tuples left is found
+			while (!this.i.hasNext()) {
+				if (this.curPage + 1 >= this.numPages) {
+					return false;
 				}
+				this.curPage += 1;
+				if (skip(this.curPage))
+					continue;
+				this.i = pageIterator(this.curPage);
 			}
-
-			//No pages contain tuples - return false
-			return false;	
+			return true;
 		}
 
 		@Override
 		public void close() {
 			this.i = null;
-
+			this.readAhead.reset();
+			unpin();
+			if (this.ring != null) {
+				Database.getBufferPool().releaseRing(this.ring);
+				this.ring = null;
+				this.readAhead.setRing(null);
+			}
+			BloomFilters filters = bloom;
+			if (filters != null) {
+				try {
+					filters.save();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
 		}
 
 		@Override
 		public void open() throws DbException, TransactionAbortedException {
-			//System.out.println("HeapFileIterator open()");
-
-			PageId pid = new HeapPageId(this.fileID, 0);
-
-			BufferPool bf = Database.getBufferPool();
-
-			Page my_page = bf.getPage(this.tid, pid, Permissions.READ_WRITE);
-			//System.out.println("Page: " + my_page);
-
-			HeapPage heapPage = (HeapPage) my_page;
-
-			//System.out.println("open3");
-			//System.out.println("HeapPage: " + heapPage);
-
-			this.i = heapPage.iterator();
-			//System.out.println("open-- start1");
-			//System.out.println("open-- end");
+			this.curPage = 0;
+			this.numPages = numPages();
+			this.readAhead.reset();
+			unpin();
+			BufferPool pool = Database.getBufferPool();
+			if (this.ring != null)
+				pool.releaseRing(this.ring);
+			if (this.useRing == null)
+				this.ring = BufferRing.forScan(this.numPages, pool);
+			else
+				this.ring = this.useRing ? BufferRing.forScan(Integer.MAX_VALUE, pool) : null;
+			this.readAhead.setRing(this.ring);
+			if (this.numPages == 0 || skip(0)) {
+				this.i = Collections.<Tuple>emptyList().iterator();
+			} else {
+				this.i = pageIterator(0);
+			}
 		}
 
 		@Override
@@ -109,38 +200,11 @@ public class HeapFile implements DbFile {
 		@Override
 		public Tuple next() throws DbException, TransactionAbortedException,
 		NoSuchElementException {
-			//System.out.println("HeapFileIterator next()");
-
-			// If no call to open
-			if (this.i == null) {
-				//System.out.println("current internal iterator is null");
+			// If no call to open, or no tuples left
+			if (!this.hasNext()) {
 				throw new NoSuchElementException();
 			}
-
-			// If the current page has an available tuple
-			if (this.i.hasNext()) {
-				return this.i.next();
-			}
-
-			// If the current page does not have a tuple, move onto the next page that does
-			while (this.i.hasNext() == false) {
-
-				if (this.hasNext()){
-					//System.out.println("CURRENT PAGE: " + this.curPage);
-
-					this.curPage += 1;
-					PageId pid = new HeapPageId(this.fileID, this.curPage);
-					BufferPool bf = Database.getBufferPool();
-					HeapPage heapPage = (HeapPage) bf.getPage(this.tid, pid, Permissions.READ_WRITE);
-					this.i = heapPage.iterator();
-				} else{
-					System.out.println("external iterator has no next page");
-					System.out.println("current page: " + this.curPage);
-					throw new NoSuchElementException();
-				}	
-			}
-
-			return this.i.next(); // is this skipping the first tuple of every page? we'll see!
+			return this.i.next();
 		}
 
 	}
@@ -156,11 +220,35 @@ public class HeapFile implements DbFile {
 	public File file;
 	public TupleDesc schema;
 	public Map<TransactionId, DbFileIterator> iterators;
+	final PageChannel channel;
+	final FreeSpaceMap freeSpace;
+	final ZoneMap zoneMap;
+	volatile BloomFilters bloom;
+
+	/** Guards growth of the file; never held while taking other locks. */
+	private final Object extentLock = new Object();
+	/** Bytes of the file in use, or -1 until found. */
+	private volatile long highWater = -1;
+	/** Bytes of the file allocated, in use or not. */
+	private volatile long allocated;
+	/** Pages per extent, or 0 for DEFAULT_EXTENT_BYTES worth. */
+	private volatile int extentPages;
 
 	public HeapFile(File f, TupleDesc td) {
+		this(f, td, new PageChannel(f));
+	}
+
+	/**
+	 * Constructs a heap file whose pages are read and written through the
+	 * given channel, such as a {@link SegmentedPageChannel} over f.
+	 */
+	public HeapFile(File f, TupleDesc td, PageChannel channel) {
 		this.file = f;
 		this.schema = td;
 		this.iterators = new HashMap<TransactionId, DbFileIterator>();
+		this.channel = channel;
+		this.freeSpace = new FreeSpaceMap(this);
+		this.zoneMap = new ZoneMap(f, td);
 	}
 
 	/**
@@ -172,6 +260,26 @@ public class HeapFile implements DbFile {
 		return this.file;
 	}
 
+	/**
+	 * Returns the channel used for all page I/O against this file.
+	 */
+	public PageChannel getChannel() {
+		return this.channel;
+	}
+
+	/**
+	 * Closes the file handle held by this HeapFile. The handle is reopened
+	 * on the next page access, so this is safe to call on a file that is
+	 * still referenced.
+	 */
+	public void close() {
+		this.channel.close();
+		this.zoneMap.close();
+		BloomFilters filters = this.bloom;
+		if (filters != null)
+			filters.close();
+	}
+
 	/**
 	 * Returns an ID uniquely identifying this HeapFile. Implementation note:
 	 * you will need to generate this tableid somewhere ensure that each
@@ -201,22 +309,17 @@ public class HeapFile implements DbFile {
 	 */
 	// see DbFile.java for javadocs
 	public Page readPage(PageId pid) {
-		byte[] buffer = new byte[BufferPool.getPageSize()];
-		FileInputStream fs = null;
-		HeapPage page = null;
 		HeapPageId hpid = (HeapPageId)pid;
 
 		try{
-			fs = new FileInputStream(this.file);
-			fs.skip(pid.pageNumber()*BufferPool.getPageSize());
-			fs.read(buffer);
-			fs.close();
-			page = new HeapPage(hpid, buffer);
-
+			byte[] data = pid.pageNumber() < numPages() ? channel.readPage(pid.pageNumber(), BufferPool.getPageSize()) : null;
+			if (data == null)
+				throw new IllegalArgumentException("page " + pid.pageNumber() + " does not exist in " + file);
+			return new HeapPage(hpid, data);
 		} catch (IOException e){
 			e.printStackTrace();
 		}
-		return page;
+		return null;
 	}
 
 	/**
@@ -228,101 +331,376 @@ public class HeapFile implements DbFile {
 	 */
 	// see DbFile.java for javadocs
 	public void writePage(Page page) throws IOException {
-		// some code goes here
-		// not necessary for lab 1
-
-		byte[] buffer = page.getPageData();
-		int off = page.getId().pageNumber()*BufferPool.getPageSize();
-		RandomAccessFile file_random = new RandomAccessFile(file, "rw");
-		
-		file_random.seek(off);
-		file_random.write(buffer, 0, BufferPool.getPageSize());
-		file_random.close();
+		int pageNo = page.getId().pageNumber();
+		byte[] data = page.getPageData();
+		synchronized (extentLock) {
+			if ((long) (pageNo + 1) * data.length > highWater()) {
+				writeAtEnd(pageNo, new byte[][] { data });
+				return;
+			}
+		}
+		channel.writePage(pageNo, data);
+	}
+
+	/**
+	 * Writes the images of consecutive pages, starting at page firstPage,
+	 * in one gathering write, as {@link #writePage} would one at a time.
+	 */
+	void writePages(int firstPage, byte[][] images) throws IOException {
+		if (images.length == 0)
+			return;
+		long start = (long) firstPage * images[0].length;
+		synchronized (extentLock) {
+			if (start + totalLength(images) > highWater()) {
+				writeAtEnd(firstPage, images);
+				return;
+			}
+		}
+		channel.write(start, images);
+	}
+
+	/**
+	 * Writes a run of new page images, starting at page firstPage, in one
+	 * write. Used by insertTuples.
+	 */
+	void appendPages(int firstPage, byte[][] images) throws IOException {
+		synchronized (extentLock) {
+			writeAtEnd(firstPage, images);
+		}
+	}
+
+	/**
+	 * Sets the number of pages preallocated each time the file grows; 1
+	 * turns preallocation off. A file must be given the same extent size
+	 * each time it is opened, before its first use, for its high-water mark
+	 * to be found.
+	 */
+	public void setExtentPages(int pages) {
+		if (pages < 1)
+			throw new IllegalArgumentException("extents must hold at least one page");
+		this.extentPages = pages;
+	}
+
+	/** @return the number of pages preallocated each time the file grows */
+	public int getExtentPages() {
+		int n = this.extentPages;
+		return n > 0 ? n : Math.max(1, DEFAULT_EXTENT_BYTES / BufferPool.getPageSize());
 	}
 
 	/**
-	 * Returns the number of pages in this HeapFile.
+	 * Returns the high-water mark in bytes. It is found on first use, and
+	 * again if the file was shortened by other means. Only a file that ends
+	 * on an extent boundary can have preallocated pages; for one that does,
+	 * the all-zero pages at its end are skipped, an extent at a time. Pages
+	 * appended by other means are taken to be in use. Caller holds
+	 * extentLock.
+	 */
+	private long highWater() throws IOException {
+		long size = channel.size();
+		if (highWater >= 0 && size == allocated)
+			return highWater;
+		int pageSize = BufferPool.getPageSize();
+		long end = size / pageSize * pageSize;
+		if (highWater >= 0 && size > allocated) {
+			allocated = size;
+			highWater = end;
+			return end;
+		}
+		allocated = size;
+		byte[] data = new byte[getExtentPages() * pageSize];
+		scan:
+		while (end > 0 && size % data.length == 0) {
+			int len = (int) Math.min(data.length, end);
+			byte[] chunk = len == data.length ? data : new byte[len];
+			channel.read(end - len, chunk);
+			for (int p = len / pageSize - 1; p >= 0; p--) {
+				for (int i = p * pageSize; i < (p + 1) * pageSize; i++)
+					if (chunk[i] != 0)
+						break scan;
+				end -= pageSize;
+			}
+		}
+		highWater = end;
+		return end;
+	}
+
+	/**
+	 * Writes pages at or past the high-water mark and raises it. If they
+	 * reach beyond the allocated space, the same write fills the rest of
+	 * their extent with zeros. Caller holds extentLock.
+	 */
+	private void writeAtEnd(int firstPage, byte[][] images) throws IOException {
+		if (images.length == 0)
+			return;
+		long hw = highWater();
+		int pageSize = images[0].length;
+		long start = (long) firstPage * pageSize;
+		long end = start + (long) images.length * pageSize;
+		int pages = getExtentPages();
+		if (end > allocated && pages > 1) {
+			long extent = (long) pages * pageSize;
+			long target = (end + extent - 1) / extent * extent;
+			byte[][] padded = Arrays.copyOf(images, images.length + 1);
+			padded[images.length] = new byte[(int) (target - end)];
+			images = padded;
+		}
+		channel.write(start, images);
+		allocated = Math.max(allocated, start + totalLength(images));
+		highWater = Math.max(hw, end);
+	}
+
+	private static long totalLength(byte[][] images) {
+		long n = 0;
+		for (byte[] image : images)
+			n += image.length;
+		return n;
+	}
+
+	/**
+	 * Reads the first header.length bytes of a page straight from disk,
+	 * without going through the BufferPool. Used to rebuild the free-space
+	 * map.
+	 */
+	void readHeader(int pageNo, byte[] header) throws IOException {
+		channel.read((long) pageNo * BufferPool.getPageSize(), header);
+	}
+
+	/**
+	 * Cuts the file down to its first numPages pages. Used by
+	 * truncateEmptyPages once it has checked that the rest are empty.
+	 */
+	void truncate(int numPages) throws IOException {
+		synchronized (extentLock) {
+			long size = (long) numPages * BufferPool.getPageSize();
+			long hw = highWater();
+			channel.truncate(size);
+			allocated = channel.size();
+			highWater = Math.min(hw, size);
+		}
+	}
+
+	/**
+	 * Removes the empty pages at the end of the file, along with their
+	 * free-space, zone map and Bloom filter entries, and drops any cached
+	 * copies of them. A page that is cached and dirty is never removed.
+	 *
+	 * @return the number of pages removed
+	 */
+	public synchronized int truncateEmptyPages() throws IOException {
+		int n = numPages();
+		int numSlots = HeapPage.getNumTuples(getTupleDesc());
+		byte[] header = new byte[HeapPage.getHeaderSize(numSlots)];
+		int keep = n;
+		while (keep > 0) {
+			HeapPageId pid = new HeapPageId(getId(), keep - 1);
+			Page cached = Database.getBufferPool().peekPage(pid);
+			int empty;
+			if (cached != null) {
+				if (cached.isDirty() != null)
+					break;
+				empty = ((HeapPage) cached).getNumEmptySlots();
+			} else {
+				Arrays.fill(header, (byte) 0);
+				readHeader(keep - 1, header);
+				empty = HeapPage.countEmptySlots(header, numSlots);
+			}
+			if (empty < numSlots)
+				break;
+			keep--;
+		}
+		if (keep == n)
+			return 0;
+		for (int p = keep; p < n; p++)
+			Database.getBufferPool().discardPage(new HeapPageId(getId(), p));
+		truncate(keep);
+		freeSpace.truncate(keep);
+		zoneMap.truncate(keep);
+		if (bloom != null)
+			bloom.truncate(keep);
+		return n - keep;
+	}
+
+	/**
+	 * Returns the number of pages in this HeapFile, up to the high-water
+	 * mark; preallocated pages past it are not counted.
 	 */
 	public int numPages() {
-		//System.out.println("HeapFile numPages()");
-		//long file_length = this.file.length();
-		//System.out.println("  file_length = " + file_length);
-		//System.out.println("  bufferPool page size = " + BufferPool.getPageSize());
-		return (int) (this.file.length() / BufferPool.getPageSize());
+		try {
+			long hw = highWater;
+			if (hw < 0 || channel.size() != allocated) {
+				synchronized (extentLock) {
+					hw = highWater();
+				}
+			}
+			return (int) (hw / BufferPool.getPageSize());
+		} catch (IOException e) {
+			e.printStackTrace();
+			return 0;
+		}
+	}
+
+	/**
+	 * Returns the free-space map used to place inserted tuples.
+	 */
+	public FreeSpaceMap getFreeSpaceMap() {
+		return this.freeSpace;
+	}
+
+	/**
+	 * Returns the per-page value ranges used to skip pages in scans.
+	 */
+	public ZoneMap getZoneMap() {
+		return this.zoneMap;
+	}
+
+	/**
+	 * Keeps Bloom filters of the values of the given fields on each page,
+	 * so that scans with equality predicates on them can skip pages. Filters
+	 * already stored for the same fields are reused.
+	 *
+	 * @param columns the indexes of the fields to filter
+	 */
+	public void setBloomColumns(int[] columns) {
+		this.bloom = new BloomFilters(this, columns);
+	}
+
+	/**
+	 * Returns the per-page Bloom filters of this file, or null if none
+	 * were requested with setBloomColumns.
+	 */
+	public BloomFilters getBloomFilters() {
+		return this.bloom;
 	}
 
 	// see DbFile.java for javadocs
 	public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
 			throws DbException, IOException, TransactionAbortedException {
-		// some code goes here
-		// not necessary for lab1
-
 		ArrayList<Page> output = new ArrayList<Page>();
-		boolean found_space = false;
 
-		for(int i = 0; i< numPages() ;i++)
+		// go straight to a page the free-space map says has room; entries
+		// are hints, so correct any that turn out to be stale
+		int pageNo;
+		BufferPool pool = Database.getBufferPool();
+		while ((pageNo = freeSpace.findPage()) >= 0)
 		{
-			//HeapPageId hpid = new HeapPageId(t.getRecordId().getPageId().getTableId(), i);
-			HeapPageId hpid = new HeapPageId(getId(), i);
-			Page right_page = Database.getBufferPool().getPage(tid, hpid,Permissions.READ_WRITE);
-			HeapPage right_hpage = (HeapPage) right_page;
-
-			if(right_hpage.getNumEmptySlots()>0)
-			{
-				//RecordId t_rid = new RecordId(hpid, t.getRecordId().tupleno());
-				//t.setRecordId(t_rid);
-				right_hpage.insertTuple(t);
-				//right_hpage.markDirty(true, tid);
-				output.add(right_hpage);
-
-				found_space = true;
-				break;
+			HeapPageId hpid = new HeapPageId(getId(), pageNo);
+			// pinned so that it is not evicted while the tuple goes in
+			HeapPage right_hpage = (HeapPage) pool.pinPage(tid, hpid, Permissions.READ_WRITE);
+			try {
+				int free = right_hpage.getNumEmptySlots();
+
+				if(free > 0)
+				{
+					right_hpage.insertTuple(t);
+					right_hpage.markDirty(true, tid);
+					freeSpace.update(pageNo, free - 1);
+					if (bloom != null)
+						bloom.add(pageNo, t);
+					output.add(right_hpage);
+					return output;
+				}
+			} finally {
+				pool.unpinPage(hpid);
 			}
-
+			freeSpace.update(pageNo, 0);
 		}
 
-		if(!found_space)
-		{
-			byte[] empty = HeapPage.createEmptyPageData();
-
-			//int tableid = t.getRecordId().getPageId().getTableId();
-			int tableid = getId();
-
-			//System.out.println("HeapFile::HeapFile() - tableID: "+tableid);
-			HeapPageId hid = new HeapPageId(tableid,numPages());
-			HeapPage empty_hpage = new HeapPage(hid, empty);
+		// no page has room: append a new one
+		HeapPage empty_hpage;
+		// as in insertTuples, appends must not pick the same page number
+		synchronized (this) {
+			HeapPageId hid = new HeapPageId(getId(), numPages());
+			empty_hpage = new HeapPage(hid, HeapPage.createEmptyPageData());
 			empty_hpage.insertTuple(t);
 
+			zoneMap.update(empty_hpage);
+			if (bloom != null) {
+				bloom.update(empty_hpage);
+				bloom.save();
+			}
+			// the page bypasses the BufferPool, but not the log
+			LogFile log = Database.getLogFile();
+			log.logWrite(tid, empty_hpage.getBeforeImage(), empty_hpage);
+			log.force();
 			writePage(empty_hpage);
-
-			//RecordId t_rid = new RecordId(hid, t.getRecordId().tupleno());
-			//t.setRecordId(t_rid);
-
-			
-			//empty_hpage.markDirty(true, tid);
-			output.add(empty_hpage);
+			freeSpace.update(hid.pageNumber(), empty_hpage.getNumEmptySlots());
 		}
 
+		output.add(empty_hpage);
 		return output;
+	}
 
+	/**
+	 * Appends a batch of tuples to the end of this file. The tuples are
+	 * packed into fresh pages in memory and written with one sequential
+	 * write, bypassing the BufferPool; existing pages are not searched for
+	 * free space. An update record for each new page is logged, and the log
+	 * forced, before the write. Each tuple's RecordId is updated as in
+	 * insertTuple.
+	 *
+	 * @param tid The transaction performing the insert
+	 * @param tuples The tuples to add
+	 * @return the pages that were modified in the BufferPool; always empty,
+	 *   since the appended pages are already on disk
+	 * @throws DbException if a tuple cannot be added
+	 * @throws IOException if the file can't be written
+	 */
+	public ArrayList<Page> insertTuples(TransactionId tid, List<Tuple> tuples)
+			throws DbException, IOException, TransactionAbortedException {
+		if (tuples.isEmpty())
+			return new ArrayList<Page>();
+
+		int perPage = HeapPage.getNumTuples(getTupleDesc());
+		int nPages = (tuples.size() + perPage - 1) / perPage;
+		byte[][] images = new byte[nPages][];
+		int firstPage;
+		LogFile log = Database.getLogFile();
+		// appends from different threads must not pick the same page numbers
+		synchronized (this) {
+			firstPage = numPages();
+			Iterator<Tuple> it = tuples.iterator();
+			for (int p = 0; p < nPages; p++) {
+				HeapPage page = new HeapPage(new HeapPageId(getId(), firstPage + p), HeapPage.createEmptyPageData());
+				for (int k = 0; k < perPage && it.hasNext(); k++)
+					page.insertTuple(it.next());
+				images[p] = page.getPageData();
+				log.logWrite(tid, page.getBeforeImage(), page);
+				freeSpace.update(firstPage + p, page.getNumEmptySlots());
+				zoneMap.update(page);
+				if (bloom != null)
+					bloom.update(page);
+			}
+			log.force();
+			appendPages(firstPage, images);
+			if (bloom != null)
+				bloom.save();
+		}
+		return new ArrayList<Page>();
 	}
 
 	// see DbFile.java for javadocs
 	public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t) throws DbException,
 	TransactionAbortedException {
-		// some code goes here
-		// not necessary for lab1
-
 		ArrayList<Page> output = new ArrayList<Page>();
 
 		RecordId t_rid = t.getRecordId();
+		if (t_rid == null || t_rid.getPageId().getTableId() != getId())
+			throw new DbException("tuple is not a member of this file");
 		PageId pid = t_rid.getPageId();
 
-		Page right_page = Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
+		BufferPool pool = Database.getBufferPool();
+		Page right_page = pool.pinPage(tid, pid, Permissions.READ_WRITE);
 		HeapPage right_hpage = (HeapPage) right_page;
 
-		right_hpage.deleteTuple(t);
-		right_hpage.markDirty(true, tid);
+		try {
+			right_hpage.deleteTuple(t);
+			right_hpage.markDirty(true, tid);
+		} finally {
+			pool.unpinPage(pid);
+		}
+		freeSpace.update(pid.pageNumber(), right_hpage.getNumEmptySlots());
+		if (bloom != null)
+			bloom.invalidate(pid.pageNumber());
 
 		output.add(right_page);
 
@@ -331,9 +709,22 @@ public class HeapFile implements DbFile {
 
 	// see DbFile.java for javadocs
 	public DbFileIterator iterator(TransactionId tid) {
+		return iterator(tid, null);
+	}
+
+	/**
+	 * Returns an iterator that skips pages whose zone map entries show that
+	 * none of their tuples satisfies every predicate. The tuples of the
+	 * pages it does read are returned unfiltered.
+	 *
+	 * @param tid the transaction performing the scan
+	 * @param preds predicates on fields of this file, or null to read
+	 *   every page
+	 */
+	public DbFileIterator iterator(TransactionId tid, Predicate[] preds) {
 		//int pageSize, int numPages, TransactionId tid, int fileID
 		try {
-			HeapFileIterator it = new HeapFileIterator(BufferPool.getPageSize(), this.numPages(), tid, this.getId());
+			HeapFileIterator it = new HeapFileIterator(BufferPool.getPageSize(), this.numPages(), tid, this.getId(), preds);
 			return it;
 		} catch (DbException e) {
 			// TODO Auto-generated catch block
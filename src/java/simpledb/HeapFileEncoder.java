@@ -2,6 +2,7 @@ package simpledb;
 
 import java.io.*;
 import java.util.ArrayList;
+import java.util.Arrays;
 
 /**
  * HeapFileEncoder reads a comma delimited text file or accepts
@@ -90,11 +91,28 @@ public class HeapFileEncoder {
   public static void convert(File inFile, File outFile, int npagebytes,
                  int numFields, Type[] typeAr, char fieldSeparator)
       throws IOException {
+      convert(inFile, outFile, npagebytes,
+              new TupleDesc(Arrays.copyOf(typeAr, numFields)), fieldSeparator);
+  }
+
+   /** Convert the specified input text file into a binary page file for a
+    * table with schema td. String fields are stored at the width declared
+    * for their column in td. The input format is as for
+    * {@link #convert(File, File, int, int, Type[], char)}.
+    *
+    * @param inFile The input file to read data from
+    * @param outFile The output file to write data to
+    * @param npagebytes The number of bytes per page in the output file
+    * @param td the schema of each input line/output tuple
+    * @param fieldSeparator the character between fields
+    * @throws IOException if the input/output file can't be opened or a
+    *   malformed input line is encountered
+    */
+  public static void convert(File inFile, File outFile, int npagebytes,
+                 TupleDesc td, char fieldSeparator)
+      throws IOException {
 	  
-      int nrecbytes = 0;
-      for (int i = 0; i < numFields ; i++) {
-          nrecbytes += typeAr[i].getLen();
-      }
+      int nrecbytes = td.getSize();
       System.out.println();
       int nrecords = (npagebytes * 8) /  (nrecbytes * 8 + 1);  //floor comes for free
       
@@ -107,6 +125,9 @@ public class HeapFileEncoder {
 
     BufferedReader br = new BufferedReader(new FileReader(inFile));
     FileOutputStream os = new FileOutputStream(outFile);
+    // page ranges recorded for an earlier file at this path no longer hold
+    ZoneMap.fileFor(outFile).delete();
+    BloomFilters.fileFor(outFile).delete();
 
     // our numbers probably won't be much larger than 1024 digits
     char buf[] = new char[1024];
@@ -140,18 +161,19 @@ public class HeapFileEncoder {
             first = false;
         if (c == fieldSeparator || c == '\n' || c == '\r') {
             String s = new String(buf, 0, curpos);
-            if (typeAr[fieldNo] == Type.INT_TYPE) {
+            if (td.getFieldType(fieldNo) == Type.INT_TYPE) {
                 try {
                     pageStream.writeInt(Integer.parseInt(s.trim()));
                 } catch (NumberFormatException e) {
                     System.out.println ("BAD LINE : " + s);
                 }
             }
-            else   if (typeAr[fieldNo] == Type.STRING_TYPE) {
+            else   if (td.getFieldType(fieldNo) == Type.STRING_TYPE) {
                 s = s.trim();
-                int overflow = Type.STRING_LEN - s.length();
+                int width = td.getFieldWidth(fieldNo);
+                int overflow = width - s.length();
                 if (overflow < 0) {
-                    String news = s.substring(0,Type.STRING_LEN);
+                    String news = s.substring(0,width);
                     s  = news;
                 }
                 pageStream.writeInt(s.length());
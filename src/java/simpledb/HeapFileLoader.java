@@ -0,0 +1,303 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * HeapFileLoader converts a delimited text file into a heap file, producing
+ * for well-formed input the same bytes as {@link HeapFileEncoder#convert(File,
+ * File, int, int, Type[], char)} but at a rate limited by the disk rather
+ * than the parser.
+ * <p>
+ * The input is read sequentially in large chunks that end on a line
+ * boundary. Each chunk is parsed on a pool of worker threads straight from
+ * its bytes into fixed-size records, without building Strings or going
+ * through a Reader. The calling thread collects the parsed chunks in input
+ * order, packs their records into pages inside a ByteBuffer of
+ * {@link #WRITE_PAGES} pages, and writes each full buffer with one call.
+ * At most two chunks per worker are in flight, so memory use does not grow
+ * with the size of the input.
+ * <p>
+ * Input is treated as single-byte characters; as with HeapFileEncoder, only
+ * ASCII text is stored faithfully.
+ * <p>
+ * The two differ on a malformed integer. Both report the line, but the
+ * loader stores 0 in the field, while HeapFileEncoder leaves the field out
+ * and shifts the rest of the page. The loader's output is then the
+ * encoder's output for the same input with the bad value replaced by 0.
+ */
+public class HeapFileLoader {
+
+    /** Default size of the input chunks handed to workers, in bytes. */
+    public static final int CHUNK_BYTES = 4 << 20;
+    /** Number of pages packed before each write to the output file. */
+    public static final int WRITE_PAGES = 256;
+
+    /** Records parsed from one chunk of input. */
+    private static class Chunk {
+        byte[] records;
+        int count;
+    }
+
+    /**
+     * Loads the input file with one worker per available processor.
+     *
+     * @see #load(File, File, int, Type[], char, int, int)
+     */
+    public static void load(File inFile, File outFile, int npagebytes,
+            Type[] typeAr, char fieldSeparator) throws IOException {
+        load(inFile, outFile, npagebytes, typeAr, fieldSeparator,
+                Runtime.getRuntime().availableProcessors(), CHUNK_BYTES);
+    }
+
+    /**
+     * Converts the specified input text file into a binary page file. The
+     * input format is the one accepted by HeapFileEncoder: one tuple per
+     * line, fields separated by fieldSeparator. Blank lines and carriage
+     * returns are ignored.
+     *
+     * @param inFile The input file to read data from
+     * @param outFile The output file to write data to
+     * @param npagebytes The number of bytes per page in the output file
+     * @param typeAr The type of each field
+     * @param fieldSeparator The character between fields
+     * @param nThreads The number of parser threads
+     * @param chunkBytes The size of the input chunks given to each parser
+     * @throws IOException if the input/output file can't be opened or a
+     *   line has the wrong number of fields
+     */
+    public static void load(File inFile, File outFile, int npagebytes,
+            Type[] typeAr, char fieldSeparator, int nThreads, int chunkBytes)
+            throws IOException {
+        load(inFile, outFile, npagebytes, new TupleDesc(typeAr), fieldSeparator, nThreads, chunkBytes);
+    }
+
+    /**
+     * Loads the input file for a table with schema td; string fields are
+     * stored at the width declared for their column.
+     *
+     * @see #load(File, File, int, Type[], char, int, int)
+     */
+    public static void load(File inFile, File outFile, int npagebytes,
+            TupleDesc td, char fieldSeparator, int nThreads, int chunkBytes)
+            throws IOException {
+        int nrecbytes = td.getSize();
+        int nrecords = (npagebytes * 8) / (nrecbytes * 8 + 1);
+        int nheaderbytes = HeapPage.getHeaderSize(nrecords);
+
+        ExecutorService workers = Executors.newFixedThreadPool(nThreads, new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "simpledb-loader");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        ArrayDeque<Future<Chunk>> inFlight = new ArrayDeque<Future<Chunk>>();
+        InputStream in = new FileInputStream(inFile);
+        FileChannel out = new FileOutputStream(outFile).getChannel();
+        ZoneMap.fileFor(outFile).delete();
+        BloomFilters.fileFor(outFile).delete();
+        PageWriter writer = new PageWriter(out, npagebytes, nheaderbytes, nrecbytes, nrecords);
+        try {
+            byte[] pending = new byte[0];
+            int pendingLen = 0;
+            boolean eof = false;
+            while (!eof) {
+                byte[] buf = new byte[Math.max(chunkBytes, pendingLen * 2)];
+                System.arraycopy(pending, 0, buf, 0, pendingLen);
+                int n = fill(in, buf, pendingLen);
+                eof = n < buf.length;
+                int end = eof ? n : lastNewline(buf, n) + 1;
+                if (end == 0 && !eof) {
+                    // a line longer than the buffer: read more of it
+                    pending = buf;
+                    pendingLen = n;
+                    continue;
+                }
+                final byte[] data = buf;
+                final int len = end;
+                final TupleDesc desc = td;
+                final char sep = fieldSeparator;
+                final int recLen = nrecbytes;
+                inFlight.add(workers.submit(new Callable<Chunk>() {
+                    public Chunk call() throws IOException {
+                        return parse(data, len, desc, sep, recLen);
+                    }
+                }));
+                pending = Arrays.copyOfRange(buf, end, n);
+                pendingLen = pending.length;
+
+                while (inFlight.size() > 2 * nThreads)
+                    writer.add(await(inFlight.poll()));
+            }
+            while (!inFlight.isEmpty())
+                writer.add(await(inFlight.poll()));
+            writer.finish();
+        } finally {
+            for (Future<Chunk> f : inFlight)
+                f.cancel(true);
+            workers.shutdownNow();
+            in.close();
+            out.close();
+        }
+    }
+
+    private static Chunk await(Future<Chunk> f) throws IOException {
+        try {
+            return f.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            throw new RuntimeException(e.getCause());
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException();
+        }
+    }
+
+    /** Reads from in until buf is full or the input ends. */
+    private static int fill(InputStream in, byte[] buf, int off) throws IOException {
+        int r;
+        while (off < buf.length && (r = in.read(buf, off, buf.length - off)) > 0)
+            off += r;
+        return off;
+    }
+
+    private static int lastNewline(byte[] buf, int n) {
+        for (int i = n - 1; i >= 0; i--)
+            if (buf[i] == '\n')
+                return i;
+        return -1;
+    }
+
+    /** Parses the complete lines in data[0, len) into fixed-size records. */
+    static Chunk parse(byte[] data, int len, TupleDesc td, char sep, int nrecbytes)
+            throws IOException {
+        int lines = 1;
+        for (int i = 0; i < len; i++)
+            if (data[i] == '\n')
+                lines++;
+        Chunk chunk = new Chunk();
+        chunk.records = new byte[lines * nrecbytes];
+        ByteBuffer rec = ByteBuffer.wrap(chunk.records);
+
+        int pos = 0;
+        while (pos < len) {
+            int eol = pos;
+            while (eol < len && data[eol] != '\n')
+                eol++;
+            int lineEnd = eol;
+            while (lineEnd > pos && data[lineEnd - 1] == '\r')
+                lineEnd--;
+            if (lineEnd > pos) {
+                int start = pos;
+                int numFields = td.numFields();
+                for (int f = 0; f < numFields; f++) {
+                    int end = start;
+                    while (end < lineEnd && data[end] != sep)
+                        end++;
+                    if (end == lineEnd && f < numFields - 1 || end < lineEnd && f == numFields - 1)
+                        throw new IOException("expected " + numFields + " fields: "
+                                + new String(data, pos, lineEnd - pos, "ISO-8859-1"));
+                    writeField(rec, td.getFieldType(f), td.getFieldWidth(f), data, start, end);
+                    start = end + 1;
+                }
+                chunk.count++;
+            }
+            pos = eol + 1;
+        }
+        return chunk;
+    }
+
+    private static void writeField(ByteBuffer rec, Type type, int width, byte[] data, int start, int end) {
+        // trim as String.trim() does
+        while (start < end && (data[start] & 0xff) <= ' ')
+            start++;
+        while (end > start && (data[end - 1] & 0xff) <= ' ')
+            end--;
+
+        if (type == Type.INT_TYPE) {
+            int i = start;
+            boolean neg = false;
+            if (i < end && (data[i] == '-' || data[i] == '+')) {
+                neg = data[i] == '-';
+                i++;
+            }
+            long v = 0;
+            boolean ok = i < end;
+            for (; i < end && ok; i++) {
+                int d = data[i] - '0';
+                ok = d >= 0 && d <= 9;
+                v = v * 10 + d;
+                ok &= v <= (long) Integer.MAX_VALUE + 1;
+            }
+            if (neg)
+                v = -v;
+            if (!ok || v > Integer.MAX_VALUE) {
+                System.out.println("BAD LINE : " + new String(data, start, end - start));
+                v = 0;
+            }
+            rec.putInt((int) v);
+        } else {
+            int n = Math.min(end - start, width);
+            rec.putInt(n);
+            rec.put(data, start, n);
+            rec.position(rec.position() + width - n);
+        }
+    }
+
+    /** Packs records into pages and writes them out in batches. */
+    private static class PageWriter {
+        private final FileChannel out;
+        private final int npagebytes, nheaderbytes, nrecbytes, nrecords;
+        private final ByteBuffer batch;
+        private int pageInBatch = 0;
+        private int slot = 0;
+        private int pagesWritten = 0;
+
+        PageWriter(FileChannel out, int npagebytes, int nheaderbytes, int nrecbytes, int nrecords) {
+            this.out = out;
+            this.npagebytes = npagebytes;
+            this.nheaderbytes = nheaderbytes;
+            this.nrecbytes = nrecbytes;
+            this.nrecords = nrecords;
+            this.batch = ByteBuffer.allocate(WRITE_PAGES * npagebytes);
+        }
+
+        void add(Chunk chunk) throws IOException {
+            byte[] page = batch.array();
+            for (int r = 0; r < chunk.count; r++) {
+                int base = pageInBatch * npagebytes;
+                page[base + slot / 8] |= (byte) (1 << (slot % 8));
+                System.arraycopy(chunk.records, r * nrecbytes,
+                        page, base + nheaderbytes + slot * nrecbytes, nrecbytes);
+                if (++slot == nrecords) {
+                    slot = 0;
+                    if (++pageInBatch == WRITE_PAGES)
+                        flush();
+                }
+            }
+        }
+
+        /** Writes the partial last page, or one empty page for an empty input. */
+        void finish() throws IOException {
+            if (slot > 0 || pagesWritten + pageInBatch == 0) {
+                slot = 0;
+                pageInBatch++;
+            }
+            flush();
+        }
+
+        private void flush() throws IOException {
+            batch.clear();
+            batch.limit(pageInBatch * npagebytes);
+            while (batch.hasRemaining())
+                out.write(batch);
+            pagesWritten += pageInBatch;
+            pageInBatch = 0;
+            Arrays.fill(batch.array(), (byte) 0);
+        }
+    }
+}
@@ -19,7 +19,16 @@ public class HeapPage implements Page {
     final Tuple tuples[];
     final int numSlots;
 
+    /** The page image this page was built from; never modified. */
+    final byte data[];
+
+    /**
+     * The before image, or null while it is still identical to data. See
+     * setBeforeImage for when it is captured.
+     */
     byte[] oldData;
+    /** True once setBeforeImage was called and the current state is not yet captured. */
+    boolean beforeImagePending;
     private final Byte oldDataLock=new Byte((byte)0);
     
     boolean dirtyPage;
@@ -37,75 +46,74 @@ public class HeapPage implements Page {
      * <p>
      *      ceiling(no. tuple slots / 8)
      * <p>
+     * Tuples are not decoded here. The page keeps data and hands out tuples
+     * that decode each field on first access, so the cost of loading a page
+     * is proportional to the fields a query actually reads.
+     * <p>
      * @see Database#getCatalog
      * @see Catalog#getTupleDesc
      * @see BufferPool#getPageSize()
      */    
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
-        //System.out.println("HeapPage() -- open");
     	this.pid = id;
-    	//System.out.println("..step1");
-    	//System.out.println("HeapPage::HeapPage() - tableID: "+id.getTableId());
     	this.td = Database.getCatalog().getTupleDesc(id.getTableId());
-    	//System.out.println("..step2");
         this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        this.data = data;
 
         // allocate and read the header slots of this page
         header = new byte[getHeaderSize()];
-        
-        /*System.out.println("start ---");*/
-        for (int i=0; i<header.length; i++)
-        {
-        	
-        	header[i] = dis.readByte();
-        }
-        
-        //System.out.println("header.length: " + header.length);
-        //System.out.println("getHeaderSize: " + this.getHeaderSize());
-        
-        /*for(int i=0; i< this.getHeaderSize(); i++)
-        {
-        	if(this.isSlotUsed(i))
-        	{
-        		System.out.println(i);
-        	}
-        }*/
-        //System.out.println("end ---");
-        
-        tuples = new Tuple[numSlots]; //good
-        //tuples = new Tuple[numSlots+1]; //error  
-         
-       dirtyPage = false;
-       dirty_causing_tid = null;
-        
-        try{
-            // allocate and read the actual records of this page
-            for (int i=0; i<tuples.length; i++)
-                tuples[i] = readNextTuple(dis,i);
-        }catch(NoSuchElementException e){
-            e.printStackTrace();
-        }
-        dis.close();
-        //System.out.println("..step3");
-        setBeforeImage();
-        //System.out.println("HeapPage() -- close");
+        System.arraycopy(data, 0, header, 0, header.length);
+
+        // tuples are decoded lazily, as views over data; see getTuple
+        tuples = new Tuple[numSlots];
+
+        dirtyPage = false;
+        dirty_causing_tid = null;
+        // the before image shares data until the page is first changed
+        oldData = null;
+        beforeImagePending = false;
     }
 
     /** Retrieve the number of tuples on this page.
         @return the number of tuples on this page
     */
     private int getNumTuples() {        
-        // some code goes here
+        return getNumTuples(td);
+    }
+
+    /**
+     * @return the number of tuple slots on a page of a table with schema td
+     */
+    public static int getNumTuples(TupleDesc td) {
     	double tuple_size_bytes = td.getSize();
     	double page_size_bits = BufferPool.getPageSize()*8;
     	double ans_unrounded = page_size_bits / (tuple_size_bytes * 8 + 1);
     			
     	double ans_rounded = Math.floor(ans_unrounded);
-    	//System.out.println("HeapPage getNumTuples(): "+ ans_rounded);
    
         return (int) ans_rounded;
     }
+
+    /**
+     * @return the number of header bytes on a page with numSlots slots
+     */
+    public static int getHeaderSize(int numSlots) {
+    	return (int) Math.ceil((double)numSlots / 8);
+    }
+
+    /**
+     * Counts the empty slots recorded in a page header.
+     *
+     * @param header the header bytes of a page
+     * @param numSlots the number of slots on the page
+     * @return the number of slots whose bit is clear
+     */
+    public static int countEmptySlots(byte[] header, int numSlots) {
+    	int used = 0;
+    	for (int i = 0; i < header.length; i++)
+    		used += Integer.bitCount(header[i] & 0xff);
+    	return numSlots - used;
+    }
     
     /** standard toString method */
     public String toString()
@@ -141,7 +149,12 @@ public class HeapPage implements Page {
             byte[] oldDataRef = null;
             synchronized(oldDataLock)
             {
-                oldDataRef = oldData;
+                if (beforeImagePending)
+                    oldDataRef = getPageData();
+                else if (oldData != null)
+                    oldDataRef = oldData;
+                else
+                    oldDataRef = data;
             }
             return new HeapPage(pid,oldDataRef);
         } catch (IOException e) {
@@ -152,10 +165,32 @@ public class HeapPage implements Page {
         return null;
     }
     
+    /**
+     * Makes the current contents of this page its before image. The page is
+     * not serialized here; the image is captured by the first change that
+     * follows (insertTuple, deleteTuple or markDirty), so pages that are
+     * never changed again never pay for it. A page that was never changed
+     * since it was read shares its before image with the bytes it was read
+     * from.
+     * <p>
+     * Tuples changed in place with Tuple.setField are not seen until the
+     * page is marked dirty, so such changes must be followed by markDirty.
+     */
     public void setBeforeImage() {
         synchronized(oldDataLock)
         {
-        oldData = getPageData().clone();
+            beforeImagePending = true;
+        }
+    }
+
+    /** Captures a before image requested by setBeforeImage, prior to a change. */
+    private void captureBeforeImage() {
+        synchronized(oldDataLock)
+        {
+            if (beforeImagePending) {
+                oldData = getPageData();
+                beforeImagePending = false;
+            }
         }
     }
 
@@ -170,37 +205,35 @@ public class HeapPage implements Page {
     //throw new UnsupportedOperationException("implement this");
     }
 
+    /** @return the byte offset of slot slotId within the page image */
+    private int slotOffset(int slotId) {
+        return header.length + slotId * td.getSize();
+    }
+
     /**
-     * Suck up tuples from the source file.
+     * Returns the tuple in the specified slot, creating a view over the page
+     * image the first time an untouched slot is asked for.
+     *
+     * @return the tuple in slot slotId, or null if the slot is empty
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
-        if (!isSlotUsed(slotId)) {
-            for (int i=0; i<td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
-            }
+    Tuple getTuple(int slotId) {
+        if (!isSlotUsed(slotId))
             return null;
-        }
+        return tupleAt(slotId);
+    }
 
-        // read fields in the tuple
-        Tuple t = new Tuple(td);
-        RecordId rid = new RecordId(pid, slotId);
-        t.setRecordId(rid);
-        try {
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
-            }
-        } catch (java.text.ParseException e) {
-            e.printStackTrace();
-            throw new NoSuchElementException("parsing error!");
+    /**
+     * Returns the tuple stored in slot slotId without checking the header.
+     * A slot that has not been materialized still holds the tuple that was
+     * there when the page was read.
+     */
+    private Tuple tupleAt(int slotId) {
+        Tuple t = tuples[slotId];
+        if (t == null) {
+            t = new Tuple(td, data, slotOffset(slotId));
+            t.setRecordId(new RecordId(pid, slotId));
+            tuples[slotId] = t;
         }
-
         return t;
     }
 
@@ -217,63 +250,52 @@ public class HeapPage implements Page {
      */
     public byte[] getPageData() {
         int len = BufferPool.getPageSize();
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-        DataOutputStream dos = new DataOutputStream(baos);
+        int tupleSize = td.getSize();
+        byte[] out = new byte[len];
 
         // create the header of the page
-        for (int i=0; i<header.length; i++) {
-            try {
-                dos.writeByte(header[i]);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
-            }
-        }
+        System.arraycopy(header, 0, out, 0, header.length);
 
-        // create the tuples
+        // create the tuples; empty slots and padding stay zero
+        ByteArrayOutputStream baos = null;
+        DataOutputStream dos = null;
         for (int i=0; i<tuples.length; i++) {
+            if (!isSlotUsed(i))
+                continue;
 
-            // empty slot
-            if (!isSlotUsed(i)) {
-                for (int j=0; j<td.getSize(); j++) {
-                    try {
-                        dos.writeByte(0);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-
-                }
+            int off = slotOffset(i);
+            Tuple t = tuples[i];
+            if (t == null || t.isUnmodifiedView(data, off)) {
+                // still the bytes we were read from
+                System.arraycopy(data, off, out, off, tupleSize);
                 continue;
             }
 
-            // non-empty slot
+            if (baos == null) {
+                baos = new ByteArrayOutputStream(tupleSize);
+                dos = new DataOutputStream(baos);
+            }
+            baos.reset();
             for (int j=0; j<td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
                 try {
-                    f.serialize(dos);
-                
+                    Field f = t.getField(j);
+                    if (f instanceof StringField)
+                        ((StringField) f).serialize(dos, td.getFieldWidth(j));
+                    else
+                        f.serialize(dos);
                 } catch (IOException e) {
                     e.printStackTrace();
                 }
             }
+            try {
+                dos.flush();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            System.arraycopy(baos.toByteArray(), 0, out, off, Math.min(baos.size(), tupleSize));
         }
 
-        // padding
-        int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
-        byte[] zeroes = new byte[zerolen];
-        try {
-            dos.write(zeroes, 0, zerolen);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        try {
-            dos.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        return baos.toByteArray();
+        return out;
     }
 
     /**
@@ -302,11 +324,14 @@ public class HeapPage implements Page {
         // not necessary for lab1
     	
     	boolean found_tuple = false;
-    	int i = t.getRecordId().tupleno();
+    	RecordId rid = t.getRecordId();
     	
-    	if (this.isSlotUsed(i) == true) {
-    		this.tuples[i] = null;
-    		this.markSlotUsed(i, false);
+    	if (rid != null && pid.equals(rid.getPageId())
+    			&& rid.tupleno() >= 0 && rid.tupleno() < numSlots
+    			&& this.isSlotUsed(rid.tupleno())) {
+    		captureBeforeImage();
+    		// the slot keeps its tuple so that open iterators stay valid
+    		this.markSlotUsed(rid.tupleno(), false);
     		found_tuple = true;
     	}
 
@@ -354,10 +379,16 @@ public class HeapPage implements Page {
     	
     	boolean found_slot = false;
 
-    	for(int i = 0; i< tuples.length; i++)
+    	// skip whole header bytes that are full
+    	int first = 0;
+    	while (first < header.length && header[first] == (byte) 0xff)
+    		first++;
+
+    	for(int i = first * 8; i< tuples.length; i++)
     	{
     		if (!isSlotUsed(i))
     		{
+    			captureBeforeImage();
     			int tup_no_on_page = i;
     			RecordId new_rid = new RecordId(pid,tup_no_on_page);
     			t.setRecordId(new_rid);
@@ -381,6 +412,8 @@ public class HeapPage implements Page {
         // some code goes here
 	// not necessary for lab1
     	
+    	if (dirty)
+    		captureBeforeImage();
     	dirtyPage = dirty;
         dirty_causing_tid = tid;
     	
@@ -406,30 +439,7 @@ public class HeapPage implements Page {
      * Returns the number of empty slots on this page.
      */
     public int getNumEmptySlots() {
-        // some code goes here
-    	
-    	//int h_len = header.length;
-    	//System.out.println("header length: " + h_len);
-    	
-    	int num_tuples = tuples.length;
-    	//System.out.println("num_tuples: " + num_tuples);
-    	
-    	//byte one_byte = header[0];
-    	//System.out.println(one_byte);
-    	//String one_byte_s = Integer.toBinaryString(one_byte);
-    	//System.out.println(one_byte_s);
-    	//System.out.println(one_byte_s.length());
-    	
-    	int count = 0;
-    	
-    	for(int i = 0; i< num_tuples; i++)
-    	{
-    		if (!isSlotUsed(i))
-    		{
-    			count = count + 1;
-    		}
-    	}
-        return count;
+        return countEmptySlots(header, numSlots);
     }
 
     /**
@@ -488,22 +498,33 @@ public class HeapPage implements Page {
      * (note that this iterator shouldn't return tuples in empty slots!)
      */
     public Iterator<Tuple> iterator() {
-        // some code goes here
-    	//System.out.println("HeapPage iterator()");
-    	//System.out.println("HeapPage iterator: start");
-    	
-    	List<Tuple> arrAsList = Arrays.asList(tuples);
-    	ArrayList<Tuple> arrList = new ArrayList<Tuple>(arrAsList);
-    	//arrAsList.removeAll()
-    	
-    	//System.out.println("size before removal of nulls: " + arrList.size());
-    	
-    	arrList.removeAll(Collections.singleton(null));
-    	
-    	//System.out.println("size after removal of nulls: " + arrList.size());
-    	
-    	return arrList.iterator();
-    	
+        // iterate over the slots in use now; later inserts are not seen
+        final byte[] used = header.clone();
+        return new Iterator<Tuple>() {
+            private int next = advance(0);
+
+            private int advance(int from) {
+                while (from < numSlots && ((used[from / 8] >> (from % 8)) & 1) == 0)
+                    from++;
+                return from;
+            }
+
+            public boolean hasNext() {
+                return next < numSlots;
+            }
+
+            public Tuple next() {
+                if (next >= numSlots)
+                    throw new NoSuchElementException();
+                Tuple t = tupleAt(next);
+                next = advance(next + 1);
+                return t;
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
     }
 
 }
@@ -35,18 +35,15 @@ public class HeapPageId implements PageId {
     }
 
     /**
-     * @return a hash code for this page, represented by the concatenation of
-     *   the table number and the page number (needed if a PageId is used as a
+     * @return a hash code for this page, computed from the table number and
+     *   the page number (needed if a PageId is used as a
      *   key in a hash table in the BufferPool, for example.)
      * @see BufferPool
      */
     public int hashCode() {
         // some code goes here
-    	String s_tid = Integer.toString(tid);
-    	String s_numPages = Integer.toString(page_num);
-    	String output = s_tid + s_numPages;
-    	
-    	return output.hashCode();
+    	// the BufferPool hashes a page id on every lookup, so no strings here
+    	return 31 * tid + page_num;
    
         //throw new UnsupportedOperationException("implement this");
     }
@@ -0,0 +1,45 @@
+package simpledb;
+
+import java.io.Serializable;
+
+/**
+ * IndexPredicate compares the key of an index to a constant. It is the
+ * predicate an {@link IndexScan} hands to a {@link DbIndex}.
+ */
+public class IndexPredicate implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Predicate.Op op;
+    private final Field operand;
+
+    /**
+     * Constructor.
+     *
+     * @param op the comparison to apply to each key
+     * @param operand the constant the keys are compared with
+     */
+    public IndexPredicate(Predicate.Op op, Field operand) {
+        this.op = op;
+        this.operand = operand;
+    }
+
+    /** @return the operator */
+    public Predicate.Op getOp() {
+        return op;
+    }
+
+    /** @return the operand */
+    public Field getField() {
+        return operand;
+    }
+
+    /** @return true if the key satisfies this predicate */
+    public boolean matches(Field key) {
+        return key.compare(op, operand);
+    }
+
+    public String toString() {
+        return "key " + op + " " + operand;
+    }
+}
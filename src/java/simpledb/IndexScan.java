@@ -0,0 +1,114 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * IndexScan returns the tuples of a table whose indexed field satisfies an
+ * index predicate. It asks a {@link DbIndex} for the matching entries and
+ * fetches the tuple each one points to, so it reads only the index pages on
+ * the way to the matches and the table pages that hold them.
+ */
+public class IndexScan extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final TransactionId tid;
+    private final DbIndex index;
+    private final IndexPredicate ipred;
+    private final String tableAlias;
+    private DbFileIterator it;
+
+    /**
+     * Creates an index scan over the table an index is built on.
+     *
+     * @param tid the transaction this scan is running as a part of
+     * @param index the index to look the keys up in
+     * @param ipred the predicate the key field of the returned tuples satisfies
+     * @param tableAlias the alias of the table; the returned TupleDesc has
+     *   fields named tableAlias.fieldName, as in SeqScan
+     */
+    public IndexScan(TransactionId tid, DbIndex index, IndexPredicate ipred, String tableAlias) {
+        this.tid = tid;
+        this.index = index;
+        this.ipred = ipred;
+        this.tableAlias = tableAlias;
+    }
+
+    /** @return the index this scan reads */
+    public DbIndex getIndex() {
+        return index;
+    }
+
+    /** @return the predicate on the key field */
+    public IndexPredicate getIndexPredicate() {
+        return ipred;
+    }
+
+    /** @return the alias of the table this operator scans */
+    public String getAlias() {
+        return tableAlias;
+    }
+
+    public TupleDesc getTupleDesc() {
+        TupleDesc td = Database.getCatalog().getTupleDesc(index.getTableId());
+        String[] names = new String[td.numFields()];
+        Type[] types = new Type[td.numFields()];
+        int[] widths = new int[td.numFields()];
+        for (int i = 0; i < td.numFields(); i++) {
+            names[i] = tableAlias + "." + td.getFieldName(i);
+            types[i] = td.getFieldType(i);
+            widths[i] = td.getFieldWidth(i);
+        }
+        return new TupleDesc(types, names, widths);
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        it = index.indexIterator(tid, ipred);
+        it.open();
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        if (it != null)
+            it.close();
+        it = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        it.rewind();
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        while (it.hasNext()) {
+            Tuple t = fetch(it.next().getRecordId());
+            if (t != null)
+                return t;
+        }
+        return null;
+    }
+
+    /**
+     * Reads the tuple with the given RecordId from the table.
+     *
+     * @return the tuple, or null if it is no longer there
+     */
+    private Tuple fetch(RecordId rid) throws DbException, TransactionAbortedException {
+        DbFile table = Database.getCatalog().getDatabaseFile(index.getTableId());
+        if (table instanceof ColumnarFile)
+            return ((ColumnarFile) table).getTuple(tid, rid);
+        Page page = Database.getBufferPool().getPage(tid, rid.getPageId(), Permissions.READ_ONLY);
+        if (page instanceof HeapPage)
+            return ((HeapPage) page).getTuple(rid.tupleno());
+        if (page instanceof SlottedPage)
+            return ((SlottedPage) page).getTuple(rid.tupleno());
+        throw new DbException("cannot fetch tuples from " + table.getClass().getSimpleName());
+    }
+
+    public DbIterator[] getChildren() {
+        return new DbIterator[0];
+    }
+
+    public void setChildren(DbIterator[] children) {
+    }
+}
@@ -1,5 +1,7 @@
 package simpledb;
 
+import java.util.ArrayList;
+
 /**
  * Inserts tuples read from the child operator into the tableid specified in the
  * constructor
@@ -11,7 +13,10 @@ public class Insert extends Operator {
 	int tableid;
 	TupleDesc FNresult;
 	boolean hasNotBeenUsed;
+	boolean bulk;
 	
+	/** Number of tuples handed to BufferPool.insertTuples at a time in bulk mode. */
+	public static final int BULK_BATCH = 4096;
 	
 	
 	private static final long serialVersionUID = 1L;
@@ -44,6 +49,30 @@ public class Insert extends Operator {
 		FNresult = new TupleDesc(typeAr, fieldAr);
 	}
 
+	/**
+	 * Constructor.
+	 * 
+	 * @param t
+	 *            The transaction running the insert.
+	 * @param child
+	 *            The child operator from which to read tuples to be inserted.
+	 * @param tableid
+	 *            The table in which to insert tuples.
+	 * @param bulk
+	 *            If true, tuples are collected into batches of
+	 *            {@link #BULK_BATCH} and appended with
+	 *            {@link BufferPool#insertTuples} instead of being inserted
+	 *            one at a time.
+	 * @throws DbException
+	 *             if TupleDesc of child differs from table into which we are to
+	 *             insert.
+	 */
+	public Insert(TransactionId t, DbIterator child, int tableid, boolean bulk)
+			throws DbException {
+		this(t, child, tableid);
+		this.bulk = bulk;
+	}
+
 	public TupleDesc getTupleDesc() {
 		// some code goes here
 		
@@ -99,10 +128,29 @@ public class Insert extends Operator {
 		
 		try
 		{
-			while(child.hasNext())
+			if(this.bulk)
+			{
+				ArrayList<Tuple> batch = new ArrayList<Tuple>(BULK_BATCH);
+				while(child.hasNext())
+				{
+					batch.add(child.next());
+					if(batch.size() == BULK_BATCH)
+					{
+						Database.getBufferPool().insertTuples(tid, tableid, batch);
+						count += batch.size();
+						batch.clear();
+					}
+				}
+				Database.getBufferPool().insertTuples(tid, tableid, batch);
+				count += batch.size();
+			}
+			else
 			{
-				Database.getBufferPool().insertTuple(tid, tableid, child.next());
-				count +=1;
+				while(child.hasNext())
+				{
+					Database.getBufferPool().insertTuple(tid, tableid, child.next());
+					count +=1;
+				}
 			}
 		}
 		catch(Exception e)
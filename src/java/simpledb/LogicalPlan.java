@@ -1,7 +1,9 @@
 package simpledb;
+import java.util.List;
 import java.util.Map;
 import java.util.Vector;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.io.File;
 import java.util.ArrayList;
@@ -306,6 +308,16 @@ public class LogicalPlan {
 
         }
 
+        pushProjections();
+        HashSet<LogicalFilterNode> indexed = chooseIndexScans(t);
+        // filters on tables still read by a SeqScan are also pushed into
+        // the scan, which can skip pages using the file's zone map
+        HashMap<String,SeqScan> scans = new HashMap<String,SeqScan>();
+        for (Map.Entry<String,DbIterator> e : subplanMap.entrySet())
+            if (e.getValue() instanceof SeqScan)
+                scans.put(e.getKey(), (SeqScan) e.getValue());
+        HashMap<String,ArrayList<Predicate>> pushed = new HashMap<String,ArrayList<Predicate>>();
+
         Iterator<LogicalFilterNode> filterIt = filters.iterator();        
         while (filterIt.hasNext()) {
             LogicalFilterNode lf = filterIt.next();
@@ -334,7 +346,12 @@ public class LogicalPlan {
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown field " + lf.fieldQuantifiedName);
             }
-            subplanMap.put(lf.tableAlias, new Filter(p, subplan));
+            if (!indexed.contains(lf)) {
+                subplanMap.put(lf.tableAlias, new Filter(p, subplan));
+                if (!pushed.containsKey(lf.tableAlias))
+                    pushed.put(lf.tableAlias, new ArrayList<Predicate>());
+                pushed.get(lf.tableAlias).add(p);
+            }
 
             TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(lf.tableAlias)));
             
@@ -344,6 +361,10 @@ public class LogicalPlan {
             //s.addSelectivityFactor(estimateFilterSelectivity(lf,statsMap));
         }
         
+        for (Map.Entry<String,ArrayList<Predicate>> e : pushed.entrySet())
+            if (scans.containsKey(e.getKey()))
+                scans.get(e.getKey()).setPredicates(e.getValue().toArray(new Predicate[0]));
+
         JoinOptimizer jo = new JoinOptimizer(this,joins);
 
         joins = jo.orderJoins(statsMap,filterSelectivities,explain);
@@ -481,6 +502,132 @@ public class LogicalPlan {
         return new Project(outFields, outTypes, node);
     }
 
+    /**
+     * Replaces the scan of each table that has an equality filter on an
+     * indexed field with an {@link IndexScan} that looks the constant up,
+     * preferring a {@link HashIndexFile} to other indexes on the field.
+     * Failing that, the filters of a table on fields with
+     * {@link BitmapIndex}es are answered together by a {@link BitmapScan}.
+     * Must be called while subplanMap still maps each alias to its SeqScan.
+     *
+     * @return the filters that the index scans answer
+     */
+    private HashSet<LogicalFilterNode> chooseIndexScans(TransactionId t) {
+        HashSet<LogicalFilterNode> answered = new HashSet<LogicalFilterNode>();
+        for (LogicalFilterNode lf : filters) {
+            if (lf.p != Predicate.Op.EQUALS || !(subplanMap.get(lf.tableAlias) instanceof SeqScan))
+                continue;
+            DbIndex best = null;
+            for (DbIndex index : indexesOn(lf))
+                if (index.supports(lf.p) && !(index instanceof BitmapIndex)
+                        && (best == null || index instanceof HashIndexFile))
+                    best = index;
+            if (best == null)
+                continue;
+            subplanMap.put(lf.tableAlias, new IndexScan(t, best, indexPredicate(lf, best), lf.tableAlias));
+            answered.add(lf);
+        }
+
+        HashMap<String, ArrayList<LogicalFilterNode>> bitmapFilters = new HashMap<String, ArrayList<LogicalFilterNode>>();
+        HashMap<String, ArrayList<BitmapIndex>> bitmapIndexes = new HashMap<String, ArrayList<BitmapIndex>>();
+        for (LogicalFilterNode lf : filters) {
+            if (!(subplanMap.get(lf.tableAlias) instanceof SeqScan))
+                continue;
+            for (DbIndex index : indexesOn(lf)) {
+                if (index instanceof BitmapIndex) {
+                    if (!bitmapFilters.containsKey(lf.tableAlias)) {
+                        bitmapFilters.put(lf.tableAlias, new ArrayList<LogicalFilterNode>());
+                        bitmapIndexes.put(lf.tableAlias, new ArrayList<BitmapIndex>());
+                    }
+                    bitmapFilters.get(lf.tableAlias).add(lf);
+                    bitmapIndexes.get(lf.tableAlias).add((BitmapIndex) index);
+                    break;
+                }
+            }
+        }
+        for (String alias : bitmapFilters.keySet()) {
+            ArrayList<LogicalFilterNode> lfs = bitmapFilters.get(alias);
+            ArrayList<BitmapIndex> idxs = bitmapIndexes.get(alias);
+            IndexPredicate[] preds = new IndexPredicate[lfs.size()];
+            for (int i = 0; i < preds.length; i++)
+                preds[i] = indexPredicate(lfs.get(i), idxs.get(i));
+            subplanMap.put(alias, new BitmapScan(t, idxs.toArray(new BitmapIndex[0]), preds, alias));
+            answered.addAll(lfs);
+        }
+        return answered;
+    }
+
+    /** @return the indexes on the field a filter applies to */
+    private List<DbIndex> indexesOn(LogicalFilterNode lf) {
+        ArrayList<DbIndex> out = new ArrayList<DbIndex>();
+        Integer tableId = getTableId(lf.tableAlias);
+        if (tableId == null)
+            return out;
+        TupleDesc td = Database.getCatalog().getTupleDesc(tableId);
+        int field;
+        try {
+            field = td.fieldNameToIndex(lf.fieldPureName);
+        } catch (NoSuchElementException e) {
+            return out;
+        }
+        for (DbIndex index : Database.getCatalog().getIndexes(tableId))
+            if (index.getKeyField() == field)
+                out.add(index);
+        return out;
+    }
+
+    /** @return the predicate of a filter, applied to the key of an index */
+    private static IndexPredicate indexPredicate(LogicalFilterNode lf, DbIndex index) {
+        Field key;
+        if (index.getTupleDesc().getFieldType(0) == Type.INT_TYPE)
+            key = new IntField(Integer.parseInt(lf.c));
+        else
+            key = new StringField(lf.c, Type.STRING_LEN);
+        return new IndexPredicate(lf.p, key);
+    }
+
+    /**
+     * Tells each base table scan which of its fields the query refers to,
+     * so that scans of column-oriented tables read only those columns. A
+     * query that selects * reads every field. Must be called while
+     * subplanMap still maps each alias to its SeqScan.
+     */
+    private void pushProjections() {
+        HashSet<String> used = new HashSet<String>();
+        for (LogicalSelectListNode si : selectList) {
+            if (si.fname.endsWith(".*"))
+                return;
+            used.add(si.fname);
+        }
+        for (LogicalFilterNode lf : filters)
+            used.add(lf.fieldQuantifiedName);
+        for (LogicalJoinNode lj : joins) {
+            used.add(lj.f1QuantifiedName);
+            used.add(lj.f2QuantifiedName);
+        }
+        if (groupByField != null)
+            used.add(groupByField);
+        if (aggField != null)
+            used.add(aggField);
+        if (oByField != null)
+            used.add(oByField);
+
+        for (LogicalScanNode table : tables) {
+            SeqScan ss = (SeqScan) subplanMap.get(table.alias);
+            TupleDesc td = ss.getTupleDesc();
+            ArrayList<Integer> fields = new ArrayList<Integer>();
+            for (int i = 0; i < td.numFields(); i++)
+                if (used.contains(td.getFieldName(i)))
+                    fields.add(i);
+            if (fields.size() == td.numFields())
+                continue;
+            int[] projection = new int[fields.size()];
+            for (int i = 0; i < projection.length; i++)
+                projection[i] = fields.get(i);
+            ss.setProjection(projection);
+        }
+    }
+
     public static void main(String argv[]) {
         // construct a 3-column table schema
         Type types[] = new Type[]{ Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE };
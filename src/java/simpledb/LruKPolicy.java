@@ -0,0 +1,94 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * LruKPolicy evicts the page whose K-th most recent access is oldest (the
+ * largest backward K-distance). Pages accessed fewer than K times have an
+ * infinite distance and go first, oldest last access first, so a page read
+ * once by a large scan is evicted before a page used repeatedly, which
+ * plain LRU gets wrong.
+ * <p>
+ * The access history of an evicted page is retained for a while, up to
+ * the capacity of the pool, so that a page that comes back soon is known
+ * to be hot. Choosing a victim looks at every cached page, which is cheap
+ * for pools of a few thousand pages.
+ */
+public class LruKPolicy implements EvictionPolicy {
+
+    /** Default number of accesses remembered per page. */
+    public static final int DEFAULT_K = 2;
+
+    private final int k;
+    private final int retained;
+    private long clock = 0;
+    /** Access times of cached pages, most recent first; 0 if none. */
+    private final HashMap<PageId, long[]> history = new HashMap<PageId, long[]>();
+    /** Histories of evicted pages, oldest first. */
+    private final LinkedHashMap<PageId, long[]> past = new LinkedHashMap<PageId, long[]>();
+
+    /**
+     * @param k the number of accesses remembered per page
+     * @param capacity the number of pages in the pool; as many histories
+     *   of evicted pages are retained
+     */
+    public LruKPolicy(int k, int capacity) {
+        if (k < 1)
+            throw new IllegalArgumentException("k must be at least 1");
+        this.k = k;
+        this.retained = capacity;
+    }
+
+    private void touch(long[] times) {
+        System.arraycopy(times, 0, times, 1, k - 1);
+        times[0] = ++clock;
+    }
+
+    public synchronized void pageAdded(PageId pid) {
+        long[] times = history.get(pid);
+        if (times == null) {
+            times = past.remove(pid);
+            if (times == null)
+                times = new long[k];
+            history.put(pid, times);
+        }
+        touch(times);
+    }
+
+    public synchronized void pageAccessed(PageId pid) {
+        long[] times = history.get(pid);
+        if (times != null)
+            touch(times);
+    }
+
+    public synchronized void pageRemoved(PageId pid) {
+        long[] times = history.remove(pid);
+        if (times == null || retained == 0)
+            return;
+        past.put(pid, times);
+        if (past.size() > retained) {
+            Iterator<PageId> it = past.keySet().iterator();
+            it.next();
+            it.remove();
+        }
+    }
+
+    public synchronized PageId chooseVictim(Filter filter) {
+        PageId victim = null;
+        long victimKth = 0, victimLast = 0;
+        for (Map.Entry<PageId, long[]> e : history.entrySet()) {
+            long[] times = e.getValue();
+            // a page with fewer than k accesses has times[k - 1] == 0
+            long kth = times[k - 1];
+            long last = times[0];
+            if (victim != null && (kth > victimKth || (kth == victimKth && last >= victimLast)))
+                continue;
+            if (!filter.evictable(e.getKey()))
+                continue;
+            victim = e.getKey();
+            victimKth = kth;
+            victimLast = last;
+        }
+        return victim;
+    }
+}
@@ -0,0 +1,119 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+
+/**
+ * MappedHeapFile is a HeapFile whose pages are read out of a memory mapping
+ * of the underlying file rather than with a read call per page. It is meant
+ * for read-mostly tables: a page miss in the BufferPool becomes a copy out
+ * of the OS page cache with no system call.
+ * <p>
+ * The file is mapped read-only in chunks of {@link #CHUNK_PAGES} pages.
+ * Chunks are mapped on first use, and the last, partially filled chunk is
+ * remapped once inserts have grown the file past the end of its mapping.
+ * <p>
+ * Writes are unchanged: dirty pages still reach disk through
+ * {@link HeapFile#writePage} when the BufferPool flushes them, and because
+ * the mapping is shared with the page cache, later reads observe them.
+ *
+ * @see HeapFile
+ */
+public class MappedHeapFile extends HeapFile {
+
+    /** Number of pages covered by each mapped chunk. */
+    public static final int CHUNK_PAGES = 2048;
+
+    private final ArrayList<MappedByteBuffer> chunks = new ArrayList<MappedByteBuffer>();
+    private int chunkPageSize = -1;
+
+    /**
+     * Constructs a memory-mapped heap file backed by the specified file.
+     *
+     * @param f the file that stores the on-disk backing store for this file
+     * @param td the schema of the tuples stored in this file
+     */
+    public MappedHeapFile(File f, TupleDesc td) {
+        super(f, td);
+    }
+
+    /**
+     * Returns a mapping covering the given page, mapping or remapping the
+     * chunk that holds it if necessary.
+     *
+     * @return the mapped chunk, or null if the page is beyond end of file
+     */
+    private synchronized ByteBuffer chunkFor(int pageNo, int pageSize) throws IOException {
+        if (pageSize != chunkPageSize) {
+            chunks.clear();
+            chunkPageSize = pageSize;
+        }
+        int chunkNo = pageNo / CHUNK_PAGES;
+        long chunkBytes = (long) CHUNK_PAGES * pageSize;
+        long chunkStart = chunkNo * chunkBytes;
+        long pageEnd = (long) (pageNo + 1) * pageSize;
+
+        while (chunks.size() <= chunkNo)
+            chunks.add(null);
+        MappedByteBuffer chunk = chunks.get(chunkNo);
+        if (chunk == null || chunkStart + chunk.capacity() < pageEnd) {
+            FileChannel ch = channel.channel();
+            long size = ch.size();
+            if (size < pageEnd)
+                return null;
+            chunk = ch.map(FileChannel.MapMode.READ_ONLY, chunkStart, Math.min(chunkBytes, size - chunkStart));
+            chunks.set(chunkNo, chunk);
+        }
+        return chunk;
+    }
+
+    /**
+     * Builds the specified page from the mapped region of the file.
+     *
+     * @throws IllegalArgumentException if the page does not exist in this file.
+     */
+    public Page readPage(PageId pid) {
+        int pageSize = BufferPool.getPageSize();
+        try {
+            ByteBuffer chunk = pid.pageNumber() < numPages() ? chunkFor(pid.pageNumber(), pageSize) : null;
+            if (chunk == null)
+                throw new IllegalArgumentException("page " + pid.pageNumber() + " does not exist in " + getFile());
+            // duplicate so that concurrent readers do not share a position
+            ByteBuffer view = chunk.duplicate();
+            view.position((pid.pageNumber() % CHUNK_PAGES) * pageSize);
+            // copied, not wrapped: a HeapPage decodes tuples lazily from its
+            // data and keeps it as its before image, so the bytes must not
+            // change under it, and the mapping changes whenever the page is
+            // written back
+            byte[] data = new byte[pageSize];
+            view.get(data);
+            return new HeapPage((HeapPageId) pid, data);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    /**
+     * Drops every mapping; they are re-established on demand. Must be called
+     * before the file is truncated.
+     */
+    public synchronized void unmap() {
+        chunks.clear();
+    }
+
+    /** Drops the mappings, which must not outlive the truncated pages. */
+    void truncate(int numPages) throws IOException {
+        unmap();
+        super.truncate(numPages);
+    }
+
+    /** Drops the mappings and closes the file handle. */
+    public void close() {
+        unmap();
+        super.close();
+    }
+}
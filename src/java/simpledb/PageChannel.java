@@ -0,0 +1,237 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * PageChannel performs page-sized positional reads and writes against a
+ * single, long-lived FileChannel. A DbFile keeps one PageChannel for its
+ * whole lifetime instead of opening a new stream for every page miss.
+ * <p>
+ * Reads and writes go through a per-thread direct ByteBuffer that is reused
+ * across calls, so a page miss costs exactly one pread and one copy into the
+ * array handed to the Page constructor.
+ * <p>
+ * The channel is opened lazily on first use and may be closed with
+ * {@link #close}; a closed PageChannel transparently reopens itself on the
+ * next access.
+ *
+ * @Threadsafe
+ */
+public class PageChannel {
+
+    private final File file;
+    private RandomAccessFile raf;
+    private FileChannel channel;
+
+    private final ThreadLocal<ByteBuffer> buffers = new ThreadLocal<ByteBuffer>();
+
+    private final AtomicLong opens = new AtomicLong();
+    private final AtomicLong reads = new AtomicLong();
+    private final AtomicLong writes = new AtomicLong();
+    private final AtomicLong bytesRead = new AtomicLong();
+    private final AtomicLong bytesWritten = new AtomicLong();
+
+    /**
+     * Creates a PageChannel over the specified file. The file is not opened
+     * until the first read or write.
+     *
+     * @param f the file backing this channel
+     */
+    public PageChannel(File f) {
+        this.file = f;
+    }
+
+    /** @return the file backing this channel */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @return the open FileChannel for this file, opening it if necessary
+     */
+    synchronized FileChannel channel() throws IOException {
+        if (channel == null || !channel.isOpen()) {
+            raf = new RandomAccessFile(file, "rw");
+            channel = raf.getChannel();
+            opens.incrementAndGet();
+        }
+        return channel;
+    }
+
+    /**
+     * Returns a direct buffer of exactly len bytes that belongs to the
+     * calling thread.
+     */
+    private ByteBuffer buffer(int len) {
+        ByteBuffer buf = buffers.get();
+        if (buf == null || buf.capacity() != len) {
+            buf = ByteBuffer.allocateDirect(len);
+            buffers.set(buf);
+        }
+        buf.clear();
+        return buf;
+    }
+
+    /**
+     * Reads dst.length bytes starting at the specified byte offset into dst.
+     * Bytes past the end of the file are left as zero.
+     *
+     * @return the number of bytes actually read from the file
+     */
+    public int read(long offset, byte[] dst) throws IOException {
+        FileChannel ch = channel();
+        ByteBuffer buf = buffer(dst.length);
+        int total = 0;
+        while (buf.hasRemaining()) {
+            int n = ch.read(buf, offset + total);
+            if (n < 0)
+                break;
+            total += n;
+        }
+        buf.flip();
+        buf.get(dst, 0, total);
+        reads.incrementAndGet();
+        bytesRead.addAndGet(total);
+        return total;
+    }
+
+    /**
+     * Writes all of src starting at the specified byte offset, growing the
+     * file if necessary.
+     */
+    public void write(long offset, byte[] src) throws IOException {
+        FileChannel ch = channel();
+        ByteBuffer buf = buffer(src.length);
+        buf.put(src);
+        buf.flip();
+        int total = 0;
+        while (buf.hasRemaining())
+            total += ch.write(buf, offset + total);
+        writes.incrementAndGet();
+        bytesWritten.addAndGet(total);
+    }
+
+    /**
+     * Reads page pageNo of pageSize bytes into a freshly allocated array.
+     *
+     * @return the page bytes, or null if the page lies beyond end of file
+     */
+    public byte[] readPage(int pageNo, int pageSize) throws IOException {
+        byte[] data = new byte[pageSize];
+        int n = read((long) pageNo * pageSize, data);
+        if (n <= 0)
+            return null;
+        return data;
+    }
+
+    /** Writes the given page image at page slot pageNo. */
+    public void writePage(int pageNo, byte[] data) throws IOException {
+        write((long) pageNo * data.length, data);
+    }
+
+    /**
+     * Writes a run of consecutive page images, starting at page slot
+     * firstPageNo, with a single gathering write.
+     */
+    public void writePages(int firstPageNo, byte[][] pages) throws IOException {
+        if (pages.length == 0)
+            return;
+        write((long) firstPageNo * pages[0].length, pages);
+    }
+
+    /**
+     * Writes the arrays of srcs one after another starting at the specified
+     * byte offset, with a single gathering write.
+     */
+    public void write(long offset, byte[][] srcs) throws IOException {
+        ByteBuffer[] bufs = new ByteBuffer[srcs.length];
+        long len = 0;
+        for (int i = 0; i < srcs.length; i++) {
+            bufs[i] = ByteBuffer.wrap(srcs[i]);
+            len += srcs[i].length;
+        }
+        FileChannel ch = channel();
+        long total = 0;
+        // positional reads and writes never use the channel position, so it
+        // is only shared between gathering writes
+        synchronized (this) {
+            ch.position(offset);
+            while (total < len)
+                total += ch.write(bufs);
+        }
+        writes.incrementAndGet();
+        bytesWritten.addAndGet(total);
+    }
+
+    /**
+     * @return the current length of the file in bytes; a file that does not
+     *   exist yet has length zero and is not created by this call
+     */
+    public long size() throws IOException {
+        synchronized (this) {
+            if ((channel == null || !channel.isOpen()) && !file.exists())
+                return 0;
+        }
+        return channel().size();
+    }
+
+    /** Forces any written pages to the storage device. */
+    public void force() throws IOException {
+        channel().force(false);
+    }
+
+    /** Shortens the file to size bytes; a longer size leaves it unchanged. */
+    public void truncate(long size) throws IOException {
+        channel().truncate(size);
+    }
+
+    /** Closes the underlying channel. A later access reopens it. */
+    public synchronized void close() {
+        if (raf != null) {
+            try {
+                raf.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        raf = null;
+        channel = null;
+    }
+
+    /** @return the number of times the underlying file has been opened */
+    public long getOpenCount() {
+        return opens.get();
+    }
+
+    /** @return the number of read calls served */
+    public long getReadCount() {
+        return reads.get();
+    }
+
+    /** @return the number of write calls served */
+    public long getWriteCount() {
+        return writes.get();
+    }
+
+    /** @return the number of bytes read from the file */
+    public long getBytesRead() {
+        return bytesRead.get();
+    }
+
+    /** @return the number of bytes written to the file */
+    public long getBytesWritten() {
+        return bytesWritten.get();
+    }
+
+    /** Resets all counters to zero. */
+    public void resetCounters() {
+        opens.set(0);
+        reads.set(0);
+        writes.set(0);
+        bytesRead.set(0);
+        bytesWritten.set(0);
+    }
+}
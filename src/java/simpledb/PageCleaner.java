@@ -0,0 +1,86 @@
+package simpledb;
+
+/**
+ * PageCleaner is the background writer of one BufferPool. Its daemon thread
+ * wakes every {@link #INTERVAL_MILLIS} ms and calls
+ * {@link BufferPool#cleanDirtyPages} on that pool, which writes back dirty
+ * pages, longest runs of consecutive pages first, until the pool is under
+ * its dirty page target again. Evictions then mostly find clean victims and
+ * do not wait for a write.
+ * <p>
+ * Background cleaning is opt-in: the thread runs only between
+ * {@link BufferPool#startCleaner} and {@link BufferPool#stopCleaner}.
+ * Database starts the cleaner of the pool it serves and stops it when the
+ * pool is replaced; other pools may start their own, or call
+ * cleanDirtyPages themselves.
+ */
+public class PageCleaner {
+
+    /** Time between passes over the buffer pool. */
+    public static final long INTERVAL_MILLIS = 20;
+
+    private final BufferPool pool;
+    /** The running thread; a thread that is no longer this one exits. */
+    private Thread thread;
+
+    PageCleaner(BufferPool pool) {
+        this.pool = pool;
+    }
+
+    /** Starts the cleaner thread, unless it is already running. */
+    synchronized void start() {
+        if (thread != null)
+            return;
+        thread = new Thread("simpledb-cleaner") {
+            public void run() {
+                while (true) {
+                    synchronized (PageCleaner.this) {
+                        try {
+                            PageCleaner.this.wait(INTERVAL_MILLIS);
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                        if (thread != this)
+                            return;
+                    }
+                    try {
+                        pool.cleanDirtyPages();
+                    } catch (Exception e) {
+                        // a table dropped or closed under the pool; the
+                        // pages are retried, or evicted, later
+                        e.printStackTrace();
+                    }
+                }
+            }
+        };
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops the cleaner thread, if it is running, and waits for a pass in
+     * progress to finish.
+     */
+    void stop() {
+        Thread t;
+        synchronized (this) {
+            t = thread;
+            if (t == null)
+                return;
+            thread = null;
+            notifyAll();
+        }
+        if (t == Thread.currentThread())
+            return;
+        try {
+            t.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** @return true if the cleaner thread is running */
+    synchronized boolean isRunning() {
+        return thread != null;
+    }
+}
@@ -0,0 +1,237 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * PageCodec compresses HeapPage images column by column. Only the tuples in
+ * used slots are stored; empty slots and padding, which are always zero,
+ * are left out. Each column of the page is then encoded on its own:
+ * <ul>
+ * <li>int columns with frame-of-reference encoding: the smallest value on
+ * the page, followed by each value's distance from it packed into as few
+ * bits as the largest distance needs;</li>
+ * <li>string columns with a dictionary of the distinct values on the page,
+ * followed by each value's dictionary index packed into as few bits as the
+ * dictionary size needs.</li>
+ * </ul>
+ * Compression is lossless: a page whose image would not be reproduced
+ * exactly, or that would not get smaller, is stored raw. The first byte of
+ * every compressed image says which of the two forms follows.
+ *
+ * @see CompressedHeapFile
+ */
+public class PageCodec {
+
+    static final byte RAW = 0;
+    static final byte COLUMNAR = 1;
+
+    /** @return the number of tuple slots on a page of pageSize bytes */
+    private static int numSlots(TupleDesc td, int pageSize) {
+        return (pageSize * 8) / (td.getSize() * 8 + 1);
+    }
+
+    /**
+     * Compresses a HeapPage image of a table with schema td.
+     *
+     * @return the compressed image, to be passed to {@link #decompress}
+     */
+    public static byte[] compress(byte[] page, TupleDesc td) {
+        byte[] out = null;
+        try {
+            out = encode(page, td);
+        } catch (IOException e) {
+            // writes to a byte array do not fail
+            throw new RuntimeException(e);
+        }
+        if (out.length >= page.length + 1 || !Arrays.equals(page, decompress(out, td, page.length))) {
+            out = new byte[page.length + 1];
+            out[0] = RAW;
+            System.arraycopy(page, 0, out, 1, page.length);
+        }
+        return out;
+    }
+
+    private static byte[] encode(byte[] page, TupleDesc td) throws IOException {
+        int numSlots = numSlots(td, page.length);
+        int headerSize = HeapPage.getHeaderSize(numSlots);
+        int tupleSize = td.getSize();
+
+        int[] used = new int[numSlots];
+        int n = 0;
+        for (int i = 0; i < numSlots; i++)
+            if ((page[i / 8] & (1 << (i % 8))) != 0)
+                used[n++] = i;
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(page.length / 4);
+        DataOutputStream dos = new DataOutputStream(baos);
+        dos.writeByte(COLUMNAR);
+        dos.write(page, 0, headerSize);
+        if (n == 0) {
+            dos.flush();
+            return baos.toByteArray();
+        }
+
+        for (int c = 0; c < td.numFields(); c++) {
+            int fieldOff = td.getFieldOffset(c);
+            if (td.getFieldType(c) == Type.INT_TYPE) {
+                long min = Long.MAX_VALUE, max = Long.MIN_VALUE;
+                long[] vals = new long[n];
+                for (int k = 0; k < n; k++) {
+                    vals[k] = Type.readInt(page, headerSize + used[k] * tupleSize + fieldOff);
+                    min = Math.min(min, vals[k]);
+                    max = Math.max(max, vals[k]);
+                }
+                int bits = 64 - Long.numberOfLeadingZeros(max - min);
+                dos.writeInt((int) min);
+                dos.writeByte(bits);
+                BitPacker packer = new BitPacker(n, bits);
+                for (int k = 0; k < n; k++)
+                    packer.put(vals[k] - min);
+                dos.write(packer.bytes);
+            } else {
+                int width = td.getFieldWidth(c);
+                HashMap<String, Integer> dict = new HashMap<String, Integer>();
+                ArrayList<String> entries = new ArrayList<String>();
+                int[] codes = new int[n];
+                for (int k = 0; k < n; k++) {
+                    int off = headerSize + used[k] * tupleSize + fieldOff;
+                    int len = Math.max(0, Math.min(Type.readInt(page, off), width));
+                    String s = new String(page, off + 4, len, "ISO-8859-1");
+                    Integer code = dict.get(s);
+                    if (code == null) {
+                        code = entries.size();
+                        dict.put(s, code);
+                        entries.add(s);
+                    }
+                    codes[k] = code;
+                }
+                dos.writeShort(entries.size());
+                for (String s : entries) {
+                    dos.writeShort(s.length());
+                    dos.writeBytes(s);
+                }
+                int bits = 32 - Integer.numberOfLeadingZeros(entries.size() - 1);
+                BitPacker packer = new BitPacker(n, bits);
+                for (int k = 0; k < n; k++)
+                    packer.put(codes[k]);
+                dos.write(packer.bytes);
+            }
+        }
+        dos.flush();
+        return baos.toByteArray();
+    }
+
+    /**
+     * Rebuilds a HeapPage image from the output of {@link #compress}.
+     *
+     * @param data the compressed image
+     * @param td the schema of the table
+     * @param pageSize the size of the page image to rebuild
+     */
+    public static byte[] decompress(byte[] data, TupleDesc td, int pageSize) {
+        byte[] page = new byte[pageSize];
+        if (data[0] == RAW) {
+            System.arraycopy(data, 1, page, 0, pageSize);
+            return page;
+        }
+
+        int numSlots = numSlots(td, pageSize);
+        int headerSize = HeapPage.getHeaderSize(numSlots);
+        int tupleSize = td.getSize();
+        System.arraycopy(data, 1, page, 0, headerSize);
+        int pos = 1 + headerSize;
+
+        int[] used = new int[numSlots];
+        int n = 0;
+        for (int i = 0; i < numSlots; i++)
+            if ((page[i / 8] & (1 << (i % 8))) != 0)
+                used[n++] = i;
+        if (n == 0)
+            return page;
+
+        for (int c = 0; c < td.numFields(); c++) {
+            int fieldOff = td.getFieldOffset(c);
+            if (td.getFieldType(c) == Type.INT_TYPE) {
+                long min = Type.readInt(data, pos);
+                int bits = data[pos + 4];
+                pos += 5;
+                BitPacker packer = new BitPacker(data, pos, bits);
+                for (int k = 0; k < n; k++)
+                    writeInt(page, headerSize + used[k] * tupleSize + fieldOff, (int) (min + packer.get()));
+                pos += BitPacker.length(n, bits);
+            } else {
+                int size = readShort(data, pos);
+                pos += 2;
+                int[] offsets = new int[size];
+                int[] lengths = new int[size];
+                for (int e = 0; e < size; e++) {
+                    lengths[e] = readShort(data, pos);
+                    offsets[e] = pos + 2;
+                    pos += 2 + lengths[e];
+                }
+                int bits = 32 - Integer.numberOfLeadingZeros(size - 1);
+                BitPacker packer = new BitPacker(data, pos, bits);
+                for (int k = 0; k < n; k++) {
+                    int e = (int) packer.get();
+                    int off = headerSize + used[k] * tupleSize + fieldOff;
+                    writeInt(page, off, lengths[e]);
+                    System.arraycopy(data, offsets[e], page, off + 4, lengths[e]);
+                }
+                pos += BitPacker.length(n, bits);
+            }
+        }
+        return page;
+    }
+
+    private static int readShort(byte[] b, int off) {
+        return ((b[off] & 0xff) << 8) | (b[off + 1] & 0xff);
+    }
+
+    private static void writeInt(byte[] b, int off, int v) {
+        b[off] = (byte) (v >>> 24);
+        b[off + 1] = (byte) (v >>> 16);
+        b[off + 2] = (byte) (v >>> 8);
+        b[off + 3] = (byte) v;
+    }
+
+    /** Packs unsigned values of a fixed number of bits, most significant first. */
+    private static class BitPacker {
+        final byte[] bytes;
+        final int start;
+        final int bits;
+        long bitPos = 0;
+
+        static int length(int n, int bits) {
+            return (int) (((long) n * bits + 7) / 8);
+        }
+
+        /** For writing n values. */
+        BitPacker(int n, int bits) {
+            this.bytes = new byte[length(n, bits)];
+            this.start = 0;
+            this.bits = bits;
+        }
+
+        /** For reading values that start at bytes[start]. */
+        BitPacker(byte[] bytes, int start, int bits) {
+            this.bytes = bytes;
+            this.start = start;
+            this.bits = bits;
+        }
+
+        void put(long v) {
+            for (int b = bits - 1; b >= 0; b--, bitPos++) {
+                if (((v >>> b) & 1) != 0)
+                    bytes[start + (int) (bitPos / 8)] |= (byte) (0x80 >>> (bitPos % 8));
+            }
+        }
+
+        long get() {
+            long v = 0;
+            for (int b = 0; b < bits; b++, bitPos++)
+                v = (v << 1) | ((bytes[start + (int) (bitPos / 8)] >>> (7 - bitPos % 8)) & 1);
+            return v;
+        }
+    }
+}
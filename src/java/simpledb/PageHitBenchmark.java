@@ -0,0 +1,63 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * Measures BufferPool hit throughput with 1, 2, 4, ... threads, up to the
+ * number of processors, each looking up random pages of a table that is
+ * entirely cached. With lock-free hits the throughput should grow in
+ * proportion to the number of threads.
+ * <p>
+ * Usage: <code>java simpledb.PageHitBenchmark [numPages] [lookupsPerThread]</code>
+ */
+public class PageHitBenchmark {
+
+    /** Runs the lookups on the given number of threads; returns lookups per second. */
+    static double run(final BufferPool bp, final HeapFile hf, final int threads, final int lookups)
+            throws Exception {
+        final TransactionId tid = new TransactionId();
+        final int numPages = hf.numPages();
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final long seed = t;
+            workers[t] = new Thread() {
+                public void run() {
+                    Random r = new Random(seed);
+                    try {
+                        for (int i = 0; i < lookups; i++)
+                            bp.getPage(tid, new HeapPageId(hf.getId(), r.nextInt(numPages)), Permissions.READ_ONLY);
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            };
+        }
+        long start = System.nanoTime();
+        for (Thread w : workers)
+            w.start();
+        for (Thread w : workers)
+            w.join();
+        return (double) threads * lookups / ((System.nanoTime() - start) / 1e9);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int numPages = args.length > 0 ? Integer.parseInt(args[0]) : 256;
+        int lookups = args.length > 1 ? Integer.parseInt(args[1]) : 2000000;
+
+        HeapFile hf = EvictionBenchmark.createTable(numPages * HeapPage.getNumTuples(Utility.getTupleDesc(2)));
+        BufferPool bp = Database.resetBufferPool(hf.numPages());
+        run(bp, hf, 1, hf.numPages() * 4);
+        run(bp, hf, 1, lookups);
+
+        double base = 0;
+        int cores = Runtime.getRuntime().availableProcessors();
+        for (int threads = 1; threads <= cores; threads *= 2) {
+            double rate = run(bp, hf, threads, lookups);
+            if (threads == 1)
+                base = rate;
+            System.out.println(String.format("threads=%-3d %.2fM lookups/s  x%.2f",
+                    threads, rate / 1e6, rate / base));
+        }
+        hf.close();
+    }
+}
@@ -0,0 +1,93 @@
+package simpledb;
+
+import java.io.*;
+import java.util.Random;
+
+/**
+ * Micro-benchmark comparing the per-page stream path that HeapFile used to
+ * take on every page miss (open a FileInputStream, skip, read, close) with
+ * the persistent {@link PageChannel} path.
+ * <p>
+ * Usage: <code>java simpledb.PageIOBenchmark [numPages] [numReads]</code>
+ * <p>
+ * Both paths read the same sequence of page numbers (one sequential pass
+ * followed by uniformly random reads) from a scratch file, and the counters
+ * of each path are printed side by side.
+ */
+public class PageIOBenchmark {
+
+    /** Counters for one run of one I/O path. */
+    static class Counters {
+        long opens;
+        long reads;
+        long bytes;
+        long nanos;
+
+        public String toString() {
+            return String.format("opens=%d reads=%d bytes=%d time=%.1fms (%.2fus/page)",
+                    opens, reads, bytes, nanos / 1e6,
+                    reads == 0 ? 0.0 : nanos / 1e3 / reads);
+        }
+    }
+
+    /** The page read path HeapFile.readPage used before PageChannel. */
+    static Counters legacyRead(File f, int[] pageNos, int pageSize) throws IOException {
+        Counters c = new Counters();
+        byte[] buffer = new byte[pageSize];
+        long start = System.nanoTime();
+        for (int pageNo : pageNos) {
+            FileInputStream fs = new FileInputStream(f);
+            c.opens++;
+            fs.skip((long) pageNo * pageSize);
+            c.bytes += fs.read(buffer);
+            c.reads++;
+            fs.close();
+        }
+        c.nanos = System.nanoTime() - start;
+        return c;
+    }
+
+    /** The PageChannel read path. */
+    static Counters channelRead(File f, int[] pageNos, int pageSize) throws IOException {
+        PageChannel ch = new PageChannel(f);
+        Counters c = new Counters();
+        long start = System.nanoTime();
+        for (int pageNo : pageNos)
+            ch.readPage(pageNo, pageSize);
+        c.nanos = System.nanoTime() - start;
+        c.opens = ch.getOpenCount();
+        c.reads = ch.getReadCount();
+        c.bytes = ch.getBytesRead();
+        ch.close();
+        return c;
+    }
+
+    public static void main(String[] args) throws IOException {
+        int numPages = args.length > 0 ? Integer.parseInt(args[0]) : 2048;
+        int numReads = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+        int pageSize = BufferPool.getPageSize();
+
+        File f = File.createTempFile("pageio", ".dat");
+        f.deleteOnExit();
+        PageChannel writer = new PageChannel(f);
+        byte[] page = new byte[pageSize];
+        for (int i = 0; i < numPages; i++) {
+            page[0] = (byte) i;
+            writer.writePage(i, page);
+        }
+        writer.close();
+
+        int[] pageNos = new int[numPages + numReads];
+        Random r = new Random(0);
+        for (int i = 0; i < pageNos.length; i++)
+            pageNos[i] = i < numPages ? i : r.nextInt(numPages);
+
+        // warm up both paths (and the OS page cache) before measuring
+        legacyRead(f, pageNos, pageSize);
+        channelRead(f, pageNos, pageSize);
+
+        System.out.println("pages=" + numPages + " reads=" + pageNos.length + " pageSize=" + pageSize);
+        System.out.println("stream  : " + legacyRead(f, pageNos, pageSize));
+        System.out.println("channel : " + channelRead(f, pageNos, pageSize));
+    }
+}
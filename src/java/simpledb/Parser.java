@@ -4,6 +4,8 @@ import Zql.*;
 import java.io.*;
 import java.lang.reflect.InvocationTargetException;
 import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import jline.ArgumentCompletor;
 import jline.ConsoleReader;
@@ -341,6 +343,7 @@ public class Parser {
         Tuple t = new Tuple(td);
         int i = 0;
         DbIterator newTups;
+        boolean bulk = false;
 
         if (s.getValues() != null) {
             @SuppressWarnings("unchecked")
@@ -371,7 +374,7 @@ public class Parser {
                                 + " is a string, expected an integer.");
                     }
                     StringField f = new StringField(zc.getValue(),
-                            Type.STRING_LEN);
+                            td.getFieldWidth(i));
                     t.setField(i, f);
                 } else {
                     throw new simpledb.ParsingException(
@@ -388,9 +391,11 @@ public class Parser {
             ZQuery zq = (ZQuery) s.getQuery();
             LogicalPlan lp = parseQueryLogicalPlan(tId, zq);
             newTups = lp.physicalPlan(tId, TableStats.getStatsMap(), explain);
+            // INSERT ... SELECT may produce many rows; append them in batches
+            bulk = true;
         }
         Query insertQ = new Query(tId);
-        insertQ.setPhysicalPlan(new Insert(tId, newTups, tableId));
+        insertQ.setPhysicalPlan(new Insert(tId, newTups, tableId, bulk));
         return insertQ;
     }
 
@@ -492,7 +497,59 @@ public class Parser {
         return curtrans;
     }
 
+    /** Matches <code>VACUUM [table]</code>, with an optional trailing ';'. */
+    private static final Pattern VACUUM = Pattern.compile("(?i)\\s*vacuum(?:\\s+([^\\s;]+))?\\s*;?\\s*");
+
+    /** @return true if s is a VACUUM statement */
+    public static boolean isVacuumStatement(String s) {
+        return VACUUM.matcher(s).matches();
+    }
+
+    /**
+     * Handles <code>VACUUM [table]</code>, which is not SQL the Zql parser
+     * accepts, by starting a background {@link Vacuum} of the named table,
+     * or of every heap table if none is named.
+     *
+     * @return the threads running the vacuums
+     */
+    public List<Thread> handleVacuumStatement(String s) throws simpledb.ParsingException {
+        Matcher m = VACUUM.matcher(s);
+        if (!m.matches())
+            throw new simpledb.ParsingException("Invalid VACUUM statement " + s);
+        ArrayList<Integer> ids = new ArrayList<Integer>();
+        if (m.group(1) != null) {
+            try {
+                ids.add(Database.getCatalog().getTableId(m.group(1)));
+            } catch (NoSuchElementException e) {
+                throw new simpledb.ParsingException("Unknown table " + m.group(1));
+            }
+            if (!(Database.getCatalog().getDatabaseFile(ids.get(0)) instanceof HeapFile))
+                throw new simpledb.ParsingException("Table " + m.group(1) + " is not a heap file");
+        } else {
+            Iterator<Integer> it = Database.getCatalog().tableIdIterator();
+            while (it.hasNext()) {
+                int id = it.next();
+                if (Database.getCatalog().getDatabaseFile(id) instanceof HeapFile)
+                    ids.add(id);
+            }
+        }
+        ArrayList<Thread> threads = new ArrayList<Thread>();
+        for (int id : ids) {
+            threads.add(Vacuum.start(id));
+            System.out.println("Vacuuming " + Database.getCatalog().getTableName(id) + " in the background");
+        }
+        return threads;
+    }
+
     public void processNextStatement(String s) {
+        if (isVacuumStatement(s)) {
+            try {
+                handleVacuumStatement(s);
+            } catch (simpledb.ParsingException e) {
+                System.out.println("Invalid SQL expression: \n \t" + e.getMessage());
+            }
+            return;
+        }
         try {
             processNextStatement(new ByteArrayInputStream(s.getBytes("UTF-8")));
         } catch (UnsupportedEncodingException e) {
@@ -581,7 +638,7 @@ public class Parser {
     // Basic SQL completions
     public static final String[] SQL_COMMANDS = { "select", "from", "where",
             "group by", "max(", "min(", "avg(", "count", "rollback", "commit",
-            "insert", "delete", "values", "into" };
+            "insert", "delete", "values", "into", "vacuum" };
 
     public static void main(String argv[]) throws IOException {
 
@@ -676,8 +733,11 @@ public class Parser {
                     }
 
                     long startTime = System.currentTimeMillis();
-                    processNextStatement(new ByteArrayInputStream(
-                            statementBytes));
+                    if (isVacuumStatement(cmd))
+                        processNextStatement(cmd);
+                    else
+                        processNextStatement(new ByteArrayInputStream(
+                                statementBytes));
                     long time = System.currentTimeMillis() - startTime;
                     System.out.printf("----------------\n%.2f seconds\n\n",
                             ((double) time / 1000.0));
@@ -0,0 +1,165 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * ReadAhead issues background reads for the pages a sequential scan is
+ * about to visit, so that disk I/O overlaps with tuple processing instead of
+ * stalling the scan at every page boundary.
+ * <p>
+ * One ReadAhead belongs to one file iterator, which calls {@link #access}
+ * before it fetches each page. Once {@link #SEQUENTIAL_THRESHOLD}
+ * consecutive pages have been visited in order, the next <i>window</i>
+ * pages are handed to a small shared pool of I/O threads that load them
+ * into the BufferPool via {@link BufferPool#prefetchPage}.
+ * <p>
+ * The window adapts to what happens to prefetched pages: it doubles (up to
+ * {@link #MAX_WINDOW}) each time a prefetched page is still in the
+ * BufferPool when the scan reaches it, and halves (down to
+ * {@link #MIN_WINDOW}) when a prefetched page was evicted before it was
+ * used. The window never exceeds a quarter of the BufferPool, so a scan
+ * cannot evict its own read-ahead; a scan that reads through a
+ * {@link BufferRing} reads ahead into the ring, at most half of it.
+ */
+public class ReadAhead {
+
+    /** Number of in-order page visits after which prefetching starts. */
+    public static final int SEQUENTIAL_THRESHOLD = 2;
+    public static final int MIN_WINDOW = 2;
+    public static final int MAX_WINDOW = 64;
+    /** Number of threads in the shared I/O pool. */
+    public static final int IO_THREADS = 2;
+
+    private static ExecutorService ioPool;
+
+    private final int tableId;
+    private final HashMap<Integer, Future<?>> pending = new HashMap<Integer, Future<?>>();
+    private int window = MIN_WINDOW * 2;
+    private int lastPage = -1;
+    private int sequentialRun = 0;
+    private int issuedUpTo = -1;
+    private volatile BufferRing ring;
+
+    private int hits = 0;
+    private int wasted = 0;
+
+    /**
+     * @param tableId the id of the file whose pages are read ahead
+     */
+    public ReadAhead(int tableId) {
+        this.tableId = tableId;
+    }
+
+    /** Sets the ring pages are read into, or null for the main pool. */
+    public void setRing(BufferRing ring) {
+        this.ring = ring;
+    }
+
+    /**
+     * Returns true if the scan will fetch page pageNo when it gets there.
+     * Scans that skip pages override this so that the skipped pages are
+     * not read ahead.
+     */
+    protected boolean wanted(int pageNo) {
+        return true;
+    }
+
+    /** @return the shared pool of I/O threads, creating it on first use */
+    private static synchronized ExecutorService ioPool() {
+        if (ioPool == null) {
+            ioPool = Executors.newFixedThreadPool(IO_THREADS, new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "simpledb-readahead");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return ioPool;
+    }
+
+    /**
+     * Records that the scan is about to fetch page pageNo. Waits for any
+     * in-flight read of that page, adjusts the window, and issues reads for
+     * the pages that follow.
+     *
+     * @param pageNo the page the scan will fetch next
+     * @param numPages the number of pages in the file
+     */
+    public void access(int pageNo, int numPages) {
+        Future<?> f = pending.remove(pageNo);
+        if (f != null) {
+            try {
+                f.get();
+            } catch (Exception e) {
+                // the foreground read will retry the page
+            }
+            if (Database.getBufferPool().containsPage(new HeapPageId(tableId, pageNo))) {
+                hits++;
+                window = Math.min(window * 2, MAX_WINDOW);
+            } else {
+                wasted++;
+                window = Math.max(window / 2, MIN_WINDOW);
+            }
+        }
+
+        if (pageNo == lastPage + 1) {
+            sequentialRun++;
+        } else {
+            cancel();
+            sequentialRun = 0;
+        }
+        lastPage = pageNo;
+
+        if (sequentialRun < SEQUENTIAL_THRESHOLD)
+            return;
+
+        final BufferRing r = ring;
+        int limit = Math.min(window, Math.max(1, Database.getBufferPool().getMaxPages() / 4));
+        if (r != null)
+            limit = Math.min(limit, Math.max(1, r.getCapacity() / 2));
+        int last = Math.min(pageNo + limit, numPages - 1);
+        for (int p = Math.max(issuedUpTo + 1, pageNo + 1); p <= last; p++) {
+            issuedUpTo = p;
+            if (!wanted(p))
+                continue;
+            final PageId pid = new HeapPageId(tableId, p);
+            pending.put(p, ioPool().submit(new Runnable() {
+                public void run() {
+                    Database.getBufferPool().prefetchPage(pid, r);
+                }
+            }));
+        }
+    }
+
+    /** Cancels all outstanding reads and forgets the current run. */
+    public void cancel() {
+        for (Future<?> f : pending.values())
+            f.cancel(false);
+        pending.clear();
+        issuedUpTo = -1;
+    }
+
+    /** Cancels outstanding reads and resets the access history. */
+    public void reset() {
+        cancel();
+        lastPage = -1;
+        sequentialRun = 0;
+    }
+
+    /** @return the current read-ahead window, in pages */
+    public int getWindow() {
+        return window;
+    }
+
+    /** @return the number of prefetched pages found in the BufferPool when needed */
+    public int getHits() {
+        return hits;
+    }
+
+    /** @return the number of prefetched pages evicted before they were needed */
+    public int getWasted() {
+        return wasted;
+    }
+}
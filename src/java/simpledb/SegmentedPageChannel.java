@@ -0,0 +1,265 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * SegmentedPageChannel is a PageChannel that stores one logical file as a
+ * series of segment files of at most {@link #getSegmentBytes} bytes each,
+ * so that a single table can grow to hundreds of gigabytes without one huge
+ * file, and its segments can be spread over several mount points.
+ * <p>
+ * Segment 0 is the file the channel was created with, so the table keeps its
+ * id and its side files. Segment k &gt; 0 is called <code>name.segk</code>
+ * and lives in the k-th of the given directories, round robin, or next to
+ * segment 0 if none are given. Every segment but the last is exactly one
+ * segment long; byte offsets are mapped to a segment and an offset within it,
+ * and reads and writes that cross a segment boundary are split.
+ * <p>
+ * Segments are found on first use. A file longer than one segment, such as
+ * one written by {@link HeapFileEncoder}, is split into segments then, and
+ * segment files that follow a segment that is not full are left over from a
+ * truncated file and are deleted.
+ *
+ * @Threadsafe
+ */
+public class SegmentedPageChannel extends PageChannel {
+
+    /** Default segment size: 1 GB. */
+    public static final long DEFAULT_SEGMENT_BYTES = 1L << 30;
+
+    private final long segmentBytes;
+    private final File[] dirs;
+
+    private boolean loaded;
+    private final ArrayList<PageChannel> segments = new ArrayList<PageChannel>();
+
+    /**
+     * Creates a segmented channel. No file is opened until first use.
+     *
+     * @param f the first segment, which names the whole file
+     * @param segmentBytes the size of each segment; best a multiple of the
+     *   page size, so that no page is split between two segments
+     * @param dirs the directories to place the other segments in, round
+     *   robin; if empty, they are placed next to f
+     */
+    public SegmentedPageChannel(File f, long segmentBytes, File... dirs) {
+        super(f);
+        if (segmentBytes <= 0)
+            throw new IllegalArgumentException("segment size must be positive");
+        this.segmentBytes = segmentBytes;
+        this.dirs = dirs.length > 0 ? dirs.clone() : new File[] { f.getAbsoluteFile().getParentFile() };
+    }
+
+    /** @return the maximum size of each segment, in bytes */
+    public long getSegmentBytes() {
+        return segmentBytes;
+    }
+
+    /** @return the file that holds segment k */
+    public File segmentFile(int k) {
+        if (k == 0)
+            return getFile();
+        return new File(dirs[(k - 1) % dirs.length], getFile().getName() + ".seg" + k);
+    }
+
+    /** @return the number of segments the file currently has */
+    public synchronized int getSegmentCount() throws IOException {
+        load();
+        return segments.size();
+    }
+
+    /** Finds the existing segments, splitting an oversized first segment. */
+    private synchronized void load() throws IOException {
+        if (loaded)
+            return;
+        loaded = true;
+        segments.add(new PageChannel(getFile()));
+        int k = 1;
+        while (segmentFile(k).exists() && segments.get(k - 1).size() >= segmentBytes) {
+            segments.add(new PageChannel(segmentFile(k)));
+            k++;
+        }
+        String prefix = getFile().getName() + ".seg";
+        for (File dir : dirs) {
+            String[] names = dir.list();
+            if (names == null)
+                continue;
+            for (String name : names) {
+                if (name.startsWith(prefix) && name.substring(prefix.length()).matches("\\d+")
+                        && Integer.parseInt(name.substring(prefix.length())) >= k)
+                    new File(dir, name).delete();
+            }
+        }
+
+        // also finishes a split that was interrupted before the truncate
+        long len = segments.get(0).size();
+        if (len > segmentBytes) {
+            byte[] buf = new byte[1 << 20];
+            for (long off = segmentBytes; off < len; off += buf.length) {
+                byte[] chunk = len - off >= buf.length ? buf : new byte[(int) (len - off)];
+                segments.get(0).read(off, chunk);
+                write(off, chunk);
+            }
+            segments.get(0).truncate(segmentBytes);
+        }
+    }
+
+    /**
+     * Returns segment k, creating it and the segments before it if needed.
+     * Segments before the new ones are padded to their full size first.
+     */
+    private synchronized PageChannel segment(int k) throws IOException {
+        while (segments.size() <= k) {
+            PageChannel last = segments.get(segments.size() - 1);
+            if (last.size() < segmentBytes)
+                last.write(segmentBytes - 1, new byte[1]);
+            segments.add(new PageChannel(segmentFile(segments.size())));
+        }
+        return segments.get(k);
+    }
+
+    /** @return segment k, or null if the file does not reach it */
+    private synchronized PageChannel existing(int k) {
+        return k < segments.size() ? segments.get(k) : null;
+    }
+
+    private synchronized PageChannel[] all() {
+        return segments.toArray(new PageChannel[segments.size()]);
+    }
+
+    /** Not supported: there is no single FileChannel for the file. */
+    FileChannel channel() throws IOException {
+        throw new UnsupportedOperationException("a segmented file has no single channel");
+    }
+
+    public int read(long offset, byte[] dst) throws IOException {
+        load();
+        int total = 0;
+        while (total < dst.length) {
+            long off = offset + total;
+            PageChannel seg = existing((int) (off / segmentBytes));
+            if (seg == null)
+                break;
+            int len = (int) Math.min(dst.length - total, segmentBytes - off % segmentBytes);
+            byte[] piece = len == dst.length ? dst : new byte[len];
+            int n = seg.read(off % segmentBytes, piece);
+            if (piece != dst)
+                System.arraycopy(piece, 0, dst, total, n);
+            total += n;
+            if (n < len)
+                break;
+        }
+        return total;
+    }
+
+    public void write(long offset, byte[] src) throws IOException {
+        write(offset, new byte[][] { src });
+    }
+
+    public void write(long offset, byte[][] srcs) throws IOException {
+        load();
+        ArrayList<byte[]> run = new ArrayList<byte[]>();
+        long runStart = offset;
+        long pos = offset;
+        for (byte[] src : srcs) {
+            int done = 0;
+            while (done < src.length) {
+                long segEnd = (pos / segmentBytes + 1) * segmentBytes;
+                int len = (int) Math.min(src.length - done, segEnd - pos);
+                run.add(done == 0 && len == src.length ? src : Arrays.copyOfRange(src, done, done + len));
+                pos += len;
+                done += len;
+                if (pos == segEnd) {
+                    writeRun(runStart, run);
+                    runStart = pos;
+                }
+            }
+        }
+        writeRun(runStart, run);
+    }
+
+    /** Writes a run of arrays that lies within one segment, and clears it. */
+    private void writeRun(long offset, ArrayList<byte[]> run) throws IOException {
+        if (run.isEmpty())
+            return;
+        PageChannel seg = segment((int) (offset / segmentBytes));
+        seg.write(offset % segmentBytes, run.toArray(new byte[run.size()][]));
+        run.clear();
+    }
+
+    public long size() throws IOException {
+        load();
+        PageChannel[] segs = all();
+        return (segs.length - 1) * segmentBytes + segs[segs.length - 1].size();
+    }
+
+    public void force() throws IOException {
+        load();
+        for (PageChannel seg : all())
+            seg.force();
+    }
+
+    /** Shortens the file to size bytes, deleting the segments beyond it. */
+    public synchronized void truncate(long size) throws IOException {
+        load();
+        int keep = size == 0 ? 1 : (int) ((size - 1) / segmentBytes) + 1;
+        if (keep > segments.size())
+            return;
+        while (segments.size() > keep) {
+            PageChannel seg = segments.remove(segments.size() - 1);
+            seg.close();
+            if (!seg.getFile().delete())
+                throw new IOException("cannot delete segment " + seg.getFile());
+        }
+        segments.get(keep - 1).truncate(size - (keep - 1) * segmentBytes);
+    }
+
+    /** Closes every segment. A later access reopens them. */
+    public synchronized void close() {
+        for (PageChannel seg : segments)
+            seg.close();
+    }
+
+    public long getOpenCount() {
+        long n = 0;
+        for (PageChannel seg : all())
+            n += seg.getOpenCount();
+        return n;
+    }
+
+    public long getReadCount() {
+        long n = 0;
+        for (PageChannel seg : all())
+            n += seg.getReadCount();
+        return n;
+    }
+
+    public long getWriteCount() {
+        long n = 0;
+        for (PageChannel seg : all())
+            n += seg.getWriteCount();
+        return n;
+    }
+
+    public long getBytesRead() {
+        long n = 0;
+        for (PageChannel seg : all())
+            n += seg.getBytesRead();
+        return n;
+    }
+
+    public long getBytesWritten() {
+        long n = 0;
+        for (PageChannel seg : all())
+            n += seg.getBytesWritten();
+        return n;
+    }
+
+    public void resetCounters() {
+        for (PageChannel seg : all())
+            seg.resetCounters();
+    }
+}
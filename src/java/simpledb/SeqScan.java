@@ -9,10 +9,11 @@ import java.util.*;
  */
 public class SeqScan implements DbIterator {
 
-	//private TransactionId s_tid;
+	private TransactionId s_tid;
 	private int s_tableid;
 	private String s_tableAlias;
 	private DbFileIterator it;
+	private Boolean useRing = null;
 	
     private static final long serialVersionUID = 1L;
 
@@ -35,7 +36,7 @@ public class SeqScan implements DbIterator {
     public SeqScan(TransactionId tid, int tableid, String tableAlias) {
         // some code goes here
     	
-    	//s_tid = tid; 
+    	s_tid = tid; 
     	s_tableid = tableid; s_tableAlias = tableAlias;
     	it = Database.getCatalog().getDatabaseFile(tableid).iterator(tid);
     	
@@ -81,12 +82,59 @@ public class SeqScan implements DbIterator {
     	
     }
 
+    /**
+     * Tells the scan which fields of the table the query uses, so that
+     * storage that keeps columns apart ({@link ColumnarFile}) reads only
+     * those. Other files ignore the hint and return whole tuples. Fields not
+     * in the list may be null in the returned tuples. Must be called before
+     * the scan is opened.
+     * 
+     * @param fields
+     *            the indexes of the fields the query uses
+     */
+    public void setProjection(int[] fields) {
+    	DbFile f = Database.getCatalog().getDatabaseFile(s_tableid);
+    	if (f instanceof ColumnarFile)
+    		it = ((ColumnarFile) f).iterator(s_tid, fields);
+    }
+
+    /**
+     * Tells the scan the predicates the query applies to this table, so that
+     * a {@link HeapFile} can skip pages its {@link ZoneMap} shows hold no
+     * matching tuple. The scan may still return tuples that fail the
+     * predicates; callers must filter them. Must be called before the scan
+     * is opened.
+     * 
+     * @param preds
+     *            predicates on the fields of the table
+     */
+    public void setPredicates(Predicate[] preds) {
+    	DbFile f = Database.getCatalog().getDatabaseFile(s_tableid);
+    	if (f instanceof HeapFile)
+    		it = ((HeapFile) f).iterator(s_tid, preds);
+    }
+
+    /**
+     * Tells a scan of a {@link HeapFile} whether to read through a
+     * {@link BufferRing} of its own instead of the main buffer pool. By
+     * default a scan of a table larger than the pool does.
+     * Must be called before the scan is opened.
+     * 
+     * @param use
+     *            true to read through a ring, false to share the pool
+     */
+    public void setBufferRing(boolean use) {
+    	useRing = use;
+    }
+
     public SeqScan(TransactionId tid, int tableid) {
         this(tid, tableid, Database.getCatalog().getTableName(tableid));
     }
 
     public void open() throws DbException, TransactionAbortedException {
     	//System.out.println("SeqScan open()");
+    	if (useRing != null && it instanceof HeapFile.HeapFileIterator)
+    		((HeapFile.HeapFileIterator) it).setBufferRing(useRing);
         it.open();
     }
 
@@ -105,11 +153,13 @@ public class SeqScan implements DbIterator {
     	TupleDesc td = Database.getCatalog().getTupleDesc(this.s_tableid);
         String[] names = new String[td.numFields()];
         Type[] type = new Type[td.numFields()];
+        int[] widths = new int[td.numFields()];
         for (int i = 0; i != td.numFields(); i++){
      	   names[i] = this.s_tableAlias + "." + td.getFieldName(i);
      	   type[i] = td.getFieldType(i);
+     	   widths[i] = td.getFieldWidth(i);
         }
-        return new TupleDesc(type, names);
+        return new TupleDesc(type, names, widths);
 
     }
 
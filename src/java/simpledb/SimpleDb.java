@@ -1,20 +1,22 @@
 package simpledb;
 import java.io.*;
+import java.util.Arrays;
 
 public class SimpleDb {
     public static void main (String args[])
             throws DbException, TransactionAbortedException, IOException {
-        // convert a file
-        if(args[0].equals("convert")) {
+        // convert a file; "load" does the same with the parallel loader
+        if(args[0].equals("convert") || args[0].equals("load")) {
         try {
             if (args.length<3 || args.length>5){
-                System.err.println("Unexpected number of arguments to convert ");
+                System.err.println("Unexpected number of arguments to " + args[0]);
                 return;
             }
             File sourceTxtFile=new File(args[1]);
             File targetDatFile=new File(args[1].replaceAll(".txt", ".dat"));
             int numOfAttributes=Integer.parseInt(args[2]);
             Type[] ts = new Type[numOfAttributes];
+            int[] widths = new int[numOfAttributes];
             char fieldSeparator=',';
 
             if (args.length == 3) 
@@ -30,21 +32,28 @@ public class SimpleDb {
                 }
                 int index=0;
                 for (String s: typeStringAr) {
-                        if (s.toLowerCase().equals("int"))
-                            ts[index++]=Type.INT_TYPE;
-                        else if (s.toLowerCase().equals("string"))
-                                ts[index++]=Type.STRING_TYPE;
-                            else {
-                                System.err.println("Unknown type " + s);
-                                return;
-                            }
+                        Type t = Catalog.parseType(s);
+                        if (t == null) {
+                            System.err.println("Unknown type " + s);
+                            return;
+                        }
+                        widths[index] = Catalog.parseWidth(s);
+                        ts[index++] = t;
                 }
                 if (args.length==5)
                     fieldSeparator=args[4].charAt(0);
             }
 
-            HeapFileEncoder.convert(sourceTxtFile,targetDatFile,
-                        BufferPool.getPageSize(),numOfAttributes,ts,fieldSeparator);
+            if (args.length == 3)
+                Arrays.fill(widths, Type.STRING_LEN);
+            TupleDesc td = new TupleDesc(ts, new String[numOfAttributes], widths);
+            if (args[0].equals("load"))
+                HeapFileLoader.load(sourceTxtFile,targetDatFile,
+                        BufferPool.getPageSize(),td,fieldSeparator,
+                        Runtime.getRuntime().availableProcessors(),HeapFileLoader.CHUNK_BYTES);
+            else
+                HeapFileEncoder.convert(sourceTxtFile,targetDatFile,
+                        BufferPool.getPageSize(),td,fieldSeparator);
 
         } catch (IOException e) {
                 throw new RuntimeException(e);
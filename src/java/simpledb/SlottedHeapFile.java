@@ -0,0 +1,290 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * SlottedHeapFile is a DbFile that stores tuples, in no particular order, on
+ * {@link SlottedPage}s. Strings are stored at their actual length, so
+ * text-heavy tables take fewer pages than the same table in a HeapFile.
+ * <p>
+ * Like HeapFile, the file keeps an in-memory map of the free bytes on each
+ * page so that inserts go straight to a page with room. The map is built the
+ * first time it is needed, from cached pages where possible and otherwise
+ * from the first few bytes of each page on disk. Pages are also indexed by
+ * free space in {@link #BUCKETS} buckets of equal width, so finding a page
+ * for an insert does not walk the map.
+ *
+ * @see SlottedPage
+ */
+public class SlottedHeapFile implements DbFile, Closeable {
+
+    private final File file;
+    private final TupleDesc td;
+    final PageChannel channel;
+
+    /** Number of free space buckets pages are indexed by. */
+    static final int BUCKETS = 32;
+
+    /** Free bytes on each page; entries are hints, as in FreeSpaceMap. */
+    private int[] free = new int[0];
+    private int knownPages = 0;
+    /** The pages whose free bytes fall in each bucket. */
+    private final BitSet[] buckets = new BitSet[BUCKETS];
+    /** The number of free bytes each bucket covers. */
+    private final int bucketWidth;
+
+    /**
+     * Constructs a slotted heap file backed by the specified file.
+     *
+     * @param f the file that stores the on-disk backing store for this file
+     * @param td the schema of the tuples stored in this file
+     */
+    public SlottedHeapFile(File f, TupleDesc td) {
+        this.file = f;
+        this.td = td;
+        this.channel = new PageChannel(f);
+        for (int b = 0; b < BUCKETS; b++)
+            buckets[b] = new BitSet();
+        this.bucketWidth = Math.max(1, (BufferPool.getPageSize() + BUCKETS - 1) / BUCKETS);
+    }
+
+    /** @return the File backing this file on disk */
+    public File getFile() {
+        return file;
+    }
+
+    /** @return the channel used for all page I/O against this file */
+    public PageChannel getChannel() {
+        return channel;
+    }
+
+    /** Closes the file handle; it is reopened on the next page access. */
+    public void close() {
+        channel.close();
+    }
+
+    public int getId() {
+        return file.getAbsoluteFile().hashCode();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * Read the specified page from disk.
+     *
+     * @throws IllegalArgumentException if the page does not exist in this file.
+     */
+    public Page readPage(PageId pid) {
+        try {
+            byte[] data = channel.readPage(pid.pageNumber(), BufferPool.getPageSize());
+            if (data == null)
+                throw new IllegalArgumentException("page " + pid.pageNumber() + " does not exist in " + file);
+            return new SlottedPage((HeapPageId) pid, data);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    public void writePage(Page page) throws IOException {
+        channel.writePage(page.getId().pageNumber(), page.getPageData());
+    }
+
+    /** @return the number of pages in this file */
+    public int numPages() {
+        try {
+            return (int) (channel.size() / BufferPool.getPageSize());
+        } catch (IOException e) {
+            e.printStackTrace();
+            return 0;
+        }
+    }
+
+    /** @return the bucket of a page with the given number of free bytes */
+    private int bucketOf(int bytes) {
+        return Math.min(BUCKETS - 1, bytes / bucketWidth);
+    }
+
+    /** Records the free space of a page, growing the map if needed. */
+    private synchronized void updateFree(int pageNo, int bytes) {
+        if (free.length <= pageNo)
+            free = Arrays.copyOf(free, Math.max(pageNo + 1, free.length * 2));
+        if (pageNo >= knownPages)
+            knownPages = pageNo + 1;
+        else
+            buckets[bucketOf(free[pageNo])].clear(pageNo);
+        free[pageNo] = bytes;
+        buckets[bucketOf(bytes)].set(pageNo);
+    }
+
+    /**
+     * Every page in a bucket whose lower bound is at least need has room, so
+     * the lowest such page is taken from those buckets. Only if there is
+     * none are the pages of the bucket need falls in checked one by one.
+     *
+     * @return the lowest page believed to have at least need free bytes,
+     *   or -1 if there is none
+     */
+    private synchronized int findPage(int need) throws IOException {
+        int filePages = numPages();
+        int pageSize = BufferPool.getPageSize();
+        byte[] header = new byte[SlottedPage.HEADER_SIZE];
+        for (int p = knownPages; p < filePages; p++) {
+            Page cached = Database.getBufferPool().peekPage(new HeapPageId(getId(), p));
+            if (cached instanceof SlottedPage) {
+                updateFree(p, ((SlottedPage) cached).getFreeSpace());
+            } else {
+                Arrays.fill(header, (byte) 0);
+                channel.read((long) p * pageSize, header);
+                updateFree(p, SlottedPage.getFreeSpace(header, pageSize));
+            }
+        }
+        int first = (need + bucketWidth - 1) / bucketWidth;
+        int best = -1;
+        for (int b = first; b < BUCKETS; b++) {
+            int p = buckets[b].nextSetBit(0);
+            if (p >= 0 && (best < 0 || p < best))
+                best = p;
+        }
+        if (best >= 0)
+            return best;
+        BitSet partial = buckets[bucketOf(need)];
+        for (int p = partial.nextSetBit(0); p >= 0; p = partial.nextSetBit(p + 1))
+            if (free[p] >= need)
+                return p;
+        return -1;
+    }
+
+    /** @return the number of free bytes recorded for a page */
+    synchronized int getFreeSpace(int pageNo) {
+        return pageNo < knownPages ? free[pageNo] : 0;
+    }
+
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        ArrayList<Page> output = new ArrayList<Page>();
+        // room for the record and a new slot, so any page found can take it
+        int need = SlottedPage.getRecordSize(td, t) + SlottedPage.SLOT_SIZE;
+        if (need > BufferPool.getPageSize() - SlottedPage.HEADER_SIZE)
+            throw new DbException("tuple does not fit on a page");
+
+        int pageNo;
+        BufferPool pool = Database.getBufferPool();
+        while ((pageNo = findPage(need)) >= 0) {
+            HeapPageId pid = new HeapPageId(getId(), pageNo);
+            // pinned so that it is neither written nor evicted half changed
+            SlottedPage page = (SlottedPage) pool.pinPage(tid, pid, Permissions.READ_WRITE);
+            try {
+                if (page.getFreeSpace() >= need) {
+                    page.insertTuple(t);
+                    page.markDirty(true, tid);
+                    updateFree(pageNo, page.getFreeSpace());
+                    output.add(page);
+                    return output;
+                }
+            } finally {
+                pool.unpinPage(pid);
+            }
+            updateFree(pageNo, page.getFreeSpace());
+        }
+
+        // no page has room: append a new one; appends from different
+        // threads must not pick the same page number
+        SlottedPage page;
+        synchronized (this) {
+            HeapPageId pid = new HeapPageId(getId(), numPages());
+            page = new SlottedPage(pid, SlottedPage.createEmptyPageData());
+            page.insertTuple(t);
+            // the page bypasses the BufferPool, but not the log
+            LogFile log = Database.getLogFile();
+            log.logWrite(tid, page.getBeforeImage(), page);
+            log.force();
+            writePage(page);
+            updateFree(pid.pageNumber(), page.getFreeSpace());
+        }
+        output.add(page);
+        return output;
+    }
+
+    public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t)
+            throws DbException, TransactionAbortedException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || rid.getPageId().getTableId() != getId())
+            throw new DbException("tuple is not a member of this file");
+        PageId pid = rid.getPageId();
+
+        BufferPool pool = Database.getBufferPool();
+        SlottedPage page = (SlottedPage) pool.pinPage(tid, pid, Permissions.READ_WRITE);
+        try {
+            page.deleteTuple(t);
+            page.markDirty(true, tid);
+        } finally {
+            pool.unpinPage(pid);
+        }
+        updateFree(pid.pageNumber(), page.getFreeSpace());
+
+        ArrayList<Page> output = new ArrayList<Page>();
+        output.add(page);
+        return output;
+    }
+
+    public DbFileIterator iterator(TransactionId tid) {
+        return new SlottedHeapFileIterator(tid);
+    }
+
+    /** Scans the pages of the file in order, with read-ahead. */
+    private class SlottedHeapFileIterator implements DbFileIterator {
+        private final TransactionId tid;
+        private final ReadAhead readAhead = new ReadAhead(getId());
+        private Iterator<Tuple> it;
+        private int curPage;
+        private int numPages;
+
+        SlottedHeapFileIterator(TransactionId tid) {
+            this.tid = tid;
+        }
+
+        private Iterator<Tuple> pageIterator(int pageNo) throws DbException, TransactionAbortedException {
+            readAhead.access(pageNo, numPages);
+            PageId pid = new HeapPageId(getId(), pageNo);
+            return ((SlottedPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY)).iterator();
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            curPage = 0;
+            numPages = numPages();
+            readAhead.reset();
+            it = numPages == 0 ? Collections.<Tuple>emptyList().iterator() : pageIterator(0);
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            if (it == null)
+                return false;
+            while (!it.hasNext()) {
+                if (curPage + 1 >= numPages)
+                    return false;
+                it = pageIterator(++curPage);
+            }
+            return true;
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            return it.next();
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        public void close() {
+            it = null;
+            readAhead.reset();
+        }
+    }
+}
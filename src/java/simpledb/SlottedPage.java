@@ -0,0 +1,344 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * SlottedPage stores variable-length records for a {@link SlottedHeapFile}.
+ * A string field takes two bytes for its length plus its actual characters,
+ * rather than the full declared width used by HeapPage, so
+ * short strings no longer fill pages with padding.
+ * <p>
+ * Layout, with every number an unsigned 2-byte big-endian value:
+ * <pre>
+ *   numSlots | freeEnd | slot directory ... free space ... | records
+ * </pre>
+ * Each directory entry is the offset and length of one record; an offset of
+ * 0 marks an empty slot. Records are packed against the end of the page and
+ * grow downward; freeEnd is the offset of the lowest record, with 0 standing
+ * for the page size, so that an all-zero page is a valid empty page.
+ * <p>
+ * Deleting a record slides the records below it up over the hole, so the
+ * free space is always one contiguous block. Slot numbers never change,
+ * which keeps RecordIds stable; only empty slots at the end of the
+ * directory are dropped.
+ *
+ * @see SlottedHeapFile
+ */
+public class SlottedPage implements Page {
+
+    /** Bytes taken by numSlots and freeEnd. */
+    static final int HEADER_SIZE = 4;
+    /** Bytes taken by one slot directory entry. */
+    static final int SLOT_SIZE = 4;
+
+    final HeapPageId pid;
+    final TupleDesc td;
+    final byte[] data;
+
+    /**
+     * The before image. Until the page is first changed this is the image
+     * the page was built from, which the page never writes to.
+     */
+    private byte[] oldData;
+    /** True once setBeforeImage was called and the current state is not yet captured. */
+    private boolean beforeImagePending;
+    private final Object oldDataLock = new Object();
+
+    private boolean dirtyPage;
+    private TransactionId dirty_causing_tid;
+
+    /**
+     * Creates a SlottedPage from a page image read from disk. The page
+     * changes its own copy of the image in place and keeps the given array,
+     * unchanged, as its before image, so the caller must not modify it.
+     *
+     * @throws IllegalArgumentException if the page size is too large for
+     *   2-byte offsets
+     */
+    public SlottedPage(HeapPageId id, byte[] data) {
+        if (data.length > 1 << 16)
+            throw new IllegalArgumentException("slotted pages are limited to 64KB");
+        this.pid = id;
+        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.data = data.clone();
+        this.oldData = data;
+    }
+
+    /**
+     * @return an image of an empty page
+     */
+    public static byte[] createEmptyPageData() {
+        return new byte[BufferPool.getPageSize()];
+    }
+
+    /**
+     * @return the largest number of bytes a tuple of schema td can take on
+     *   a SlottedPage
+     */
+    public static int getMaxRecordSize(TupleDesc td) {
+        int size = 0;
+        for (int i = 0; i < td.numFields(); i++)
+            size += td.getFieldType(i) == Type.STRING_TYPE ? 2 + td.getFieldWidth(i) : td.getFieldType(i).getLen();
+        return size;
+    }
+
+    /**
+     * @return the number of bytes tuple t takes on a SlottedPage, not
+     *   counting its slot directory entry
+     */
+    public static int getRecordSize(TupleDesc td, Tuple t) {
+        int size = 0;
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.STRING_TYPE)
+                size += 2 + Math.min(((StringField) t.getField(i)).getValue().length(), td.getFieldWidth(i));
+            else
+                size += td.getFieldType(i).getLen();
+        }
+        return size;
+    }
+
+    /**
+     * Computes the free space of a page from its first HEADER_SIZE bytes.
+     *
+     * @return the number of bytes available for records and new slots
+     */
+    static int getFreeSpace(byte[] header, int pageSize) {
+        int numSlots = readShort(header, 0);
+        int freeEnd = readShort(header, 2);
+        if (freeEnd == 0)
+            freeEnd = pageSize;
+        return freeEnd - HEADER_SIZE - numSlots * SLOT_SIZE;
+    }
+
+    private static int readShort(byte[] b, int off) {
+        return ((b[off] & 0xff) << 8) | (b[off + 1] & 0xff);
+    }
+
+    private void writeShort(int off, int v) {
+        data[off] = (byte) (v >>> 8);
+        data[off + 1] = (byte) v;
+    }
+
+    private int numSlots() {
+        return readShort(data, 0);
+    }
+
+    private int freeEnd() {
+        int e = readShort(data, 2);
+        return e == 0 ? data.length : e;
+    }
+
+    private void setFreeEnd(int e) {
+        writeShort(2, e == data.length ? 0 : e);
+    }
+
+    private int slotOffset(int slot) {
+        return readShort(data, HEADER_SIZE + slot * SLOT_SIZE);
+    }
+
+    private int slotLength(int slot) {
+        return readShort(data, HEADER_SIZE + slot * SLOT_SIZE + 2);
+    }
+
+    private void setSlot(int slot, int offset, int length) {
+        writeShort(HEADER_SIZE + slot * SLOT_SIZE, offset);
+        writeShort(HEADER_SIZE + slot * SLOT_SIZE + 2, length);
+    }
+
+    /** @return the number of bytes available for records and new slots */
+    public int getFreeSpace() {
+        return getFreeSpace(data, data.length);
+    }
+
+    /** @return the number of tuples stored on this page */
+    public int getNumTuples() {
+        int n = 0;
+        for (int i = 0; i < numSlots(); i++)
+            if (slotOffset(i) != 0)
+                n++;
+        return n;
+    }
+
+    /** @return true if the given slot holds a tuple */
+    public boolean isSlotUsed(int slot) {
+        return slot >= 0 && slot < numSlots() && slotOffset(slot) != 0;
+    }
+
+    public HeapPageId getId() {
+        return pid;
+    }
+
+    /** @return the on-page encoding of the fields of t */
+    private byte[] encode(Tuple t) {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(getMaxRecordSize(td));
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            for (int i = 0; i < td.numFields(); i++) {
+                Field f = t.getField(i);
+                if (td.getFieldType(i) == Type.STRING_TYPE) {
+                    String s = ((StringField) f).getValue();
+                    if (s.length() > td.getFieldWidth(i))
+                        s = s.substring(0, td.getFieldWidth(i));
+                    dos.writeShort(s.length());
+                    dos.writeBytes(s);
+                } else {
+                    f.serialize(dos);
+                }
+            }
+            dos.flush();
+        } catch (IOException e) {
+            // writes to a byte array do not fail
+            throw new RuntimeException(e);
+        }
+        return baos.toByteArray();
+    }
+
+    /**
+     * @return the tuple in the given slot, or null if the slot is empty
+     */
+    Tuple getTuple(int slot) {
+        if (slot < 0 || slot >= numSlots() || slotOffset(slot) == 0)
+            return null;
+        return decode(slot);
+    }
+
+    /** Decodes the record stored in the given slot. */
+    private Tuple decode(int slot) {
+        Tuple t = new Tuple(td);
+        int off = slotOffset(slot);
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.STRING_TYPE) {
+                int len = readShort(data, off);
+                char[] cs = new char[len];
+                for (int j = 0; j < len; j++)
+                    cs[j] = (char) (data[off + 2 + j] & 0xff);
+                t.setField(i, new StringField(new String(cs), td.getFieldWidth(i)));
+                off += 2 + len;
+            } else {
+                t.setField(i, td.getFieldType(i).decode(data, off));
+                off += td.getFieldType(i).getLen();
+            }
+        }
+        t.setRecordId(new RecordId(pid, slot));
+        return t;
+    }
+
+    /**
+     * Adds the specified tuple to the page, reusing an empty slot if there
+     * is one; the tuple's RecordId is updated to its new location.
+     *
+     * @throws DbException if the page does not have room for the tuple
+     */
+    public void insertTuple(Tuple t) throws DbException {
+        byte[] rec = encode(t);
+        int n = numSlots();
+        int slot = 0;
+        while (slot < n && slotOffset(slot) != 0)
+            slot++;
+        int need = rec.length + (slot == n ? SLOT_SIZE : 0);
+        if (need > getFreeSpace())
+            throw new DbException("not enough space on SlottedPage");
+
+        captureBeforeImage();
+        int off = freeEnd() - rec.length;
+        System.arraycopy(rec, 0, data, off, rec.length);
+        setFreeEnd(off);
+        if (slot == n)
+            writeShort(0, n + 1);
+        setSlot(slot, off, rec.length);
+        t.setRecordId(new RecordId(pid, slot));
+    }
+
+    /**
+     * Deletes the specified tuple from the page and closes the gap it
+     * leaves, so the page's free space stays contiguous.
+     *
+     * @throws DbException if this tuple is not on this page, or its slot is
+     *   already empty
+     */
+    public void deleteTuple(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || !pid.equals(rid.getPageId()) || !isSlotUsed(rid.tupleno()))
+            throw new DbException("Unable to find tuple to delete");
+
+        captureBeforeImage();
+        int slot = rid.tupleno();
+        int off = slotOffset(slot);
+        int len = slotLength(slot);
+        int freeEnd = freeEnd();
+
+        // slide the records below the hole up over it
+        System.arraycopy(data, freeEnd, data, freeEnd + len, off - freeEnd);
+        Arrays.fill(data, freeEnd, freeEnd + len, (byte) 0);
+        int n = numSlots();
+        for (int i = 0; i < n; i++) {
+            int o = slotOffset(i);
+            if (o != 0 && o < off)
+                setSlot(i, o + len, slotLength(i));
+        }
+        setFreeEnd(freeEnd + len);
+        setSlot(slot, 0, 0);
+
+        // drop empty slots from the end of the directory
+        while (n > 0 && slotOffset(n - 1) == 0)
+            n--;
+        writeShort(0, n);
+    }
+
+    public byte[] getPageData() {
+        return data.clone();
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        if (dirty)
+            captureBeforeImage();
+        dirtyPage = dirty;
+        dirty_causing_tid = tid;
+    }
+
+    public TransactionId isDirty() {
+        return dirtyPage ? dirty_causing_tid : null;
+    }
+
+    public SlottedPage getBeforeImage() {
+        byte[] before;
+        synchronized (oldDataLock) {
+            before = beforeImagePending ? getPageData() : oldData;
+        }
+        return new SlottedPage(pid, before);
+    }
+
+    /**
+     * Makes the current contents of this page its before image. As with
+     * HeapPage, the image is only copied by the first change that follows.
+     */
+    public void setBeforeImage() {
+        synchronized (oldDataLock) {
+            beforeImagePending = true;
+        }
+    }
+
+    /** Captures a before image requested by setBeforeImage, prior to a change. */
+    private void captureBeforeImage() {
+        synchronized (oldDataLock) {
+            if (beforeImagePending) {
+                oldData = getPageData();
+                beforeImagePending = false;
+            }
+        }
+    }
+
+    /**
+     * @return an iterator over the tuples on this page; the tuples are
+     *   decoded when the iterator is created, so later changes to the page
+     *   do not affect it
+     */
+    public Iterator<Tuple> iterator() {
+        ArrayList<Tuple> out = new ArrayList<Tuple>();
+        for (int i = 0; i < numSlots(); i++)
+            if (slotOffset(i) != 0)
+                out.add(decode(i));
+        return out.iterator();
+    }
+}
@@ -54,10 +54,24 @@ public class StringField implements Field {
 	 *            Where the string is written
 	 */
 	public void serialize(DataOutputStream dos) throws IOException {
+		serialize(dos, maxSize);
+	}
+
+	/**
+	 * Write this string to dos for a column declared with the given width.
+	 * Writes width + 4 bytes, truncating the string if it is longer than
+	 * width.
+	 * 
+	 * @param dos
+	 *            Where the string is written
+	 * @param width
+	 *            The declared width of the column
+	 */
+	public void serialize(DataOutputStream dos, int width) throws IOException {
 		String s = value;
-		int overflow = maxSize - s.length();
+		int overflow = width - s.length();
 		if (overflow < 0) {
-			String news = s.substring(0, maxSize);
+			String news = s.substring(0, width);
 			s = news;
 		}
 		dos.writeInt(s.length());
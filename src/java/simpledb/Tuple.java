@@ -1,5 +1,7 @@
 package simpledb;
 
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 
 import java.util.Arrays;
@@ -18,6 +20,12 @@ public class Tuple implements Serializable {
     private Field[] record;
     private TupleDesc tup_desc;
     private RecordId rid;
+
+    /** Serialized form this tuple is a view of, or null; see Tuple(TupleDesc, byte[], int). */
+    private transient byte[] source;
+    private transient TupleDesc sourceDesc;
+    private transient int sourceOffset;
+    private transient boolean modified;
     
     /**
      * Create a new tuple with the specified schema (type).
@@ -31,6 +39,27 @@ public class Tuple implements Serializable {
         record = new Field[tup_desc.numFields()];
     }
 
+    /**
+     * Create a tuple that is a view over a tuple serialized with td at the
+     * given offset of source. Fields are decoded on first access; source must
+     * not change while the view is in use.
+     */
+    Tuple(TupleDesc td, byte[] source, int offset) {
+        this(td);
+        this.source = source;
+        this.sourceDesc = td;
+        this.sourceOffset = offset;
+    }
+
+    /**
+     * @return true if this tuple is a view over data at offset and none of
+     *   its fields have been set since, so its serialized form is still the
+     *   bytes found there.
+     */
+    boolean isUnmodifiedView(byte[] data, int offset) {
+        return source == data && sourceOffset == offset && !modified;
+    }
+
     /**
      * @return The TupleDesc representing the schema of this tuple.
      */
@@ -69,6 +98,7 @@ public class Tuple implements Serializable {
     public void setField(int i, Field f) {
         // some code goes here
     	record[i] = f;
+    	modified = true;
     }
 
     /**
@@ -78,7 +108,13 @@ public class Tuple implements Serializable {
      *            field index to return. Must be a valid index.
      */
     public Field getField(int i) {
-        return record[i];
+        Field f = record[i];
+        if (f == null && source != null) {
+            f = sourceDesc.getFieldType(i).decode(source, sourceOffset + sourceDesc.getFieldOffset(i),
+                    sourceDesc.getFieldWidth(i));
+            record[i] = f;
+        }
+        return f;
     }
 
     /**
@@ -96,7 +132,7 @@ public class Tuple implements Serializable {
     	
     	for(int i = 0; i< record.length; i++)
     	{
-    		output += record[i].toString();
+    		output += getField(i).toString();
     		
     		if(i+1 != record.length) output += " ";
     		else output += "\n";
@@ -118,7 +154,8 @@ public class Tuple implements Serializable {
      * */
     public Iterator<Field> fields()
     {
-    	System.out.println("Tuple fields()");
+    	for (int i = 0; i < record.length; i++)
+    		getField(i);
     	Iterable<Field> iterable = Arrays.asList(record);
         return iterable.iterator();
     }
@@ -130,4 +167,11 @@ public class Tuple implements Serializable {
     {
         tup_desc = td; //TODO (unclear)
     }
+
+    /** Decodes any lazily held fields so that they survive serialization. */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        for (int i = 0; i < record.length; i++)
+            getField(i);
+        out.defaultWriteObject();
+    }
 }
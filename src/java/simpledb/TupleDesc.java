@@ -10,6 +10,9 @@ public class TupleDesc implements Serializable {
 	
     private TDItem[] schema;
 
+    /** Byte offset of each field within a serialized tuple; see getFieldOffset. */
+    private transient int[] offsets;
+
     /**
      * A help class to facilitate organizing the information of each field
      * */
@@ -27,12 +30,27 @@ public class TupleDesc implements Serializable {
          * */
         public final String fieldName;
 
+        /**
+         * The declared maximum length of a string field; ignored for other
+         * types
+         * */
+        public final int fieldWidth;
+
         public TDItem(Type t, String n) {
+            this(t, n, Type.STRING_LEN);
+        }
+
+        public TDItem(Type t, String n, int width) {
+            if (width <= 0)
+                throw new IllegalArgumentException("field width must be positive: " + width);
             this.fieldName = n;
             this.fieldType = t;
+            this.fieldWidth = width;
         }
 
         public String toString() {
+            if (fieldType == Type.STRING_TYPE && fieldWidth != Type.STRING_LEN)
+                return fieldName + "(" + fieldType + "(" + fieldWidth + "))";
             return fieldName + "(" + fieldType + ")";
         }
         
@@ -41,7 +59,8 @@ public class TupleDesc implements Serializable {
         	if(o instanceof TDItem)
         	{
         		TDItem item = (TDItem) o;
-        		boolean field_types_eq = item.fieldType.equals(this.fieldType);
+        		boolean field_types_eq = item.fieldType.equals(this.fieldType)
+        				&& (fieldType != Type.STRING_TYPE || item.fieldWidth == this.fieldWidth);
         		/*boolean field_names_eq = false;
         		
         		if(item.fieldName != null && fieldName !=null)
@@ -99,6 +118,31 @@ public class TupleDesc implements Serializable {
     	}
     }
 
+    /**
+     * Create a new TupleDesc with typeAr.length fields with fields of the
+     * specified types, names and declared widths.
+     * 
+     * @param typeAr
+     *            array specifying the number of and types of fields in this
+     *            TupleDesc. It must contain at least one entry.
+     * @param fieldAr
+     *            array specifying the names of the fields. Note that names may
+     *            be null.
+     * @param widthAr
+     *            array specifying the maximum length of each string field, as
+     *            in CHAR(n); entries for other types are ignored.
+     */
+    public TupleDesc(Type[] typeAr, String[] fieldAr, int[] widthAr) {
+    	
+    	this.schema = new TDItem[typeAr.length];
+    	
+    	for(int i=0; i< schema.length; i++)
+    	{
+    		schema[i] = new TDItem(typeAr[i], fieldAr[i],
+    				typeAr[i] == Type.STRING_TYPE ? widthAr[i] : Type.STRING_LEN);
+    	}
+    }
+
     /**
      * Constructor. Create a new tuple desc with typeAr.length fields with
      * fields of the specified types, with anonymous (unnamed) fields.
@@ -181,6 +225,40 @@ public class TupleDesc implements Serializable {
         return my_type;
     }
 
+    /**
+     * Gets the declared width of the ith field of this TupleDesc: the
+     * maximum length of a string field, {@link Type#STRING_LEN} unless the
+     * schema says otherwise.
+     * 
+     * @param i
+     *            The index of the field. It must be a valid index.
+     * @return the width of the ith field
+     * @throws NoSuchElementException
+     *             if i is not a valid field reference.
+     */
+    public int getFieldWidth(int i) throws NoSuchElementException {
+    	
+    	check_range(i);
+    	
+        return schema[i].fieldWidth;
+    }
+
+    /**
+     * Gets the number of bytes the ith field takes in a serialized tuple.
+     * 
+     * @param i
+     *            The index of the field. It must be a valid index.
+     * @return the size of the ith field
+     * @throws NoSuchElementException
+     *             if i is not a valid field reference.
+     */
+    public int getFieldSize(int i) throws NoSuchElementException {
+    	
+    	check_range(i);
+    	
+        return schema[i].fieldType.getLen(schema[i].fieldWidth);
+    }
+
     /**
      * Find the index of the field with a given name.
      * 
@@ -207,6 +285,34 @@ public class TupleDesc implements Serializable {
     	throw new NoSuchElementException();	
     }
 
+    /**
+     * Gets the byte offset of the ith field within a tuple serialized with
+     * this TupleDesc. Offsets are computed once and cached.
+     * 
+     * @param i
+     *            The index of the field. It must be a valid index.
+     * @return the offset of the ith field from the start of the tuple
+     * @throws NoSuchElementException
+     *             if i is not a valid field reference.
+     */
+    public int getFieldOffset(int i) throws NoSuchElementException {
+    	
+    	check_range(i);
+    	
+    	int[] offs = offsets;
+    	if (offs == null) {
+    		offs = new int[schema.length];
+    		int off = 0;
+    		for (int j = 0; j < schema.length; j++) {
+    			offs[j] = off;
+    			off += schema[j].fieldType.getLen(schema[j].fieldWidth);
+    		}
+    		offsets = offs;
+    	}
+    	
+    	return offs[i];
+    }
+
     /**
      * @return The size (in bytes) of tuples corresponding to this TupleDesc.
      *         Note that tuples from a given TupleDesc are of a fixed size.
@@ -218,7 +324,7 @@ public class TupleDesc implements Serializable {
     	for(int i = 0; i< schema.length; i++)
     	{
     		Type my_type = schema[i].fieldType;
-    		int obj_size = my_type.getLen();
+    		int obj_size = my_type.getLen(schema[i].fieldWidth);
     		
     		size += obj_size;
     	}
@@ -242,20 +348,23 @@ public class TupleDesc implements Serializable {
     	
     	Type[] typeAr = new Type[new_len];
     	String[] fieldAr = new String[new_len];
+    	int[] widthAr = new int[new_len];
     	
     	for(int i=0; i< td1.schema.length; i++)
     	{
     		typeAr[i] = td1.schema[i].fieldType;
     		fieldAr[i] = td1.schema[i].fieldName;
+    		widthAr[i] = td1.schema[i].fieldWidth;
     	}
     	
     	for(int i = 0; i< td2.schema.length; i++)
     	{
     		typeAr[i+ td1.schema.length] = td2.schema[i].fieldType;
     		fieldAr[i+ td1.schema.length] = td2.schema[i].fieldName; 
+    		widthAr[i+ td1.schema.length] = td2.schema[i].fieldWidth;
     	}
     	
-        return new TupleDesc(typeAr, fieldAr);
+        return new TupleDesc(typeAr, fieldAr, widthAr);
     }
 
     /**
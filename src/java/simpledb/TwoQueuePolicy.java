@@ -0,0 +1,81 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * TwoQueuePolicy is the full 2Q algorithm. A page read for the first time
+ * enters A1in, a FIFO queue of about a quarter of the pool; when it leaves
+ * A1in its id is remembered in A1out, a FIFO of ids of about half the pool.
+ * Only a page read again while its id is in A1out is taken to be hot and
+ * joins Am, which is kept in LRU order. Victims come from A1in while it is
+ * over its share and from the LRU end of Am otherwise, so pages touched
+ * once, such as those of a large scan, pass through A1in without pushing
+ * hot pages out of Am.
+ */
+public class TwoQueuePolicy implements EvictionPolicy {
+
+    private final int kin;
+    private final int kout;
+    private final LinkedHashSet<PageId> a1in = new LinkedHashSet<PageId>();
+    private final LinkedHashSet<PageId> a1out = new LinkedHashSet<PageId>();
+    /** Hot pages, least recently used first. */
+    private final LinkedHashSet<PageId> am = new LinkedHashSet<PageId>();
+
+    /**
+     * @param capacity the number of pages in the pool, which sizes A1in and
+     *   A1out
+     */
+    public TwoQueuePolicy(int capacity) {
+        this.kin = Math.max(1, capacity / 4);
+        this.kout = Math.max(1, capacity / 2);
+    }
+
+    public synchronized void pageAdded(PageId pid) {
+        if (am.contains(pid)) {
+            pageAccessed(pid);
+        } else if (!a1in.contains(pid)) {
+            if (a1out.remove(pid))
+                am.add(pid);
+            else
+                a1in.add(pid);
+        }
+    }
+
+    public synchronized void pageAccessed(PageId pid) {
+        // accesses to pages in A1in are correlated with their first one
+        if (am.remove(pid))
+            am.add(pid);
+    }
+
+    public synchronized void pageRemoved(PageId pid) {
+        if (a1in.remove(pid)) {
+            a1out.add(pid);
+            if (a1out.size() > kout) {
+                Iterator<PageId> it = a1out.iterator();
+                it.next();
+                it.remove();
+            }
+        } else {
+            am.remove(pid);
+        }
+    }
+
+    /** @return the first page of queue q that the filter accepts */
+    private static PageId first(Set<PageId> q, Filter filter) {
+        for (PageId pid : q)
+            if (filter.evictable(pid))
+                return pid;
+        return null;
+    }
+
+    public synchronized PageId chooseVictim(Filter filter) {
+        PageId pid = null;
+        if (a1in.size() > kin || am.isEmpty())
+            pid = first(a1in, filter);
+        if (pid == null)
+            pid = first(am, filter);
+        if (pid == null)
+            pid = first(a1in, filter);
+        return pid;
+    }
+}
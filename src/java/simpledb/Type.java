@@ -11,12 +11,12 @@ import java.io.*;
 public enum Type implements Serializable {
     INT_TYPE() {
         @Override
-        public int getLen() {
+        public int getLen(int width) {
             return 4;
         }
 
         @Override
-        public Field parse(DataInputStream dis) throws ParseException {
+        public Field parse(DataInputStream dis, int width) throws ParseException {
             try {
                 return new IntField(dis.readInt());
             }  catch (IOException e) {
@@ -24,32 +24,53 @@ public enum Type implements Serializable {
             }
         }
 
+        @Override
+        public Field decode(byte[] data, int offset, int width) {
+            return new IntField(readInt(data, offset));
+        }
+
     }, STRING_TYPE() {
         @Override
-        public int getLen() {
-            return STRING_LEN+4;
+        public int getLen(int width) {
+            return width+4;
         }
 
         @Override
-        public Field parse(DataInputStream dis) throws ParseException {
+        public Field parse(DataInputStream dis, int width) throws ParseException {
             try {
                 int strLen = dis.readInt();
                 byte bs[] = new byte[strLen];
                 dis.read(bs);
-                dis.skipBytes(STRING_LEN-strLen);
-                return new StringField(new String(bs), STRING_LEN);
+                dis.skipBytes(width-strLen);
+                return new StringField(new String(bs), width);
             } catch (IOException e) {
                 throw new ParseException("couldn't parse", 0);
             }
         }
+
+        @Override
+        public Field decode(byte[] data, int offset, int width) {
+            int strLen = Math.max(0, Math.min(readInt(data, offset), width));
+            return new StringField(new String(data, offset + 4, strLen), width);
+        }
     };
     
     public static final int STRING_LEN = 128;
 
   /**
-   * @return the number of bytes required to store a field of this type.
+   * @return the number of bytes required to store a field of this type,
+   *   with strings at the default width {@link #STRING_LEN}.
    */
-    public abstract int getLen();
+    public int getLen() {
+        return getLen(STRING_LEN);
+    }
+
+  /**
+   * @return the number of bytes required to store a field of this type in a
+   *   column declared with the given width. The width is the maximum
+   *   length of a string; it is ignored by other types.
+   */
+    public abstract int getLen(int width);
 
   /**
    * @return a Field object of the same type as this object that has contents
@@ -58,6 +79,37 @@ public enum Type implements Serializable {
    * @throws ParseException if the data read from the input stream is not
    *   of the appropriate type.
    */
-    public abstract Field parse(DataInputStream dis) throws ParseException;
+    public Field parse(DataInputStream dis) throws ParseException {
+        return parse(dis, STRING_LEN);
+    }
+
+  /**
+   * As {@link #parse(DataInputStream)}, for a column declared with the given
+   * width.
+   */
+    public abstract Field parse(DataInputStream dis, int width) throws ParseException;
+
+  /**
+   * @return a Field object of the same type as this object whose contents
+   *   are decoded from data, starting at offset, in the format written by
+   *   {@link Field#serialize}.
+   * @param data the serialized bytes
+   * @param offset the position of the field within data
+   */
+    public Field decode(byte[] data, int offset) {
+        return decode(data, offset, STRING_LEN);
+    }
+
+  /**
+   * As {@link #decode(byte[], int)}, for a column declared with the given
+   * width.
+   */
+    public abstract Field decode(byte[] data, int offset, int width);
+
+    /** Reads a big-endian int, as written by DataOutputStream.writeInt. */
+    static int readInt(byte[] data, int offset) {
+        return ((data[offset] & 0xff) << 24) | ((data[offset + 1] & 0xff) << 16)
+                | ((data[offset + 2] & 0xff) << 8) | (data[offset + 3] & 0xff);
+    }
 
 }
@@ -0,0 +1,129 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Vacuum compacts a HeapFile whose tuples have been thinned out by deletes.
+ * Deleting a tuple only clears its slot, so without compaction a file keeps
+ * the size of its largest ever contents and scans keep reading nearly empty
+ * pages.
+ * <p>
+ * Vacuum works from the end of the file backwards, moving each tuple of the
+ * last page into the lowest page the file's {@link FreeSpaceMap} says has
+ * room, until the free slots are all behind the page being emptied. Tuples
+ * are moved with a BufferPool insert of a copy followed by a delete of the
+ * original, so the table's indexes follow them to their new RecordIds. The
+ * table's dirty pages, and no others, are then flushed and the emptied pages
+ * at the end cut off the file with {@link HeapFile#truncateEmptyPages}.
+ * <p>
+ * Vacuum is meant to run alongside queries in a low-priority thread (see
+ * {@link #start}), pausing after each page so that it leaves most of the
+ * disk bandwidth to them. Scans running while tuples move may see a moved
+ * tuple twice or not at all.
+ */
+public class Vacuum implements Runnable {
+
+    /** Default pause after each page, in milliseconds. */
+    public static final long DEFAULT_PAUSE_MS = 2;
+
+    private final int tableId;
+    private final long pauseMillis;
+
+    private volatile int tuplesMoved;
+    private volatile int pagesFreed;
+
+    /**
+     * @param tableId the id of the heap file to compact
+     * @param pauseMillis how long to sleep after emptying each page
+     */
+    public Vacuum(int tableId, long pauseMillis) {
+        this.tableId = tableId;
+        this.pauseMillis = pauseMillis;
+    }
+
+    public Vacuum(int tableId) {
+        this(tableId, DEFAULT_PAUSE_MS);
+    }
+
+    /**
+     * Starts a vacuum of a table in a daemon thread of minimum priority.
+     *
+     * @return the thread, which ends when the vacuum is done
+     */
+    public static Thread start(int tableId) {
+        Thread t = new Thread(new Vacuum(tableId), "simpledb-vacuum-" + Database.getCatalog().getTableName(tableId));
+        t.setDaemon(true);
+        t.setPriority(Thread.MIN_PRIORITY);
+        t.start();
+        return t;
+    }
+
+    /** @return the number of tuples moved so far */
+    public int getTuplesMoved() {
+        return tuplesMoved;
+    }
+
+    /** @return the number of pages removed from the end of the file */
+    public int getPagesFreed() {
+        return pagesFreed;
+    }
+
+    public void run() {
+        try {
+            vacuum();
+            System.out.println("Vacuumed " + Database.getCatalog().getTableName(tableId) + ": moved "
+                    + tuplesMoved + " tuples, freed " + pagesFreed + " pages");
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Compacts the table in the calling thread.
+     *
+     * @return the number of pages removed from the end of the file
+     * @throws DbException if the table is not a HeapFile
+     */
+    public int vacuum() throws DbException, IOException, TransactionAbortedException {
+        DbFile f = Database.getCatalog().getDatabaseFile(tableId);
+        if (!(f instanceof HeapFile))
+            throw new DbException("only heap files can be vacuumed");
+        HeapFile hf = (HeapFile) f;
+        BufferPool bp = Database.getBufferPool();
+        TransactionId tid = new TransactionId();
+
+        compact:
+        for (int last = hf.numPages() - 1; last > 0; last--) {
+            HeapPage page = (HeapPage) bp.getPage(tid, new HeapPageId(tableId, last), Permissions.READ_ONLY);
+            ArrayList<Tuple> live = new ArrayList<Tuple>();
+            Iterator<Tuple> it = page.iterator();
+            while (it.hasNext())
+                live.add(it.next());
+            for (Tuple t : live) {
+                int target = hf.getFreeSpaceMap().findPage();
+                if (target < 0 || target >= last)
+                    break compact;
+                Tuple copy = new Tuple(t.getTupleDesc());
+                for (int i = 0; i < copy.getTupleDesc().numFields(); i++)
+                    copy.setField(i, t.getField(i));
+                bp.insertTuple(tid, tableId, copy);
+                bp.deleteTuple(tid, t);
+                tuplesMoved++;
+            }
+            if (pauseMillis > 0) {
+                try {
+                    Thread.sleep(pauseMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+
+        bp.flushTable(tableId);
+        int freed = hf.truncateEmptyPages();
+        pagesFreed += freed;
+        return freed;
+    }
+}
@@ -0,0 +1,231 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * ZoneMap keeps a synopsis of each page of a HeapFile: the smallest and
+ * largest value of every field on the page, with strings cut to their first
+ * {@link #PREFIX} characters. A scan that is given predicates asks
+ * {@link #mayMatch} before reading a page and skips pages whose ranges show
+ * that no tuple on them can satisfy the predicates, so on tables loaded in
+ * roughly key or time order a range filter reads only the pages that hold
+ * the range.
+ * <p>
+ * The map is stored next to the heap file, in <code>file.zmap</code>, as one
+ * fixed-size entry per page. An entry is rewritten whenever the BufferPool
+ * flushes its page and when the heap file appends pages itself. Pages
+ * without an entry are never skipped, and deletes only leave ranges wider
+ * than they need be, so the map never hides a matching tuple; callers must
+ * still apply the predicates to the tuples of the pages they read.
+ */
+public class ZoneMap {
+
+    /** Number of leading characters of a string kept as its min or max. */
+    public static final int PREFIX = 8;
+
+    private static final byte UNKNOWN = 0, RANGE = 1, EMPTY = 2;
+
+    private final TupleDesc td;
+    private final PageChannel channel;
+    private final int entrySize;
+
+    private boolean loaded;
+    private int numEntries;
+    private byte[] state = new byte[0];
+    private Field[][] min = new Field[0][];
+    private Field[][] max = new Field[0][];
+
+    /**
+     * @param f the heap file whose pages this map describes
+     * @param td the schema of the heap file
+     */
+    public ZoneMap(File f, TupleDesc td) {
+        this.td = td;
+        this.channel = new PageChannel(fileFor(f));
+        int size = 1;
+        for (int i = 0; i < td.numFields(); i++)
+            size += 2 * (td.getFieldType(i) == Type.INT_TYPE ? 4 : 2 * PREFIX);
+        this.entrySize = size;
+    }
+
+    /** @return the file that holds the zone map of heap file f */
+    public static File fileFor(File f) {
+        return new File(f.getPath() + ".zmap");
+    }
+
+    /** Closes the file handle; it is reopened on next use. */
+    public void close() {
+        channel.close();
+    }
+
+    /** Reads the stored entries on first use. */
+    private void load() throws IOException {
+        if (loaded)
+            return;
+        loaded = true;
+        if (!channel.getFile().exists())
+            return;
+        long size = channel.size();
+        int n = (int) (size / entrySize);
+        if (n == 0)
+            return;
+        byte[] raw = new byte[n * entrySize];
+        channel.read(0, raw);
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(raw));
+        ensureCapacity(n);
+        for (int p = 0; p < n; p++) {
+            state[p] = dis.readByte();
+            min[p] = new Field[td.numFields()];
+            max[p] = new Field[td.numFields()];
+            for (int i = 0; i < td.numFields(); i++) {
+                min[p][i] = readValue(dis, td.getFieldType(i));
+                max[p][i] = readValue(dis, td.getFieldType(i));
+            }
+        }
+        numEntries = n;
+    }
+
+    private void ensureCapacity(int n) {
+        if (state.length < n) {
+            int cap = Math.max(n, state.length * 2);
+            state = Arrays.copyOf(state, cap);
+            min = Arrays.copyOf(min, cap);
+            max = Arrays.copyOf(max, cap);
+        }
+    }
+
+    private static Field readValue(DataInputStream dis, Type type) throws IOException {
+        if (type == Type.INT_TYPE)
+            return new IntField(dis.readInt());
+        StringBuilder sb = new StringBuilder();
+        for (int k = 0; k < PREFIX; k++) {
+            char c = dis.readChar();
+            if (c != 0)
+                sb.append(c);
+        }
+        return new StringField(sb.toString(), PREFIX);
+    }
+
+    private static void writeValue(DataOutputStream dos, Type type, Field f) throws IOException {
+        if (type == Type.INT_TYPE) {
+            dos.writeInt(f == null ? 0 : ((IntField) f).getValue());
+            return;
+        }
+        String s = f == null ? "" : ((StringField) f).getValue();
+        for (int k = 0; k < PREFIX; k++)
+            dos.writeChar(k < s.length() ? s.charAt(k) : 0);
+    }
+
+    /** @return the value as kept in the map: strings cut to PREFIX chars */
+    private static Field key(Field f) {
+        if (f instanceof StringField) {
+            String s = ((StringField) f).getValue();
+            return new StringField(s.length() > PREFIX ? s.substring(0, PREFIX) : s, PREFIX);
+        }
+        return f;
+    }
+
+    /**
+     * Recomputes the entry of a page from its contents and stores it.
+     *
+     * @param page the page, as it is about to be or has just been written
+     */
+    public synchronized void update(HeapPage page) throws IOException {
+        load();
+        int pageNo = page.getId().pageNumber();
+        Field[] lo = new Field[td.numFields()];
+        Field[] hi = new Field[td.numFields()];
+        boolean empty = true;
+        Iterator<Tuple> it = page.iterator();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            empty = false;
+            for (int i = 0; i < lo.length; i++) {
+                Field v = key(t.getField(i));
+                if (lo[i] == null || v.compare(Predicate.Op.LESS_THAN, lo[i]))
+                    lo[i] = v;
+                if (hi[i] == null || v.compare(Predicate.Op.GREATER_THAN, hi[i]))
+                    hi[i] = v;
+            }
+        }
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(entrySize);
+        DataOutputStream dos = new DataOutputStream(baos);
+        dos.writeByte(empty ? EMPTY : RANGE);
+        for (int i = 0; i < lo.length; i++) {
+            writeValue(dos, td.getFieldType(i), lo[i]);
+            writeValue(dos, td.getFieldType(i), hi[i]);
+        }
+        dos.flush();
+        channel.write((long) pageNo * entrySize, baos.toByteArray());
+
+        ensureCapacity(pageNo + 1);
+        for (int p = numEntries; p < pageNo; p++)
+            state[p] = UNKNOWN;
+        numEntries = Math.max(numEntries, pageNo + 1);
+        state[pageNo] = empty ? EMPTY : RANGE;
+        min[pageNo] = lo;
+        max[pageNo] = hi;
+    }
+
+    /** Forgets pages at and beyond numPages, after the file is truncated. */
+    public synchronized void truncate(int numPages) throws IOException {
+        load();
+        if (numPages < numEntries)
+            numEntries = numPages;
+        if (channel.getFile().exists() && channel.size() > (long) numPages * entrySize)
+            channel.truncate((long) numPages * entrySize);
+    }
+
+    /**
+     * Returns false if the entry of a page shows that none of its tuples
+     * satisfies every predicate. Predicates the map cannot judge, such as
+     * NOT_EQUALS and LIKE, are assumed to match.
+     *
+     * @param pageNo the page to check
+     * @param preds predicates on fields of the heap file
+     * @throws DbException if the map cannot be read
+     */
+    public synchronized boolean mayMatch(int pageNo, Predicate[] preds) throws DbException {
+        try {
+            load();
+        } catch (IOException e) {
+            throw new DbException("cannot read zone map " + channel.getFile() + ": " + e.getMessage());
+        }
+        if (pageNo >= numEntries || state[pageNo] == UNKNOWN)
+            return true;
+        if (state[pageNo] == EMPTY)
+            return false;
+        for (Predicate p : preds)
+            if (!inRange(min[pageNo][p.getField()], max[pageNo][p.getField()], p.getOp(), p.getOperand()))
+                return false;
+        return true;
+    }
+
+    /** @return true if a value in [lo, hi] may satisfy <code>value op c</code> */
+    private static boolean inRange(Field lo, Field hi, Predicate.Op op, Field c) {
+        if (c == null || c.getType() != lo.getType())
+            return true;
+        if (c instanceof StringField) {
+            // prefixes keep the order of strings but not its strictness
+            c = key(c);
+            if (op == Predicate.Op.GREATER_THAN)
+                op = Predicate.Op.GREATER_THAN_OR_EQ;
+            else if (op == Predicate.Op.LESS_THAN)
+                op = Predicate.Op.LESS_THAN_OR_EQ;
+        }
+        switch (op) {
+        case EQUALS:
+            return lo.compare(Predicate.Op.LESS_THAN_OR_EQ, c) && hi.compare(Predicate.Op.GREATER_THAN_OR_EQ, c);
+        case GREATER_THAN:
+        case GREATER_THAN_OR_EQ:
+            return hi.compare(op, c);
+        case LESS_THAN:
+        case LESS_THAN_OR_EQ:
+            return lo.compare(op, c);
+        default:
+            return true;
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package simpledb;
+
+import java.io.File;
+import java.util.ArrayList;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BTreeFileTest extends SimpleDbTestBase {
+    private static final int ROWS = 10000;
+
+    private ArrayList<ArrayList<Integer>> tuples;
+    private HeapFile hf;
+    private BTreeFile index;
+    private TransactionId tid;
+
+    /** Creates an index on a field of a table and registers it. */
+    private BTreeFile createIndex(DbFile table, int field) throws Exception {
+        File f = File.createTempFile("btree", ".dat");
+        f.deleteOnExit();
+        BTreeFile bf = new BTreeFile(f, table, field);
+        Database.getCatalog().addIndex(bf, SystemTestUtil.getUUID());
+        return bf;
+    }
+
+    /**
+     * Set up initial resources for each unit test: a table of ROWS rows with
+     * an index built on its first field.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tuples = new ArrayList<ArrayList<Integer>>();
+        hf = SystemTestUtil.createRandomHeapFile(2, ROWS, 5000, null, tuples);
+        index = createIndex(hf, 0);
+        tid = new TransactionId();
+        Database.getBufferPool().buildIndex(tid, index);
+        Database.getBufferPool().flushAllPages();
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    }
+
+    /** @return the rows of tuples whose first field satisfies op against v */
+    private ArrayList<ArrayList<Integer>> expected(Predicate.Op op, int v) {
+        ArrayList<ArrayList<Integer>> out = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> row : tuples)
+            if (new IntField(row.get(0)).compare(op, new IntField(v)))
+                out.add(row);
+        return out;
+    }
+
+    /**
+     * The index lists every entry once, in key order.
+     */
+    @Test public void keyOrder() throws Exception {
+        assertTrue(index.numPages() > 2);
+        DbFileIterator it = index.iterator(tid);
+        it.open();
+        int count = 0;
+        int last = Integer.MIN_VALUE;
+        while (it.hasNext()) {
+            int key = ((IntField) it.next().getField(0)).getValue();
+            assertTrue(key >= last);
+            last = key;
+            count++;
+        }
+        it.close();
+        assertEquals(ROWS, count);
+    }
+
+    /**
+     * IndexScan returns exactly the matching tuples for each comparison.
+     */
+    @Test public void indexScan() throws Exception {
+        Predicate.Op[] ops = { Predicate.Op.EQUALS, Predicate.Op.LESS_THAN, Predicate.Op.LESS_THAN_OR_EQ,
+                Predicate.Op.GREATER_THAN, Predicate.Op.GREATER_THAN_OR_EQ, Predicate.Op.NOT_EQUALS };
+        int[] values = { -1, 17, 2500, 5000 };
+        for (Predicate.Op op : ops) {
+            for (int v : values) {
+                IndexScan scan = new IndexScan(tid, index, new IndexPredicate(op, new IntField(v)), "t");
+                SystemTestUtil.matchTuples(scan, expected(op, v));
+            }
+        }
+    }
+
+    /**
+     * A point lookup reads one index page per level, not the whole index.
+     */
+    @Test public void pointLookup() throws Exception {
+        long before = index.getChannel().getReadCount();
+        DbFileIterator it = index.indexIterator(tid,
+                new IndexPredicate(Predicate.Op.EQUALS, new IntField(tuples.get(0).get(0))));
+        it.open();
+        assertTrue(it.hasNext());
+        while (it.hasNext())
+            it.next();
+        it.close();
+        long reads = index.getChannel().getReadCount() - before;
+        assertTrue(reads <= 4);
+        assertTrue(reads * 10 < index.numPages());
+    }
+
+    /**
+     * Tuples inserted into and deleted from the table through the
+     * BufferPool are added to and removed from the index.
+     */
+    @Test public void maintenance() throws Exception {
+        for (int i = 0; i < 1000; i++)
+            Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[] { 7000 + i % 10, i }));
+        IndexPredicate ipred = new IndexPredicate(Predicate.Op.GREATER_THAN_OR_EQ, new IntField(7000));
+        IndexScan scan = new IndexScan(tid, index, ipred, "t");
+        scan.open();
+        ArrayList<Tuple> found = new ArrayList<Tuple>();
+        while (scan.hasNext())
+            found.add(scan.next());
+        scan.close();
+        assertEquals(1000, found.size());
+
+        for (Tuple t : found)
+            if (((IntField) t.getField(0)).getValue() == 7003)
+                Database.getBufferPool().deleteTuple(tid, t);
+        ipred = new IndexPredicate(Predicate.Op.EQUALS, new IntField(7003));
+        DbFileIterator it = index.indexIterator(tid, ipred);
+        it.open();
+        assertFalse(it.hasNext());
+        it.close();
+
+        ipred = new IndexPredicate(Predicate.Op.GREATER_THAN, new IntField(7000));
+        scan = new IndexScan(tid, index, ipred, "t");
+        scan.open();
+        int count = 0;
+        while (scan.hasNext()) {
+            assertTrue(((IntField) scan.next().getField(0)).getValue() != 7003);
+            count++;
+        }
+        scan.close();
+        assertEquals(800, count);
+    }
+
+    /**
+     * Wide string keys make a tree several levels deep; entries survive
+     * splits of internal nodes and of the root.
+     */
+    @Test public void deepTree() throws Exception {
+        TupleDesc td = new TupleDesc(new Type[] { Type.STRING_TYPE, Type.INT_TYPE }, new String[] { "s", "i" });
+        File f = File.createTempFile("strings", ".dat");
+        f.deleteOnExit();
+        HeapFile strings = new HeapFile(f, td);
+        Database.getCatalog().addTable(strings, SystemTestUtil.getUUID());
+        BTreeFile sindex = createIndex(strings, 0);
+        for (int i = 0; i < 3000; i++) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new StringField("key" + (i * 7919 % 3000), Type.STRING_LEN));
+            t.setField(1, new IntField(i));
+            Database.getBufferPool().insertTuple(tid, strings.getId(), t);
+        }
+        Database.getBufferPool().flushAllPages();
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+
+        BTreePage root = (BTreePage) sindex.readPage(new HeapPageId(sindex.getId(), 0));
+        assertFalse(root.isLeaf());
+        BTreePage child = (BTreePage) sindex.readPage(new HeapPageId(sindex.getId(), root.children.get(0)));
+        assertFalse(child.isLeaf());
+
+        for (int k = 0; k < 3000; k += 299) {
+            IndexPredicate ipred = new IndexPredicate(Predicate.Op.EQUALS, new StringField("key" + k, Type.STRING_LEN));
+            IndexScan scan = new IndexScan(tid, sindex, ipred, "s");
+            scan.open();
+            assertTrue(scan.hasNext());
+            assertEquals("key" + k, ((StringField) scan.next().getField(0)).getValue());
+            assertFalse(scan.hasNext());
+            scan.close();
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BTreeFileTest.class);
+    }
+}
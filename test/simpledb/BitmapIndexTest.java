@@ -0,0 +1,214 @@
+package simpledb;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BitmapIndexTest extends SimpleDbTestBase {
+    private static final int ROWS = SystemTestUtil.LOADED_ROWS;
+
+    private HeapFile hf;
+    private String name;
+    private BitmapIndex batch;
+    private BitmapIndex status;
+    private TransactionId tid;
+
+    /** Creates a bitmap index on a field of hf and registers it. */
+    private BitmapIndex createIndex(int field) throws Exception {
+        File f = File.createTempFile("bitmap", ".dat");
+        f.deleteOnExit();
+        BitmapIndex index = new BitmapIndex(f, hf, field);
+        Database.getCatalog().addIndex(index, SystemTestUtil.getUUID());
+        return index;
+    }
+
+    /** @return the values of row i: batch, status and row number */
+    private static int[] row(int i) {
+        return new int[] { i / 1000, (i * 7) % 4, i };
+    }
+
+    /**
+     * Set up initial resources for each unit test: a table whose first
+     * field counts up in batches of 1000 rows and whose second cycles
+     * through four status codes, with a bitmap index on each.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        hf = SystemTestUtil.createEmptyHeapFile(Utility.getTupleDesc(3, "c"));
+        name = Database.getCatalog().getTableName(hf.getId());
+        batch = createIndex(0);
+        status = createIndex(1);
+        tid = new TransactionId();
+
+        int[][] rows = new int[ROWS][];
+        for (int i = 0; i < ROWS; i++)
+            rows[i] = row(i);
+        SystemTestUtil.loadHeapFile(hf, rows);
+    }
+
+    /** @return the row numbers returned by a scan */
+    private BitSet rows(DbIterator it) throws Exception {
+        BitSet out = new BitSet();
+        it.open();
+        while (it.hasNext())
+            out.set(((IntField) it.next().getField(2)).getValue());
+        it.close();
+        return out;
+    }
+
+    /**
+     * AND, OR and AND NOT on compressed bitmaps agree with BitSet, for
+     * sparse, dense and clustered bits.
+     */
+    @Test public void bitmapOps() throws Exception {
+        Random r = new Random(6830);
+        for (int round = 0; round < 20; round++) {
+            BitSet[] sets = new BitSet[2];
+            CompressedBitmap[] maps = new CompressedBitmap[2];
+            for (int k = 0; k < 2; k++) {
+                sets[k] = new BitSet();
+                maps[k] = new CompressedBitmap();
+                int density = 1 + r.nextInt(40);
+                for (int i = 0; i < 5000; i++) {
+                    boolean run = (i / 700) % 2 == round % 2;
+                    if (run || r.nextInt(density) == 0) {
+                        sets[k].set(i);
+                        maps[k].add(i);
+                    }
+                }
+                // out-of-order sets and clears
+                for (int j = 0; j < 20; j++) {
+                    int i = r.nextInt(5000);
+                    sets[k].set(i);
+                    maps[k].add(i);
+                    i = r.nextInt(5000);
+                    sets[k].clear(i);
+                    maps[k].remove(i);
+                }
+                assertEquals(sets[k], toBitSet(maps[k]));
+                assertEquals(sets[k].cardinality(), maps[k].cardinality());
+            }
+            BitSet and = (BitSet) sets[0].clone();
+            and.and(sets[1]);
+            assertEquals(and, toBitSet(maps[0].and(maps[1])));
+            BitSet or = (BitSet) sets[0].clone();
+            or.or(sets[1]);
+            assertEquals(or, toBitSet(maps[0].or(maps[1])));
+            BitSet andNot = (BitSet) sets[0].clone();
+            andNot.andNot(sets[1]);
+            assertEquals(andNot, toBitSet(maps[0].andNot(maps[1])));
+        }
+
+        CompressedBitmap runs = new CompressedBitmap();
+        for (int i = 100000; i < 200000; i++)
+            runs.add(i);
+        assertEquals(100000, runs.cardinality());
+        assertTrue(runs.sizeInWords() <= 4);
+    }
+
+    private static BitSet toBitSet(CompressedBitmap b) {
+        BitSet out = new BitSet();
+        CompressedBitmap.BitIterator it = b.iterator();
+        while (it.hasNext())
+            out.set((int) it.next());
+        return out;
+    }
+
+    /**
+     * A conjunction is answered from the bitmaps, reading only the table
+     * pages that hold qualifying tuples.
+     */
+    @Test public void bitmapScan() throws Exception {
+        BitmapScan scan = new BitmapScan(tid, new BitmapIndex[] { batch, status },
+                new IndexPredicate[] { new IndexPredicate(Predicate.Op.EQUALS, new IntField(5)),
+                        new IndexPredicate(Predicate.Op.LESS_THAN, new IntField(2)) }, "t");
+        long before = hf.getChannel().getReadCount();
+        BitSet found = rows(scan);
+        long reads = hf.getChannel().getReadCount() - before;
+
+        BitSet expected = new BitSet();
+        for (int i = 0; i < ROWS; i++)
+            if (row(i)[0] == 5 && row(i)[1] < 2)
+                expected.set(i);
+        assertEquals(expected, found);
+        assertTrue(reads * 5 < hf.numPages());
+    }
+
+    /**
+     * Inserts and deletes through the BufferPool update the bitmaps, which
+     * are saved when pages are flushed.
+     */
+    @Test public void maintenance() throws Exception {
+        IndexPredicate three = new IndexPredicate(Predicate.Op.EQUALS, new IntField(3));
+        long before = status.bitmap(three).cardinality();
+        Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[] { 99, 3, -1 }));
+        assertEquals(before + 1, status.bitmap(three).cardinality());
+
+        BitmapScan scan = new BitmapScan(tid, new BitmapIndex[] { batch },
+                new IndexPredicate[] { new IndexPredicate(Predicate.Op.EQUALS, new IntField(0)) }, "t");
+        scan.open();
+        ArrayList<Tuple> doomed = new ArrayList<Tuple>();
+        while (scan.hasNext())
+            doomed.add(scan.next());
+        scan.close();
+        assertEquals(1000, doomed.size());
+        for (Tuple t : doomed)
+            Database.getBufferPool().deleteTuple(tid, t);
+        assertFalse(batch.getValues().contains(new IntField(0)));
+        Database.getBufferPool().flushAllPages();
+
+        BitmapIndex reopened = new BitmapIndex(status.getFile(), hf, 1);
+        Database.getCatalog().addIndex(reopened, SystemTestUtil.getUUID());
+        assertEquals(ROWS + 1 - 1000, reopened.bitmap(new IndexPredicate(Predicate.Op.GREATER_THAN_OR_EQ,
+                new IntField(0))).cardinality());
+    }
+
+    /**
+     * The planner answers filters on bitmap-indexed fields with a
+     * BitmapScan.
+     */
+    @Test public void planConjunction() throws Exception {
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put(name, new TableStats(hf.getId(), 1));
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(hf.getId(), "t");
+        lp.addFilter("t.c0", Predicate.Op.GREATER_THAN, "17");
+        lp.addFilter("t.c1", Predicate.Op.EQUALS, "1");
+        lp.addFilter("t.c2", Predicate.Op.LESS_THAN, "19500");
+        lp.addProjectField("t.c2", null);
+        DbIterator plan = lp.physicalPlan(tid, stats, false);
+
+        BitSet expected = new BitSet();
+        for (int i = 0; i < ROWS; i++)
+            if (row(i)[0] > 17 && row(i)[1] == 1 && i < 19500)
+                expected.set(i);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        long before = hf.getChannel().getReadCount();
+        BitSet found = new BitSet();
+        plan.open();
+        while (plan.hasNext())
+            found.set(((IntField) plan.next().getField(0)).getValue());
+        plan.close();
+        long reads = hf.getChannel().getReadCount() - before;
+        assertEquals(expected, found);
+        assertTrue(reads * 5 < hf.numPages());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BitmapIndexTest.class);
+    }
+}
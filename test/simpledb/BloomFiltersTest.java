@@ -0,0 +1,172 @@
+package simpledb;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BloomFiltersTest extends SimpleDbTestBase {
+    private static final int ROWS = SystemTestUtil.LOADED_ROWS;
+
+    private int[] keys;
+    private HeapFile hf;
+    private String name;
+    private TransactionId tid;
+
+    /** Registers a heap file over f with two int fields. */
+    private HeapFile open(File f) {
+        HeapFile file = new HeapFile(f, Utility.getTupleDesc(2, "c"));
+        name = SystemTestUtil.getUUID();
+        Database.getCatalog().addTable(file, name);
+        return file;
+    }
+
+    /**
+     * Set up initial resources for each unit test: a table whose first
+     * field holds random keys, in no order, with Bloom filters on it.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        hf = SystemTestUtil.createEmptyHeapFile(Utility.getTupleDesc(2, "c"));
+        name = Database.getCatalog().getTableName(hf.getId());
+        hf.setBloomColumns(new int[] { 0 });
+        tid = new TransactionId();
+
+        Random r = new Random(6830);
+        keys = new int[ROWS];
+        int[][] rows = new int[ROWS][];
+        for (int i = 0; i < ROWS; i++) {
+            keys[i] = r.nextInt(1000000000);
+            rows[i] = new int[] { keys[i], i };
+        }
+        SystemTestUtil.loadHeapFile(hf, rows);
+    }
+
+    /** @return the number of tuples of a file with first field key */
+    private int lookup(HeapFile file, int key) throws Exception {
+        Predicate[] preds = { new Predicate(0, Predicate.Op.EQUALS, new IntField(key)) };
+        DbFileIterator it = file.iterator(tid, preds);
+        int n = 0;
+        it.open();
+        while (it.hasNext())
+            if (preds[0].filter(it.next()))
+                n++;
+        it.close();
+        return n;
+    }
+
+    /** @return the number of pages of file read by a lookup of key */
+    private long reads(HeapFile file, int key, int expected) throws Exception {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        long before = file.getChannel().getReadCount();
+        assertEquals(expected, lookup(file, key));
+        return file.getChannel().getReadCount() - before;
+    }
+
+    /**
+     * Point lookups on the unordered field read only the pages whose
+     * filters admit the key.
+     */
+    @Test public void pointLookups() throws Exception {
+        for (int i = 0; i < ROWS; i += 1999)
+            assertTrue(reads(hf, keys[i], 1) <= 2);
+        assertTrue(reads(hf, -1, 0) <= 1);
+        // other predicates are not judged by the filters
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        Predicate[] preds = { new Predicate(0, Predicate.Op.NOT_EQUALS, new IntField(keys[0])) };
+        long before = hf.getChannel().getReadCount();
+        DbFileIterator it = hf.iterator(tid, preds);
+        it.open();
+        while (it.hasNext())
+            it.next();
+        it.close();
+        assertTrue(hf.getChannel().getReadCount() - before >= hf.numPages() / 2);
+    }
+
+    /**
+     * Inserted tuples are found before and after their page is flushed, and
+     * deleted keys drop out of the filter once the page is written.
+     */
+    @Test public void maintenance() throws Exception {
+        Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[] { -7, -7 }));
+        assertEquals(1, lookup(hf, -7));
+        Database.getBufferPool().flushAllPages();
+        assertTrue(reads(hf, -7, 1) <= 2);
+
+        Predicate[] preds = { new Predicate(0, Predicate.Op.EQUALS, new IntField(keys[100])) };
+        DbFileIterator it = hf.iterator(tid, preds);
+        it.open();
+        Tuple victim = null;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            if (preds[0].filter(t))
+                victim = t;
+        }
+        it.close();
+        Database.getBufferPool().deleteTuple(tid, victim);
+        Database.getBufferPool().flushAllPages();
+        assertEquals(0, reads(hf, keys[100], 0));
+    }
+
+    /**
+     * Filters are saved with the file, and files written without them get
+     * filters from build or as scans read their pages.
+     */
+    @Test public void reopenAndBuild() throws Exception {
+        HeapFile reopened = open(hf.getFile());
+        reopened.setBloomColumns(new int[] { 0 });
+        assertTrue(reads(reopened, keys[ROWS / 2], 1) <= 2);
+
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile encoded = SystemTestUtil.createRandomHeapFile(2, 5000, 1000000000, null, tuples);
+        BloomFilters.fileFor(encoded.getFile()).deleteOnExit();
+        encoded.setBloomColumns(new int[] { 0 });
+        int key = tuples.get(1234).get(0);
+        assertEquals(encoded.numPages(), reads(encoded, key, 1));
+        assertTrue(reads(encoded, key, 1) <= 2);
+
+        HeapFile built = open(encoded.getFile());
+        BloomFilters.fileFor(encoded.getFile()).delete();
+        built.setBloomColumns(new int[] { 0 });
+        built.getBloomFilters().build();
+        assertTrue(reads(built, tuples.get(4321).get(0), 1) <= 2);
+    }
+
+    /**
+     * The planner's pushed-down equality filter uses the Bloom filters.
+     */
+    @Test public void planEquality() throws Exception {
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put(name, new TableStats(hf.getId(), 1));
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(hf.getId(), "t");
+        lp.addFilter("t.c0", Predicate.Op.EQUALS, Integer.toString(keys[777]));
+        lp.addProjectField("t.c1", null);
+        DbIterator plan = lp.physicalPlan(tid, stats, false);
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        long before = hf.getChannel().getReadCount();
+        plan.open();
+        assertTrue(plan.hasNext());
+        assertEquals(777, ((IntField) plan.next().getField(0)).getValue());
+        assertFalse(plan.hasNext());
+        plan.close();
+        assertTrue(hf.getChannel().getReadCount() - before <= 2);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BloomFiltersTest.class);
+    }
+}
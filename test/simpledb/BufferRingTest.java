@@ -0,0 +1,95 @@
+package simpledb;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BufferRingTest extends SimpleDbTestBase {
+
+    /** Scans the table; returns the number of tuples read. */
+    private static int scan(HeapFile hf, TransactionId tid, Boolean ring) throws Exception {
+        SeqScan scan = new SeqScan(tid, hf.getId());
+        if (ring != null)
+            scan.setBufferRing(ring);
+        scan.open();
+        int n = 0;
+        while (scan.hasNext()) {
+            scan.next();
+            n++;
+        }
+        scan.close();
+        return n;
+    }
+
+    /** @return the number of the first count pages of hf in the pool */
+    private static int cached(BufferPool bp, HeapFile hf, int count) {
+        int n = 0;
+        for (int i = 0; i < count; i++)
+            if (bp.containsPage(new HeapPageId(hf.getId(), i)))
+                n++;
+        return n;
+    }
+
+    /**
+     * A scan of a table larger than the pool returns every tuple through
+     * its ring and leaves the pages of another table cached; without the
+     * ring it pushes them out.
+     */
+    @Test public void workingSetSurvivesScan() throws Exception {
+        HeapFile hot = SystemTestUtil.createRandomHeapFile(2, 504 * 5, null, null);
+        HeapFile big = SystemTestUtil.createRandomHeapFile(2, 504 * 80, null, null);
+        TransactionId tid = new TransactionId();
+        for (Boolean ring : new Boolean[] { null, true, false }) {
+            BufferPool bp = Database.resetBufferPool(20);
+            for (int i = 0; i < hot.numPages(); i++)
+                bp.getPage(tid, new HeapPageId(hot.getId(), i), Permissions.READ_ONLY);
+            assertEquals(504 * 80, scan(big, tid, ring));
+            if (ring == Boolean.FALSE) {
+                assertTrue(cached(bp, hot, hot.numPages()) < hot.numPages());
+            } else {
+                assertEquals(hot.numPages(), cached(bp, hot, hot.numPages()));
+                assertEquals(0, cached(bp, big, big.numPages()));
+            }
+        }
+    }
+
+    /**
+     * The ring reuses its own frames, and a page of the ring that another
+     * caller fetches stays in the pool after the scan.
+     */
+    @Test public void recycleAndAdopt() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504 * 40, null, null);
+        BufferPool bp = Database.resetBufferPool(16);
+        TransactionId tid = new TransactionId();
+        BufferRing ring = new BufferRing(4);
+        for (int i = 0; i < 10; i++)
+            bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY, ring);
+        assertEquals(4, cached(bp, hf, 10));
+        for (int i = 6; i < 10; i++)
+            assertTrue(bp.containsPage(new HeapPageId(hf.getId(), i)));
+
+        PageId adopted = new HeapPageId(hf.getId(), 9);
+        long misses = bp.getMissCount();
+        bp.getPage(tid, adopted, Permissions.READ_ONLY);
+        assertEquals(misses, bp.getMissCount());
+        bp.releaseRing(ring);
+        assertEquals(1, cached(bp, hf, 10));
+        assertTrue(bp.containsPage(adopted));
+
+        // a released ring leaves new pages to the main pool
+        bp.getPage(tid, new HeapPageId(hf.getId(), 20), Permissions.READ_ONLY, ring);
+        bp.releaseRing(ring);
+        assertTrue(bp.containsPage(new HeapPageId(hf.getId(), 20)));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferRingTest.class);
+    }
+}
@@ -2,6 +2,8 @@ package simpledb;
 
 import static org.junit.Assert.assertEquals;
 
+import java.io.File;
+import java.io.FileWriter;
 import java.util.NoSuchElementException;
 import java.util.Random;
 
@@ -96,6 +98,36 @@ public class CatalogTest extends SimpleDbTestBase {
     	assertEquals(f, Database.getCatalog().getDatabaseFile(id2));
     }
 
+    /**
+     * Declared string widths in a schema file reach the TupleDesc, and a
+     * scan's TupleDesc, and size the heap page slots.
+     */
+    @Test public void loadSchemaWidths() throws Exception {
+        File dir = File.createTempFile("catalog", "");
+        dir.delete();
+        dir.mkdir();
+        dir.deleteOnExit();
+        File schema = new File(dir, "schema.txt");
+        schema.deleteOnExit();
+        String table = "t" + Math.abs(r.nextInt());
+        FileWriter w = new FileWriter(schema);
+        w.write(table + " (id int pk, code char(8), note varchar(20), body string)\n");
+        w.close();
+
+        Database.getCatalog().loadSchema(schema.getAbsolutePath());
+        TupleDesc td = Database.getCatalog().getTupleDesc(Database.getCatalog().getTableId(table));
+        assertEquals(8, td.getFieldWidth(1));
+        assertEquals(20, td.getFieldWidth(2));
+        assertEquals(Type.STRING_LEN, td.getFieldWidth(3));
+        assertEquals(4 + (8 + 4) + (20 + 4) + (Type.STRING_LEN + 4), td.getSize());
+
+        // and an operator's schema, so it equals that of the tuples it returns
+        TupleDesc scanned = new SeqScan(new TransactionId(), Database.getCatalog().getTableId(table), "t").getTupleDesc();
+        assertEquals(8, scanned.getFieldWidth(1));
+        assertEquals(20, scanned.getFieldWidth(2));
+        Database.getCatalog().clear();
+    }
+
     /**
      * JUnit suite target
      */
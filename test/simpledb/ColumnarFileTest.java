@@ -0,0 +1,193 @@
+package simpledb;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class ColumnarFileTest extends SimpleDbTestBase {
+    private static final int ROWS = 3000;
+
+    private TupleDesc td;
+    private ColumnarFile cf;
+    private String name;
+    private TransactionId tid;
+
+    /**
+     * Set up initial resources for each unit test: a table of ROWS rows
+     * with two int columns and a wide string column.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.INT_TYPE, Type.STRING_TYPE },
+                new String[] { "a", "b", "s" });
+        File f = File.createTempFile("columnar", ".dat");
+        f.deleteOnExit();
+        cf = new ColumnarFile(f, td);
+        name = SystemTestUtil.getUUID();
+        Database.getCatalog().addTable(cf, name);
+        tid = new TransactionId();
+
+        for (int i = 0; i < ROWS; i++)
+            Database.getBufferPool().insertTuple(tid, cf.getId(), row(i));
+        Database.getBufferPool().flushAllPages();
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    }
+
+    private Tuple row(int i) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(i));
+        t.setField(1, new IntField(-i));
+        t.setField(2, new StringField("row " + i, Type.STRING_LEN));
+        return t;
+    }
+
+    /** @return the number of pages the scan read from disk */
+    private long scan(DbFileIterator it, HashSet<Integer> seen) throws Exception {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        long before = cf.getChannel().getReadCount();
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            assertTrue(seen.add(((IntField) t.getField(0)).getValue()));
+        }
+        it.close();
+        return cf.getChannel().getReadCount() - before;
+    }
+
+    /**
+     * A full scan returns every tuple with every field.
+     */
+    @Test public void fullScan() throws Exception {
+        DbFileIterator it = cf.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            int a = ((IntField) t.getField(0)).getValue();
+            assertEquals(-a, ((IntField) t.getField(1)).getValue());
+            assertEquals("row " + a, ((StringField) t.getField(2)).getValue());
+            count++;
+        }
+        it.close();
+        assertEquals(ROWS, count);
+    }
+
+    /**
+     * A scan of one int column reads far fewer pages than a full scan and
+     * leaves the other fields null.
+     */
+    @Test public void projectedScan() throws Exception {
+        HashSet<Integer> all = new HashSet<Integer>();
+        long fullReads = scan(cf.iterator(tid), all);
+        HashSet<Integer> projected = new HashSet<Integer>();
+        long projectedReads = scan(cf.iterator(tid, new int[] { 0 }), projected);
+        assertEquals(ROWS, projected.size());
+        assertEquals(all, projected);
+        assertTrue(projectedReads * 10 < fullReads);
+
+        DbFileIterator it = cf.iterator(tid, new int[] { 0 });
+        it.open();
+        assertNull(it.next().getField(2));
+        it.close();
+    }
+
+    /**
+     * Deleted tuples are no longer returned.
+     */
+    @Test public void deleteTuple() throws Exception {
+        DbFileIterator it = cf.iterator(tid);
+        it.open();
+        ArrayList<Tuple> doomed = new ArrayList<Tuple>();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            if (((IntField) t.getField(0)).getValue() % 3 == 0)
+                doomed.add(t);
+        }
+        it.close();
+        for (Tuple t : doomed)
+            Database.getBufferPool().deleteTuple(tid, t);
+        Database.getBufferPool().flushAllPages();
+
+        HashSet<Integer> seen = new HashSet<Integer>();
+        scan(cf.iterator(tid, new int[] { 0 }), seen);
+        assertEquals(ROWS - doomed.size(), seen.size());
+        for (int a : seen)
+            assertTrue(a % 3 != 0);
+    }
+
+    /** A delete leaves the header's before image as it was read. */
+    @Test public void beforeImage() throws Exception {
+        DbFileIterator it = cf.iterator(tid);
+        it.open();
+        Tuple t = it.next();
+        it.close();
+        ColumnarPage header = (ColumnarPage) Database.getBufferPool().getPage(tid,
+                t.getRecordId().getPageId(), Permissions.READ_ONLY);
+        byte[] read = header.getPageData();
+        Database.getBufferPool().deleteTuple(tid, t);
+        assertArrayEquals(read, header.getBeforeImage().getPageData());
+        assertFalse(Arrays.equals(read, header.getPageData()));
+    }
+
+    /** The pages of a new row group are logged before they are written. */
+    @Test public void groupsLogged() throws Exception {
+        // no page is written back, and logged, by the pool meanwhile
+        Database.getBufferPool().setDirtyTarget(1);
+        int groups = cf.numGroups();
+        int groupPages = cf.numPages() / groups;
+        for (int i = ROWS; i < groups * cf.getGroupRows(); i++)
+            Database.getBufferPool().insertTuple(tid, cf.getId(), row(i));
+
+        LogFile log = Database.getLogFile();
+        int records = log.getTotalRecords();
+        Database.getBufferPool().insertTuple(tid, cf.getId(), row(-1));
+        assertEquals(groups + 1, cf.numGroups());
+        assertEquals(records + groupPages, log.getTotalRecords());
+    }
+
+    /**
+     * The planner hands the fields a query uses down to the scan.
+     */
+    @Test public void planProjection() throws Exception {
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put(name, new TableStats(cf.getId(), 1));
+
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(cf.getId(), "c");
+        lp.addFilter("c.b", Predicate.Op.LESS_THAN, "-2990");
+        lp.addProjectField("c.a", null);
+        DbIterator plan = lp.physicalPlan(tid, stats, false);
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        long before = cf.getChannel().getReadCount();
+        plan.open();
+        HashSet<Integer> seen = new HashSet<Integer>();
+        while (plan.hasNext())
+            seen.add(((IntField) plan.next().getField(0)).getValue());
+        plan.close();
+        long reads = cf.getChannel().getReadCount() - before;
+
+        assertEquals(9, seen.size());
+        for (int a = 2991; a < ROWS; a++)
+            assertTrue(seen.contains(a));
+        assertTrue(reads * 10 < cf.numPages());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ColumnarFileTest.class);
+    }
+}
@@ -0,0 +1,136 @@
+package simpledb;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Random;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class CompressedHeapFileTest extends SimpleDbTestBase {
+
+    /** Copies every page of a HeapFile into a new CompressedHeapFile. */
+    private CompressedHeapFile copy(HeapFile hf) throws Exception {
+        File f = File.createTempFile("compressed", ".dat");
+        f.deleteOnExit();
+        new File(f.getPath() + ".pmap").deleteOnExit();
+        CompressedHeapFile chf = new CompressedHeapFile(f, hf.getTupleDesc());
+        Database.getCatalog().addTable(chf, SystemTestUtil.getUUID());
+        for (int p = 0; p < hf.numPages(); p++)
+            chf.writePage(hf.readPage(new HeapPageId(hf.getId(), p)));
+        return chf;
+    }
+
+    /**
+     * Pages with int and string columns, full and partly empty, come back
+     * byte for byte, and small values compress well.
+     */
+    @Test public void codecRoundTrip() throws Exception {
+        TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE },
+                new String[] { "a", "s", "b" }, new int[] { 0, 16, 0 });
+        File f = File.createTempFile("codec", ".dat");
+        f.deleteOnExit();
+        HeapFile hf = new HeapFile(f, td);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+
+        Random r = new Random(6830);
+        HeapPage page = new HeapPage(new HeapPageId(hf.getId(), 0), HeapPage.createEmptyPageData());
+        byte[] empty = page.getPageData();
+        assertArrayEquals(empty, PageCodec.decompress(PageCodec.compress(empty, td), td, empty.length));
+
+        ArrayList<Tuple> added = new ArrayList<Tuple>();
+        while (page.getNumEmptySlots() > 0) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new IntField(1000 + r.nextInt(100)));
+            t.setField(1, new StringField("code" + r.nextInt(5), 16));
+            t.setField(2, new IntField(r.nextInt() - r.nextInt()));
+            page.insertTuple(t);
+            added.add(t);
+        }
+        for (int i = 0; i < added.size(); i += 3)
+            page.deleteTuple(added.get(i));
+
+        byte[] image = page.getPageData();
+        byte[] compressed = PageCodec.compress(image, td);
+        assertEquals(PageCodec.COLUMNAR, compressed[0]);
+        assertTrue(compressed.length * 2 < image.length);
+        assertArrayEquals(image, PageCodec.decompress(compressed, td, image.length));
+    }
+
+    /**
+     * A compressed copy of a table scans the same tuples from far fewer
+     * bytes, and keeps working as it grows.
+     */
+    @Test public void scanAndInsert() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(3, 5000, 64, null, tuples);
+        CompressedHeapFile chf = copy(hf);
+        assertEquals(hf.numPages(), chf.numPages());
+        assertTrue(chf.getDataSize() * 4 < hf.getFile().length());
+        SystemTestUtil.matchTuples(chf, tuples);
+
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 1000; i++) {
+            Database.getBufferPool().insertTuple(tid, chf.getId(), Utility.getHeapTuple(new int[] { i, i, -i }));
+            ArrayList<Integer> row = new ArrayList<Integer>();
+            row.add(i);
+            row.add(i);
+            row.add(-i);
+            tuples.add(row);
+        }
+        Database.getBufferPool().flushAllPages();
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        SystemTestUtil.matchTuples(chf, tuples);
+
+        // the page map survives reopening the file
+        CompressedHeapFile reopened = new CompressedHeapFile(chf.getFile(), chf.getTupleDesc());
+        Database.getCatalog().addTable(reopened, SystemTestUtil.getUUID());
+        assertEquals(chf.numPages(), reopened.numPages());
+        SystemTestUtil.matchTuples(reopened, tuples);
+    }
+
+    /**
+     * A page rewritten over and over, alternately growing and shrinking,
+     * reuses the space its old images leave instead of growing the file,
+     * and the space not in use is reported and found again on reopening.
+     */
+    @Test public void reuseFreedSpace() throws Exception {
+        File f = File.createTempFile("compressed", ".dat");
+        f.deleteOnExit();
+        new File(f.getPath() + ".pmap").deleteOnExit();
+        TupleDesc td = Utility.getTupleDesc(2);
+        CompressedHeapFile chf = new CompressedHeapFile(f, td);
+        Database.getCatalog().addTable(chf, SystemTestUtil.getUUID());
+        HeapPageId pid = new HeapPageId(chf.getId(), 0);
+
+        Random r = new Random(6830);
+        HeapPage empty = new HeapPage(pid, HeapPage.createEmptyPageData());
+        for (int round = 0; round < 50; round++) {
+            HeapPage full = new HeapPage(pid, HeapPage.createEmptyPageData());
+            while (full.getNumEmptySlots() > 0)
+                full.insertTuple(Utility.getHeapTuple(new int[] { r.nextInt(), r.nextInt() }));
+            chf.writePage(full);
+            assertArrayEquals(full.getPageData(), chf.readPage(pid).getPageData());
+            chf.writePage(empty);
+            assertArrayEquals(empty.getPageData(), chf.readPage(pid).getPageData());
+        }
+        long size = chf.getDataSize();
+        assertTrue(size <= 3 * BufferPool.getPageSize());
+        assertEquals(size - PageCodec.compress(empty.getPageData(), td).length, chf.getFreeBytes());
+
+        CompressedHeapFile reopened = new CompressedHeapFile(f, td);
+        assertEquals(chf.getFreeBytes(), reopened.getFreeBytes());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(CompressedHeapFileTest.class);
+    }
+}
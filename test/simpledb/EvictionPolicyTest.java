@@ -0,0 +1,151 @@
+package simpledb;
+
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class EvictionPolicyTest extends SimpleDbTestBase {
+
+    private static final EvictionPolicy.Filter ALL = new EvictionPolicy.Filter() {
+        public boolean evictable(PageId pid) {
+            return true;
+        }
+    };
+
+    private static PageId pid(int n) {
+        return new HeapPageId(1, n);
+    }
+
+    /** CLOCK evicts the first page the hand finds unreferenced. */
+    @Test public void clock() {
+        EvictionPolicy p = new ClockPolicy();
+        for (int i = 1; i <= 4; i++)
+            p.pageAdded(pid(i));
+        assertEquals(pid(1), p.chooseVictim(ALL));
+        p.pageRemoved(pid(1));
+        p.pageAccessed(pid(2));
+        assertEquals(pid(3), p.chooseVictim(ALL));
+    }
+
+    /**
+     * LRU-2 evicts pages seen once before pages seen twice, and remembers
+     * the history of evicted pages.
+     */
+    @Test public void lruK() {
+        EvictionPolicy p = new LruKPolicy(2, 8);
+        for (int i = 1; i <= 3; i++)
+            p.pageAdded(pid(i));
+        p.pageAccessed(pid(1));
+        p.pageAccessed(pid(3));
+        assertEquals(pid(2), p.chooseVictim(ALL));
+        p.pageRemoved(pid(2));
+
+        p.pageAdded(pid(4));
+        assertEquals(pid(4), p.chooseVictim(ALL));
+        EvictionPolicy.Filter not4 = new EvictionPolicy.Filter() {
+            public boolean evictable(PageId pid) {
+                return !pid.equals(pid(4));
+            }
+        };
+        assertEquals(pid(1), p.chooseVictim(not4));
+
+        p.pageRemoved(pid(1));
+        p.pageAdded(pid(1));
+        assertEquals(pid(4), p.chooseVictim(ALL));
+    }
+
+    /** 2Q admits a page to Am only when it returns while in A1out. */
+    @Test public void twoQueue() {
+        EvictionPolicy p = new TwoQueuePolicy(8);
+        for (int i = 1; i <= 3; i++)
+            p.pageAdded(pid(i));
+        assertEquals(pid(1), p.chooseVictim(ALL));
+        p.pageRemoved(pid(1));
+        p.pageAdded(pid(1));
+        p.pageAdded(pid(4));
+        assertEquals(pid(2), p.chooseVictim(ALL));
+        p.pageRemoved(pid(2));
+        p.pageRemoved(pid(3));
+        // A1in is within its share, so the LRU page of Am goes
+        assertEquals(pid(1), p.chooseVictim(ALL));
+    }
+
+    /**
+     * With LRU-K and 2Q, a hot set of pages stays cached while a scan of a
+     * table larger than the pool runs between its accesses.
+     */
+    @Test public void scanResistance() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 100000, null, null);
+        int numPages = hf.numPages();
+        assertTrue(numPages > 170);
+        TransactionId tid = new TransactionId();
+        for (String name : new String[] { "lru-k", "2q" }) {
+            BufferPool bp = new BufferPool(20, BufferPool.createPolicy(name, 20));
+            int next = 5;
+            for (int round = 0; round < 20; round++) {
+                long misses = bp.getMissCount();
+                for (int i = 0; i < 5; i++)
+                    bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY);
+                if (round >= 10)
+                    assertEquals(name, misses, bp.getMissCount());
+                for (int i = 0; i < 8; i++, next++)
+                    bp.getPage(tid, new HeapPageId(hf.getId(), next), Permissions.READ_ONLY);
+            }
+            assertTrue(next <= numPages);
+        }
+    }
+
+    /**
+     * Clean pages are evicted before dirty ones, and flushed pages stay
+     * cached.
+     */
+    @Test public void dirtyPages() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 10000, null, tuples);
+        BufferPool bp = Database.resetBufferPool(4);
+        TransactionId tid = new TransactionId();
+        HeapPageId first = new HeapPageId(hf.getId(), 0);
+        HeapPage page = (HeapPage) bp.getPage(tid, first, Permissions.READ_WRITE);
+        Tuple t = page.iterator().next();
+        bp.deleteTuple(tid, t);
+        assertNotNull(bp.peekPage(first).isDirty());
+
+        for (int i = 1; i < hf.numPages(); i++)
+            bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY);
+        assertNotNull(bp.peekPage(first).isDirty());
+
+        bp.flushAllPages();
+        assertNull(bp.peekPage(first).isDirty());
+        long reads = hf.getChannel().getReadCount();
+        bp.getPage(tid, first, Permissions.READ_ONLY);
+        assertEquals(reads, hf.getChannel().getReadCount());
+        assertEquals(tuples.size() - 1, HeapPage.getNumTuples(hf.getTupleDesc()) * hf.numPages()
+                - countEmpty(bp, hf, tid));
+    }
+
+    /** @return the number of empty slots in the file, read through bp */
+    private static int countEmpty(BufferPool bp, HeapFile hf, TransactionId tid) throws Exception {
+        int n = 0;
+        for (int i = 0; i < hf.numPages(); i++)
+            n += ((HeapPage) bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY)).getNumEmptySlots();
+        return n;
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownPolicy() {
+        BufferPool.createPolicy("mru", 10);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(EvictionPolicyTest.class);
+    }
+}
@@ -0,0 +1,148 @@
+package simpledb;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class HashIndexFileTest extends SimpleDbTestBase {
+    private static final int ROWS = 10000;
+
+    private ArrayList<ArrayList<Integer>> tuples;
+    private HeapFile hf;
+    private String name;
+    private HashIndexFile index;
+    private TransactionId tid;
+
+    /**
+     * Set up initial resources for each unit test: a table of ROWS rows with
+     * a hash index on its first field.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tuples = new ArrayList<ArrayList<Integer>>();
+        hf = SystemTestUtil.createRandomHeapFile(2, ROWS, 1000000, null, tuples, "c");
+        name = SystemTestUtil.getUUID();
+        Database.getCatalog().addTable(hf, name);
+        File f = File.createTempFile("hash", ".dat");
+        f.deleteOnExit();
+        new File(f.getPath() + ".hdir").deleteOnExit();
+        index = new HashIndexFile(f, hf, 0);
+        Database.getCatalog().addIndex(index, SystemTestUtil.getUUID());
+        tid = new TransactionId();
+        Database.getBufferPool().buildIndex(tid, index);
+        Database.getBufferPool().flushAllPages();
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    }
+
+    /** @return the number of rows whose first field is key */
+    private int count(int key) {
+        int n = 0;
+        for (ArrayList<Integer> row : tuples)
+            if (row.get(0) == key)
+                n++;
+        return n;
+    }
+
+    /**
+     * Each lookup finds the RecordIds of exactly the tuples with its key,
+     * reading a single bucket page.
+     */
+    @Test public void lookup() throws Exception {
+        assertTrue(index.getGlobalDepth() > 0);
+        for (int i = 0; i < ROWS; i += 97) {
+            int key = tuples.get(i).get(0);
+            long before = index.getChannel().getReadCount();
+            ArrayList<RecordId> rids = index.lookup(tid, new IntField(key));
+            assertTrue(index.getChannel().getReadCount() - before <= 1);
+            assertEquals(count(key), rids.size());
+            for (RecordId rid : rids) {
+                HeapPage p = (HeapPage) Database.getBufferPool().getPage(tid, rid.getPageId(), Permissions.READ_ONLY);
+                assertEquals(key, ((IntField) p.getTuple(rid.tupleno()).getField(0)).getValue());
+            }
+        }
+        assertEquals(0, index.lookup(tid, new IntField(-1)).size());
+    }
+
+    /**
+     * Many copies of one key overflow their bucket rather than splitting it
+     * forever, and can all be found and deleted.
+     */
+    @Test public void duplicates() throws Exception {
+        for (int i = 0; i < 2000; i++)
+            Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[] { -5, i }));
+        IndexScan scan = new IndexScan(tid, index, new IndexPredicate(Predicate.Op.EQUALS, new IntField(-5)), "t");
+        scan.open();
+        ArrayList<Tuple> found = new ArrayList<Tuple>();
+        while (scan.hasNext())
+            found.add(scan.next());
+        scan.close();
+        assertEquals(2000, found.size());
+        assertTrue(index.getGlobalDepth() <= HashIndexFile.MAX_DEPTH);
+
+        for (Tuple t : found)
+            Database.getBufferPool().deleteTuple(tid, t);
+        assertEquals(0, index.lookup(tid, new IntField(-5)).size());
+        int key = tuples.get(0).get(0);
+        assertEquals(count(key), index.lookup(tid, new IntField(key)).size());
+    }
+
+    /**
+     * The directory survives reopening the index.
+     */
+    @Test public void reopen() throws Exception {
+        HashIndexFile reopened = new HashIndexFile(index.getFile(), hf, 0);
+        Database.getCatalog().addIndex(reopened, SystemTestUtil.getUUID());
+        assertEquals(index.getGlobalDepth(), reopened.getGlobalDepth());
+        int key = tuples.get(ROWS / 2).get(0);
+        assertEquals(count(key), reopened.lookup(tid, new IntField(key)).size());
+    }
+
+    /**
+     * The planner answers an equality filter on the indexed field with an
+     * index scan instead of reading the whole table.
+     */
+    @Test public void planEquality() throws Exception {
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put(name, new TableStats(hf.getId(), 1));
+        int key = tuples.get(ROWS / 3).get(0);
+
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(hf.getId(), "h");
+        lp.addFilter("h.c0", Predicate.Op.EQUALS, Integer.toString(key));
+        lp.addProjectField("h.c1", null);
+        DbIterator plan = lp.physicalPlan(tid, stats, false);
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        long before = hf.getChannel().getReadCount();
+        plan.open();
+        HashSet<Integer> seen = new HashSet<Integer>();
+        while (plan.hasNext())
+            seen.add(((IntField) plan.next().getField(0)).getValue());
+        plan.close();
+        long reads = hf.getChannel().getReadCount() - before;
+
+        HashSet<Integer> expected = new HashSet<Integer>();
+        for (ArrayList<Integer> row : tuples)
+            if (row.get(0) == key)
+                expected.add(row.get(1));
+        assertEquals(expected, seen);
+        assertTrue(reads <= expected.size());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HashIndexFileTest.class);
+    }
+}
@@ -0,0 +1,136 @@
+package simpledb;
+
+import java.io.File;
+import java.util.ArrayList;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class HeapFileExtentTest extends SimpleDbTestBase {
+    private File f;
+    private HeapFile hf;
+    private TransactionId tid;
+    private int pageSize;
+    private int perPage;
+
+    /** Registers a heap file over f with two int fields and 8-page extents. */
+    private HeapFile open() {
+        HeapFile file = new HeapFile(f, Utility.getTupleDesc(2, "c"));
+        file.setExtentPages(8);
+        Database.getCatalog().addTable(file, SystemTestUtil.getUUID());
+        return file;
+    }
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        f = File.createTempFile("extent", ".dat");
+        f.deleteOnExit();
+        ZoneMap.fileFor(f).deleteOnExit();
+        hf = open();
+        tid = new TransactionId();
+        pageSize = BufferPool.getPageSize();
+        perPage = HeapPage.getNumTuples(hf.getTupleDesc());
+    }
+
+    /** Inserts keys [from, to) one tuple at a time. */
+    private void insert(int from, int to) throws Exception {
+        for (int i = from; i < to; i++)
+            Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[] { i, 0 }));
+    }
+
+    /** @return the number of tuples in file */
+    private int count(HeapFile file) throws Exception {
+        DbFileIterator it = file.iterator(tid);
+        int n = 0;
+        it.open();
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        it.close();
+        return n;
+    }
+
+    /**
+     * The file grows a whole extent at a time, but only the pages in use
+     * are counted and scanned, also after the file is reopened.
+     */
+    @Test public void growByExtents() throws Exception {
+        insert(0, 9 * perPage + 1);
+        Database.getBufferPool().flushAllPages();
+        assertEquals(10, hf.numPages());
+        assertEquals(16L * pageSize, f.length());
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        long before = hf.getChannel().getReadCount();
+        assertEquals(9 * perPage + 1, count(hf));
+        assertTrue(hf.getChannel().getReadCount() - before <= 10);
+        try {
+            hf.readPage(new HeapPageId(hf.getId(), 10));
+            fail("expected an IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+
+        // the high-water mark is found again on reopening, and new pages
+        // go right after it
+        hf = open();
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        assertEquals(10, hf.numPages());
+        insert(9 * perPage + 1, 10 * perPage + 1);
+        Database.getBufferPool().flushAllPages();
+        assertEquals(11, hf.numPages());
+        assertEquals(16L * pageSize, f.length());
+        assertEquals(10 * perPage + 1, count(hf));
+    }
+
+    /**
+     * Batch appends fill the rest of their extent with the same write, and
+     * truncating the file gives the preallocated space back.
+     */
+    @Test public void batchesAndTruncation() throws Exception {
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        for (int i = 0; i < 3 * perPage; i++)
+            tuples.add(Utility.getHeapTuple(new int[] { i, 0 }));
+        long writes = hf.getChannel().getWriteCount();
+        Database.getBufferPool().insertTuples(tid, hf.getId(), tuples);
+        assertEquals(1, hf.getChannel().getWriteCount() - writes);
+        assertEquals(3, hf.numPages());
+        assertEquals(8L * pageSize, f.length());
+
+        ArrayList<Tuple> doomed = new ArrayList<Tuple>();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            if (t.getRecordId().getPageId().pageNumber() == 2)
+                doomed.add(t);
+        }
+        it.close();
+        for (Tuple t : doomed)
+            Database.getBufferPool().deleteTuple(tid, t);
+        Database.getBufferPool().flushAllPages();
+        assertEquals(1, hf.truncateEmptyPages());
+        assertEquals(2, hf.numPages());
+        assertEquals(2L * pageSize, f.length());
+
+        hf.setExtentPages(1);
+        insert(0, perPage);
+        Database.getBufferPool().flushAllPages();
+        assertEquals(3, hf.numPages());
+        assertEquals(3L * pageSize, f.length());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HeapFileExtentTest.class);
+    }
+}
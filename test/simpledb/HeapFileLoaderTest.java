@@ -0,0 +1,115 @@
+package simpledb;
+
+import java.io.*;
+import java.util.Random;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class HeapFileLoaderTest extends SimpleDbTestBase {
+
+    private static final Type[] TYPES = { Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE };
+
+    private static byte[] readAll(File f) throws IOException {
+        byte[] b = new byte[(int) f.length()];
+        DataInputStream in = new DataInputStream(new FileInputStream(f));
+        in.readFully(b);
+        in.close();
+        return b;
+    }
+
+    private static File writeInput(String text) throws IOException {
+        File f = File.createTempFile("loader", ".txt");
+        f.deleteOnExit();
+        Writer w = new FileWriter(f);
+        w.write(text);
+        w.close();
+        return f;
+    }
+
+    /** Loads the input both ways and checks the outputs are identical. */
+    private void checkSame(String text, int chunkBytes) throws IOException {
+        checkSame(text, text, chunkBytes);
+    }
+
+    /**
+     * Checks that the loader's output for text is the encoder's output for
+     * encoderText.
+     */
+    private void checkSame(String text, String encoderText, int chunkBytes) throws IOException {
+        File in = writeInput(text);
+        File encoderIn = writeInput(encoderText);
+        File expected = File.createTempFile("encoder", ".dat");
+        expected.deleteOnExit();
+        File actual = File.createTempFile("loader", ".dat");
+        actual.deleteOnExit();
+
+        HeapFileEncoder.convert(encoderIn, expected, BufferPool.getPageSize(), TYPES.length, TYPES, ',');
+        HeapFileLoader.load(in, actual, BufferPool.getPageSize(), TYPES, ',', 4, chunkBytes);
+        assertArrayEquals(readAll(expected), readAll(actual));
+    }
+
+    /**
+     * Many small chunks spread over several pages and write batches produce
+     * the same file as HeapFileEncoder.
+     */
+    @Test public void matchesEncoder() throws Exception {
+        Random r = new Random(6830);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 20000; i++) {
+            sb.append(r.nextInt()).append(',');
+            sb.append(' ').append(Long.toString(r.nextLong(), 36)).append("  ,");
+            sb.append(r.nextInt(1000) - 500);
+            sb.append(i % 7 == 0 ? "\r\n" : "\n");
+            if (i % 1000 == 0)
+                sb.append('\n');
+        }
+        checkSame(sb.toString(), 4096);
+    }
+
+    /** Long strings are truncated just as HeapFileEncoder truncates them. */
+    @Test public void longStrings() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            sb.append(i).append(',');
+            for (int j = 0; j < Type.STRING_LEN + i; j++)
+                sb.append((char) ('a' + j % 26));
+            sb.append(',').append(-i).append('\n');
+        }
+        // chunks shorter than a line force the loader to grow its buffer
+        checkSame(sb.toString(), 16);
+    }
+
+    /**
+     * A malformed integer is stored as 0, so the loader's output is the
+     * encoder's for the line with 0 in its place.
+     */
+    @Test public void malformedInt() throws Exception {
+        checkSame("1,a,2\n3,b,4x\n", "1,a,2\n3,b,0\n", 1024);
+        checkSame("1,a,2\n3,b,4x\n5,c,6\n", "1,a,2\n3,b,0\n5,c,6\n", 1024);
+        checkSame("1,a,2\n-,b,4\n5,c,6\n", "1,a,2\n0,b,4\n5,c,6\n", 1024);
+    }
+
+    @Test public void emptyInput() throws Exception {
+        checkSame("", 1024);
+    }
+
+    @Test(expected = IOException.class)
+    public void wrongFieldCount() throws Exception {
+        File in = writeInput("1,a,2\n3,b\n");
+        File out = File.createTempFile("loader", ".dat");
+        out.deleteOnExit();
+        HeapFileLoader.load(in, out, BufferPool.getPageSize(), TYPES, ',', 2, 1024);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HeapFileLoaderTest.class);
+    }
+}
@@ -1,5 +1,7 @@
 package simpledb;
 
+import java.util.ArrayList;
+
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -43,6 +45,98 @@ public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
         assertEquals(3, empty.numPages());
     }
 
+    /**
+     * Unit test for the free-space map: a slot freed by a delete is reused
+     * by the next insert, and the map tracks every page.
+     */
+    @Test public void reuseFreedSlot() throws Exception {
+        Tuple[] added = new Tuple[504 * 3];
+        for (int i = 0; i < added.length; ++i) {
+            added[i] = Utility.getHeapTuple(i, 2);
+            empty.insertTuple(tid, added[i]);
+        }
+        assertEquals(3, empty.numPages());
+        assertEquals(-1, empty.getFreeSpaceMap().findPage());
+
+        empty.deleteTuple(tid, added[504 + 7]);
+        assertEquals(1, empty.getFreeSpaceMap().getFreeSlots(1));
+        assertEquals(1, empty.getFreeSpaceMap().findPage());
+
+        Tuple t = Utility.getHeapTuple(-1, 2);
+        empty.insertTuple(tid, t);
+        assertEquals(1, t.getRecordId().getPageId().pageNumber());
+        assertEquals(3, empty.numPages());
+        assertEquals(-1, empty.getFreeSpaceMap().findPage());
+    }
+
+    /**
+     * Pages appended straight to disk, by insertTuple and insertTuples, get
+     * update records in the log like pages the BufferPool writes back.
+     */
+    @Test public void appendsLogged() throws Exception {
+        // fill the file's one page, through the pool
+        for (int i = 0; i < 504; ++i)
+            empty.insertTuple(tid, Utility.getHeapTuple(i, 2));
+        LogFile log = Database.getLogFile();
+        int records = log.getTotalRecords();
+        empty.insertTuple(tid, Utility.getHeapTuple(0, 2));
+        assertEquals(2, empty.numPages());
+        assertEquals(records + 1, log.getTotalRecords());
+
+        ArrayList<Tuple> batch = new ArrayList<Tuple>();
+        for (int i = 0; i < 504 * 3; ++i)
+            batch.add(Utility.getHeapTuple(i, 2));
+        empty.insertTuples(tid, batch);
+        assertEquals(5, empty.numPages());
+        assertEquals(records + 4, log.getTotalRecords());
+    }
+
+    /**
+     * Single inserts that append pages and a bulk insert running at the
+     * same time never pick the same page number, so no tuple is lost.
+     */
+    @Test public void concurrentAppends() throws Exception {
+        for (int i = 0; i < 504; ++i)
+            empty.insertTuple(tid, Utility.getHeapTuple(i, 2));
+        final int singles = 504 * 10;
+        final ArrayList<Throwable> errors = new ArrayList<Throwable>();
+        Thread inserter = new Thread() {
+            public void run() {
+                try {
+                    for (int i = 0; i < singles; ++i)
+                        empty.insertTuple(tid, Utility.getHeapTuple(i, 2));
+                } catch (Throwable e) {
+                    synchronized (errors) {
+                        errors.add(e);
+                    }
+                }
+            }
+        };
+        inserter.start();
+        int batches = 0;
+        while (inserter.isAlive()) {
+            ArrayList<Tuple> batch = new ArrayList<Tuple>();
+            for (int i = 0; i < 504; ++i)
+                batch.add(Utility.getHeapTuple(i, 2));
+            empty.insertTuples(tid, batch);
+            batches++;
+        }
+        inserter.join();
+        assertTrue(errors.isEmpty());
+        Database.getBufferPool().flushAllPages();
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+
+        int count = 0;
+        DbFileIterator it = empty.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        it.close();
+        assertEquals(504 + singles + 504 * batches, count);
+    }
+
     /**
      * JUnit suite target
      */
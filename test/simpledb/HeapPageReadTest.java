@@ -10,6 +10,7 @@ import java.util.*;
 
 import org.junit.Before;
 import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
@@ -123,6 +124,22 @@ public class HeapPageReadTest extends SimpleDbTestBase {
             assertFalse(page.isSlotUsed(i));
     }
 
+    /**
+     * Unit test for HeapPage.getPageData() on a page whose tuples are lazy
+     * views, including one that was modified after being read.
+     */
+    @Test public void getPageDataFromViews() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        assertArrayEquals(EXAMPLE_DATA, page.getPageData());
+
+        Tuple t = page.iterator().next();
+        t.setField(1, new IntField(-1));
+        HeapPage reread = new HeapPage(pid, page.getPageData());
+        Tuple u = reread.iterator().next();
+        assertEquals(t.getField(0), u.getField(0));
+        assertEquals(new IntField(-1), u.getField(1));
+    }
+
     /**
      * JUnit suite target
      */
@@ -0,0 +1,77 @@
+package simpledb;
+
+import java.io.File;
+import java.util.ArrayList;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class MappedHeapFileTest extends SimpleDbTestBase {
+    private ArrayList<ArrayList<Integer>> tuples;
+    private MappedHeapFile mhf;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tuples = new ArrayList<ArrayList<Integer>>();
+        File f = SystemTestUtil.createRandomHeapFileUnopened(2, 1500, 1 << 16, null, tuples);
+        mhf = new MappedHeapFile(f, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(mhf, SystemTestUtil.getUUID());
+    }
+
+    /**
+     * Pages built from the mapping match pages read with HeapFile.
+     */
+    @Test public void readPage() throws Exception {
+        HeapFile hf = new HeapFile(mhf.getFile(), Utility.getTupleDesc(2));
+        for (int i = 0; i < mhf.numPages(); i++) {
+            HeapPageId pid = new HeapPageId(mhf.getId(), i);
+            assertArrayEquals(((HeapPage) hf.readPage(pid)).getPageData(),
+                    ((HeapPage) mhf.readPage(pid)).getPageData());
+        }
+        hf.close();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void readMissingPage() throws Exception {
+        mhf.readPage(new HeapPageId(mhf.getId(), mhf.numPages()));
+    }
+
+    /**
+     * The mapping follows the file as inserts grow it.
+     */
+    @Test public void scanAfterGrowth() throws Exception {
+        SystemTestUtil.matchTuples(mhf, tuples);
+
+        TransactionId tid = new TransactionId();
+        int before = mhf.numPages();
+        for (int i = 0; i < 1200; i++) {
+            Tuple t = Utility.getHeapTuple(new int[] { i, -i });
+            Database.getBufferPool().insertTuple(tid, mhf.getId(), t);
+            ArrayList<Integer> row = new ArrayList<Integer>();
+            row.add(i);
+            row.add(-i);
+            tuples.add(row);
+        }
+        Database.getBufferPool().flushAllPages();
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        assertTrue(mhf.numPages() > before);
+
+        SystemTestUtil.matchTuples(mhf, tuples);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(MappedHeapFileTest.class);
+    }
+}
@@ -0,0 +1,75 @@
+package simpledb;
+
+import java.io.File;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class PageChannelTest {
+    private File f;
+
+    @Before public void setUp() throws Exception {
+        f = File.createTempFile("pagechannel", ".dat");
+        f.deleteOnExit();
+    }
+
+    /**
+     * Pages written through the channel read back identically, and the file
+     * is opened only once for many accesses.
+     */
+    @Test public void readWriteRoundTrip() throws Exception {
+        PageChannel ch = new PageChannel(f);
+        int pageSize = BufferPool.getPageSize();
+        for (int i = 0; i < 4; i++) {
+            byte[] data = new byte[pageSize];
+            data[0] = (byte) i;
+            data[pageSize - 1] = (byte) (i + 1);
+            ch.writePage(i, data);
+        }
+        assertEquals(4L * pageSize, ch.size());
+
+        for (int i = 3; i >= 0; i--) {
+            byte[] data = ch.readPage(i, pageSize);
+            assertEquals((byte) i, data[0]);
+            assertEquals((byte) (i + 1), data[pageSize - 1]);
+        }
+        assertNull(ch.readPage(4, pageSize));
+
+        assertEquals(1, ch.getOpenCount());
+        assertEquals(4, ch.getWriteCount());
+        assertEquals(5, ch.getReadCount());
+    }
+
+    /**
+     * A closed channel reopens itself on the next access.
+     */
+    @Test public void reopenAfterClose() throws Exception {
+        PageChannel ch = new PageChannel(f);
+        int pageSize = BufferPool.getPageSize();
+        ch.writePage(0, new byte[pageSize]);
+        ch.close();
+        assertNotNull(ch.readPage(0, pageSize));
+        assertEquals(2, ch.getOpenCount());
+        ch.close();
+    }
+
+    /**
+     * Asking for the size of a missing file does not create it.
+     */
+    @Test public void sizeOfMissingFile() throws Exception {
+        File missing = new File(f.getPath() + ".missing");
+        PageChannel ch = new PageChannel(missing);
+        assertEquals(0, ch.size());
+        assertFalse(missing.exists());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageChannelTest.class);
+    }
+}
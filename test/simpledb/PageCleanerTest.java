@@ -0,0 +1,305 @@
+package simpledb;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class PageCleanerTest extends SimpleDbTestBase {
+
+    private static PageId pid(HeapFile hf, int pageNo) {
+        return new HeapPageId(hf.getId(), pageNo);
+    }
+
+    /** Deletes the first tuple of each of the given pages through the pool. */
+    private static void dirty(BufferPool bp, HeapFile hf, TransactionId tid, int... pageNos) throws Exception {
+        for (int p : pageNos) {
+            HeapPage page = (HeapPage) bp.getPage(tid, pid(hf, p), Permissions.READ_ONLY);
+            bp.deleteTuple(tid, page.iterator().next());
+        }
+    }
+
+    private static int[] range(int from, int to) {
+        int[] out = new int[to - from];
+        for (int i = from; i < to; i++)
+            out[i - from] = i;
+        return out;
+    }
+
+    /**
+     * Past the dirty target, the longest run of dirty pages is written back
+     * first and in one write, after its update records reach the log.
+     */
+    @Test public void sequentialRuns() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504 * 50, null, null);
+        BufferPool bp = Database.resetBufferPool(64);
+        bp.stopCleaner();
+        TransactionId tid = new TransactionId();
+        dirty(bp, hf, tid, range(0, 10));
+        dirty(bp, hf, tid, 20, 30, 40);
+
+        long writes = hf.getChannel().getWriteCount();
+        int records = Database.getLogFile().getTotalRecords();
+        bp.setDirtyTarget(0.1);
+        assertEquals(10, bp.cleanDirtyPages());
+        assertEquals(10, bp.getCleanerWriteCount());
+        assertEquals(writes + 1, hf.getChannel().getWriteCount());
+        assertEquals(records + 10, Database.getLogFile().getTotalRecords());
+        for (int p = 0; p < 10; p++) {
+            assertNull(bp.peekPage(pid(hf, p)).isDirty());
+            assertEquals(1, ((HeapPage) hf.readPage(pid(hf, p))).getNumEmptySlots());
+        }
+        for (int p : new int[] { 20, 30, 40 })
+            assertNotNull(bp.peekPage(pid(hf, p)).isDirty());
+    }
+
+    /** Pages cleaned ahead of time spare evictions their writes. */
+    @Test public void evictionsFindCleanPages() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504 * 20, null, null);
+        TransactionId tid = new TransactionId();
+        for (double target : new double[] { 1, 0.25 }) {
+            BufferPool bp = Database.resetBufferPool(8);
+            bp.stopCleaner();
+            bp.setDirtyTarget(target);
+            dirty(bp, hf, tid, range(0, 8));
+            for (int p = 8; p < 16; p++) {
+                bp.cleanDirtyPages();
+                dirty(bp, hf, tid, p);
+            }
+            assertEquals(target == 1 ? 8 : 0, bp.getEvictionWriteCount());
+        }
+    }
+
+    /** The background thread brings the pool under its target by itself. */
+    @Test public void background() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504 * 20, null, null);
+        BufferPool bp = Database.resetBufferPool(20);
+        bp.setDirtyTarget(0.25);
+        TransactionId tid = new TransactionId();
+        dirty(bp, hf, tid, range(0, 20));
+        for (int i = 0; i < 200 && bp.getCleanerWriteCount() < 15; i++)
+            Thread.sleep(PageCleaner.INTERVAL_MILLIS);
+        assertTrue(bp.getCleanerWriteCount() >= 15);
+        int dirtyPages = 0;
+        for (int p = 0; p < 20; p++)
+            if (bp.peekPage(pid(hf, p)).isDirty() != null)
+                dirtyPages++;
+        assertTrue(dirtyPages <= 5);
+    }
+
+    /** Each pool has its own cleaner, stopped when the pool is replaced. */
+    @Test public void cleanerPerPool() throws Exception {
+        BufferPool first = Database.resetBufferPool(8);
+        assertTrue(first.isCleanerRunning());
+        BufferPool second = Database.resetBufferPool(8);
+        assertFalse(first.isCleanerRunning());
+        assertTrue(second.isCleanerRunning());
+
+        BufferPool own = new BufferPool(8);
+        assertFalse(own.isCleanerRunning());
+        own.startCleaner();
+        assertTrue(own.isCleanerRunning());
+        own.stopCleaner();
+        assertFalse(own.isCleanerRunning());
+    }
+
+    /**
+     * The cleaner runs flat out against inserts into a table and its hash
+     * index without ever writing or logging a page in the middle of a
+     * change, and every tuple reaches disk.
+     */
+    @Test public void concurrentInserts() throws Exception {
+        final HeapFile hf = SystemTestUtil.createEmptyHeapFile(Utility.getTupleDesc(2, "c"));
+        File idx = File.createTempFile("hash", ".dat");
+        idx.deleteOnExit();
+        new File(idx.getPath() + ".hdir").deleteOnExit();
+        HashIndexFile index = new HashIndexFile(idx, hf, 0);
+        Database.getCatalog().addIndex(index, SystemTestUtil.getUUID());
+        final BufferPool bp = Database.resetBufferPool(64);
+        bp.setDirtyTarget(0);
+
+        final int rows = 504 * 20;
+        final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+        Thread inserter = new Thread() {
+            public void run() {
+                try {
+                    TransactionId tid = new TransactionId();
+                    for (int i = 0; i < rows; i++)
+                        bp.insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[] { i, -i }));
+                } catch (Throwable e) {
+                    errors.add(e);
+                }
+            }
+        };
+        inserter.start();
+        while (inserter.isAlive()) {
+            try {
+                bp.cleanDirtyPages();
+            } catch (Throwable e) {
+                errors.add(e);
+            }
+        }
+        inserter.join();
+        assertEquals(Collections.<Throwable>emptyList(), errors);
+        assertTrue(bp.getCleanerWriteCount() > 0);
+
+        bp.flushAllPages();
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId tid = new TransactionId();
+        boolean[] seen = new boolean[rows];
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            int key = ((IntField) it.next().getField(0)).getValue();
+            assertFalse(seen[key]);
+            seen[key] = true;
+        }
+        it.close();
+        for (int i = 0; i < rows; i++) {
+            assertTrue(seen[i]);
+            assertEquals(1, index.lookup(tid, new IntField(i)).size());
+        }
+    }
+
+    /**
+     * Slotted pages are pinned while tuples go in, so the cleaner running
+     * flat out never writes one in the middle of an insert.
+     */
+    @Test public void concurrentSlottedInserts() throws Exception {
+        final TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE });
+        File f = File.createTempFile("slotted", ".dat");
+        f.deleteOnExit();
+        final SlottedHeapFile shf = new SlottedHeapFile(f, td);
+        Database.getCatalog().addTable(shf, SystemTestUtil.getUUID());
+        final BufferPool bp = Database.resetBufferPool(64);
+        bp.setDirtyTarget(0);
+
+        final int rows = 20000;
+        final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+        Thread inserter = new Thread() {
+            public void run() {
+                try {
+                    TransactionId tid = new TransactionId();
+                    for (int i = 0; i < rows; i++) {
+                        Tuple t = new Tuple(td);
+                        t.setField(0, new IntField(i));
+                        t.setField(1, new StringField("row " + i, Type.STRING_LEN));
+                        bp.insertTuple(tid, shf.getId(), t);
+                    }
+                } catch (Throwable e) {
+                    errors.add(e);
+                }
+            }
+        };
+        inserter.start();
+        while (inserter.isAlive()) {
+            try {
+                bp.cleanDirtyPages();
+            } catch (Throwable e) {
+                errors.add(e);
+            }
+        }
+        inserter.join();
+        assertEquals(Collections.<Throwable>emptyList(), errors);
+        assertTrue(bp.getCleanerWriteCount() > 0);
+
+        bp.flushAllPages();
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        boolean[] seen = new boolean[rows];
+        DbFileIterator it = shf.iterator(new TransactionId());
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            int key = ((IntField) t.getField(0)).getValue();
+            assertFalse(seen[key]);
+            seen[key] = true;
+            assertEquals("row " + key, ((StringField) t.getField(1)).getValue());
+        }
+        it.close();
+        for (int i = 0; i < rows; i++)
+            assertTrue(seen[i]);
+    }
+
+    /** A dirty slotted page is not written while an insert into it is under way. */
+    @Test public void slottedPagePinnedDuringInsert() throws Exception {
+        final TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE });
+        File f = File.createTempFile("slotted", ".dat");
+        f.deleteOnExit();
+        final SlottedHeapFile shf = new SlottedHeapFile(f, td);
+        Database.getCatalog().addTable(shf, SystemTestUtil.getUUID());
+        final BufferPool bp = Database.resetBufferPool(64);
+        final TransactionId tid = new TransactionId();
+        final Tuple first = new Tuple(td);
+        first.setField(0, new IntField(0));
+        first.setField(1, new StringField("a", Type.STRING_LEN));
+        bp.insertTuple(tid, shf.getId(), first);
+        PageId pid = new HeapPageId(shf.getId(), 0);
+        assertNotNull(bp.peekPage(pid).isDirty());
+
+        // the insert stops halfway, inside the encoding of its record
+        final Object gate = new Object();
+        final boolean[] state = new boolean[2]; // { inside, released }
+        final Tuple t = new Tuple(td);
+        t.setField(0, new IntField(1) {
+            public void serialize(DataOutputStream dos) throws IOException {
+                synchronized (gate) {
+                    state[0] = true;
+                    gate.notifyAll();
+                    while (!state[1]) {
+                        try {
+                            gate.wait();
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                    }
+                }
+                super.serialize(dos);
+            }
+        });
+        t.setField(1, new StringField("b", Type.STRING_LEN));
+        final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+        Thread inserter = new Thread() {
+            public void run() {
+                try {
+                    bp.insertTuple(tid, shf.getId(), t);
+                } catch (Throwable e) {
+                    errors.add(e);
+                }
+            }
+        };
+        inserter.start();
+        synchronized (gate) {
+            while (!state[0])
+                gate.wait();
+        }
+        bp.setDirtyTarget(0);
+        bp.cleanDirtyPages();
+        assertEquals(1, bp.getPinCount(pid));
+        assertNotNull(bp.peekPage(pid).isDirty());
+        synchronized (gate) {
+            state[1] = true;
+            gate.notifyAll();
+        }
+        inserter.join();
+        assertEquals(Collections.<Throwable>emptyList(), errors);
+        assertEquals(0, bp.getPinCount(pid));
+        assertEquals(2, ((SlottedPage) bp.peekPage(pid)).getNumTuples());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageCleanerTest.class);
+    }
+}
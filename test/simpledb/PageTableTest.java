@@ -0,0 +1,138 @@
+package simpledb;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class PageTableTest extends SimpleDbTestBase {
+
+    /** Counts page reads, and makes each one slow. */
+    static class SlowHeapFile extends HeapFile {
+        final AtomicInteger reads = new AtomicInteger();
+
+        SlowHeapFile(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        @Override
+        public Page readPage(PageId pid) {
+            reads.incrementAndGet();
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return super.readPage(pid);
+        }
+    }
+
+    /** Runs the task on n threads at once; returns their results. */
+    private static <T> ArrayList<T> onThreads(int n, final Callable<T> task) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(n);
+        final CountDownLatch start = new CountDownLatch(1);
+        ArrayList<Future<T>> futures = new ArrayList<Future<T>>();
+        for (int i = 0; i < n; i++)
+            futures.add(pool.submit(new Callable<T>() {
+                public T call() throws Exception {
+                    start.await();
+                    return task.call();
+                }
+            }));
+        start.countDown();
+        ArrayList<T> out = new ArrayList<T>();
+        for (Future<T> f : futures)
+            out.add(f.get());
+        pool.shutdown();
+        return out;
+    }
+
+    /** Concurrent misses on one page read it from disk once. */
+    @Test public void singleFlight() throws Exception {
+        File f = SystemTestUtil.createRandomHeapFileUnopened(2, 504 * 4, 1000, null, null);
+        final SlowHeapFile hf = new SlowHeapFile(f, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        final BufferPool bp = Database.resetBufferPool(16);
+        final TransactionId tid = new TransactionId();
+        final PageId pid = new HeapPageId(hf.getId(), 2);
+
+        ArrayList<Page> got = onThreads(8, new Callable<Page>() {
+            public Page call() throws Exception {
+                return bp.getPage(tid, pid, Permissions.READ_ONLY);
+            }
+        });
+        assertEquals(1, hf.reads.get());
+        assertEquals(1, bp.getMissCount());
+        assertEquals(7, bp.getHitCount());
+        for (Page p : got)
+            assertSame(got.get(0), p);
+    }
+
+    /** A failed read is reported to every thread waiting for the page. */
+    @Test public void failedRead() throws Exception {
+        File f = SystemTestUtil.createRandomHeapFileUnopened(2, 504, 1000, null, null);
+        final SlowHeapFile hf = new SlowHeapFile(f, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        final BufferPool bp = Database.resetBufferPool(16);
+        final TransactionId tid = new TransactionId();
+        final PageId missing = new HeapPageId(hf.getId(), 5);
+
+        ArrayList<Boolean> failed = onThreads(4, new Callable<Boolean>() {
+            public Boolean call() throws Exception {
+                try {
+                    bp.getPage(tid, missing, Permissions.READ_ONLY);
+                    return false;
+                } catch (IllegalArgumentException e) {
+                    return true;
+                }
+            }
+        });
+        for (boolean b : failed)
+            assertTrue(b);
+        assertFalse(bp.containsPage(missing));
+    }
+
+    /**
+     * Threads reading more pages than the pool holds each get the page they
+     * asked for, and the pool stays within its size once they are done.
+     */
+    @Test public void concurrentEviction() throws Exception {
+        final HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504 * 64, null, null);
+        final BufferPool bp = Database.resetBufferPool(16);
+        final TransactionId tid = new TransactionId();
+        final int numPages = hf.numPages();
+
+        onThreads(8, new Callable<Void>() {
+            public Void call() throws Exception {
+                Random r = new Random();
+                for (int i = 0; i < 2000; i++) {
+                    PageId pid = new HeapPageId(hf.getId(), r.nextInt(numPages));
+                    assertEquals(pid, bp.getPage(tid, pid, Permissions.READ_ONLY).getId());
+                }
+                return null;
+            }
+        });
+        assertEquals(8 * 2000, bp.getHitCount() + bp.getMissCount());
+        int cached = 0;
+        for (int i = 0; i < numPages; i++)
+            if (bp.containsPage(new HeapPageId(hf.getId(), i)))
+                cached++;
+        assertTrue(cached <= 16 + 8);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageTableTest.class);
+    }
+}
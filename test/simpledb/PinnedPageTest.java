@@ -0,0 +1,137 @@
+package simpledb;
+
+import java.util.concurrent.*;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class PinnedPageTest extends SimpleDbTestBase {
+
+    private static PageId pid(HeapFile hf, int pageNo) {
+        return new HeapPageId(hf.getId(), pageNo);
+    }
+
+    /** A pinned page stays cached while many others pass through the pool. */
+    @Test public void pinnedNotEvicted() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504 * 20, null, null);
+        BufferPool bp = Database.resetBufferPool(4);
+        TransactionId tid = new TransactionId();
+        Page pinned = bp.pinPage(tid, pid(hf, 0), Permissions.READ_ONLY);
+        bp.pinPage(tid, pid(hf, 0), Permissions.READ_ONLY);
+        assertEquals(2, bp.getPinCount(pid(hf, 0)));
+        for (int i = 1; i < hf.numPages(); i++)
+            bp.getPage(tid, pid(hf, i), Permissions.READ_ONLY);
+        assertSame(pinned, bp.peekPage(pid(hf, 0)));
+
+        bp.unpinPage(pid(hf, 0));
+        bp.unpinPage(pid(hf, 0));
+        assertEquals(0, bp.getPinCount(pid(hf, 0)));
+        for (int i = 1; i < hf.numPages(); i++)
+            bp.getPage(tid, pid(hf, i), Permissions.READ_ONLY);
+        assertFalse(bp.containsPage(pid(hf, 0)));
+    }
+
+    /**
+     * A read that needs a frame while every page is pinned waits for an
+     * unpin, and fails if none comes in time.
+     */
+    @Test public void allPinned() throws Exception {
+        final HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504 * 4, null, null);
+        final BufferPool bp = Database.resetBufferPool(2);
+        final TransactionId tid = new TransactionId();
+        bp.pinPage(tid, pid(hf, 0), Permissions.READ_ONLY);
+        bp.pinPage(tid, pid(hf, 1), Permissions.READ_ONLY);
+
+        bp.setPinWaitMillis(50);
+        try {
+            bp.getPage(tid, pid(hf, 2), Permissions.READ_ONLY);
+            fail("expected DbException");
+        } catch (DbException e) {
+            // every frame is pinned
+        }
+
+        bp.setPinWaitMillis(BufferPool.DEFAULT_PIN_WAIT_MILLIS);
+        ExecutorService exec = Executors.newSingleThreadExecutor();
+        Future<Page> read = exec.submit(new Callable<Page>() {
+            public Page call() throws Exception {
+                return bp.getPage(tid, pid(hf, 2), Permissions.READ_ONLY);
+            }
+        });
+        Thread.sleep(100);
+        assertFalse(read.isDone());
+        bp.unpinPage(pid(hf, 1));
+        assertEquals(pid(hf, 2), read.get(5, TimeUnit.SECONDS).getId());
+        exec.shutdown();
+        assertTrue(bp.containsPage(pid(hf, 0)));
+        assertFalse(bp.containsPage(pid(hf, 1)));
+    }
+
+    /** A scan pins the page it is returning tuples from until it moves on. */
+    @Test public void scanPins() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504 * 3, null, null);
+        BufferPool bp = Database.resetBufferPool(8);
+        DbFileIterator it = hf.iterator(new TransactionId());
+        it.open();
+        assertEquals(1, bp.getPinCount(pid(hf, 0)));
+        for (int i = 0; i <= 504; i++)
+            it.next();
+        assertEquals(0, bp.getPinCount(pid(hf, 0)));
+        assertEquals(1, bp.getPinCount(pid(hf, 1)));
+        it.close();
+        assertEquals(0, bp.getPinCount(pid(hf, 1)));
+    }
+
+    /**
+     * Shrinking the pool evicts everything but the pinned pages, and reads
+     * do not grow it past its new size while a pinned page fills it.
+     */
+    @Test public void shrink() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504 * 10, null, null);
+        BufferPool bp = Database.resetBufferPool(16);
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 10; i++)
+            bp.pinPage(tid, pid(hf, i), Permissions.READ_ONLY);
+        for (int i = 2; i < 10; i++)
+            bp.unpinPage(pid(hf, i));
+        bp.setMaxPages(1);
+        assertTrue(bp.containsPage(pid(hf, 0)));
+        assertTrue(bp.containsPage(pid(hf, 1)));
+        for (int i = 2; i < 10; i++)
+            assertFalse(bp.containsPage(pid(hf, i)));
+
+        bp.unpinPage(pid(hf, 1));
+        bp.setPinWaitMillis(50);
+        try {
+            bp.getPage(tid, pid(hf, 5), Permissions.READ_ONLY);
+            fail("expected DbException");
+        } catch (DbException e) {
+            // the one frame left is pinned
+        }
+        assertTrue(bp.containsPage(pid(hf, 0)));
+        assertFalse(bp.containsPage(pid(hf, 1)));
+        assertFalse(bp.containsPage(pid(hf, 5)));
+
+        bp.unpinPage(pid(hf, 0));
+        bp.getPage(tid, pid(hf, 5), Permissions.READ_ONLY);
+        assertFalse(bp.containsPage(pid(hf, 0)));
+        assertTrue(bp.containsPage(pid(hf, 5)));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void unpinUnpinned() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 10, null, null);
+        Database.resetBufferPool(4).unpinPage(pid(hf, 0));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PinnedPageTest.class);
+    }
+}
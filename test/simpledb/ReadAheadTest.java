@@ -0,0 +1,64 @@
+package simpledb;
+
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class ReadAheadTest extends SimpleDbTestBase {
+
+    /**
+     * A sequential scan through a file larger than the buffer pool returns
+     * every tuple and finds read-ahead pages waiting in the pool.
+     */
+    @Test public void sequentialScan() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504 * 100, null, tuples);
+        Database.resetBufferPool(32);
+
+        TransactionId tid = new TransactionId();
+        HeapFile.HeapFileIterator it = (HeapFile.HeapFileIterator) hf.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            assertNotNull(it.next());
+            count++;
+        }
+        assertEquals(tuples.size(), count);
+        assertTrue(it.readAhead.getHits() > 0);
+        assertTrue(it.readAhead.getWindow() >= ReadAhead.MIN_WINDOW);
+        assertTrue(it.readAhead.getWindow() <= ReadAhead.MAX_WINDOW);
+        it.close();
+    }
+
+    /**
+     * Non-sequential access never issues background reads.
+     */
+    @Test public void randomAccess() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504 * 10, null, null);
+        Database.resetBufferPool(32);
+
+        ReadAhead ra = new ReadAhead(hf.getId());
+        int[] order = { 5, 1, 8, 3, 9, 0 };
+        for (int p : order)
+            ra.access(p, hf.numPages());
+        ra.cancel();
+        assertEquals(0, ra.getHits());
+        assertEquals(0, ra.getWasted());
+        for (int p = 0; p < hf.numPages(); p++) {
+            assertFalse(Database.getBufferPool().containsPage(new HeapPageId(hf.getId(), p)));
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReadAheadTest.class);
+    }
+}
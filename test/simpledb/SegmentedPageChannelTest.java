@@ -0,0 +1,194 @@
+package simpledb;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class SegmentedPageChannelTest extends SimpleDbTestBase {
+    private File f;
+    private File[] dirs;
+    private int pageSize;
+
+    /** @return an empty temporary directory, deleted on exit */
+    private static File tempDir() throws Exception {
+        File d = File.createTempFile("segments", "");
+        d.delete();
+        d.mkdir();
+        d.deleteOnExit();
+        return d;
+    }
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        f = File.createTempFile("segmented", ".dat");
+        f.deleteOnExit();
+        dirs = new File[] { tempDir(), tempDir() };
+        pageSize = BufferPool.getPageSize();
+    }
+
+    /** Marks the segment files of a channel for deletion on exit. */
+    private static void cleanUp(SegmentedPageChannel ch, int segments) {
+        for (int k = 0; k < segments; k++)
+            ch.segmentFile(k).deleteOnExit();
+    }
+
+    private byte[] page(int i) {
+        byte[] data = new byte[pageSize];
+        Arrays.fill(data, (byte) i);
+        return data;
+    }
+
+    /**
+     * Pages read back across segment boundaries, even pages split between
+     * two segments, and segments are spread over the directories.
+     */
+    @Test public void boundaries() throws Exception {
+        long segmentBytes = 3L * pageSize + pageSize / 2;
+        SegmentedPageChannel ch = new SegmentedPageChannel(f, segmentBytes, dirs);
+        cleanUp(ch, 4);
+        byte[][] first = new byte[6][];
+        for (int i = 0; i < first.length; i++)
+            first[i] = page(i);
+        ch.writePages(0, first);
+        for (int i = first.length; i < 10; i++)
+            ch.writePage(i, page(i));
+
+        assertEquals(10L * pageSize, ch.size());
+        assertEquals(3, ch.getSegmentCount());
+        for (int i = 0; i < 10; i++)
+            assertArrayEquals(page(i), ch.readPage(i, pageSize));
+        assertNull(ch.readPage(10, pageSize));
+        assertEquals(segmentBytes, ch.segmentFile(0).length());
+        assertEquals(segmentBytes, ch.segmentFile(1).length());
+        assertEquals(dirs[0], ch.segmentFile(1).getParentFile());
+        assertEquals(dirs[1], ch.segmentFile(2).getParentFile());
+
+        ch.truncate(3L * pageSize);
+        assertEquals(1, ch.getSegmentCount());
+        assertFalse(ch.segmentFile(1).exists());
+        assertNull(ch.readPage(3, pageSize));
+
+        // a write past the end pads the segments in between
+        ch.writePage(8, page(8));
+        assertEquals(9L * pageSize, ch.size());
+        assertEquals(segmentBytes, ch.segmentFile(1).length());
+        ch.close();
+    }
+
+    /**
+     * A heap file over a segmented channel behaves like any other, and is
+     * found again with all its segments when reopened.
+     */
+    @Test public void heapFile() throws Exception {
+        SegmentedPageChannel ch = new SegmentedPageChannel(f, 4L * pageSize, dirs);
+        ZoneMap.fileFor(f).deleteOnExit();
+        HeapFile hf = new HeapFile(f, Utility.getTupleDesc(2, "c"), ch);
+        hf.setExtentPages(4);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        TransactionId tid = new TransactionId();
+        int perPage = HeapPage.getNumTuples(hf.getTupleDesc());
+        int rows = 18 * perPage;
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        for (int i = 0; i < rows - 10; i++)
+            tuples.add(Utility.getHeapTuple(new int[] { i, -i }));
+        Database.getBufferPool().insertTuples(tid, hf.getId(), tuples);
+        for (int i = rows - 10; i < rows; i++)
+            Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[] { i, -i }));
+        Database.getBufferPool().flushAllPages();
+        cleanUp(ch, 5);
+        assertEquals(18, hf.numPages());
+        assertEquals(5, ch.getSegmentCount());
+
+        HeapFile reopened = new HeapFile(f, hf.getTupleDesc(), new SegmentedPageChannel(f, 4L * pageSize, dirs));
+        reopened.setExtentPages(4);
+        Database.getCatalog().addTable(reopened, SystemTestUtil.getUUID());
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        assertEquals(18, reopened.numPages());
+        boolean[] seen = new boolean[rows];
+        DbFileIterator it = reopened.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            int key = ((IntField) t.getField(0)).getValue();
+            assertEquals(-key, ((IntField) t.getField(1)).getValue());
+            assertFalse(seen[key]);
+            seen[key] = true;
+        }
+        it.close();
+        for (boolean s : seen)
+            assertTrue(s);
+    }
+
+    /**
+     * A file written as one piece is split into segments when it is first
+     * opened as a segmented file.
+     */
+    @Test public void splitExisting() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile plain = SystemTestUtil.createRandomHeapFile(2, 6000, 1000, null, tuples);
+        int n = plain.numPages();
+        assertTrue(n > 6);
+        byte[][] images = new byte[n][];
+        for (int i = 0; i < n; i++)
+            images[i] = plain.getChannel().readPage(i, pageSize);
+        plain.close();
+
+        SegmentedPageChannel ch = new SegmentedPageChannel(plain.getFile(), 3L * pageSize, dirs);
+        cleanUp(ch, (n + 2) / 3);
+        assertEquals((n + 2) / 3, ch.getSegmentCount());
+        assertEquals(3L * pageSize, plain.getFile().length());
+        assertEquals((long) n * pageSize, ch.size());
+        for (int i = 0; i < n; i++)
+            assertArrayEquals(images[i], ch.readPage(i, pageSize));
+
+        // segments past a short one are left over and are dropped
+        ch.truncate(2L * pageSize);
+        File stale = ch.segmentFile(2);
+        stale.createNewFile();
+        SegmentedPageChannel again = new SegmentedPageChannel(plain.getFile(), 3L * pageSize, dirs);
+        assertEquals(1, again.getSegmentCount());
+        assertFalse(stale.exists());
+        ch.close();
+        again.close();
+    }
+
+    /**
+     * Pages beyond 2 GB are addressed correctly, in a single file and in a
+     * segmented one. The files are sparse, so little space is used.
+     */
+    @Test public void beyondTwoGigabytes() throws Exception {
+        int pageNo = (int) ((3L << 30) / pageSize) + 5;
+        PageChannel plain = new PageChannel(f);
+        plain.writePage(pageNo, page(7));
+        assertEquals((long) (pageNo + 1) * pageSize, plain.size());
+        assertArrayEquals(page(7), plain.readPage(pageNo, pageSize));
+        plain.truncate(0);
+        plain.close();
+
+        SegmentedPageChannel ch = new SegmentedPageChannel(f, SegmentedPageChannel.DEFAULT_SEGMENT_BYTES, dirs);
+        cleanUp(ch, 4);
+        ch.writePage(pageNo, page(9));
+        assertEquals(4, ch.getSegmentCount());
+        assertEquals((long) (pageNo + 1) * pageSize, ch.size());
+        assertArrayEquals(page(9), ch.readPage(pageNo, pageSize));
+        ch.truncate(0);
+        assertEquals(1, ch.getSegmentCount());
+        ch.close();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SegmentedPageChannelTest.class);
+    }
+}
@@ -0,0 +1,165 @@
+package simpledb;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class SlottedHeapFileTest extends SimpleDbTestBase {
+    private TupleDesc td;
+    private SlottedHeapFile shf;
+    private TransactionId tid;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE });
+        File f = File.createTempFile("slotted", ".dat");
+        f.deleteOnExit();
+        shf = new SlottedHeapFile(f, td);
+        Database.getCatalog().addTable(shf, SystemTestUtil.getUUID());
+        tid = new TransactionId();
+    }
+
+    private Tuple tuple(int i, String s) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(i));
+        t.setField(1, new StringField(s, Type.STRING_LEN));
+        return t;
+    }
+
+    /**
+     * Deleting a record closes the gap it leaves, and the freed space and
+     * slot are reused by the next insert.
+     */
+    @Test public void pageCompaction() throws Exception {
+        SlottedPage page = new SlottedPage(new HeapPageId(shf.getId(), 0), SlottedPage.createEmptyPageData());
+        int empty = page.getFreeSpace();
+        Tuple a = tuple(1, "alpha");
+        Tuple b = tuple(2, "a much longer string value");
+        Tuple c = tuple(3, "c");
+        page.insertTuple(a);
+        page.insertTuple(b);
+        page.insertTuple(c);
+        int full = page.getFreeSpace();
+
+        page.deleteTuple(b);
+        assertEquals(2, page.getNumTuples());
+        assertEquals(full + SlottedPage.getRecordSize(td, b), page.getFreeSpace());
+        assertFalse(page.isSlotUsed(1));
+
+        Iterator<Tuple> it = page.iterator();
+        assertEquals("alpha", ((StringField) it.next().getField(1)).getValue());
+        Tuple last = it.next();
+        assertEquals("c", ((StringField) last.getField(1)).getValue());
+        assertEquals(2, last.getRecordId().tupleno());
+        assertFalse(it.hasNext());
+
+        Tuple d = tuple(4, "d");
+        page.insertTuple(d);
+        assertEquals(1, d.getRecordId().tupleno());
+
+        // the page survives a round trip through its image
+        SlottedPage copy = new SlottedPage(page.getId(), page.getPageData());
+        assertArrayEquals(page.getPageData(), copy.getPageData());
+
+        page.deleteTuple(a);
+        page.deleteTuple(c);
+        page.deleteTuple(d);
+        assertEquals(empty, page.getFreeSpace());
+    }
+
+    @Test(expected = DbException.class)
+    public void deleteMissing() throws Exception {
+        SlottedPage page = new SlottedPage(new HeapPageId(shf.getId(), 0), SlottedPage.createEmptyPageData());
+        Tuple t = tuple(1, "x");
+        page.insertTuple(t);
+        page.deleteTuple(t);
+        page.deleteTuple(t);
+    }
+
+    /** The before image is the page as read, until setBeforeImage moves it on. */
+    @Test public void beforeImage() throws Exception {
+        SlottedPage page = new SlottedPage(new HeapPageId(shf.getId(), 0), SlottedPage.createEmptyPageData());
+        page.insertTuple(tuple(1, "a"));
+        assertEquals(0, page.getBeforeImage().getNumTuples());
+
+        page.setBeforeImage();
+        byte[] before = page.getPageData();
+        page.insertTuple(tuple(2, "b"));
+        assertArrayEquals(before, page.getBeforeImage().getPageData());
+        assertEquals(2, page.getNumTuples());
+    }
+
+    /**
+     * Short strings take far fewer pages than in a HeapFile, and every
+     * tuple is returned by a scan after the pages are flushed.
+     */
+    @Test public void insertAndScan() throws Exception {
+        HashSet<Integer> expected = new HashSet<Integer>();
+        for (int i = 0; i < 2000; i++) {
+            Database.getBufferPool().insertTuple(tid, shf.getId(), tuple(i, "row" + i));
+            expected.add(i);
+        }
+        Database.getBufferPool().flushAllPages();
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+
+        int heapPages = (2000 + HeapPage.getNumTuples(td) - 1) / HeapPage.getNumTuples(td);
+        assertTrue(shf.numPages() * 4 < heapPages);
+
+        DbFileIterator it = shf.iterator(tid);
+        it.open();
+        while (it.hasNext())
+            assertTrue(expected.remove(((IntField) it.next().getField(0)).getValue()));
+        it.close();
+        assertTrue(expected.isEmpty());
+    }
+
+    /** A page appended by an insert is logged before it is written. */
+    @Test public void appendsLogged() throws Exception {
+        LogFile log = Database.getLogFile();
+        int records = log.getTotalRecords();
+        shf.insertTuple(tid, tuple(1, "a"));
+        assertEquals(1, shf.numPages());
+        assertEquals(records + 1, log.getTotalRecords());
+        shf.insertTuple(tid, tuple(2, "b"));
+        assertEquals(records + 1, log.getTotalRecords());
+    }
+
+    /**
+     * Space freed by deletes is found again by later inserts instead of new
+     * pages being appended.
+     */
+    @Test public void reuseFreedSpace() throws Exception {
+        ArrayList<Tuple> added = new ArrayList<Tuple>();
+        for (int i = 0; i < 1000; i++) {
+            Tuple t = tuple(i, "value " + i);
+            Database.getBufferPool().insertTuple(tid, shf.getId(), t);
+            added.add(t);
+        }
+        int pages = shf.numPages();
+        for (int i = 0; i < 200; i++)
+            Database.getBufferPool().deleteTuple(tid, added.get(i));
+        for (int i = 0; i < 200; i++)
+            Database.getBufferPool().insertTuple(tid, shf.getId(), tuple(-i, "value " + i));
+        assertEquals(pages, shf.numPages());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SlottedHeapFileTest.class);
+    }
+}
@@ -1,5 +1,7 @@
 package simpledb;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.util.NoSuchElementException;
 
 import org.junit.Test;
@@ -133,6 +135,44 @@ public class TupleDescTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Unit test for TupleDesc.getFieldOffset()
+     */
+    @Test public void getFieldOffset() {
+        TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE });
+        assertEquals(0, td.getFieldOffset(0));
+        assertEquals(Type.INT_TYPE.getLen(), td.getFieldOffset(1));
+        assertEquals(Type.INT_TYPE.getLen() + Type.STRING_TYPE.getLen(), td.getFieldOffset(2));
+    }
+
+    /**
+     * Unit test for declared string widths
+     */
+    @Test public void fieldWidths() throws Exception {
+        Type[] types = new Type[] { Type.INT_TYPE, Type.STRING_TYPE };
+        TupleDesc narrow = new TupleDesc(types, new String[] { "id", "code" }, new int[] { 0, 8 });
+        TupleDesc wide = new TupleDesc(types, new String[] { "id", "code" });
+        assertEquals(8, narrow.getFieldWidth(1));
+        assertEquals(Type.STRING_LEN, wide.getFieldWidth(1));
+        assertEquals(12, narrow.getFieldSize(1));
+        assertEquals(4 + 12, narrow.getSize());
+        assertFalse(narrow.equals(wide));
+        assertEquals(8, TupleDesc.merge(wide, narrow).getFieldWidth(3));
+
+        // a field written at the column width decodes at the same width
+        Tuple t = new Tuple(narrow);
+        t.setField(0, new IntField(7));
+        t.setField(1, new StringField("ABCDEFGHIJK", Type.STRING_LEN));
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(baos);
+        t.getField(0).serialize(dos);
+        ((StringField) t.getField(1)).serialize(dos, narrow.getFieldWidth(1));
+        dos.flush();
+        assertEquals(narrow.getSize(), baos.size());
+        Tuple view = new Tuple(narrow, baos.toByteArray(), 0);
+        assertEquals("ABCDEFGH", ((StringField) view.getField(1)).getValue());
+    }
+
     /**
      * Unit test for TupleDesc.numFields()
      */
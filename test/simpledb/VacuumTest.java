@@ -0,0 +1,173 @@
+package simpledb;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class VacuumTest extends SimpleDbTestBase {
+    private static final int ROWS = SystemTestUtil.LOADED_ROWS;
+
+    private HeapFile hf;
+    private String name;
+    private HashIndexFile index;
+    private TransactionId tid;
+
+    /**
+     * Set up initial resources for each unit test: a table of ROWS rows,
+     * with a hash index on its first field, from which every row but one in
+     * four has been deleted.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        hf = SystemTestUtil.createEmptyHeapFile(Utility.getTupleDesc(2, "c"));
+        name = Database.getCatalog().getTableName(hf.getId());
+        File idx = File.createTempFile("hash", ".dat");
+        idx.deleteOnExit();
+        new File(idx.getPath() + ".hdir").deleteOnExit();
+        index = new HashIndexFile(idx, hf, 0);
+        Database.getCatalog().addIndex(index, SystemTestUtil.getUUID());
+        tid = new TransactionId();
+
+        int[][] rows = new int[ROWS][];
+        for (int i = 0; i < ROWS; i++)
+            rows[i] = new int[] { i, -i };
+        SystemTestUtil.loadHeapFile(hf, rows);
+        ArrayList<Tuple> doomed = new ArrayList<Tuple>();
+        for (Tuple t : scan())
+            if (((IntField) t.getField(0)).getValue() % 4 != 0)
+                doomed.add(t);
+        for (Tuple t : doomed)
+            Database.getBufferPool().deleteTuple(tid, t);
+        Database.getBufferPool().flushAllPages();
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    }
+
+    /** @return every tuple of the table */
+    private List<Tuple> scan() throws Exception {
+        ArrayList<Tuple> out = new ArrayList<Tuple>();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        while (it.hasNext())
+            out.add(it.next());
+        it.close();
+        return out;
+    }
+
+    /** Checks that the table holds exactly the rows that were not deleted. */
+    private void checkContents() throws Exception {
+        ArrayList<Integer> keys = new ArrayList<Integer>();
+        for (Tuple t : scan()) {
+            int key = ((IntField) t.getField(0)).getValue();
+            assertEquals(-key, ((IntField) t.getField(1)).getValue());
+            keys.add(key);
+        }
+        Collections.sort(keys);
+        assertEquals(ROWS / 4, keys.size());
+        for (int i = 0; i < keys.size(); i++)
+            assertEquals(4 * i, (int) keys.get(i));
+    }
+
+    /**
+     * Vacuum moves the tuples into the lowest pages and truncates the file
+     * to the pages the live tuples need, keeping indexes up to date.
+     */
+    @Test public void compact() throws Exception {
+        int before = hf.numPages();
+        int perPage = HeapPage.getNumTuples(hf.getTupleDesc());
+        Vacuum v = new Vacuum(hf.getId(), 0);
+        int freed = v.vacuum();
+        int needed = (ROWS / 4 + perPage - 1) / perPage;
+        assertEquals(needed, hf.numPages());
+        assertEquals(before - needed, freed);
+        assertTrue(v.getTuplesMoved() > 0);
+        checkContents();
+
+        for (int key = 0; key < ROWS; key += 404) {
+            ArrayList<RecordId> rids = index.lookup(tid, new IntField(key));
+            assertEquals(key % 4 == 0 ? 1 : 0, rids.size());
+            for (RecordId rid : rids) {
+                assertTrue(rid.getPageId().pageNumber() < needed);
+                HeapPage p = (HeapPage) Database.getBufferPool().getPage(tid, rid.getPageId(), Permissions.READ_ONLY);
+                assertEquals(key, ((IntField) p.getTuple(rid.tupleno()).getField(0)).getValue());
+            }
+        }
+
+        // a second vacuum has nothing left to do
+        assertEquals(0, new Vacuum(hf.getId(), 0).vacuum());
+
+        // the file grows again normally, and filtered scans still find the
+        // new pages
+        ArrayList<Tuple> more = new ArrayList<Tuple>();
+        for (int i = 0; i < 2 * perPage; i++)
+            more.add(Utility.getHeapTuple(new int[] { ROWS + i, 0 }));
+        Database.getBufferPool().insertTuples(tid, hf.getId(), more);
+        Predicate[] preds = { new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(ROWS)) };
+        DbFileIterator it = hf.iterator(tid, preds);
+        int n = 0;
+        it.open();
+        while (it.hasNext())
+            if (preds[0].filter(it.next()))
+                n++;
+        it.close();
+        assertEquals(2 * perPage, n);
+    }
+
+    /** Vacuum writes back only the pages of the table it compacts. */
+    @Test public void flushesOnlyItsTable() throws Exception {
+        HeapFile other = SystemTestUtil.createRandomHeapFile(2, 504, null, null);
+        // large enough that no page is evicted, and written, meanwhile
+        BufferPool bp = Database.resetBufferPool(500);
+        bp.setDirtyTarget(1);
+        PageId pid = new HeapPageId(other.getId(), 0);
+        HeapPage page = (HeapPage) bp.getPage(tid, pid, Permissions.READ_ONLY);
+        bp.deleteTuple(tid, page.iterator().next());
+
+        assertTrue(new Vacuum(hf.getId(), 0).vacuum() > 0);
+        assertNotNull(bp.peekPage(pid).isDirty());
+        for (int p = 0; p < hf.numPages(); p++) {
+            Page cached = bp.peekPage(new HeapPageId(hf.getId(), p));
+            assertTrue(cached == null || cached.isDirty() == null);
+        }
+    }
+
+    /**
+     * The VACUUM statement compacts a table in the background.
+     */
+    @Test public void statement() throws Exception {
+        assertTrue(Parser.isVacuumStatement("VACUUM " + name + ";"));
+        assertTrue(Parser.isVacuumStatement("vacuum"));
+        assertFalse(Parser.isVacuumStatement("select * from vacuum;"));
+
+        int before = hf.numPages();
+        List<Thread> threads = new Parser().handleVacuumStatement("vacuum " + name + ";");
+        assertEquals(1, threads.size());
+        threads.get(0).join(60000);
+        assertFalse(threads.get(0).isAlive());
+        assertTrue(hf.numPages() * 3 < before);
+        checkContents();
+
+        try {
+            new Parser().handleVacuumStatement("vacuum no_such_table");
+            fail("expected a ParsingException");
+        } catch (ParsingException e) {
+            // expected
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(VacuumTest.class);
+    }
+}
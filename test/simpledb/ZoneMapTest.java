@@ -0,0 +1,170 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class ZoneMapTest extends SimpleDbTestBase {
+    private static final int ROWS = SystemTestUtil.LOADED_ROWS;
+
+    private HeapFile hf;
+    private String name;
+    private TransactionId tid;
+
+    /**
+     * Set up initial resources for each unit test: a table whose first field
+     * is the row number, loaded in order, and whose second is row mod 7.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        hf = SystemTestUtil.createEmptyHeapFile(Utility.getTupleDesc(2, "c"));
+        name = Database.getCatalog().getTableName(hf.getId());
+        tid = new TransactionId();
+        int[][] rows = new int[ROWS][];
+        for (int i = 0; i < ROWS; i++)
+            rows[i] = new int[] { i, i % 7 };
+        SystemTestUtil.loadHeapFile(hf, rows);
+    }
+
+    /** @return the first fields of the tuples it returns that satisfy preds */
+    private HashSet<Integer> scan(DbFileIterator it, Predicate[] preds) throws Exception {
+        HashSet<Integer> out = new HashSet<Integer>();
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            boolean match = true;
+            for (Predicate p : preds)
+                match &= p.filter(t);
+            if (match)
+                out.add(((IntField) t.getField(0)).getValue());
+        }
+        it.close();
+        return out;
+    }
+
+    private static Predicate pred(int field, Predicate.Op op, int value) {
+        return new Predicate(field, op, new IntField(value));
+    }
+
+    /**
+     * A range predicate on the load-ordered field reads only the pages that
+     * hold the range, and predicates the map cannot judge skip nothing.
+     */
+    @Test public void skipPages() throws Exception {
+        Predicate[] preds = { pred(0, Predicate.Op.GREATER_THAN_OR_EQ, 5000),
+                pred(0, Predicate.Op.LESS_THAN, 6000), pred(1, Predicate.Op.EQUALS, 3) };
+        long before = hf.getChannel().getReadCount();
+        HashSet<Integer> found = scan(hf.iterator(tid, preds), preds);
+        long reads = hf.getChannel().getReadCount() - before;
+
+        HashSet<Integer> expected = new HashSet<Integer>();
+        for (int i = 5000; i < 6000; i++)
+            if (i % 7 == 3)
+                expected.add(i);
+        assertEquals(expected, found);
+        assertTrue(reads * 5 < hf.numPages());
+
+        Predicate[] none = { pred(0, Predicate.Op.NOT_EQUALS, 5) };
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        assertEquals(ROWS - 1, scan(hf.iterator(tid, none), none).size());
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        assertEquals(0, scan(hf.iterator(tid, new Predicate[] { pred(0, Predicate.Op.LESS_THAN, 0) }),
+                new Predicate[0]).size());
+    }
+
+    /**
+     * Tuples inserted through the BufferPool are found whether their page
+     * is still cached or has been flushed, and the map survives reopening
+     * the file.
+     */
+    @Test public void maintenance() throws Exception {
+        Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[] { -100, 1 }));
+        Predicate[] preds = { pred(0, Predicate.Op.LESS_THAN, 0) };
+        assertEquals(1, scan(hf.iterator(tid, preds), preds).size());
+
+        Database.getBufferPool().flushAllPages();
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        assertEquals(1, scan(hf.iterator(tid, preds), preds).size());
+
+        HeapFile reopened = new HeapFile(hf.getFile(), hf.getTupleDesc());
+        Database.getCatalog().addTable(reopened, SystemTestUtil.getUUID());
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        Predicate[] high = { pred(0, Predicate.Op.GREATER_THAN, ROWS - 100) };
+        long before = reopened.getChannel().getReadCount();
+        assertEquals(99, scan(reopened.iterator(tid, high), high).size());
+        assertTrue(reopened.getChannel().getReadCount() - before <= 2);
+    }
+
+    /**
+     * String ranges are kept as prefixes, which can only make the map skip
+     * fewer pages.
+     */
+    @Test public void stringPrefixes() throws Exception {
+        TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE }, new String[] { "id", "key" });
+        HeapFile strings = SystemTestUtil.createEmptyHeapFile(td);
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        for (int i = 0; i < 2000; i++) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new IntField(i));
+            t.setField(1, new StringField(String.format("k%07d-%d", i, i % 3), Type.STRING_LEN));
+            tuples.add(t);
+        }
+        Database.getBufferPool().insertTuples(tid, strings.getId(), tuples);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+
+        Predicate.Op[] ops = { Predicate.Op.EQUALS, Predicate.Op.GREATER_THAN, Predicate.Op.LESS_THAN,
+                Predicate.Op.GREATER_THAN_OR_EQ, Predicate.Op.LESS_THAN_OR_EQ };
+        for (Predicate.Op op : ops) {
+            StringField c = new StringField("k0001500-0", Type.STRING_LEN);
+            Predicate[] preds = { new Predicate(1, op, c) };
+            int expected = 0;
+            for (Tuple t : tuples)
+                if (t.getField(1).compare(op, c))
+                    expected++;
+            assertEquals(op.toString(), expected, scan(strings.iterator(tid, preds), preds).size());
+        }
+    }
+
+    /**
+     * The planner pushes filters into the scans of heap files.
+     */
+    @Test public void planRange() throws Exception {
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put(name, new TableStats(hf.getId(), 1));
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(hf.getId(), "t");
+        lp.addFilter("t.c0", Predicate.Op.GREATER_THAN, "17000");
+        lp.addFilter("t.c0", Predicate.Op.LESS_THAN_OR_EQ, "17500");
+        lp.addProjectField("t.c0", null);
+        DbIterator plan = lp.physicalPlan(tid, stats, false);
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        long before = hf.getChannel().getReadCount();
+        int n = 0;
+        plan.open();
+        while (plan.hasNext()) {
+            int v = ((IntField) plan.next().getField(0)).getValue();
+            assertTrue(v > 17000 && v <= 17500);
+            n++;
+        }
+        plan.close();
+        assertEquals(500, n);
+        assertTrue(hf.getChannel().getReadCount() - before < 5);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ZoneMapTest.class);
+    }
+}
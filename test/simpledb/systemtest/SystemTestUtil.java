@@ -85,6 +85,39 @@ public class SystemTestUtil {
         return temp;
     }
 
+    /** Rows in the tables the zone map, Bloom filter, index and vacuum tests load. */
+    public static final int LOADED_ROWS = 20000;
+
+    /**
+     * Creates an empty heap file over a temporary file and registers it
+     * under a random name. The file, and the zone map and Bloom filter files
+     * kept next to it, are deleted on exit.
+     */
+    public static HeapFile createEmptyHeapFile(TupleDesc td) throws IOException {
+        File temp = File.createTempFile("table", ".dat");
+        temp.deleteOnExit();
+        ZoneMap.fileFor(temp).deleteOnExit();
+        BloomFilters.fileFor(temp).deleteOnExit();
+        HeapFile hf = new HeapFile(temp, td);
+        Database.getCatalog().addTable(hf, getUUID());
+        return hf;
+    }
+
+    /**
+     * Appends the given int rows to a heap file with
+     * BufferPool.insertTuples, then flushes the buffer pool and replaces it
+     * with an empty one, so the caller starts with nothing cached.
+     */
+    public static void loadHeapFile(HeapFile hf, int[][] rows)
+            throws IOException, DbException, TransactionAbortedException {
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>(rows.length);
+        for (int[] row : rows)
+            tuples.add(Utility.getHeapTuple(row));
+        Database.getBufferPool().insertTuples(new TransactionId(), hf.getId(), tuples);
+        Database.getBufferPool().flushAllPages();
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    }
+
     public static ArrayList<Integer> tupleToList(Tuple tuple) {
         ArrayList<Integer> list = new ArrayList<Integer>();
         for (int i = 0; i < tuple.getTupleDesc().numFields(); ++i) {